@@ -4,6 +4,7 @@ const session = require('express-session');
 const passport = require('passport');
 const cors = require('cors');
 const bodyParser = require('body-parser');
+const { gzipJsonResponses } = require('./src/middleware/compression');
 
 // Import routes
 const authRoutes = require('./src/routes/auth');
@@ -23,8 +24,10 @@ app.use(cors({
   credentials: true
 }));
 
+// Compressed request bodies (Content-Encoding: gzip) are inflated by body-parser
 app.use(bodyParser.json());
 app.use(bodyParser.urlencoded({ extended: true }));
+app.use(gzipJsonResponses);
 
 // Session configuration
 app.use(session({
@@ -51,16 +54,31 @@ app.get('/', (req, res) => {
         google: '/auth/google',
         microsoft: '/auth/microsoft',
         status: '/auth/status',
+        refresh: '/auth/refresh',
+        linkGoogle: '/auth/link/google',
+        linkMicrosoft: '/auth/link/microsoft',
+        unlink: 'DELETE /auth/link/:provider',
         logout: '/auth/logout'
       },
       sync: {
         upload: 'POST /api/sync/upload',
         download: 'GET /api/sync/download',
+        downloadStream: 'GET /api/sync/download/stream',
         list: 'GET /api/sync/list',
         delete: 'DELETE /api/sync/delete/:fileId',
+        deleteBatch: 'POST /api/sync/delete/batch',
+        move: 'POST /api/sync/move',
         folderUpload: 'POST /api/sync/folder/upload',
+        folderUploadBatch: 'POST /api/sync/folder/upload/batch',
+        folderUploadStream: 'POST /api/sync/folder/upload/stream',
+        folderUploadFanout: 'POST /api/sync/folder/upload/fanout',
         folderList: 'GET /api/sync/folder/list',
-        executeSync: 'POST /api/sync/execute/:configId'
+        folderIndex: 'GET /api/sync/folder/index',
+        executeSync: 'POST /api/sync/execute/:configId',
+        jobStatus: 'GET /api/sync/jobs/:jobId',
+        jobEvents: 'GET /api/sync/jobs/:jobId/events',
+        jobCancel: 'POST /api/sync/jobs/:jobId/cancel',
+        jobResults: 'GET /api/sync/jobs/:jobId/results'
       },
       syncConfig: {
         list: 'GET /api/sync-config',
@@ -80,10 +98,15 @@ app.use('/api/sync-config', syncConfigRoutes);
 // Error handling middleware
 app.use((err, req, res, next) => {
   console.error('Error:', err);
+  if (err.retryAfter) {
+    // Provider budget exhausted: tell the client when to come back instead of failing outright
+    res.set('Retry-After', String(err.retryAfter));
+  }
   res.status(err.status || 500).json({
     error: {
       message: err.message || 'Internal Server Error',
-      status: err.status || 500
+      status: err.status || 500,
+      ...(err.code && { code: err.code })
     }
   });
 });
@@ -2,6 +2,25 @@ const passport = require('passport');
 const GoogleStrategy = require('passport-google-oauth20').Strategy;
 const config = require('../config/config');
 
+async function verify(accessToken, refreshToken, profile, done) {
+  try {
+    // Create user object with profile and tokens
+    const user = {
+      id: profile.id,
+      provider: 'google',
+      displayName: profile.displayName,
+      email: profile.emails && profile.emails[0] ? profile.emails[0].value : null,
+      photo: profile.photos && profile.photos[0] ? profile.photos[0].value : null,
+      accessToken: accessToken,
+      refreshToken: refreshToken
+    };
+    
+    return done(null, user);
+  } catch (error) {
+    return done(error, null);
+  }
+}
+
 // Configure Google OAuth Strategy
 passport.use(new GoogleStrategy({
     clientID: config.google.clientID,
@@ -9,24 +28,17 @@ passport.use(new GoogleStrategy({
     callbackURL: config.google.redirectURI,
     scope: config.google.scope
   },
-  async (accessToken, refreshToken, profile, done) => {
-    try {
-      // Create user object with profile and tokens
-      const user = {
-        id: profile.id,
-        provider: 'google',
-        displayName: profile.displayName,
-        email: profile.emails && profile.emails[0] ? profile.emails[0].value : null,
-        photo: profile.photos && profile.photos[0] ? profile.photos[0].value : null,
-        accessToken: accessToken,
-        refreshToken: refreshToken
-      };
-      
-      return done(null, user);
-    } catch (error) {
-      return done(error, null);
-    }
-  }
+  verify
+));
+
+// Same account, linked to a session signed in with Microsoft instead of starting one
+passport.use('google-link', new GoogleStrategy({
+    clientID: config.google.clientID,
+    clientSecret: config.google.clientSecret,
+    callbackURL: config.google.linkRedirectURI,
+    scope: config.google.scope
+  },
+  verify
 ));
 
 // Serialize user for session
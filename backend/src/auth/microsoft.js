@@ -2,6 +2,24 @@ const passport = require('passport');
 const MicrosoftStrategy = require('passport-microsoft').Strategy;
 const config = require('../config/config');
 
+async function verify(accessToken, refreshToken, profile, done) {
+  try {
+    // Create user object with profile and tokens
+    const user = {
+      id: profile.id,
+      provider: 'microsoft',
+      displayName: profile.displayName,
+      email: profile.emails && profile.emails[0] ? profile.emails[0].value : null,
+      accessToken: accessToken,
+      refreshToken: refreshToken
+    };
+    
+    return done(null, user);
+  } catch (error) {
+    return done(error, null);
+  }
+}
+
 // Configure Microsoft OAuth Strategy
 passport.use(new MicrosoftStrategy({
     clientID: config.microsoft.clientID,
@@ -9,23 +27,17 @@ passport.use(new MicrosoftStrategy({
     callbackURL: config.microsoft.redirectURI,
     scope: config.microsoft.scope
   },
-  async (accessToken, refreshToken, profile, done) => {
-    try {
-      // Create user object with profile and tokens
-      const user = {
-        id: profile.id,
-        provider: 'microsoft',
-        displayName: profile.displayName,
-        email: profile.emails && profile.emails[0] ? profile.emails[0].value : null,
-        accessToken: accessToken,
-        refreshToken: refreshToken
-      };
-      
-      return done(null, user);
-    } catch (error) {
-      return done(error, null);
-    }
-  }
+  verify
+));
+
+// Same account, linked to a session signed in with Google instead of starting one
+passport.use('microsoft-link', new MicrosoftStrategy({
+    clientID: config.microsoft.clientID,
+    clientSecret: config.microsoft.clientSecret,
+    callbackURL: config.microsoft.linkRedirectURI,
+    scope: config.microsoft.scope
+  },
+  verify
 ));
 
 module.exports = passport;
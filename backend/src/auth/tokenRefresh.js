@@ -0,0 +1,69 @@
+const axios = require('axios');
+const { google } = require('googleapis');
+const config = require('../config/config');
+
+const MICROSOFT_TOKEN_URL = 'https://login.microsoftonline.com/common/oauth2/v2.0/token';
+
+// Refreshes in progress, keyed by provider and user, so concurrent 401s share one token request
+const inFlight = new Map();
+
+/**
+ * Exchange the user's refresh token for a new access token
+ * Concurrent callers for the same user get the same pending refresh
+ */
+function refreshAccessToken(user) {
+  if (!user.refreshToken) {
+    const error = new Error('No refresh token available, please sign in again');
+    error.status = 401;
+    return Promise.reject(error);
+  }
+
+  const key = `${user.provider}:${user.id}`;
+  let pending = inFlight.get(key);
+
+  if (!pending) {
+    pending = requestNewTokens(user).finally(() => inFlight.delete(key));
+    inFlight.set(key, pending);
+  }
+
+  return pending;
+}
+
+async function requestNewTokens(user) {
+  try {
+    if (user.provider === 'google') {
+      const client = new google.auth.OAuth2(config.google.clientID, config.google.clientSecret);
+      client.setCredentials({ refresh_token: user.refreshToken });
+      const { credentials } = await client.refreshAccessToken();
+      return {
+        accessToken: credentials.access_token,
+        refreshToken: credentials.refresh_token || user.refreshToken
+      };
+    } else if (user.provider === 'microsoft') {
+      const params = new URLSearchParams({
+        client_id: config.microsoft.clientID,
+        client_secret: config.microsoft.clientSecret,
+        grant_type: 'refresh_token',
+        refresh_token: user.refreshToken,
+        scope: config.microsoft.scope.join(' ')
+      });
+      const response = await axios.post(MICROSOFT_TOKEN_URL, params.toString(), {
+        headers: { 'Content-Type': 'application/x-www-form-urlencoded' }
+      });
+      return {
+        accessToken: response.data.access_token,
+        refreshToken: response.data.refresh_token || user.refreshToken
+      };
+    }
+    throw new Error(`Unsupported provider: ${user.provider}`);
+  } catch (error) {
+    console.error('Error refreshing access token:', error.message);
+    const refreshError = new Error('Failed to refresh access token, please sign in again');
+    refreshError.status = 401;
+    throw refreshError;
+  }
+}
+
+module.exports = {
+  refreshAccessToken
+};
@@ -1,3 +1,5 @@
+const os = require('os');
+
 module.exports = {
   // Server configuration
   port: process.env.PORT || 3000,
@@ -8,6 +10,8 @@ module.exports = {
     clientID: process.env.GOOGLE_CLIENT_ID || '',
     clientSecret: process.env.GOOGLE_CLIENT_SECRET || '',
     redirectURI: process.env.GOOGLE_REDIRECT_URI || 'http://localhost:3000/auth/google/callback',
+    // Callback for linking a Google account to a session signed in with Microsoft
+    linkRedirectURI: process.env.GOOGLE_LINK_REDIRECT_URI || 'http://localhost:3000/auth/link/google/callback',
     scope: [
       'https://www.googleapis.com/auth/userinfo.profile',
       'https://www.googleapis.com/auth/userinfo.email',
@@ -20,7 +24,74 @@ module.exports = {
     clientID: process.env.MICROSOFT_CLIENT_ID || '',
     clientSecret: process.env.MICROSOFT_CLIENT_SECRET || '',
     redirectURI: process.env.MICROSOFT_REDIRECT_URI || 'http://localhost:3000/auth/microsoft/callback',
-    scope: ['user.read', 'files.readwrite']
+    // Callback for linking a Microsoft account to a session signed in with Google
+    linkRedirectURI: process.env.MICROSOFT_LINK_REDIRECT_URI || 'http://localhost:3000/auth/link/microsoft/callback',
+    scope: ['user.read', 'files.readwrite', 'offline_access']
+  },
+  
+  // Provider API call budgets used by the request scheduler
+  // callsPerSecond/burst apply per user, globalCallsPerSecond/globalBurst across all users
+  scheduler: {
+    google: {
+      callsPerSecond: Number(process.env.GOOGLE_CALLS_PER_SECOND) || 10,
+      burst: 20,
+      globalCallsPerSecond: Number(process.env.GOOGLE_GLOBAL_CALLS_PER_SECOND) || 150,
+      globalBurst: 300,
+      maxConcurrent: 4,
+      maxQueued: 1000,
+      maxRetries: 6
+    },
+    microsoft: {
+      callsPerSecond: Number(process.env.MICROSOFT_CALLS_PER_SECOND) || 8,
+      burst: 16,
+      globalCallsPerSecond: Number(process.env.MICROSOFT_GLOBAL_CALLS_PER_SECOND) || 100,
+      globalBurst: 200,
+      maxConcurrent: 4,
+      maxQueued: 1000,
+      maxRetries: 6
+    }
+  },
+  
+  // Cache of resolved cloud folder ids, keyed by provider, user and folder path
+  folderCache: {
+    maxEntries: Number(process.env.FOLDER_CACHE_MAX_ENTRIES) || 10000,
+    ttlMs: 60 * 60 * 1000
+  },
+  
+  // Bloom filters of the names and content hashes in cloud folders, built from full listings
+  nameIndex: {
+    maxEntries: Number(process.env.NAME_INDEX_MAX_ENTRIES) || 1000,
+    ttlMs: 10 * 60 * 1000,
+    falsePositiveRate: 0.01
+  },
+  
+  // Pooled provider API clients and their keep-alive connections
+  clientPool: {
+    maxClients: Number(process.env.CLIENT_POOL_MAX_CLIENTS) || 1000,
+    idleTimeoutMs: 15 * 60 * 1000,
+    maxSocketsPerHost: 50,
+    maxFreeSocketsPerHost: 10,
+    socketTimeoutMs: 60 * 1000
+  },
+  
+  // Outcomes of uploads sent with an Idempotency-Key, kept so retries are not applied twice
+  idempotency: {
+    maxEntries: Number(process.env.IDEMPOTENCY_MAX_ENTRIES) || 50000,
+    ttlMs: 24 * 60 * 60 * 1000
+  },
+  
+  // Raw streamed single-file uploads, spooled to a temp file before going to the provider
+  streamUpload: {
+    maxFileSize: Number(process.env.STREAM_UPLOAD_MAX_FILE_SIZE) || 250 * 1024 * 1024,
+    tempDir: process.env.STREAM_UPLOAD_TEMP_DIR || os.tmpdir()
+  },
+  
+  // Cloud-to-cloud sync, which copies files between providers on the server
+  // chunkSize is what one file holds in memory; it must be a multiple of 320 KiB for OneDrive
+  // and of 256 KiB for Drive
+  cloudTransfer: {
+    chunkSize: Number(process.env.CLOUD_TRANSFER_CHUNK_SIZE) || 10 * 1024 * 1024,
+    concurrency: Number(process.env.CLOUD_TRANSFER_CONCURRENCY) || 2
   },
   
   // Session configuration
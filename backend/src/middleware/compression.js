@@ -0,0 +1,43 @@
+const zlib = require('zlib');
+
+// JSON bodies smaller than this are sent as-is; gzip framing would cost more than it saves
+const MIN_COMPRESSED_RESPONSE_SIZE = 1024;
+
+/**
+ * Middleware to gzip JSON responses for clients that accept it
+ * Request bodies sent with `Content-Encoding: gzip` are already inflated by body-parser
+ */
+function gzipJsonResponses(req, res, next) {
+  const acceptEncoding = req.headers['accept-encoding'] || '';
+  if (!/\bgzip\b/.test(acceptEncoding)) {
+    return next();
+  }
+
+  const sendJson = res.json.bind(res);
+
+  res.json = (body) => {
+    const payload = Buffer.from(JSON.stringify(body));
+    if (payload.length < MIN_COMPRESSED_RESPONSE_SIZE) {
+      return sendJson(body);
+    }
+
+    zlib.gzip(payload, (err, compressed) => {
+      if (err) {
+        return sendJson(body);
+      }
+
+      res.set('Content-Type', 'application/json; charset=utf-8');
+      res.set('Content-Encoding', 'gzip');
+      res.set('Vary', 'Accept-Encoding');
+      res.send(compressed);
+    });
+
+    return res;
+  };
+
+  next();
+}
+
+module.exports = {
+  gzipJsonResponses
+};
@@ -0,0 +1,181 @@
+/**
+ * Streaming multipart/form-data parser
+ * Parts are handed to `onPart` as soon as each one is complete, so work on early parts
+ * overlaps with receiving the rest of the request. Each part is buffered, which suits
+ * the small files batch uploads are meant for; `maxPartSize` bounds that buffer.
+ */
+
+const CRLF = Buffer.from('\r\n');
+const HEADER_END = Buffer.from('\r\n\r\n');
+
+/**
+ * Parse a multipart request body
+ * `onPart({ name, filename, contentType, idempotencyKey, content })` may return a promise; the request
+ * is paused while it is pending so a slow consumer applies backpressure to the client.
+ * Resolves with the number of parts once the closing boundary has been read.
+ */
+function streamMultipart(req, { maxPartSize, maxParts }, onPart) {
+  return new Promise((resolve, reject) => {
+    const boundary = getBoundary(req.headers['content-type']);
+    if (!boundary) {
+      return reject(badRequest('Expected a multipart/form-data request with a boundary'));
+    }
+
+    const delimiter = Buffer.from(`--${boundary}`);
+    const partDelimiter = Buffer.from(`\r\n--${boundary}`);
+    let buffer = Buffer.alloc(0);
+    let state = 'preamble';
+    let headers = null;
+    let partCount = 0;
+    let finished = false;
+    let waiting = false;
+    let ended = false;
+
+    const fail = (error) => {
+      if (!finished) {
+        finished = true;
+        req.unpipe();
+        req.resume(); // Drain the rest so the response can still be sent
+        reject(error);
+      }
+    };
+
+    const parse = () => {
+      while (!finished && !waiting) {
+        if (state === 'preamble') {
+          const index = buffer.indexOf(delimiter);
+          if (index === -1) {
+            return;
+          }
+          buffer = buffer.subarray(index + delimiter.length);
+          state = 'after-delimiter';
+        } else if (state === 'after-delimiter') {
+          if (buffer.length < 2) {
+            return;
+          }
+          if (buffer[0] === 0x2d && buffer[1] === 0x2d) { // "--" closes the body
+            finished = true;
+            resolve(partCount);
+            return;
+          }
+          if (!buffer.subarray(0, 2).equals(CRLF)) {
+            return fail(badRequest('Malformed multipart boundary'));
+          }
+          buffer = buffer.subarray(2);
+          state = 'headers';
+        } else if (state === 'headers') {
+          const index = buffer.indexOf(HEADER_END);
+          if (index === -1) {
+            if (buffer.length > 16 * 1024) {
+              return fail(badRequest('Multipart headers too large'));
+            }
+            return;
+          }
+          headers = parseHeaders(buffer.subarray(0, index).toString('utf8'));
+          buffer = buffer.subarray(index + HEADER_END.length);
+          state = 'body';
+        } else if (state === 'body') {
+          const index = buffer.indexOf(partDelimiter);
+          if (index === -1) {
+            if (buffer.length > maxPartSize + partDelimiter.length) {
+              return fail(tooLarge(`Part exceeds the ${maxPartSize} byte limit`));
+            }
+            return;
+          }
+          if (++partCount > maxParts) {
+            return fail(tooLarge(`Too many parts, the limit is ${maxParts}`));
+          }
+
+          // Copy the part out so the request buffer can be released
+          const content = Buffer.from(buffer.subarray(0, index));
+          buffer = buffer.subarray(index + partDelimiter.length);
+          state = 'after-delimiter';
+
+          let pending;
+          try {
+            pending = onPart({ ...headers, content });
+          } catch (error) {
+            return fail(error);
+          }
+          if (pending && typeof pending.then === 'function') {
+            waiting = true;
+            req.pause();
+            pending.then(() => {
+              waiting = false;
+              req.resume();
+              pump();
+            }, fail);
+            return;
+          }
+        }
+      }
+    };
+
+    const pump = () => {
+      parse();
+      if (ended && !waiting && !finished) {
+        fail(badRequest('Multipart body ended before the closing boundary'));
+      }
+    };
+
+    req.on('data', chunk => {
+      buffer = buffer.length === 0 ? chunk : Buffer.concat([buffer, chunk]);
+      pump();
+    });
+    req.on('end', () => {
+      ended = true;
+      pump();
+    });
+    req.on('error', fail);
+  });
+}
+
+function getBoundary(contentType) {
+  if (!contentType || !/^multipart\/form-data/i.test(contentType)) {
+    return null;
+  }
+  const match = /boundary=(?:"([^"]+)"|([^;]+))/i.exec(contentType);
+  return match ? (match[1] || match[2]).trim() : null;
+}
+
+function parseHeaders(raw) {
+  const part = { name: null, filename: null, contentType: 'application/octet-stream', idempotencyKey: null };
+
+  for (const line of raw.split('\r\n')) {
+    const colon = line.indexOf(':');
+    if (colon === -1) {
+      continue;
+    }
+    const key = line.substring(0, colon).trim().toLowerCase();
+    const value = line.substring(colon + 1).trim();
+
+    if (key === 'content-disposition') {
+      const name = /\bname="([^"]*)"/i.exec(value);
+      const filename = /\bfilename="([^"]*)"/i.exec(value);
+      part.name = name ? name[1] : null;
+      part.filename = filename ? filename[1] : null;
+    } else if (key === 'content-type') {
+      part.contentType = value;
+    } else if (key === 'idempotency-key') {
+      part.idempotencyKey = value;
+    }
+  }
+
+  return part;
+}
+
+function badRequest(message) {
+  const error = new Error(message);
+  error.status = 400;
+  return error;
+}
+
+function tooLarge(message) {
+  const error = new Error(message);
+  error.status = 413;
+  return error;
+}
+
+module.exports = {
+  streamMultipart
+};
@@ -0,0 +1,74 @@
+const fs = require('fs');
+const path = require('path');
+const crypto = require('crypto');
+const zlib = require('zlib');
+const { Transform, pipeline } = require('stream');
+
+/**
+ * Request body spooling
+ * Writes a raw request body to a temp file so large uploads never sit in memory and the
+ * provider upload can be replayed from disk when it is throttled.
+ */
+
+/**
+ * Stream the request body into a new temp file under `dir`
+ * Resolves with `{ filePath, size }`; rejects with status 413 once `maxSize` is exceeded,
+ * in which case the partial file has already been removed.
+ * With `inflate`, a gzipped body is inflated on the way and `maxSize` applies to the result.
+ */
+function spoolToFile(req, { maxSize, dir, inflate = false }) {
+  return new Promise((resolve, reject) => {
+    const declared = Number(req.headers['content-length']);
+    if (!inflate && declared > maxSize) {
+      req.resume();
+      return reject(tooLarge(maxSize));
+    }
+
+    const filePath = path.join(dir, `cloudsync-upload-${crypto.randomUUID()}`);
+    let size = 0;
+
+    const counter = new Transform({
+      transform(chunk, encoding, callback) {
+        size += chunk.length;
+        callback(size > maxSize ? tooLarge(maxSize) : null, chunk);
+      }
+    });
+
+    // The request is piped rather than part of the pipeline so a failure does not destroy
+    // the socket the error response goes out on
+    const source = inflate ? zlib.createGunzip() : counter;
+    const finish = (error) => {
+      if (error) {
+        req.unpipe(source);
+        req.resume(); // Drain the rest so the response can still be sent
+        fs.unlink(filePath, () => {});
+        return reject(error.status ? error : badRequest(`Upload interrupted: ${error.message}`));
+      }
+      resolve({ filePath, size });
+    };
+
+    req.on('aborted', () => source.destroy(new Error('client aborted')));
+    req.pipe(source);
+    if (inflate) {
+      pipeline(source, counter, fs.createWriteStream(filePath, { flags: 'wx' }), finish);
+    } else {
+      pipeline(counter, fs.createWriteStream(filePath, { flags: 'wx' }), finish);
+    }
+  });
+}
+
+function badRequest(message) {
+  const error = new Error(message);
+  error.status = 400;
+  return error;
+}
+
+function tooLarge(maxSize) {
+  const error = new Error(`File exceeds the ${maxSize} byte limit`);
+  error.status = 413;
+  return error;
+}
+
+module.exports = {
+  spoolToFile
+};
@@ -14,7 +14,18 @@ const SyncMode = {
   UPLOAD_THEN_DELETE: 'upload_then_delete',
   DOWNLOAD_ONLY: 'download_only',
   DOWNLOAD_THEN_DELETE: 'download_then_delete',
-  TWO_WAY: 'two_way'
+  TWO_WAY: 'two_way',
+  // Copies the cloud folder of `provider` into the target folder of the other provider, on the server
+  CLOUD_TO_CLOUD: 'cloud_to_cloud'
+};
+
+/**
+ * Compression Codec Enum
+ * Codec applied to file content before it is stored in the cloud
+ */
+const CompressionCodec = {
+  NONE: 'none',
+  GZIP: 'gzip'
 };
 
 /**
@@ -26,9 +37,24 @@ class SyncConfig {
     this.userId = data.userId; // User session ID
     this.localFolderPath = data.localFolderPath;
     this.cloudFolderPath = data.cloudFolderPath;
+    this.cloudFolderId = data.cloudFolderId || null; // Resolved provider folder id for cloudFolderPath
     this.provider = data.provider; // 'google' or 'microsoft'
     this.syncMode = data.syncMode;
     this.deleteDelayDays = data.deleteDelayDays || 0;
+    this.compression = data.compression || CompressionCodec.NONE;
+    // Gitignore-style patterns, relative to localFolderPath, applied by the app when it scans
+    this.includePatterns = data.includePatterns || [];
+    this.excludePatterns = data.excludePatterns || [];
+    // Cloud-to-cloud sync only: where the files of cloudFolderPath are copied to
+    this.targetProvider = data.targetProvider || null;
+    this.targetFolderPath = data.targetFolderPath || null;
+    this.targetFolderId = data.targetFolderId || null;
+    // Further folders, of either provider, that uploads are mirrored to:
+    // [{ provider, cloudFolderPath, cloudFolderId }]
+    this.mirrors = data.mirrors || [];
+    // download_only: the app shows the cloud folder's files and fetches each one when it is
+    // opened, instead of downloading them all into localFolderPath
+    this.onDemand = data.onDemand === true;
     this.enabled = data.enabled !== undefined ? data.enabled : true;
     this.lastSyncTime = data.lastSyncTime || null;
     this.createdAt = data.createdAt || new Date().toISOString();
@@ -45,9 +71,18 @@ class SyncConfig {
       userId: this.userId,
       localFolderPath: this.localFolderPath,
       cloudFolderPath: this.cloudFolderPath,
+      cloudFolderId: this.cloudFolderId,
       provider: this.provider,
       syncMode: this.syncMode,
       deleteDelayDays: this.deleteDelayDays,
+      compression: this.compression,
+      includePatterns: this.includePatterns,
+      excludePatterns: this.excludePatterns,
+      targetProvider: this.targetProvider,
+      targetFolderPath: this.targetFolderPath,
+      targetFolderId: this.targetFolderId,
+      mirrors: this.mirrors,
+      onDemand: this.onDemand,
       enabled: this.enabled,
       lastSyncTime: this.lastSyncTime,
       createdAt: this.createdAt,
@@ -138,6 +173,7 @@ class SyncConfigRepository {
 
 module.exports = {
   SyncMode,
+  CompressionCodec,
   SyncConfig,
   SyncConfigRepository
 };
@@ -0,0 +1,227 @@
+const { EventEmitter } = require('events');
+
+/**
+ * Sync Job Model
+ * A sync execution running in the background. Progress is published as events so clients
+ * can follow it live, and per-file results are kept for paging once the job is done.
+ */
+
+// In-memory storage for sync jobs, keyed by user (in production, use a database)
+const syncJobs = new Map();
+
+// Events kept per job so a client reconnecting with Last-Event-ID can catch up
+const MAX_BUFFERED_EVENTS = 1000;
+// Finished jobs are kept this long for result paging, and at most this many per user
+const FINISHED_JOB_TTL_MS = 60 * 60 * 1000;
+const MAX_JOBS_PER_USER = 20;
+
+/**
+ * Sync Job Status Enum
+ */
+const SyncJobStatus = {
+  QUEUED: 'queued',
+  RUNNING: 'running',
+  COMPLETED: 'completed',
+  FAILED: 'failed',
+  CANCELLED: 'cancelled'
+};
+
+const FINISHED_STATUSES = [SyncJobStatus.COMPLETED, SyncJobStatus.FAILED, SyncJobStatus.CANCELLED];
+
+/**
+ * Sync Job class
+ */
+class SyncJob extends EventEmitter {
+  constructor(data) {
+    super();
+    this.id = data.id || this.generateId();
+    this.userId = data.userId;
+    this.configId = data.configId;
+    this.syncMode = data.syncMode;
+    this.status = SyncJobStatus.QUEUED;
+    this.total = 0;
+    this.processed = 0;
+    this.failed = 0;
+    this.bytesTransferred = 0;
+    this.error = null;
+    this.cancelRequested = false;
+    this.results = [];
+    this.events = [];
+    this.nextEventId = 1;
+    this.createdAt = new Date().toISOString();
+    this.startedAt = null;
+    this.finishedAt = null;
+  }
+
+  generateId() {
+    return `job_${Date.now()}_${Math.random().toString(36).substr(2, 9)}`;
+  }
+
+  isFinished() {
+    return FINISHED_STATUSES.includes(this.status);
+  }
+
+  /**
+   * Average throughput since the job started, in bytes per second
+   */
+  throughput() {
+    if (!this.startedAt) {
+      return 0;
+    }
+    const end = this.finishedAt ? Date.parse(this.finishedAt) : Date.now();
+    const seconds = Math.max((end - Date.parse(this.startedAt)) / 1000, 0.001);
+    return Math.round(this.bytesTransferred / seconds);
+  }
+
+  start(total) {
+    this.status = SyncJobStatus.RUNNING;
+    this.total = total;
+    this.startedAt = new Date().toISOString();
+    this.publish('status', this.summary());
+  }
+
+  /**
+   * Extend the expected file count once a listing reveals more work
+   */
+  addToTotal(count) {
+    this.total += count;
+  }
+
+  /**
+   * Record the outcome of one file and publish a progress event
+   */
+  recordResult(result) {
+    this.results.push(result);
+    this.processed++;
+    if (result.type === 'error') {
+      this.failed++;
+    } else {
+      this.bytesTransferred += result.bytes || 0;
+    }
+
+    this.publish(result.type === 'error' ? 'file_error' : 'progress', {
+      type: result.type,
+      name: result.name,
+      bytes: result.bytes || 0,
+      error: result.error,
+      processed: this.processed,
+      total: this.total,
+      failed: this.failed,
+      bytesTransferred: this.bytesTransferred,
+      throughputBps: this.throughput()
+    });
+  }
+
+  /**
+   * Drop the downloaded content of results that have been sent to the client
+   */
+  releaseContent(offset, count) {
+    for (const result of this.results.slice(offset, offset + count)) {
+      if (result.content !== undefined) {
+        delete result.content;
+        result.contentReleased = true;
+      }
+    }
+  }
+
+  requestCancel() {
+    if (!this.isFinished()) {
+      this.cancelRequested = true;
+    }
+  }
+
+  finish(status, error = null) {
+    this.status = status;
+    this.error = error;
+    this.finishedAt = new Date().toISOString();
+    this.publish('done', this.summary());
+    this.removeAllListeners('event');
+  }
+
+  publish(type, data) {
+    const event = { id: this.nextEventId++, type, data };
+    this.events.push(event);
+    if (this.events.length > MAX_BUFFERED_EVENTS) {
+      this.events.shift();
+    }
+    this.emit('event', event);
+  }
+
+  /**
+   * Buffered events after the given event id, for replay on (re)connect
+   */
+  eventsSince(lastEventId) {
+    return this.events.filter(event => event.id > lastEventId);
+  }
+
+  summary() {
+    return {
+      id: this.id,
+      configId: this.configId,
+      syncMode: this.syncMode,
+      status: this.status,
+      total: this.total,
+      processed: this.processed,
+      failed: this.failed,
+      bytesTransferred: this.bytesTransferred,
+      throughputBps: this.throughput(),
+      error: this.error,
+      createdAt: this.createdAt,
+      startedAt: this.startedAt,
+      finishedAt: this.finishedAt
+    };
+  }
+}
+
+/**
+ * SyncJob Repository
+ */
+class SyncJobRepository {
+  /**
+   * Create a new sync job, dropping expired finished jobs of the user first
+   */
+  static create(data) {
+    const job = new SyncJob(data);
+    const userJobs = this.prune(syncJobs.get(job.userId) || []);
+    userJobs.push(job);
+    syncJobs.set(job.userId, userJobs);
+    return job;
+  }
+
+  /**
+   * Get a specific sync job by ID
+   */
+  static findById(userId, jobId) {
+    const userJobs = syncJobs.get(userId) || [];
+    return userJobs.find(job => job.id === jobId);
+  }
+
+  /**
+   * Get the active job of a configuration, if any
+   */
+  static findActiveByConfigId(userId, configId) {
+    const userJobs = syncJobs.get(userId) || [];
+    return userJobs.find(job => job.configId === configId && !job.isFinished());
+  }
+
+  static prune(userJobs) {
+    const cutoff = Date.now() - FINISHED_JOB_TTL_MS;
+    const kept = userJobs.filter(job => !job.isFinished() || Date.parse(job.finishedAt) > cutoff);
+
+    // Over the cap, drop the oldest finished jobs; running jobs are never dropped
+    while (kept.length >= MAX_JOBS_PER_USER) {
+      const oldestFinished = kept.findIndex(job => job.isFinished());
+      if (oldestFinished === -1) {
+        break;
+      }
+      kept.splice(oldestFinished, 1);
+    }
+    return kept;
+  }
+}
+
+module.exports = {
+  SyncJobStatus,
+  SyncJob,
+  SyncJobRepository
+};
@@ -1,5 +1,9 @@
 const express = require('express');
 const passport = require('passport');
+const { ensureAuthenticated } = require('../middleware/auth');
+const { refreshAccessToken } = require('../auth/tokenRefresh');
+const clientPool = require('../services/clientPool');
+const config = require('../config/config');
 const router = express.Router();
 
 // Google authentication routes
@@ -9,7 +13,10 @@ router.get('/google',
       'https://www.googleapis.com/auth/userinfo.profile',
       'https://www.googleapis.com/auth/userinfo.email',
       'https://www.googleapis.com/auth/drive.file'
-    ]
+    ],
+    // Offline access so a refresh token is issued for /auth/refresh
+    accessType: 'offline',
+    prompt: 'consent'
   })
 );
 
@@ -33,7 +40,7 @@ router.get('/google/callback',
 // Microsoft authentication routes
 router.get('/microsoft',
   passport.authenticate('microsoft', {
-    scope: ['user.read', 'files.readwrite']
+    scope: ['user.read', 'files.readwrite', 'offline_access']
   })
 );
 
@@ -54,6 +61,97 @@ router.get('/microsoft/callback',
   }
 );
 
+/**
+ * Keep the account of the other provider that the user just authorized in their session,
+ * next to the one they signed in with, so cloud-to-cloud sync can use both
+ */
+function linkAccount(req, res, next) {
+  const account = req.account;
+  if (account.provider === req.user.provider) {
+    return res.status(400).json({
+      error: {
+        message: `The session is already signed in with ${account.provider}`,
+        status: 400
+      }
+    });
+  }
+
+  req.user.linkedAccounts = { ...(req.user.linkedAccounts || {}), [account.provider]: account };
+  if (req.session.passport) {
+    req.session.passport.user = req.user;
+  }
+
+  req.session.save((err) => {
+    if (err) {
+      return next(err);
+    }
+    res.json({
+      success: true,
+      message: `Linked ${account.provider} account`,
+      linkedAccount: {
+        id: account.id,
+        provider: account.provider,
+        displayName: account.displayName,
+        email: account.email
+      }
+    });
+  });
+}
+
+// Link the other provider's account to the signed-in session
+router.get('/link/google', ensureAuthenticated,
+  passport.authorize('google-link', {
+    scope: config.google.scope,
+    accessType: 'offline',
+    prompt: 'consent'
+  })
+);
+
+router.get('/link/google/callback', ensureAuthenticated,
+  passport.authorize('google-link', { failureRedirect: '/auth/failure' }),
+  linkAccount
+);
+
+router.get('/link/microsoft', ensureAuthenticated,
+  passport.authorize('microsoft-link', {
+    scope: config.microsoft.scope
+  })
+);
+
+router.get('/link/microsoft/callback', ensureAuthenticated,
+  passport.authorize('microsoft-link', { failureRedirect: '/auth/failure' }),
+  linkAccount
+);
+
+// Remove a linked account from the session
+router.delete('/link/:provider', ensureAuthenticated, (req, res, next) => {
+  const account = req.user.linkedAccounts && req.user.linkedAccounts[req.params.provider];
+  if (!account) {
+    return res.status(404).json({
+      error: {
+        message: 'No linked account for this provider',
+        status: 404
+      }
+    });
+  }
+
+  clientPool.evict(account.provider, account.id);
+  delete req.user.linkedAccounts[req.params.provider];
+  if (req.session.passport) {
+    req.session.passport.user = req.user;
+  }
+
+  req.session.save((err) => {
+    if (err) {
+      return next(err);
+    }
+    res.json({
+      success: true,
+      message: `Unlinked ${account.provider} account`
+    });
+  });
+});
+
 // Authentication status
 router.get('/status', (req, res) => {
   if (req.isAuthenticated()) {
@@ -63,7 +161,8 @@ router.get('/status', (req, res) => {
         id: req.user.id,
         provider: req.user.provider,
         displayName: req.user.displayName,
-        email: req.user.email
+        email: req.user.email,
+        linkedProviders: Object.keys(req.user.linkedAccounts || {})
       }
     });
   } else {
@@ -73,8 +172,39 @@ router.get('/status', (req, res) => {
   }
 });
 
+// Refresh the provider access token held in the session
+router.post('/refresh', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const tokens = await refreshAccessToken(req.user);
+
+    req.user.accessToken = tokens.accessToken;
+    req.user.refreshToken = tokens.refreshToken;
+    if (req.session.passport) {
+      req.session.passport.user = req.user;
+    }
+
+    req.session.save((err) => {
+      if (err) {
+        return next(err);
+      }
+      res.json({
+        success: true,
+        message: 'Access token refreshed'
+      });
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
 // Logout
 router.get('/logout', (req, res) => {
+  if (req.user) {
+    clientPool.evict(req.user.provider, req.user.id);
+    for (const account of Object.values(req.user.linkedAccounts || {})) {
+      clientPool.evict(account.provider, account.id);
+    }
+  }
   req.logout((err) => {
     if (err) {
       return res.status(500).json({
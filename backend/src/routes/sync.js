@@ -1,9 +1,38 @@
 const express = require('express');
 const router = express.Router();
 const { ensureAuthenticated } = require('../middleware/auth');
-const GoogleDriveService = require('../services/googleDrive');
-const OneDriveService = require('../services/oneDrive');
-const { SyncMode, SyncConfigRepository } = require('../models/syncConfig');
+const clientPool = require('../services/clientPool');
+const { SyncMode, CompressionCodec, SyncConfigRepository } = require('../models/syncConfig');
+const { SyncJobRepository } = require('../models/syncJob');
+const compression = require('../services/compression');
+const { isValidFolderId } = require('../services/folderCache');
+const { runSyncJob } = require('../services/syncRunner');
+const { runCloudTransferJob } = require('../services/cloudTransfer');
+const { streamMultipart } = require('../middleware/multipart');
+const { UNSATISFIABLE, parseRange, contentVersion, ifRangeMatches } = require('../services/range');
+const { spoolToFile } = require('../middleware/spool');
+const { idempotencyStore, isValidKey } = require('../services/idempotency');
+const { nameIndex } = require('../services/nameIndex');
+const { refreshAccessToken } = require('../auth/tokenRefresh');
+const config = require('../config/config');
+const fs = require('fs');
+const { pipeline } = require('stream');
+
+const SSE_HEARTBEAT_MS = 15000;
+const DEFAULT_RESULTS_PAGE_SIZE = 50;
+const MAX_RESULTS_PAGE_SIZE = 200;
+
+// Batch uploads: files per provider batch, concurrent batches, and request limits
+const BATCH_GROUP_SIZE = 20;
+const MAX_BATCH_GROUPS_IN_FLIGHT = 2;
+const MAX_BATCH_FILES = 1000;
+const MAX_BATCH_FILE_SIZE = 4 * 1024 * 1024;
+
+// Files one batch delete request may name
+const MAX_BATCH_DELETES = 500;
+
+// Folders one fan-out upload may go to
+const MAX_FANOUT_DESTINATIONS = 4;
 
 /**
  * Upload data to cloud storage
@@ -27,10 +56,10 @@ router.post('/upload', ensureAuthenticated, async (req, res, next) => {
     let result;
 
     if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
+      const driveService = clientPool.getGoogleDrive(req.user);
       result = await driveService.uploadFile(filename, content);
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
+      const driveService = clientPool.getOneDrive(req.user);
       result = await driveService.uploadFile(filename, content);
     } else {
       return res.status(400).json({
@@ -54,11 +83,13 @@ router.post('/upload', ensureAuthenticated, async (req, res, next) => {
 
 /**
  * Download data from cloud storage
- * GET /api/sync/download?fileId=xxx or ?filename=xxx
+ * GET /api/sync/download?fileId=xxx or ?filename=xxx&folderPath=xxx (folderPath optional)
+ * With folderPath the file is looked for in that folder only, which is what lets the
+ * folder's name index answer for it
  */
 router.get('/download', ensureAuthenticated, async (req, res, next) => {
   try {
-    const { fileId, filename } = req.query;
+    const { fileId, filename, folderPath } = req.query;
 
     if (!fileId && !filename) {
       return res.status(400).json({
@@ -72,8 +103,43 @@ router.get('/download', ensureAuthenticated, async (req, res, next) => {
     const provider = req.user.provider;
     let result;
 
-    if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
+    if (!fileId && folderPath) {
+      if (folderPath.includes('..')) {
+        throw badRequest('Invalid folder path');
+      }
+      // A name the folder's complete index does not contain is not there; no need to look for it
+      if (nameIndex.mightExist(provider, req.user.id, folderPath, filename) === false) {
+        return res.status(404).json({
+          error: {
+            message: 'File not found',
+            status: 404
+          }
+        });
+      }
+    }
+
+    if (!fileId && folderPath && (provider === 'google' || provider === 'microsoft')) {
+      const driveService = provider === 'google' ? clientPool.getGoogleDrive(req.user) : clientPool.getOneDrive(req.user);
+      let file;
+      try {
+        file = (await driveService.inFolder(folderPath, id => driveService.findFileInFolder(id, filename))).result.file;
+      } catch (error) {
+        // Neither a missing folder nor a missing file is created or searched for elsewhere
+        if (error.status !== 404) {
+          throw error;
+        }
+      }
+      if (!file) {
+        return res.status(404).json({
+          error: {
+            message: 'File not found',
+            status: 404
+          }
+        });
+      }
+      result = await driveService.downloadFile(file.id, file.codec);
+    } else if (provider === 'google') {
+      const driveService = clientPool.getGoogleDrive(req.user);
       
       if (fileId) {
         result = await driveService.downloadFile(fileId);
@@ -81,7 +147,7 @@ router.get('/download', ensureAuthenticated, async (req, res, next) => {
         // Search for file by name first
         const searchResult = await driveService.searchFilesByName(filename);
         if (searchResult.files && searchResult.files.length > 0) {
-          result = await driveService.downloadFile(searchResult.files[0].id);
+          result = await driveService.downloadFile(searchResult.files[0].id, searchResult.files[0].codec);
         } else {
           return res.status(404).json({
             error: {
@@ -92,7 +158,7 @@ router.get('/download', ensureAuthenticated, async (req, res, next) => {
         }
       }
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
+      const driveService = clientPool.getOneDrive(req.user);
       
       if (fileId) {
         result = await driveService.downloadFile(fileId);
@@ -118,6 +184,99 @@ router.get('/download', ensureAuthenticated, async (req, res, next) => {
   }
 });
 
+/**
+ * Stream a file's content as the raw response body
+ * GET /api/sync/download/stream?fileId=xxx
+ * Honors a single-range Range header, and If-Range with the ETag of an earlier
+ * response, for files stored uncompressed; the range is passed on to the provider
+ */
+router.get('/download/stream', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const { fileId } = req.query;
+
+    if (!fileId) {
+      return res.status(400).json({
+        error: {
+          message: 'fileId is required',
+          status: 400
+        }
+      });
+    }
+
+    const provider = req.user.provider;
+    let driveService;
+
+    if (provider === 'google') {
+      driveService = clientPool.getGoogleDrive(req.user);
+    } else if (provider === 'microsoft') {
+      driveService = clientPool.getOneDrive(req.user);
+    } else {
+      return res.status(400).json({
+        error: {
+          message: 'Unsupported provider',
+          status: 400
+        }
+      });
+    }
+
+    const { file } = await driveService.getFileMetadata(fileId);
+    const size = file.size != null ? Number(file.size) : null;
+    const rangeable = file.codec === CompressionCodec.NONE && size != null;
+    const etag = contentVersion(file);
+
+    let range = null;
+    if (rangeable && req.get('range') && ifRangeMatches(req.get('if-range'), etag)) {
+      range = parseRange(req.get('range'), size);
+      if (range === UNSATISFIABLE) {
+        res.set('Content-Range', `bytes */${size}`);
+        return res.status(416).json({
+          error: {
+            message: 'Requested range not satisfiable',
+            status: 416
+          }
+        });
+      }
+    }
+
+    // Stored gzip goes out as it is stored to clients that take it, and is inflated for the rest
+    const passEncoded = file.codec === CompressionCodec.GZIP && req.acceptsEncodings('gzip') === 'gzip';
+    const result = await driveService.openDownloadStream(fileId, passEncoded ? CompressionCodec.NONE : file.codec, range);
+
+    res.set('Content-Type', 'application/octet-stream');
+    if (file.codec !== CompressionCodec.NONE) {
+      res.set('Vary', 'Accept-Encoding');
+    }
+    if (passEncoded) {
+      res.set('Content-Encoding', 'gzip');
+      if (size != null) {
+        res.set('Content-Length', String(size));
+      }
+    }
+    if (rangeable) {
+      res.set('Accept-Ranges', 'bytes');
+      res.set('ETag', etag);
+    }
+    if (range && result.status === 206) {
+      res.status(206);
+      res.set('Content-Range', `bytes ${range.start}-${range.end}/${size}`);
+      res.set('Content-Length', String(range.end - range.start + 1));
+    } else if (rangeable) {
+      // A provider that ignored the range sends the whole file, and so do we
+      res.set('Content-Length', String(size));
+    }
+
+    // Headers are already out when the provider stream fails, so the only signal
+    // left is a truncated body, which the client's length check catches
+    pipeline(result.stream, res, (error) => {
+      if (error && error.code !== 'ERR_STREAM_PREMATURE_CLOSE') {
+        console.error('Error streaming download:', error.message);
+      }
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
 /**
  * List files in cloud storage
  * GET /api/sync/list
@@ -128,10 +287,10 @@ router.get('/list', ensureAuthenticated, async (req, res, next) => {
     let result;
 
     if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
+      const driveService = clientPool.getGoogleDrive(req.user);
       result = await driveService.listFiles();
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
+      const driveService = clientPool.getOneDrive(req.user);
       result = await driveService.listFiles();
     } else {
       return res.status(400).json({
@@ -173,10 +332,10 @@ router.delete('/delete/:fileId', ensureAuthenticated, async (req, res, next) =>
     let result;
 
     if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
+      const driveService = clientPool.getGoogleDrive(req.user);
       result = await driveService.deleteFile(fileId);
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
+      const driveService = clientPool.getOneDrive(req.user);
       result = await driveService.deleteFile(fileId);
     } else {
       return res.status(400).json({
@@ -197,14 +356,101 @@ router.delete('/delete/:fileId', ensureAuthenticated, async (req, res, next) =>
   }
 });
 
+/**
+ * Delete several files from cloud storage through the provider's batch interface
+ * POST /api/sync/delete/batch
+ * Body: { fileIds: string[] }
+ */
+router.post('/delete/batch', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const fileIds = req.body && req.body.fileIds;
+
+    if (!Array.isArray(fileIds) || fileIds.length === 0 ||
+        fileIds.some(fileId => !fileId || typeof fileId !== 'string' || !isValidFolderId(fileId))) {
+      throw badRequest('fileIds must be a non-empty array of file ids');
+    }
+    if (fileIds.length > MAX_BATCH_DELETES) {
+      throw badRequest(`At most ${MAX_BATCH_DELETES} files can be deleted per request`);
+    }
+
+    const provider = req.user.provider;
+    let result;
+
+    if (provider === 'google') {
+      const driveService = clientPool.getGoogleDrive(req.user);
+      result = await driveService.deleteFiles(fileIds);
+    } else if (provider === 'microsoft') {
+      const driveService = clientPool.getOneDrive(req.user);
+      result = await driveService.deleteFiles(fileIds);
+    } else {
+      throw badRequest('Unsupported provider');
+    }
+
+    res.json({
+      success: true,
+      provider: provider,
+      results: result.results
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Rename a stored file and move it into a folder without transferring its content
+ * POST /api/sync/move
+ * Body: { fileId: string, filename: string, folderPath: string, folderId: string (optional) }
+ */
+router.post('/move', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const { fileId, filename, folderPath, folderId } = req.body;
+
+    if (!fileId || !filename || !folderPath) {
+      throw badRequest('fileId, filename and folderPath are required');
+    }
+
+    // Validate inputs to prevent path traversal
+    if (folderPath.includes('..') || filename.includes('..') || filename.includes('/') || filename.includes('\\') ||
+        !isValidFolderId(fileId) || !isValidFolderId(folderId)) {
+      throw badRequest('Invalid file id, folder path or filename');
+    }
+
+    const provider = req.user.provider;
+    let driveService;
+
+    if (provider === 'google') {
+      driveService = clientPool.getGoogleDrive(req.user);
+    } else if (provider === 'microsoft') {
+      driveService = clientPool.getOneDrive(req.user);
+    } else {
+      throw badRequest('Unsupported provider');
+    }
+
+    const outcome = await driveService.withFolder(folderPath, folderId, id =>
+      driveService.moveFile(fileId, filename, id));
+    nameIndex.noteFile(provider, req.user.id, folderPath, outcome.result.file);
+
+    res.json({
+      success: true,
+      message: 'File moved successfully',
+      provider: provider,
+      folderId: outcome.folderId,
+      file: outcome.result.file
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
 /**
  * Upload file to a specific folder
  * POST /api/sync/folder/upload
- * Body: { folderPath: string, filename: string, content: string }
+ * Body: { folderPath: string, folderId: string (optional), filename: string, content: string, compression: 'none' | 'gzip' (optional) }
  */
 router.post('/folder/upload', ensureAuthenticated, async (req, res, next) => {
   try {
-    const { folderPath, filename, content } = req.body;
+    const { folderPath, folderId, filename, content, compression: requestedCodec } = req.body;
+    const idempotencyKey = req.get('Idempotency-Key');
 
     if (!folderPath || !filename || !content) {
       return res.status(400).json({
@@ -216,7 +462,8 @@ router.post('/folder/upload', ensureAuthenticated, async (req, res, next) => {
     }
 
     // Validate inputs to prevent path traversal
-    if (folderPath.includes('..') || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
+    if (folderPath.includes('..') || filename.includes('..') || filename.includes('/') || filename.includes('\\') ||
+        !isValidFolderId(folderId)) {
       return res.status(400).json({
         error: {
           message: 'Invalid folder path or filename',
@@ -225,17 +472,32 @@ router.post('/folder/upload', ensureAuthenticated, async (req, res, next) => {
       });
     }
 
+    if (!isValidKey(idempotencyKey)) {
+      return res.status(400).json({
+        error: {
+          message: 'Invalid Idempotency-Key header',
+          status: 400
+        }
+      });
+    }
+
+    if (requestedCodec !== undefined && !Object.values(CompressionCodec).includes(requestedCodec)) {
+      return res.status(400).json({
+        error: {
+          message: `Invalid compression. Valid codecs are: ${Object.values(CompressionCodec).join(', ')}`,
+          status: 400
+        }
+      });
+    }
+
     const provider = req.user.provider;
-    let result;
+    const codec = compression.selectCodec(requestedCodec, filename, content);
+    let driveService;
 
     if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
-      const folderResult = await driveService.getOrCreateFolder(folderPath);
-      result = await driveService.uploadFileToFolder(folderResult.folder.id, filename, content);
+      driveService = clientPool.getGoogleDrive(req.user);
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
-      const folderResult = await driveService.getOrCreateFolder(folderPath);
-      result = await driveService.uploadFileToFolder(folderResult.folder.id, filename, content);
+      driveService = clientPool.getOneDrive(req.user);
     } else {
       return res.status(400).json({
         error: {
@@ -245,24 +507,413 @@ router.post('/folder/upload', ensureAuthenticated, async (req, res, next) => {
       });
     }
 
+    // A retry carrying the same key gets the first upload's result instead of a second copy
+    const { result, replayed } = await idempotencyStore.run(req.user.id, idempotencyKey, async () => {
+      const outcome = await driveService.withFolder(folderPath, folderId, id =>
+        driveService.uploadFileToFolder(id, filename, content, undefined, codec));
+      return { folderId: outcome.folderId, file: outcome.result.file };
+    });
+    nameIndex.noteFile(provider, req.user.id, folderPath, result.file);
+
+    res.set('Idempotent-Replayed', String(replayed));
     res.json({
       success: true,
       message: 'File uploaded to folder successfully',
       provider: provider,
+      folderId: result.folderId,
+      file: result.file
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Upload one file of any size as the raw request body
+ * POST /api/sync/folder/upload/stream?folderPath=xxx&filename=xxx&folderId=xxx&mimeType=xxx&compression=xxx
+ * Body: the file bytes, sent as application/octet-stream. The body is spooled to a temp file
+ * rather than held in memory. Send an Idempotency-Key header so a retried upload is not stored twice.
+ */
+router.post('/folder/upload/stream', ensureAuthenticated, async (req, res, next) => {
+  let spooled = null;
+
+  try {
+    const { folderPath, folderId, filename, mimeType, compression: requestedCodec } = req.query;
+    const idempotencyKey = req.get('Idempotency-Key');
+
+    if (!folderPath || !filename) {
+      throw badRequest('folderPath and filename are required');
+    }
+    if (folderPath.includes('..') || filename.includes('..') || filename.includes('/') || filename.includes('\\') ||
+        !isValidFolderId(folderId)) {
+      throw badRequest('Invalid folder path or filename');
+    }
+    if (requestedCodec !== undefined && !Object.values(CompressionCodec).includes(requestedCodec)) {
+      throw badRequest(`Invalid compression. Valid codecs are: ${Object.values(CompressionCodec).join(', ')}`);
+    }
+    if (!isValidKey(idempotencyKey)) {
+      throw badRequest('Invalid Idempotency-Key header');
+    }
+    // JSON and form bodies have already been consumed by the body parsers
+    if (req.is('application/json') || req.is('application/x-www-form-urlencoded')) {
+      const error = new Error('Send the file content as application/octet-stream');
+      error.status = 415;
+      throw error;
+    }
+
+    let driveService;
+    if (req.user.provider === 'google') {
+      driveService = clientPool.getGoogleDrive(req.user);
+    } else if (req.user.provider === 'microsoft') {
+      driveService = clientPool.getOneDrive(req.user);
+    } else {
+      throw badRequest('Unsupported provider');
+    }
+
+    const encoding = keptEncoding(req, filename, requestedCodec);
+
+    const { result, replayed } = await idempotencyStore.run(req.user.id, idempotencyKey, async () => {
+      spooled = await spoolToFile(req, {
+        maxSize: config.streamUpload.maxFileSize,
+        dir: config.streamUpload.tempDir,
+        inflate: encoding === null
+      });
+      const content = compression.fileContent(spooled.filePath, spooled.size, encoding || CompressionCodec.NONE);
+      const codec = compression.selectCodec(requestedCodec, filename, content);
+      const outcome = await driveService.withFolder(folderPath, folderId, id =>
+        driveService.uploadFileToFolder(id, filename, content, mimeType || 'application/octet-stream', codec));
+      return { folderId: outcome.folderId, file: outcome.result.file };
+    });
+    nameIndex.noteFile(req.user.provider, req.user.id, folderPath, result.file);
+
+    if (replayed) {
+      req.resume(); // The body of a replayed upload is not needed
+    }
+
+    res.set('Idempotent-Replayed', String(replayed));
+    res.json({
+      success: true,
+      message: 'File uploaded to folder successfully',
+      provider: req.user.provider,
+      folderId: result.folderId,
       file: result.file
     });
   } catch (error) {
+    req.resume();
+    next(error);
+  } finally {
+    if (spooled) {
+      fs.unlink(spooled.filePath, () => {});
+    }
+  }
+});
+
+/**
+ * Upload one file to several folders, of either provider, from a single request body
+ * POST /api/sync/folder/upload/fanout?filename=xxx&mimeType=xxx&compression=xxx&destinations=[...]
+ * destinations: JSON array of { provider, folderPath, folderId (optional) }; the provider not
+ * signed in with must be linked (GET /auth/link/:provider).
+ * Body: the file bytes, as for /folder/upload/stream. The body is spooled once and uploaded to
+ * every destination at the same time; each has its own retries and outcome. With an
+ * Idempotency-Key each destination is stored at most once, so a retry can repeat the request
+ * for the destinations that failed.
+ */
+router.post('/folder/upload/fanout', ensureAuthenticated, async (req, res, next) => {
+  let spooled = null;
+
+  try {
+    const { filename, mimeType, compression: requestedCodec } = req.query;
+    const idempotencyKey = req.get('Idempotency-Key');
+
+    let destinations;
+    try {
+      destinations = JSON.parse(req.query.destinations || '[]');
+    } catch (error) {
+      throw badRequest('destinations must be a JSON array');
+    }
+    if (!filename || !Array.isArray(destinations) || destinations.length === 0 ||
+        destinations.length > MAX_FANOUT_DESTINATIONS) {
+      throw badRequest(`filename and 1 to ${MAX_FANOUT_DESTINATIONS} destinations are required`);
+    }
+    if (filename.includes('..') || filename.includes('/') || filename.includes('\\') ||
+        destinations.some(d => !d || typeof d.folderPath !== 'string' || !d.folderPath ||
+          d.folderPath.includes('..') || !isValidFolderId(d.folderId))) {
+      throw badRequest('Invalid folder path or filename');
+    }
+    if (requestedCodec !== undefined && !Object.values(CompressionCodec).includes(requestedCodec)) {
+      throw badRequest(`Invalid compression. Valid codecs are: ${Object.values(CompressionCodec).join(', ')}`);
+    }
+    if (!isValidKey(idempotencyKey)) {
+      throw badRequest('Invalid Idempotency-Key header');
+    }
+    if (req.is('application/json') || req.is('application/x-www-form-urlencoded')) {
+      const error = new Error('Send the file content as application/octet-stream');
+      error.status = 415;
+      throw error;
+    }
+
+    const accounts = destinations.map(destination => {
+      if (destination.provider !== 'google' && destination.provider !== 'microsoft') {
+        throw badRequest('Unsupported provider');
+      }
+      const account = clientPool.accountFor(req.user, destination.provider);
+      if (!account) {
+        const error = new Error(`Link your ${destination.provider} account first (GET /auth/link/${destination.provider})`);
+        error.status = 409;
+        error.code = 'account_not_linked';
+        throw error;
+      }
+      return account;
+    });
+
+    const encoding = keptEncoding(req, filename, requestedCodec);
+    spooled = await spoolToFile(req, {
+      maxSize: config.streamUpload.maxFileSize,
+      dir: config.streamUpload.tempDir,
+      inflate: encoding === null
+    });
+    const content = compression.fileContent(spooled.filePath, spooled.size, encoding || CompressionCodec.NONE);
+    const codec = compression.selectCodec(requestedCodec, filename, content);
+
+    // Each destination reads the spooled file on its own, so a slow provider holds up no other
+    let refreshed = false;
+    const results = await Promise.all(destinations.map(async (destination, i) => {
+      const key = idempotencyKey && `${idempotencyKey}:${destination.provider}:${destination.folderPath}`;
+      try {
+        const { result, replayed } = await idempotencyStore.run(req.user.id, key, async () => {
+          const upload = async driveService => {
+            const outcome = await driveService.withFolder(destination.folderPath, destination.folderId, id =>
+              driveService.uploadFileToFolder(id, filename, content, mimeType || 'application/octet-stream', codec));
+            return { folderId: outcome.folderId, file: outcome.result.file };
+          };
+          try {
+            return await upload(clientPool.getForAccount(accounts[i]));
+          } catch (error) {
+            if (error.code !== 'provider_token_expired') {
+              throw error;
+            }
+            // A linked account's token is only refreshed here, so an upload can outlive it
+            await refreshAccount(accounts[i]);
+            refreshed = true;
+            return upload(clientPool.getForAccount(accounts[i]));
+          }
+        });
+        nameIndex.noteFile(destination.provider, req.user.id, destination.folderPath, result.file);
+        return {
+          provider: destination.provider,
+          folderPath: destination.folderPath,
+          success: true,
+          replayed,
+          folderId: result.folderId,
+          file: result.file
+        };
+      } catch (error) {
+        return {
+          provider: destination.provider,
+          folderPath: destination.folderPath,
+          success: false,
+          status: error.status || 500,
+          error: error.message
+        };
+      }
+    }));
+
+    if (refreshed) {
+      await saveSessionUser(req);
+    }
+
+    const failed = results.filter(result => !result.success).length;
+    res.json({
+      success: failed === 0,
+      message: failed === 0 ? 'File uploaded to every destination' : `File failed to upload to ${failed} of ${results.length} destinations`,
+      uploaded: results.length - failed,
+      failed,
+      results
+    });
+  } catch (error) {
+    req.resume();
+    next(error);
+  } finally {
+    if (spooled) {
+      fs.unlink(spooled.filePath, () => {});
+    }
+  }
+});
+
+/**
+ * Upload many small files to a folder in one streamed multipart request
+ * POST /api/sync/folder/upload/batch
+ * Body (multipart/form-data): fields folderPath, folderId (optional) and compression (optional),
+ * followed by one `files` part per file. Files are uploaded in groups while the request is
+ * still arriving; the response reports an outcome per file.
+ */
+router.post('/folder/upload/batch', ensureAuthenticated, async (req, res, next) => {
+  const fields = {};
+  const results = [];
+  const inFlight = new Set();
+  let group = [];
+  let folderId;
+  let driveService;
+
+  const uploadGroup = async (files) => {
+    try {
+      const outcome = await driveService.withFolder(fields.folderPath, folderId, id => driveService.uploadFilesToFolder(id, files));
+      folderId = outcome.folderId;
+      outcome.result.results.forEach((result, i) => {
+        results[files[i].index] = result;
+        if (result.success) {
+          nameIndex.noteFile(req.user.provider, req.user.id, fields.folderPath, result.file);
+        }
+        if (files[i].claim) {
+          if (result.success) {
+            files[i].claim.complete({ folderId, file: result.file });
+          } else {
+            files[i].claim.fail(new Error(result.error));
+          }
+        }
+      });
+    } catch (error) {
+      // The whole group failed (e.g. throttled past its retries); report it on each file
+      files.forEach(file => {
+        results[file.index] = { filename: file.filename, success: false, status: error.status || 500, error: error.message };
+        if (file.claim) {
+          file.claim.fail(error);
+        }
+      });
+    }
+  };
+
+  // A part whose Idempotency-Key was already uploaded reports the earlier result
+  const replay = (file, existing) => {
+    const task = existing.then(
+      stored => {
+        results[file.index] = { filename: file.filename, success: true, status: 200, replayed: true, file: stored.file };
+      },
+      error => {
+        results[file.index] = { filename: file.filename, success: false, status: error.status || 500, error: error.message };
+      }
+    ).finally(() => inFlight.delete(task));
+    inFlight.add(task);
+  };
+
+  const flushGroup = () => {
+    const files = group;
+    group = [];
+    const task = uploadGroup(files).finally(() => inFlight.delete(task));
+    inFlight.add(task);
+    // Stop reading the request while too many groups are uploading
+    return inFlight.size >= MAX_BATCH_GROUPS_IN_FLIGHT ? Promise.race(inFlight) : null;
+  };
+
+  const startUploads = async () => {
+    const { folderPath, compression: requestedCodec } = fields;
+
+    if (!folderPath || folderPath.includes('..') || !isValidFolderId(fields.folderId)) {
+      throw badRequest('A valid folderPath field is required before the first file');
+    }
+    if (requestedCodec !== undefined && !Object.values(CompressionCodec).includes(requestedCodec)) {
+      throw badRequest(`Invalid compression. Valid codecs are: ${Object.values(CompressionCodec).join(', ')}`);
+    }
+
+    if (req.user.provider === 'google') {
+      driveService = clientPool.getGoogleDrive(req.user);
+    } else if (req.user.provider === 'microsoft') {
+      driveService = clientPool.getOneDrive(req.user);
+    } else {
+      throw badRequest('Unsupported provider');
+    }
+
+    // Resolve the folder once up front so concurrent groups never race to create it
+    folderId = fields.folderId || (await driveService.getOrCreateFolder(folderPath)).folder.id;
+  };
+
+  try {
+    let fileCount = 0;
+
+    await streamMultipart(req, { maxPartSize: MAX_BATCH_FILE_SIZE, maxParts: MAX_BATCH_FILES + 10 }, (part) => {
+      if (part.filename === null) {
+        if (driveService) {
+          throw badRequest('Fields must come before the first file');
+        }
+        fields[part.name] = part.content.toString('utf8');
+        return null;
+      }
+
+      if (fileCount >= MAX_BATCH_FILES) {
+        const error = new Error(`Too many files, the limit is ${MAX_BATCH_FILES} per request`);
+        error.status = 413;
+        throw error;
+      }
+
+      // The name comes straight from the part header; one that could leave the folder is not uploaded
+      if (!part.filename || part.filename.includes('..') || part.filename.includes('/') || part.filename.includes('\\')) {
+        results[fileCount++] = { filename: part.filename, success: false, status: 400, error: 'Invalid filename' };
+        return null;
+      }
+
+      if (!isValidKey(part.idempotencyKey)) {
+        throw badRequest(`Invalid Idempotency-Key on ${part.filename}`);
+      }
+
+      const file = {
+        index: fileCount++,
+        filename: part.filename,
+        content: part.content,
+        mimeType: part.contentType,
+        codec: null,
+        claim: null
+      };
+
+      const ready = driveService ? null : startUploads();
+      const enqueue = () => {
+        if (part.idempotencyKey) {
+          const claim = idempotencyStore.claim(req.user.id, part.idempotencyKey);
+          if (claim.existing) {
+            return replay(file, claim.existing);
+          }
+          file.claim = claim;
+        }
+        file.codec = compression.selectCodec(fields.compression, file.filename, file.content);
+        group.push(file);
+        return group.length >= BATCH_GROUP_SIZE ? flushGroup() : null;
+      };
+      return ready ? ready.then(enqueue) : enqueue();
+    });
+
+    if (group.length > 0) {
+      flushGroup();
+    }
+    await Promise.all(inFlight);
+
+    if (fileCount === 0) {
+      throw badRequest('At least one file is required');
+    }
+
+    const failed = results.filter(result => !result.success).length;
+    res.json({
+      success: true,
+      provider: req.user.provider,
+      folderId,
+      uploaded: results.length - failed,
+      failed,
+      results
+    });
+  } catch (error) {
+    // Release keys of files that were never sent so their retries are not left waiting
+    group.forEach(file => file.claim && file.claim.fail(error));
+    // Let groups already sent finish before reporting, so nothing is left uploading unseen
+    await Promise.all(inFlight);
     next(error);
   }
 });
 
 /**
  * List files in a specific folder
- * GET /api/sync/folder/list?folderPath=xxx
+ * GET /api/sync/folder/list?folderPath=xxx&folderId=xxx (folderId optional)
  */
 router.get('/folder/list', ensureAuthenticated, async (req, res, next) => {
   try {
-    const { folderPath } = req.query;
+    const { folderPath, folderId } = req.query;
 
     if (!folderPath) {
       return res.status(400).json({
@@ -274,7 +925,7 @@ router.get('/folder/list', ensureAuthenticated, async (req, res, next) => {
     }
 
     // Validate input to prevent path traversal
-    if (folderPath.includes('..')) {
+    if (folderPath.includes('..') || !isValidFolderId(folderId)) {
       return res.status(400).json({
         error: {
           message: 'Invalid folder path',
@@ -287,13 +938,11 @@ router.get('/folder/list', ensureAuthenticated, async (req, res, next) => {
     let result;
 
     if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
-      const folderResult = await driveService.getOrCreateFolder(folderPath);
-      result = await driveService.listFilesInFolder(folderResult.folder.id);
+      const driveService = clientPool.getGoogleDrive(req.user);
+      result = await driveService.withFolder(folderPath, folderId, id => driveService.listFilesInFolder(id));
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
-      const folderResult = await driveService.getOrCreateFolder(folderPath);
-      result = await driveService.listFilesInFolder(folderResult.folder.id);
+      const driveService = clientPool.getOneDrive(req.user);
+      result = await driveService.withFolder(folderPath, folderId, id => driveService.listFilesInFolder(id));
     } else {
       return res.status(400).json({
         error: {
@@ -306,7 +955,55 @@ router.get('/folder/list', ensureAuthenticated, async (req, res, next) => {
     res.json({
       success: true,
       provider: provider,
-      files: result.files
+      folderId: result.folderId,
+      files: result.result.files
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Get the Bloom filter of the names and content hashes in a folder, building it from a
+ * complete listing when there is none yet
+ * GET /api/sync/folder/index?folderPath=xxx&folderId=xxx (folderId optional)
+ */
+router.get('/folder/index', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const { folderPath, folderId } = req.query;
+
+    if (!folderPath) {
+      throw badRequest('folderPath is required');
+    }
+    if (folderPath.includes('..') || !isValidFolderId(folderId)) {
+      throw badRequest('Invalid folder path');
+    }
+
+    const provider = req.user.provider;
+    let driveService;
+
+    if (provider === 'google') {
+      driveService = clientPool.getGoogleDrive(req.user);
+    } else if (provider === 'microsoft') {
+      driveService = clientPool.getOneDrive(req.user);
+    } else {
+      throw badRequest('Unsupported provider');
+    }
+
+    let index = nameIndex.get(provider, req.user.id, folderPath);
+    let resolvedId = folderId || null;
+    if (!index) {
+      const outcome = await driveService.withFolder(folderPath, folderId, id => driveService.listAllFilesInFolder(id));
+      resolvedId = outcome.folderId;
+      index = nameIndex.build(provider, req.user.id, folderPath, outcome.result.files);
+    }
+
+    res.json({
+      success: true,
+      provider: provider,
+      folderId: resolvedId,
+      builtAt: new Date(index.builtAt).toISOString(),
+      index: index.filter.toJSON()
     });
   } catch (error) {
     next(error);
@@ -314,9 +1011,11 @@ router.get('/folder/list', ensureAuthenticated, async (req, res, next) => {
 });
 
 /**
- * Execute sync based on configuration
+ * Start a sync job based on configuration
  * POST /api/sync/execute/:configId
  * Body: { files: [{ filename: string, content: string }] } (for upload modes)
+ * cloud_to_cloud configs copy between the two cloud folders and take no body
+ * Responds 202 with the job; follow it through /api/sync/jobs/:jobId
  */
 router.post('/execute/:configId', ensureAuthenticated, async (req, res, next) => {
   try {
@@ -344,13 +1043,48 @@ router.post('/execute/:configId', ensureAuthenticated, async (req, res, next) =>
       });
     }
 
+    if (SyncJobRepository.findActiveByConfigId(userId, configId)) {
+      return res.status(409).json({
+        error: {
+          message: 'A sync is already running for this configuration',
+          status: 409
+        }
+      });
+    }
+
+    if (config.syncMode === SyncMode.CLOUD_TO_CLOUD) {
+      // Both accounts must be in the session; the one not signed in with is linked first
+      const accounts = [config.provider, config.targetProvider].map(provider => clientPool.accountFor(req.user, provider));
+      const missing = [config.provider, config.targetProvider].find((provider, i) => !accounts[i]);
+      if (missing) {
+        return res.status(409).json({
+          error: {
+            message: `Link your ${missing} account first (GET /auth/link/${missing})`,
+            status: 409,
+            code: 'account_not_linked'
+          }
+        });
+      }
+
+      const job = SyncJobRepository.create({ userId, configId, syncMode: config.syncMode });
+
+      // The job works on copies of the accounts so the tokens it refreshes stay with it
+      runCloudTransferJob(job, config, { ...accounts[0] }, { ...accounts[1] });
+
+      return res.status(202).json({
+        success: true,
+        message: 'Sync started',
+        job: job.summary()
+      });
+    }
+
     const provider = config.provider;
     let driveService;
 
     if (provider === 'google') {
-      driveService = new GoogleDriveService(req.user.accessToken);
+      driveService = clientPool.getGoogleDrive(req.user);
     } else if (provider === 'microsoft') {
-      driveService = new OneDriveService(req.user.accessToken);
+      driveService = clientPool.getOneDrive(req.user);
     } else {
       return res.status(400).json({
         error: {
@@ -360,122 +1094,189 @@ router.post('/execute/:configId', ensureAuthenticated, async (req, res, next) =>
       });
     }
 
-    const folderResult = await driveService.getOrCreateFolder(config.cloudFolderPath);
-    const folderId = folderResult.folder.id;
-
-    let syncResults = {
-      uploaded: [],
-      downloaded: [],
-      deleted: [],
-      errors: []
-    };
-
-    // Handle different sync modes
-    switch (config.syncMode) {
-      case SyncMode.UPLOAD_ONLY:
-      case SyncMode.UPLOAD_THEN_DELETE:
-        if (!files || !Array.isArray(files) || files.length === 0) {
-          return res.status(400).json({
-            error: {
-              message: 'Files array is required for upload sync modes',
-              status: 400
-            }
-          });
+    const uploadMode = config.syncMode === SyncMode.UPLOAD_ONLY || config.syncMode === SyncMode.UPLOAD_THEN_DELETE;
+    if (!Object.values(SyncMode).includes(config.syncMode)) {
+      return res.status(400).json({
+        error: {
+          message: 'Invalid sync mode',
+          status: 400
         }
+      });
+    }
 
-        for (const fileData of files) {
-          try {
-            const result = await driveService.uploadFileToFolder(
-              folderId,
-              fileData.filename,
-              fileData.content
-            );
-            syncResults.uploaded.push(result.file);
-          } catch (error) {
-            syncResults.errors.push({
-              filename: fileData.filename,
-              error: error.message
-            });
-          }
+    if (uploadMode && (!files || !Array.isArray(files) || files.length === 0)) {
+      return res.status(400).json({
+        error: {
+          message: 'Files array is required for upload sync modes',
+          status: 400
         }
-        break;
+      });
+    }
 
-      case SyncMode.DOWNLOAD_ONLY:
-      case SyncMode.DOWNLOAD_THEN_DELETE:
-        const listResult = await driveService.listFilesInFolder(folderId);
-        
-        for (const file of listResult.files) {
-          try {
-            const downloadResult = await driveService.downloadFile(file.id);
-            syncResults.downloaded.push({
-              ...file,
-              content: downloadResult.content
-            });
-          } catch (error) {
-            syncResults.errors.push({
-              filename: file.name,
-              error: error.message
-            });
-          }
+    const job = SyncJobRepository.create({ userId, configId, syncMode: config.syncMode });
+
+    // Runs in the background; progress is followed through the job endpoints
+    runSyncJob(job, config, driveService, Array.isArray(files) ? files : []);
+
+    res.status(202).json({
+      success: true,
+      message: 'Sync started',
+      job: job.summary()
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Get the status of a sync job
+ * GET /api/sync/jobs/:jobId
+ */
+router.get('/jobs/:jobId', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const job = SyncJobRepository.findById(req.user.id, req.params.jobId);
+
+    if (!job) {
+      return res.status(404).json({
+        error: {
+          message: 'Sync job not found',
+          status: 404
         }
-        break;
-
-      case SyncMode.TWO_WAY:
-        // Upload provided files
-        if (files && Array.isArray(files) && files.length > 0) {
-          for (const fileData of files) {
-            try {
-              const result = await driveService.uploadFileToFolder(
-                folderId,
-                fileData.filename,
-                fileData.content
-              );
-              syncResults.uploaded.push(result.file);
-            } catch (error) {
-              syncResults.errors.push({
-                filename: fileData.filename,
-                error: error.message
-              });
-            }
-          }
+      });
+    }
+
+    res.json({
+      success: true,
+      job: job.summary()
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Stream the progress of a sync job as server-sent events
+ * GET /api/sync/jobs/:jobId/events
+ * Events: status, progress, file_error, done. Reconnecting clients send Last-Event-ID
+ * to receive only the events they missed.
+ */
+router.get('/jobs/:jobId/events', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const job = SyncJobRepository.findById(req.user.id, req.params.jobId);
+
+    if (!job) {
+      return res.status(404).json({
+        error: {
+          message: 'Sync job not found',
+          status: 404
         }
+      });
+    }
 
-        // Download all files from cloud
-        const cloudFiles = await driveService.listFilesInFolder(folderId);
-        for (const file of cloudFiles.files) {
-          try {
-            const downloadResult = await driveService.downloadFile(file.id);
-            syncResults.downloaded.push({
-              ...file,
-              content: downloadResult.content
-            });
-          } catch (error) {
-            syncResults.errors.push({
-              filename: file.name,
-              error: error.message
-            });
-          }
+    res.set({
+      'Content-Type': 'text/event-stream',
+      'Cache-Control': 'no-cache',
+      'Connection': 'keep-alive',
+      'X-Accel-Buffering': 'no'
+    });
+    res.flushHeaders();
+
+    const writeEvent = (event) => {
+      res.write(`id: ${event.id}\nevent: ${event.type}\ndata: ${JSON.stringify(event.data)}\n\n`);
+    };
+
+    const lastEventId = parseInt(req.get('Last-Event-ID') || req.query.lastEventId, 10) || 0;
+    job.eventsSince(lastEventId).forEach(writeEvent);
+
+    if (job.isFinished()) {
+      return res.end();
+    }
+
+    // Comment lines keep the connection (and client read timeouts) alive between files
+    const heartbeat = setInterval(() => res.write(': keep-alive\n\n'), SSE_HEARTBEAT_MS);
+
+    const onEvent = (event) => {
+      writeEvent(event);
+      if (event.type === 'done') {
+        cleanup();
+        res.end();
+      }
+    };
+
+    const cleanup = () => {
+      clearInterval(heartbeat);
+      job.removeListener('event', onEvent);
+    };
+
+    job.on('event', onEvent);
+    req.on('close', cleanup);
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Cancel a sync job; the file in progress completes, remaining files are skipped
+ * POST /api/sync/jobs/:jobId/cancel
+ */
+router.post('/jobs/:jobId/cancel', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const job = SyncJobRepository.findById(req.user.id, req.params.jobId);
+
+    if (!job) {
+      return res.status(404).json({
+        error: {
+          message: 'Sync job not found',
+          status: 404
         }
-        break;
+      });
+    }
 
-      default:
-        return res.status(400).json({
-          error: {
-            message: 'Invalid sync mode',
-            status: 400
-          }
-        });
+    job.requestCancel();
+
+    res.json({
+      success: true,
+      message: job.isFinished() ? 'Sync job already finished' : 'Cancellation requested',
+      job: job.summary()
+    });
+  } catch (error) {
+    next(error);
+  }
+});
+
+/**
+ * Page through the per-file results of a sync job
+ * GET /api/sync/jobs/:jobId/results?offset=0&limit=50
+ */
+router.get('/jobs/:jobId/results', ensureAuthenticated, async (req, res, next) => {
+  try {
+    const job = SyncJobRepository.findById(req.user.id, req.params.jobId);
+
+    if (!job) {
+      return res.status(404).json({
+        error: {
+          message: 'Sync job not found',
+          status: 404
+        }
+      });
     }
 
-    // Update last sync time
-    SyncConfigRepository.updateLastSyncTime(userId, configId);
+    const offset = Math.max(parseInt(req.query.offset, 10) || 0, 0);
+    const limit = Math.min(Math.max(parseInt(req.query.limit, 10) || DEFAULT_RESULTS_PAGE_SIZE, 1), MAX_RESULTS_PAGE_SIZE);
+    const items = job.results.slice(offset, offset + limit);
+    const nextOffset = offset + items.length;
 
     res.json({
       success: true,
-      message: 'Sync executed successfully',
-      syncMode: config.syncMode,
-      results: syncResults
+      jobId: job.id,
+      status: job.status,
+      total: job.results.length,
+      offset,
+      nextOffset: nextOffset < job.results.length ? nextOffset : null,
+      items
     });
+    // Downloaded content is handed out once, so the job does not hold file bodies until it expires
+    job.releaseContent(offset, items.length);
   } catch (error) {
     next(error);
   }
@@ -511,10 +1312,10 @@ router.get('/folders/list', ensureAuthenticated, async (req, res, next) => {
     let result;
 
     if (provider === 'google') {
-      const driveService = new GoogleDriveService(req.user.accessToken);
+      const driveService = clientPool.getGoogleDrive(req.user);
       result = await driveService.listFoldersInPath(folderPath || '');
     } else if (provider === 'microsoft') {
-      const driveService = new OneDriveService(req.user.accessToken);
+      const driveService = clientPool.getOneDrive(req.user);
       result = await driveService.listFoldersInPath(folderPath || '');
     }
 
@@ -522,6 +1323,7 @@ router.get('/folders/list', ensureAuthenticated, async (req, res, next) => {
       success: true,
       provider: provider,
       currentPath: folderPath || '/',
+      folderId: result.folderId || null,
       folders: result.folders
     });
   } catch (error) {
@@ -529,4 +1331,46 @@ router.get('/folders/list', ensureAuthenticated, async (req, res, next) => {
   }
 });
 
+/**
+ * Swap an account's expired access token for a new one; the account is the session user or
+ * one of their linked accounts, so the new tokens are kept with the session
+ */
+async function refreshAccount(account) {
+  const tokens = await refreshAccessToken(account);
+  account.accessToken = tokens.accessToken;
+  account.refreshToken = tokens.refreshToken;
+}
+
+function saveSessionUser(req) {
+  if (req.session.passport) {
+    req.session.passport.user = req.user;
+  }
+  return new Promise((resolve, reject) => req.session.save(err => (err ? reject(err) : resolve())));
+}
+
+/**
+ * How a raw upload body is kept once spooled: as sent when it is plain, or gzipped for a file
+ * that is to be stored gzipped; null when it arrived gzipped and has to be inflated
+ */
+function keptEncoding(req, filename, requestedCodec) {
+  const encoding = (req.get('Content-Encoding') || 'identity').trim().toLowerCase();
+  if (encoding === 'identity') {
+    return CompressionCodec.NONE;
+  }
+  if (encoding !== 'gzip') {
+    const error = new Error(`Unsupported Content-Encoding: ${encoding}`);
+    error.status = 415;
+    throw error;
+  }
+  return requestedCodec === CompressionCodec.GZIP && !compression.isAlreadyCompressed(filename)
+    ? CompressionCodec.GZIP
+    : null;
+}
+
+function badRequest(message) {
+  const error = new Error(message);
+  error.status = 400;
+  return error;
+}
+
 module.exports = router;
@@ -1,7 +1,111 @@
 const express = require('express');
 const router = express.Router();
 const { ensureAuthenticated } = require('../middleware/auth');
-const { SyncMode, SyncConfigRepository } = require('../models/syncConfig');
+const { SyncMode, CompressionCodec, SyncConfigRepository } = require('../models/syncConfig');
+const { isValidFolderId } = require('../services/folderCache');
+
+const MAX_PATTERNS = 100;
+const MAX_PATTERN_LENGTH = 256;
+const MAX_MIRRORS = 3;
+
+/**
+ * Check an include or exclude pattern list
+ * Returns an error message, or null if the list is valid or was not given
+ */
+function patternListError(field, patterns) {
+  if (patterns === undefined) {
+    return null;
+  }
+  if (!Array.isArray(patterns) || patterns.length > MAX_PATTERNS) {
+    return `${field} must be an array of at most ${MAX_PATTERNS} patterns`;
+  }
+  if (patterns.some(pattern => typeof pattern !== 'string' || pattern.length > MAX_PATTERN_LENGTH)) {
+    return `${field} must contain strings of at most ${MAX_PATTERN_LENGTH} characters`;
+  }
+  return null;
+}
+
+/**
+ * Check the target of a cloud-to-cloud configuration
+ * Returns an error message, or null if the configuration is valid or of another mode
+ */
+function cloudTargetError(config) {
+  if (config.syncMode !== SyncMode.CLOUD_TO_CLOUD) {
+    return null;
+  }
+  if (!config.targetProvider || !config.targetFolderPath) {
+    return 'targetProvider and targetFolderPath are required for cloud_to_cloud sync';
+  }
+  if ((config.targetProvider !== 'google' && config.targetProvider !== 'microsoft') ||
+      config.targetProvider === config.provider) {
+    return 'targetProvider must be the provider that provider is not';
+  }
+  if (config.targetFolderPath.includes('..') || !isValidFolderId(config.targetFolderId)) {
+    return 'Invalid targetFolderPath or targetFolderId';
+  }
+  return null;
+}
+
+/**
+ * Check the mirror folders of a configuration
+ * Returns an error message, or null if the mirrors are valid or were not given
+ */
+function mirrorsError(config) {
+  const mirrors = config.mirrors;
+  if (mirrors === undefined || mirrors === null) {
+    return null;
+  }
+  if (!Array.isArray(mirrors) || mirrors.length > MAX_MIRRORS) {
+    return `mirrors must be an array of at most ${MAX_MIRRORS} folders`;
+  }
+  if (mirrors.length > 0 && (config.syncMode === SyncMode.CLOUD_TO_CLOUD ||
+      config.syncMode === SyncMode.DOWNLOAD_ONLY || config.syncMode === SyncMode.DOWNLOAD_THEN_DELETE)) {
+    return 'mirrors only apply to sync modes that upload';
+  }
+  const seen = new Set([`${config.provider}:${config.cloudFolderPath}`]);
+  for (const mirror of mirrors) {
+    if (!mirror || (mirror.provider !== 'google' && mirror.provider !== 'microsoft') ||
+        typeof mirror.cloudFolderPath !== 'string' || !mirror.cloudFolderPath ||
+        mirror.cloudFolderPath.includes('..') || !isValidFolderId(mirror.cloudFolderId)) {
+      return 'Each mirror needs a provider and a valid cloudFolderPath and cloudFolderId';
+    }
+    const key = `${mirror.provider}:${mirror.cloudFolderPath}`;
+    if (seen.has(key)) {
+      return 'mirrors must differ from each other and from the configuration\'s own folder';
+    }
+    seen.add(key);
+  }
+  return null;
+}
+
+/**
+ * Check the on-demand flag of a configuration
+ * Returns an error message, or null if the flag is valid or was not given
+ */
+function onDemandError(config) {
+  if (config.onDemand === undefined || config.onDemand === null) {
+    return null;
+  }
+  if (typeof config.onDemand !== 'boolean') {
+    return 'onDemand must be a boolean';
+  }
+  // download_then_delete would remove cloud files that were never fetched
+  if (config.onDemand && config.syncMode !== SyncMode.DOWNLOAD_ONLY) {
+    return 'onDemand only applies to download_only sync';
+  }
+  return null;
+}
+
+/**
+ * Keep only the fields of each mirror
+ */
+function toMirrors(mirrors) {
+  return (mirrors || []).map(mirror => ({
+    provider: mirror.provider,
+    cloudFolderPath: mirror.cloudFolderPath,
+    cloudFolderId: mirror.cloudFolderId || null
+  }));
+}
 
 /**
  * Get all sync configurations for the authenticated user
@@ -54,18 +158,32 @@ router.get('/:configId', ensureAuthenticated, async (req, res, next) => {
  * Create a new sync configuration
  * POST /api/sync-config
  * Body: {
- *   localFolderPath: string,
+ *   localFolderPath: string (not used by cloud_to_cloud),
  *   cloudFolderPath: string,
+ *   cloudFolderId: string (optional, id returned by /api/sync/folder/* for cloudFolderPath),
  *   provider: 'google' | 'microsoft',
  *   syncMode: string,
  *   deleteDelayDays: number (optional, default: 0),
+ *   compression: 'none' | 'gzip' (optional, default: 'none'),
+ *   includePatterns: string[] (optional, gitignore-style, default: []),
+ *   excludePatterns: string[] (optional, gitignore-style, default: []),
+ *   targetProvider: 'google' | 'microsoft' (cloud_to_cloud only, the provider that provider is not),
+ *   targetFolderPath: string (cloud_to_cloud only),
+ *   targetFolderId: string (optional, cloud_to_cloud only),
+ *   mirrors: [{ provider, cloudFolderPath, cloudFolderId }] (optional, upload modes, default: []),
+ *   onDemand: boolean (optional, download_only, default: false),
  *   enabled: boolean (optional, default: true)
  * }
  */
 router.post('/', ensureAuthenticated, async (req, res, next) => {
   try {
     const userId = req.user.id;
-    const { localFolderPath, cloudFolderPath, provider, syncMode, deleteDelayDays, enabled } = req.body;
+    const {
+      localFolderPath, cloudFolderPath, cloudFolderId, provider, syncMode,
+      deleteDelayDays, compression, includePatterns, excludePatterns,
+      targetProvider, targetFolderPath, targetFolderId, mirrors, onDemand, enabled
+    } = req.body;
+    const cloudToCloud = syncMode === SyncMode.CLOUD_TO_CLOUD;
     
     // Check maximum number of configurations (10 max)
     const existingConfigs = SyncConfigRepository.findByUserId(userId);
@@ -79,7 +197,7 @@ router.post('/', ensureAuthenticated, async (req, res, next) => {
     }
     
     // Validation
-    if (!localFolderPath || !cloudFolderPath || !provider || !syncMode) {
+    if ((!localFolderPath && !cloudToCloud) || !cloudFolderPath || !provider || !syncMode) {
       return res.status(400).json({
         error: {
           message: 'localFolderPath, cloudFolderPath, provider, and syncMode are required',
@@ -88,6 +206,18 @@ router.post('/', ensureAuthenticated, async (req, res, next) => {
       });
     }
     
+    const targetError = cloudTargetError({ syncMode, provider, targetProvider, targetFolderPath, targetFolderId }) ||
+      mirrorsError({ syncMode, provider, cloudFolderPath, mirrors }) ||
+      onDemandError({ syncMode, onDemand });
+    if (targetError) {
+      return res.status(400).json({
+        error: {
+          message: targetError,
+          status: 400
+        }
+      });
+    }
+    
     // Validate sync mode
     const validSyncModes = Object.values(SyncMode);
     if (!validSyncModes.includes(syncMode)) {
@@ -119,13 +249,53 @@ router.post('/', ensureAuthenticated, async (req, res, next) => {
       });
     }
     
+    if (!isValidFolderId(cloudFolderId)) {
+      return res.status(400).json({
+        error: {
+          message: 'Invalid cloudFolderId',
+          status: 400
+        }
+      });
+    }
+    
+    // Validate compression codec if provided
+    const validCodecs = Object.values(CompressionCodec);
+    if (compression !== undefined && !validCodecs.includes(compression)) {
+      return res.status(400).json({
+        error: {
+          message: `Invalid compression. Valid codecs are: ${validCodecs.join(', ')}`,
+          status: 400
+        }
+      });
+    }
+    
+    const patternError = patternListError('includePatterns', includePatterns) ||
+      patternListError('excludePatterns', excludePatterns);
+    if (patternError) {
+      return res.status(400).json({
+        error: {
+          message: patternError,
+          status: 400
+        }
+      });
+    }
+    
     const config = SyncConfigRepository.create({
       userId,
       localFolderPath,
       cloudFolderPath,
+      cloudFolderId,
       provider,
       syncMode,
       deleteDelayDays: deleteDelayDays !== undefined ? deleteDelayDays : 0,
+      compression: compression !== undefined ? compression : CompressionCodec.NONE,
+      includePatterns: includePatterns !== undefined ? includePatterns : [],
+      excludePatterns: excludePatterns !== undefined ? excludePatterns : [],
+      targetProvider: cloudToCloud ? targetProvider : null,
+      targetFolderPath: cloudToCloud ? targetFolderPath : null,
+      targetFolderId: cloudToCloud ? targetFolderId : null,
+      mirrors: toMirrors(mirrors),
+      onDemand: onDemand === true,
       enabled: enabled !== undefined ? enabled : true
     });
     
@@ -145,8 +315,17 @@ router.post('/', ensureAuthenticated, async (req, res, next) => {
  * Body: {
  *   localFolderPath: string (optional),
  *   cloudFolderPath: string (optional),
+ *   cloudFolderId: string (optional),
  *   syncMode: string (optional),
  *   deleteDelayDays: number (optional),
+ *   compression: 'none' | 'gzip' (optional),
+ *   includePatterns: string[] (optional),
+ *   excludePatterns: string[] (optional),
+ *   targetProvider: 'google' | 'microsoft' (optional),
+ *   targetFolderPath: string (optional),
+ *   targetFolderId: string (optional),
+ *   mirrors: [{ provider, cloudFolderPath, cloudFolderId }] (optional, replaces the list),
+ *   onDemand: boolean (optional),
  *   enabled: boolean (optional)
  * }
  */
@@ -179,6 +358,64 @@ router.put('/:configId', ensureAuthenticated, async (req, res, next) => {
       });
     }
     
+    // Validate compression codec if provided
+    if (updateData.compression !== undefined) {
+      const validCodecs = Object.values(CompressionCodec);
+      if (!validCodecs.includes(updateData.compression)) {
+        return res.status(400).json({
+          error: {
+            message: `Invalid compression. Valid codecs are: ${validCodecs.join(', ')}`,
+            status: 400
+          }
+        });
+      }
+    }
+    
+    const patternError = patternListError('includePatterns', updateData.includePatterns) ||
+      patternListError('excludePatterns', updateData.excludePatterns);
+    if (patternError) {
+      return res.status(400).json({
+        error: {
+          message: patternError,
+          status: 400
+        }
+      });
+    }
+    
+    if (!isValidFolderId(updateData.cloudFolderId)) {
+      return res.status(400).json({
+        error: {
+          message: 'Invalid cloudFolderId',
+          status: 400
+        }
+      });
+    }
+    
+    // A new cloud path invalidates the stored folder id unless the client resolved it too
+    if (updateData.cloudFolderPath !== undefined && updateData.cloudFolderId === undefined) {
+      updateData.cloudFolderId = null;
+    }
+    if (updateData.targetFolderPath !== undefined && updateData.targetFolderId === undefined) {
+      updateData.targetFolderId = null;
+    }
+    
+    const existingConfig = SyncConfigRepository.findById(userId, configId);
+    const merged = existingConfig && { ...existingConfig.toJSON(), ...updateData };
+    const targetError = existingConfig && (cloudTargetError(merged) || mirrorsError(merged) ||
+      onDemandError(merged));
+    if (targetError) {
+      return res.status(400).json({
+        error: {
+          message: targetError,
+          status: 400
+        }
+      });
+    }
+    
+    if (updateData.mirrors !== undefined) {
+      updateData.mirrors = toMirrors(updateData.mirrors);
+    }
+    
     const updatedConfig = SyncConfigRepository.update(userId, configId, updateData);
     
     if (!updatedConfig) {
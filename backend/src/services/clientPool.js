@@ -0,0 +1,110 @@
+const https = require('https');
+const config = require('../config/config');
+const GoogleDriveService = require('./googleDrive');
+const OneDriveService = require('./oneDrive');
+
+/**
+ * Client Pool
+ * Keeps one provider service per user and provider so routes reuse the API client, and
+ * through the shared keep-alive agent its open TLS connections, instead of building a
+ * new one per request. Entries are replaced when the user's access token changes and
+ * dropped once idle.
+ */
+
+// One keep-alive agent per provider; sockets are reused across all users of that provider
+const agents = {
+  google: createAgent(),
+  microsoft: createAgent()
+};
+
+const entries = new Map();
+
+function createAgent() {
+  return new https.Agent({
+    keepAlive: true,
+    maxSockets: config.clientPool.maxSocketsPerHost,
+    maxFreeSockets: config.clientPool.maxFreeSocketsPerHost,
+    timeout: config.clientPool.socketTimeoutMs
+  });
+}
+
+/**
+ * Google Drive service for the session user
+ */
+function getGoogleDrive(user) {
+  return getService('google', user, () => new GoogleDriveService(user.accessToken, user.id, agents.google));
+}
+
+/**
+ * OneDrive service for the session user
+ */
+function getOneDrive(user) {
+  return getService('microsoft', user, () => new OneDriveService(user.accessToken, user.id, agents.microsoft));
+}
+
+/**
+ * The session user's account of a provider: the one they signed in with, or one they linked
+ * Returns null when they have none
+ */
+function accountFor(user, provider) {
+  if (user.provider === provider) {
+    return user;
+  }
+  return (user.linkedAccounts && user.linkedAccounts[provider]) || null;
+}
+
+/**
+ * Service for an account of either provider, e.g. from accountFor
+ */
+function getForAccount(account) {
+  return account.provider === 'google' ? getGoogleDrive(account) : getOneDrive(account);
+}
+
+function getService(provider, user, create) {
+  const key = `${provider}:${user.id}`;
+  const entry = entries.get(key);
+
+  if (entry && entry.accessToken === user.accessToken) {
+    entry.lastUsed = Date.now();
+    // Re-insert to keep the map in least-recently-used order
+    entries.delete(key);
+    entries.set(key, entry);
+    return entry.service;
+  }
+
+  const service = create();
+  entries.delete(key);
+  entries.set(key, { service, accessToken: user.accessToken, lastUsed: Date.now() });
+
+  while (entries.size > config.clientPool.maxClients) {
+    entries.delete(entries.keys().next().value);
+  }
+  return service;
+}
+
+/**
+ * Drop a user's pooled clients, e.g. on logout
+ */
+function evict(provider, userId) {
+  entries.delete(`${provider}:${userId}`);
+}
+
+function evictIdle() {
+  const cutoff = Date.now() - config.clientPool.idleTimeoutMs;
+  for (const [key, entry] of entries) {
+    if (entry.lastUsed < cutoff) {
+      entries.delete(key);
+    }
+  }
+}
+
+// Sweep idle clients in the background without keeping the process alive
+setInterval(evictIdle, 60 * 1000).unref();
+
+module.exports = {
+  getGoogleDrive,
+  getOneDrive,
+  accountFor,
+  getForAccount,
+  evict
+};
@@ -0,0 +1,166 @@
+const config = require('../config/config');
+const { CompressionCodec, SyncConfigRepository } = require('../models/syncConfig');
+const { SyncJobStatus } = require('../models/syncJob');
+const { refreshAccessToken } = require('../auth/tokenRefresh');
+const clientPool = require('./clientPool');
+const { nameIndex } = require('./nameIndex');
+
+/**
+ * Cloud Transfer
+ * Runs cloud-to-cloud sync jobs: files are copied from the config's folder on one provider
+ * to its target folder on the other, streamed from download to upload on the server so
+ * the device neither downloads nor uploads them
+ */
+
+// Google Docs, Sheets etc. have no stored content to copy
+const GOOGLE_NATIVE_PREFIX = 'application/vnd.google-apps.';
+const GOOGLE_FOLDER_TYPE = 'application/vnd.google-apps.folder';
+
+/**
+ * One side of a transfer: an account, its service and a folder
+ * The account is a copy held by the job, so tokens refreshed here stay with the job
+ */
+class Endpoint {
+  constructor(account, folderPath, folderId) {
+    this.account = account;
+    this.service = clientPool.getForAccount(account);
+    this.folderPath = folderPath;
+    this.folderId = folderId;
+  }
+
+  /**
+   * Run `operation` with the service and the folder id, resolving the folder from its path
+   * when the id is unknown or stale
+   */
+  async inFolder(operation) {
+    return this.run(async service => {
+      const outcome = await service.withFolder(this.folderPath, this.folderId, id => operation(service, id));
+      this.folderId = outcome.folderId;
+      return outcome.result;
+    });
+  }
+
+  /**
+   * Run `operation` with the service, refreshing an expired access token once; a job can
+   * outlive the token it started with
+   */
+  async run(operation) {
+    try {
+      return await operation(this.service);
+    } catch (error) {
+      if (error.code !== 'provider_token_expired') {
+        throw error;
+      }
+      await this.refresh();
+      return operation(this.service);
+    }
+  }
+
+  async refresh() {
+    const tokens = await refreshAccessToken(this.account);
+    this.account.accessToken = tokens.accessToken;
+    this.account.refreshToken = tokens.refreshToken;
+    this.service = clientPool.getForAccount(this.account);
+  }
+}
+
+/**
+ * Run the cloud-to-cloud sync described by `syncConfig` for `job`. Never rejects: failures
+ * end the job in the failed state instead.
+ */
+async function runCloudTransferJob(job, syncConfig, sourceAccount, targetAccount) {
+  const source = new Endpoint(sourceAccount, syncConfig.cloudFolderPath, syncConfig.cloudFolderId);
+  const target = new Endpoint(targetAccount, syncConfig.targetFolderPath, syncConfig.targetFolderId);
+
+  try {
+    const sourceFiles = (await source.inFolder((service, id) => service.listAllFilesInFolder(id))).files;
+    const targetFiles = (await target.inFolder((service, id) => service.listAllFilesInFolder(id))).files;
+
+    // A file already in the target folder with the same name and size is not copied again
+    const stored = new Map(targetFiles.filter(file => !isFolder(file)).map(file => [file.name, Number(file.size)]));
+    const pending = sourceFiles.filter(file => !isFolder(file) && stored.get(file.name) !== Number(file.size));
+
+    job.start(pending.length);
+
+    let next = 0;
+    const worker = async () => {
+      while (next < pending.length && !job.cancelRequested) {
+        const file = pending[next++];
+        const result = await copyFile(file, source, target);
+        if (result.type === 'copied') {
+          nameIndex.noteFile(target.account.provider, job.userId, target.folderPath, result);
+        }
+        job.recordResult(result);
+      }
+    };
+    const workers = Math.max(1, Math.min(config.cloudTransfer.concurrency, pending.length));
+    await Promise.all(Array.from({ length: workers }, worker));
+
+    // Update last sync time and remember both resolved folder ids for the next run
+    SyncConfigRepository.update(job.userId, syncConfig.id, {
+      lastSyncTime: new Date().toISOString(),
+      cloudFolderId: source.folderId,
+      targetFolderId: target.folderId
+    });
+
+    job.finish(job.cancelRequested ? SyncJobStatus.CANCELLED : SyncJobStatus.COMPLETED);
+  } catch (error) {
+    console.error(`Error running cloud transfer job ${job.id}:`, error.message);
+    job.finish(SyncJobStatus.FAILED, error.message);
+  }
+}
+
+/**
+ * Copy one file, returning its job result
+ * The stored bytes are copied as they are, so a compressed file stays compressed and keeps
+ * its codec; at most one chunk of the file is held in memory.
+ */
+async function copyFile(file, source, target) {
+  if (file.mimeType && file.mimeType.startsWith(GOOGLE_NATIVE_PREFIX)) {
+    return { type: 'error', name: file.name, error: 'Google Docs files cannot be copied' };
+  }
+
+  const size = Number(file.size) || 0;
+  const codec = file.codec || CompressionCodec.NONE;
+  try {
+    // The download is reopened if the upload has to start over after a token refresh
+    const result = await target.inFolder(async (targetService, folderId) => {
+      const download = await source.run(service => service.openDownloadStream(file.id, CompressionCodec.NONE));
+      try {
+        return await targetService.uploadStreamToFolder(
+          folderId,
+          file.name,
+          download.stream,
+          size,
+          file.mimeType || 'application/octet-stream',
+          codec,
+          config.cloudTransfer.chunkSize
+        );
+      } finally {
+        download.stream.destroy();
+      }
+    });
+
+    if (Number(result.file.size) !== size) {
+      throw new Error(`Copied ${result.file.size} of ${size} bytes`);
+    }
+
+    return {
+      type: 'copied',
+      ...result.file,
+      sourceFileId: file.id,
+      name: file.name,
+      bytes: size
+    };
+  } catch (error) {
+    return { type: 'error', name: file.name, error: error.message };
+  }
+}
+
+function isFolder(file) {
+  return file.mimeType === GOOGLE_FOLDER_TYPE || file.mimeType === 'folder';
+}
+
+module.exports = {
+  runCloudTransferJob
+};
@@ -0,0 +1,249 @@
+const fs = require('fs');
+const zlib = require('zlib');
+const path = require('path');
+const crypto = require('crypto');
+const { PassThrough, Readable, pipeline } = require('stream');
+const { CompressionCodec } = require('../models/syncConfig');
+
+/**
+ * Compression Service
+ * Streaming encode/decode stage shared by the upload and download pipelines
+ */
+
+// Extensions of formats that are already compressed and gain nothing from gzip
+const COMPRESSED_EXTENSIONS = new Set([
+  '.gz', '.tgz', '.zip', '.7z', '.rar', '.bz2', '.xz', '.zst', '.lz4',
+  '.jpg', '.jpeg', '.png', '.gif', '.webp', '.heic', '.heif', '.avif',
+  '.mp3', '.m4a', '.aac', '.ogg', '.opus', '.flac',
+  '.mp4', '.m4v', '.mov', '.mkv', '.webm', '.3gp',
+  '.apk', '.jar', '.docx', '.xlsx', '.pptx', '.odt', '.epub'
+]);
+
+// Leading magic bytes of compressed formats, checked when the extension is not conclusive
+const MAGIC_SIGNATURES = [
+  { offset: 0, bytes: [0x1f, 0x8b] }, // gzip
+  { offset: 0, bytes: [0x50, 0x4b, 0x03, 0x04] }, // zip and zip-based containers
+  { offset: 0, bytes: [0x42, 0x5a, 0x68] }, // bzip2
+  { offset: 0, bytes: [0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00] }, // xz
+  { offset: 0, bytes: [0x28, 0xb5, 0x2f, 0xfd] }, // zstd
+  { offset: 0, bytes: [0x37, 0x7a, 0xbc, 0xaf, 0x27, 0x1c] }, // 7z
+  { offset: 0, bytes: [0x52, 0x61, 0x72, 0x21] }, // rar
+  { offset: 0, bytes: [0xff, 0xd8, 0xff] }, // jpeg
+  { offset: 0, bytes: [0x89, 0x50, 0x4e, 0x47] }, // png
+  { offset: 0, bytes: [0x47, 0x49, 0x46, 0x38] }, // gif
+  { offset: 0, bytes: [0x4f, 0x67, 0x67, 0x53] }, // ogg
+  { offset: 0, bytes: [0x49, 0x44, 0x33] }, // mp3 with id3 tag
+  { offset: 4, bytes: [0x66, 0x74, 0x79, 0x70] }, // mp4 / mov / heic ('ftyp')
+  { offset: 8, bytes: [0x57, 0x45, 0x42, 0x50] } // webp
+];
+
+// Below this size the gzip header outweighs any savings
+const MIN_COMPRESSIBLE_SIZE = 256;
+
+/**
+ * Check whether content is already compressed, by extension or magic bytes
+ */
+function isAlreadyCompressed(filename, head) {
+  const extension = path.extname(filename || '').toLowerCase();
+  if (COMPRESSED_EXTENSIONS.has(extension)) {
+    return true;
+  }
+
+  if (!head || head.length === 0) {
+    return false;
+  }
+
+  return MAGIC_SIGNATURES.some(signature =>
+    head.length >= signature.offset + signature.bytes.length &&
+    signature.bytes.every((byte, i) => head[signature.offset + i] === byte)
+  );
+}
+
+/**
+ * Pick the codec to store a file with, given the codec requested by the sync configuration
+ */
+function selectCodec(requestedCodec, filename, content) {
+  if (requestedCodec !== CompressionCodec.GZIP) {
+    return CompressionCodec.NONE;
+  }
+
+  // A body the client already gzipped stays that way unless its name says gzip cannot help
+  if (isFileContent(content) && content.encoding === CompressionCodec.GZIP) {
+    return isAlreadyCompressed(filename) ? CompressionCodec.NONE : CompressionCodec.GZIP;
+  }
+
+  const size = isFileContent(content) ? content.size : toBuffer(content).length;
+  if (size < MIN_COMPRESSIBLE_SIZE || isAlreadyCompressed(filename, readHead(content, 16))) {
+    return CompressionCodec.NONE;
+  }
+
+  return CompressionCodec.GZIP;
+}
+
+/**
+ * Wrap content in a readable stream that applies the codec
+ * File content that is already encoded with the codec is read as it is.
+ */
+function encodeStream(content, codec) {
+  let source;
+  if (isFileContent(content)) {
+    source = fs.createReadStream(content.filePath);
+    if (content.encoding === codec) {
+      return source;
+    }
+    if (content.encoding !== CompressionCodec.NONE) {
+      source = decodeStream(source, content.encoding);
+    }
+  } else {
+    source = isReadable(content) ? content : Readable.from([toBuffer(content)]);
+  }
+
+  if (codec !== CompressionCodec.GZIP) {
+    return source;
+  }
+
+  return pipeWithErrors(source, zlib.createGzip());
+}
+
+/**
+ * Upload body for one attempt: content as given when it needs no encoding, otherwise a
+ * fresh encoded stream. File content is reopened on every call so attempts can be replayed.
+ */
+function openContent(content, codec) {
+  if (codec === CompressionCodec.NONE && !isFileContent(content)) {
+    return content;
+  }
+  return encodeStream(content, codec);
+}
+
+/**
+ * Content backed by a file on disk, e.g. a spooled streamed upload
+ * `encoding` is the codec the file's bytes are already encoded with, and `size` their count.
+ */
+function fileContent(filePath, size, encoding = CompressionCodec.NONE) {
+  return { filePath, size, encoding, isFileContent: true };
+}
+
+/**
+ * Write content encoded with the codec to a new temp file under `dir`, so uploads that need
+ * the encoded size up front do not hold the encoded bytes in memory
+ * Resolves file content already encoded with the codec; the caller removes the file.
+ */
+function encodeToFile(content, codec, dir) {
+  const filePath = path.join(dir, `cloudsync-encoded-${crypto.randomUUID()}`);
+  return new Promise((resolve, reject) => {
+    pipeline(encodeStream(content, codec), fs.createWriteStream(filePath, { flags: 'wx' }), (error) => {
+      if (error) {
+        fs.unlink(filePath, () => {});
+        return reject(error);
+      }
+      fs.stat(filePath, (statError, stats) => {
+        if (statError) {
+          fs.unlink(filePath, () => {});
+          return reject(statError);
+        }
+        resolve(fileContent(filePath, stats.size, codec));
+      });
+    });
+  });
+}
+
+function isFileContent(content) {
+  return Boolean(content && content.isFileContent === true);
+}
+
+/**
+ * Wrap a stored content stream in a readable stream that reverses the codec
+ */
+function decodeStream(stream, codec) {
+  if (codec !== CompressionCodec.GZIP) {
+    return stream;
+  }
+
+  return pipeWithErrors(stream, zlib.createGunzip());
+}
+
+/**
+ * Drain a stream into a single buffer
+ */
+function streamToBuffer(stream) {
+  return new Promise((resolve, reject) => {
+    const chunks = [];
+    stream.on('data', chunk => chunks.push(Buffer.isBuffer(chunk) ? chunk : Buffer.from(chunk)));
+    stream.on('end', () => resolve(Buffer.concat(chunks)));
+    stream.on('error', reject);
+  });
+}
+
+/**
+ * Read a stream as buffers of `size` bytes, the last one shorter. The stream is paused
+ * while a chunk is being consumed, so only one chunk is held at a time.
+ */
+async function* chunksOf(stream, size) {
+  let pending = [];
+  let pendingLength = 0;
+  for await (const data of stream) {
+    let piece = Buffer.isBuffer(data) ? data : Buffer.from(data);
+    while (pendingLength + piece.length >= size) {
+      const take = size - pendingLength;
+      pending.push(piece.subarray(0, take));
+      yield Buffer.concat(pending, size);
+      pending = [];
+      pendingLength = 0;
+      piece = piece.subarray(take);
+    }
+    if (piece.length > 0) {
+      pending.push(piece);
+      pendingLength += piece.length;
+    }
+  }
+  if (pendingLength > 0) {
+    yield Buffer.concat(pending, pendingLength);
+  }
+}
+
+function pipeWithErrors(source, transform) {
+  const output = source.pipe(transform).pipe(new PassThrough());
+  source.on('error', err => output.destroy(err));
+  transform.on('error', err => output.destroy(err));
+  return output;
+}
+
+function isReadable(content) {
+  return content && typeof content.pipe === 'function';
+}
+
+function readHead(content, length) {
+  if (!isFileContent(content)) {
+    return toBuffer(content).subarray(0, length);
+  }
+
+  const head = Buffer.alloc(Math.min(length, content.size));
+  const fd = fs.openSync(content.filePath, 'r');
+  try {
+    fs.readSync(fd, head, 0, head.length, 0);
+  } finally {
+    fs.closeSync(fd);
+  }
+  return head;
+}
+
+function toBuffer(content) {
+  if (Buffer.isBuffer(content)) {
+    return content;
+  }
+  return Buffer.from(typeof content === 'string' ? content : JSON.stringify(content));
+}
+
+module.exports = {
+  isAlreadyCompressed,
+  selectCodec,
+  encodeStream,
+  openContent,
+  fileContent,
+  encodeToFile,
+  isFileContent,
+  decodeStream,
+  streamToBuffer,
+  chunksOf
+};
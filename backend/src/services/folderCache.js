@@ -0,0 +1,129 @@
+const config = require('../config/config');
+
+/**
+ * Folder Cache
+ * Bounded LRU map of cloud folder path → folder id, keyed by provider and user, so
+ * path-based operations do not look the folder up again on every request
+ */
+class FolderIdCache {
+  constructor({ maxEntries, ttlMs }) {
+    this.maxEntries = maxEntries;
+    this.ttlMs = ttlMs;
+    // Map iteration order is insertion order, so re-inserting on hit keeps it in LRU order
+    this.entries = new Map();
+  }
+
+  get(provider, userId, folderPath) {
+    const key = cacheKey(provider, userId, folderPath);
+    const entry = this.entries.get(key);
+    if (!entry) {
+      return null;
+    }
+
+    if (Date.now() - entry.cachedAt > this.ttlMs) {
+      // Expire so folders renamed or moved outside the app are eventually re-resolved
+      this.entries.delete(key);
+      return null;
+    }
+
+    this.entries.delete(key);
+    this.entries.set(key, entry);
+    return entry.folder;
+  }
+
+  set(provider, userId, folderPath, folder) {
+    const key = cacheKey(provider, userId, folderPath);
+    this.entries.delete(key);
+    this.entries.set(key, { folder: { id: folder.id, name: folder.name }, cachedAt: Date.now() });
+
+    while (this.entries.size > this.maxEntries) {
+      this.entries.delete(this.entries.keys().next().value);
+    }
+  }
+
+  /**
+   * Drop every cached path of the user that resolved to the given folder id
+   */
+  invalidateId(provider, userId, folderId) {
+    const prefix = cacheKey(provider, userId, '');
+    for (const [key, entry] of this.entries) {
+      if (key.startsWith(prefix) && entry.folder.id === folderId) {
+        this.entries.delete(key);
+      }
+    }
+  }
+}
+
+function cacheKey(provider, userId, folderPath) {
+  return `${provider}:${userId || 'anonymous'}:${folderPath}`;
+}
+
+/**
+ * Run `operation` against a folder id, resolving `folderPath` when no id is known.
+ * A 404 for the folder means the id is stale (folder deleted or moved): the cached entry
+ * is dropped, the path is resolved again and the operation retried once. A 404 for
+ * anything else the operation names, such as the file a move is given, is rethrown.
+ * Paths are resolved with `getOrCreateFolder` unless `create` is false, in which case a
+ * folder that does not exist is a 404 from `findFolder`.
+ */
+async function runInFolder(service, provider, folderPath, folderId, operation, create = true) {
+  const resolve = path => (create ? service.getOrCreateFolder(path) : service.findFolder(path));
+  let id = folderId || (await resolve(folderPath)).folder.id;
+
+  try {
+    return { folderId: id, result: await operation(id) };
+  } catch (error) {
+    if (error.status !== 404 || !(await isFolderGone(service, id))) {
+      throw error;
+    }
+    folderCache.invalidateId(provider, service.userId, id);
+    id = (await resolve(folderPath)).folder.id;
+    return { folderId: id, result: await operation(id) };
+  }
+}
+
+/**
+ * Whether a folder id no longer names anything; only asked after a 404, so a working
+ * folder costs no extra call
+ */
+async function isFolderGone(service, folderId) {
+  try {
+    await service.getFileMetadata(folderId);
+    return false;
+  } catch (error) {
+    return error.status === 404;
+  }
+}
+
+/**
+ * Every file failing with 404 means the folder itself is gone; raise it as a whole-batch
+ * 404 so the caller can re-resolve the folder and retry
+ */
+function failWhenFolderMissing(results) {
+  if (results.length > 0 && results.every(result => result.status === 404)) {
+    const error = new Error('Folder not found');
+    error.status = 404;
+    throw error;
+  }
+  return results;
+}
+
+/**
+ * Folder ids come straight from the client and end up in provider URLs, so only
+ * accept the characters Drive and Graph ids are made of
+ */
+function isValidFolderId(folderId) {
+  if (folderId === undefined || folderId === null || folderId === '') {
+    return true;
+  }
+  return typeof folderId === 'string' && /^[A-Za-z0-9!_.-]+$/.test(folderId) && !folderId.includes('..');
+}
+
+const folderCache = new FolderIdCache(config.folderCache);
+
+module.exports = {
+  folderCache,
+  runInFolder,
+  failWhenFolderMissing,
+  isValidFolderId
+};
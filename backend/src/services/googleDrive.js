@@ -1,15 +1,46 @@
+const crypto = require('crypto');
+const axios = require('axios');
 const { google } = require('googleapis');
+const { CompressionCodec } = require('../models/syncConfig');
+const compression = require('./compression');
+const { scheduler, serviceError, throttleDelay } = require('./requestScheduler');
+const { folderCache, runInFolder, failWhenFolderMissing } = require('./folderCache');
+
+// appProperties key recording the codec a file was stored with
+const CODEC_PROPERTY = 'cloudSyncCodec';
+
+// Hash Drive reports for binary files; Google Docs and other native files have none
+const CHECKSUM_ALGORITHM = 'md5';
+
+// Resumable uploads, used to stream content of a known size in chunks
+const UPLOAD_URL = 'https://www.googleapis.com/upload/drive/v3/files';
+
+// Drive batch requests carry at most 100 calls
+const BATCH_URL = 'https://www.googleapis.com/batch/drive/v3';
+const MAX_BATCH_REQUESTS = 100;
+const MAX_BATCH_ROUNDS = 4;
 
 /**
  * Google Drive Service
  * Handles file operations with Google Drive API
  */
 class GoogleDriveService {
-  constructor(accessToken) {
+  constructor(accessToken, userId = null, agent = undefined) {
     this.accessToken = accessToken;
+    this.userId = userId;
     this.oauth2Client = new google.auth.OAuth2();
     this.oauth2Client.setCredentials({ access_token: accessToken });
-    this.drive = google.drive({ version: 'v3', auth: this.oauth2Client });
+    // With a keep-alive agent, pooled instances reuse their connections to Drive
+    this.drive = google.drive({ version: 'v3', auth: this.oauth2Client, agent });
+    // The batch endpoint is not covered by the client library
+    this.http = axios.create({ httpsAgent: agent });
+  }
+
+  /**
+   * Run a Drive API call within the user's call budget; a batch costs one call per request in it
+   */
+  call(task, cost = 1) {
+    return scheduler.schedule('google', this.userId, task, cost);
   }
 
   /**
@@ -27,11 +58,11 @@ class GoogleDriveService {
         body: content
       };
 
-      const response = await this.drive.files.create({
+      const response = await this.call(() => this.drive.files.create({
         requestBody: fileMetadata,
         media: media,
         fields: 'id, name, mimeType, createdTime, modifiedTime, size'
-      });
+      }));
 
       return {
         success: true,
@@ -39,40 +70,61 @@ class GoogleDriveService {
       };
     } catch (error) {
       console.error('Error uploading file to Google Drive:', error);
-      throw new Error(`Failed to upload file: ${error.message}`);
+      throw serviceError(`Failed to upload file: ${error.message}`, error);
     }
   }
 
   /**
    * Download a file from Google Drive
+   * Content stored with a codec is decoded transparently; pass the codec when it is
+   * already known from a listing to avoid an extra metadata lookup
    */
-  async downloadFile(fileId) {
+  async downloadFile(fileId, codec = null) {
     try {
-      const response = await this.drive.files.get({
+      const { stream } = await this.openDownloadStream(fileId, codec);
+      const content = await compression.streamToBuffer(stream);
+
+      return {
+        success: true,
+        content: content.toString()
+      };
+    } catch (error) {
+      console.error('Error downloading file from Google Drive:', error);
+      throw serviceError(`Failed to download file: ${error.message}`, error);
+    }
+  }
+
+  /**
+   * Open a file's decoded content as a stream without buffering it
+   * Without a known codec the metadata is looked up and returned as well.
+   * A { start, end } range is forwarded to the provider; status tells whether it was honored
+   */
+  async openDownloadStream(fileId, codec = null, range = null) {
+    try {
+      let file = null;
+      if (!codec) {
+        file = (await this.getFileMetadata(fileId)).file;
+        codec = file.codec;
+      }
+
+      const response = await this.call(() => this.drive.files.get({
         fileId: fileId,
         alt: 'media'
       }, {
-        responseType: 'stream'
-      });
+        responseType: 'stream',
+        headers: range ? { Range: `bytes=${range.start}-${range.end}` } : {}
+      }));
 
-      return new Promise((resolve, reject) => {
-        let data = '';
-        response.data.on('data', chunk => {
-          data += chunk;
-        });
-        response.data.on('end', () => {
-          resolve({
-            success: true,
-            content: data
-          });
-        });
-        response.data.on('error', err => {
-          reject(new Error(`Failed to download file: ${err.message}`));
-        });
-      });
+      return {
+        success: true,
+        status: response.status,
+        file: file,
+        codec: codec,
+        stream: compression.decodeStream(response.data, codec)
+      };
     } catch (error) {
-      console.error('Error downloading file from Google Drive:', error);
-      throw new Error(`Failed to download file: ${error.message}`);
+      console.error('Error opening download from Google Drive:', error);
+      throw serviceError(`Failed to download file: ${error.message}`, error);
     }
   }
 
@@ -83,7 +135,7 @@ class GoogleDriveService {
     try {
       const params = {
         pageSize: pageSize,
-        fields: 'files(id, name, mimeType, createdTime, modifiedTime, size)',
+        fields: 'files(id, name, mimeType, createdTime, modifiedTime, size, md5Checksum, appProperties)',
         orderBy: 'modifiedTime desc'
       };
 
@@ -91,15 +143,15 @@ class GoogleDriveService {
         params.q = query;
       }
 
-      const response = await this.drive.files.list(params);
+      const response = await this.call(() => this.drive.files.list(params));
 
       return {
         success: true,
-        files: response.data.files || []
+        files: (response.data.files || []).map(toSyncFile)
       };
     } catch (error) {
       console.error('Error listing files from Google Drive:', error);
-      throw new Error(`Failed to list files: ${error.message}`);
+      throw serviceError(`Failed to list files: ${error.message}`, error);
     }
   }
 
@@ -108,9 +160,10 @@ class GoogleDriveService {
    */
   async deleteFile(fileId) {
     try {
-      await this.drive.files.delete({
+      await this.call(() => this.drive.files.delete({
         fileId: fileId
-      });
+      }));
+      folderCache.invalidateId('google', this.userId, fileId);
 
       return {
         success: true,
@@ -118,7 +171,144 @@ class GoogleDriveService {
       };
     } catch (error) {
       console.error('Error deleting file from Google Drive:', error);
-      throw new Error(`Failed to delete file: ${error.message}`);
+      throw serviceError(`Failed to delete file: ${error.message}`, error);
+    }
+  }
+
+  /**
+   * Delete several files through Drive's batch endpoint, reporting an outcome per file
+   * Deletes Drive throttles are resent in a later round. A file that is already gone
+   * counts as deleted.
+   */
+  async deleteFiles(fileIds) {
+    try {
+      const results = new Array(fileIds.length);
+      let pending = fileIds.map((fileId, index) => ({ fileId, index }));
+
+      for (let round = 1; pending.length > 0; round++) {
+        let retryAfterMs = 0;
+        const throttled = [];
+
+        for (let start = 0; start < pending.length; start += MAX_BATCH_REQUESTS) {
+          const chunk = pending.slice(start, start + MAX_BATCH_REQUESTS);
+          const responses = await this.call(() => this.sendBatch(chunk.map(item => ({
+            id: String(item.index),
+            method: 'DELETE',
+            path: `/drive/v3/files/${encodeURIComponent(item.fileId)}`
+          }))), chunk.length);
+
+          for (const item of chunk) {
+            const deletion = responses.get(String(item.index)) || { status: 500 };
+            const throttleMs = throttleDelay({ status: deletion.status, errors: deletion.body?.error?.errors }, round);
+
+            if (throttleMs !== null && round < MAX_BATCH_ROUNDS) {
+              throttled.push(item);
+              retryAfterMs = Math.max(retryAfterMs, throttleMs);
+            } else if ((deletion.status >= 200 && deletion.status < 300) || deletion.status === 404) {
+              folderCache.invalidateId('google', this.userId, item.fileId);
+              results[item.index] = { fileId: item.fileId, success: true, status: deletion.status };
+            } else {
+              results[item.index] = {
+                fileId: item.fileId,
+                success: false,
+                status: deletion.status,
+                error: deletion.body?.error?.message || `Delete failed with status ${deletion.status}`
+              };
+            }
+          }
+        }
+
+        pending = throttled;
+        if (pending.length > 0) {
+          await new Promise(resolve => setTimeout(resolve, retryAfterMs));
+        }
+      }
+
+      return {
+        success: true,
+        results
+      };
+    } catch (error) {
+      console.error('Error batch deleting files from Google Drive:', error.response?.data || error.message);
+      throw serviceError(`Failed to delete files: ${error.message}`, error);
+    }
+  }
+
+  /**
+   * Send body-less calls as one multipart/mixed request to Drive's batch endpoint
+   * Calls: [{ id, method, path }]; resolves a Map from call id to `{ status, body }`
+   */
+  async sendBatch(calls) {
+    const boundary = `cloudsync_${crypto.randomBytes(12).toString('hex')}`;
+    const body = calls.map(call => [
+      `--${boundary}`,
+      'Content-Type: application/http',
+      `Content-ID: <${call.id}>`,
+      '',
+      `${call.method} ${call.path}`,
+      '',
+      ''
+    ].join('\r\n')).join('') + `--${boundary}--\r\n`;
+
+    const response = await this.http.post(BATCH_URL, body, {
+      headers: {
+        'Authorization': `Bearer ${this.accessToken}`,
+        'Content-Type': `multipart/mixed; boundary=${boundary}`
+      },
+      responseType: 'text'
+    });
+    return parseBatchResponse(response.headers['content-type'], response.data);
+  }
+
+  /**
+   * Rename a file and move it into `folderId` when it is not already there
+   * Only metadata changes, so moving a file costs no transfer of its content.
+   */
+  async moveFile(fileId, filename, folderId) {
+    try {
+      // Validate filename to prevent path traversal
+      if (!filename || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
+        throw new Error('Invalid filename');
+      }
+
+      // Drive allows two files of one name in a folder; refuse the move like OneDrive does
+      const taken = await this.findFileInFolder(folderId, filename).catch(error => {
+        if (error.status === 404) {
+          return null;
+        }
+        throw error;
+      });
+      if (taken && taken.file.id !== fileId) {
+        const error = new Error(`The name ${filename} is already taken in the folder`);
+        error.status = 409;
+        throw error;
+      }
+
+      const params = {
+        fileId: fileId,
+        requestBody: { name: filename },
+        fields: 'id, name, mimeType, createdTime, modifiedTime, size, md5Checksum, appProperties'
+      };
+
+      const current = await this.call(() => this.drive.files.get({
+        fileId: fileId,
+        fields: 'parents'
+      }));
+      const parents = current.data.parents || [];
+      if (!parents.includes(folderId)) {
+        params.addParents = folderId;
+        params.removeParents = parents.join(',');
+      }
+
+      const response = await this.call(() => this.drive.files.update(params));
+
+      return {
+        success: true,
+        file: toSyncFile(response.data)
+      };
+    } catch (error) {
+      console.error('Error moving file in Google Drive:', error);
+      throw serviceError(`Failed to move file: ${error.message}`, error);
     }
   }
 
@@ -131,43 +321,80 @@ class GoogleDriveService {
       return await this.listFiles(query);
     } catch (error) {
       console.error('Error searching files in Google Drive:', error);
-      throw new Error(`Failed to search files: ${error.message}`);
+      throw serviceError(`Failed to search files: ${error.message}`, error);
     }
   }
 
   /**
-   * Create or get folder by path
+   * Find a file by name in one folder; a 404 when the folder has none
    */
-  async getOrCreateFolder(folderPath) {
+  async findFileInFolder(folderId, filename) {
+    const name = filename.replace(/\\/g, '\\\\').replace(/'/g, "\\'");
+    const result = await this.listFiles(`'${folderId}' in parents and name='${name}' and trashed=false`, 1);
+    if (result.files.length === 0) {
+      const error = new Error('File not found');
+      error.status = 404;
+      throw error;
+    }
+    return { success: true, file: result.files[0] };
+  }
+
+  /**
+   * Get folder by path without creating it; a 404 when there is none
+   */
+  async findFolder(folderPath) {
+    let folder = null;
     try {
-      // Sanitize folder path to prevent ReDoS
-      let folderName = folderPath;
-      while (folderName.startsWith('/')) {
-        folderName = folderName.substring(1);
-      }
-      while (folderName.endsWith('/')) {
-        folderName = folderName.substring(0, folderName.length - 1);
+      const folderName = folderNameOf(folderPath);
+      const cachedFolder = folderCache.get('google', this.userId, folderName);
+      if (cachedFolder) {
+        return {
+          success: true,
+          folder: cachedFolder
+        };
       }
 
-      // Validate folder name to prevent path traversal
-      if (!folderName || folderName.includes('..') || folderName.includes('\\')) {
-        throw new Error('Invalid folder path');
-      }
-      
-      // Search for existing folder
       const query = `name='${folderName}' and mimeType='application/vnd.google-apps.folder' and trashed=false`;
-      const response = await this.drive.files.list({
+      const response = await this.call(() => this.drive.files.list({
         q: query,
         fields: 'files(id, name)',
         pageSize: 1
-      });
+      }));
 
       if (response.data.files && response.data.files.length > 0) {
-        return {
-          success: true,
-          folder: response.data.files[0]
-        };
+        folder = response.data.files[0];
+        folderCache.set('google', this.userId, folderName, folder);
+      }
+    } catch (error) {
+      console.error('Error getting folder in Google Drive:', error);
+      throw serviceError(`Failed to get folder: ${error.message}`, error);
+    }
+
+    if (!folder) {
+      const error = new Error('Folder not found');
+      error.status = 404;
+      throw error;
+    }
+    return {
+      success: true,
+      folder
+    };
+  }
+
+  /**
+   * Create or get folder by path
+   */
+  async getOrCreateFolder(folderPath) {
+    try {
+      return await this.findFolder(folderPath);
+    } catch (error) {
+      if (error.status !== 404) {
+        throw error;
       }
+    }
+
+    try {
+      const folderName = folderNameOf(folderPath);
 
       // Create folder if it doesn't exist
       const fileMetadata = {
@@ -175,25 +402,44 @@ class GoogleDriveService {
         mimeType: 'application/vnd.google-apps.folder'
       };
 
-      const folderResponse = await this.drive.files.create({
+      const folderResponse = await this.call(() => this.drive.files.create({
         requestBody: fileMetadata,
         fields: 'id, name'
-      });
+      }));
 
+      folderCache.set('google', this.userId, folderName, folderResponse.data);
       return {
         success: true,
         folder: folderResponse.data
       };
     } catch (error) {
       console.error('Error creating/getting folder in Google Drive:', error);
-      throw new Error(`Failed to create/get folder: ${error.message}`);
+      throw serviceError(`Failed to create/get folder: ${error.message}`, error);
     }
   }
 
+  /**
+   * Run an operation against the folder at `folderPath`, using `folderId` when the caller
+   * already knows it. Resolves `{ folderId, result }` with the id that was actually used.
+   */
+  withFolder(folderPath, folderId, operation) {
+    return runInFolder(this, 'google', folderPath, folderId, operation);
+  }
+
+  /**
+   * Like `withFolder`, for reads: the folder at `folderPath` is looked up but never
+   * created, so a missing folder is a 404.
+   */
+  inFolder(folderPath, operation) {
+    return runInFolder(this, 'google', folderPath, undefined, operation, false);
+  }
+
   /**
    * Upload file to a specific folder
+   * When a codec other than 'none' is given, content is encoded as it streams to Drive
+   * and the codec is recorded in the file's appProperties
    */
-  async uploadFileToFolder(folderId, filename, content, mimeType = 'application/json') {
+  async uploadFileToFolder(folderId, filename, content, mimeType = 'application/json', codec = CompressionCodec.NONE) {
     try {
       // Validate filename to prevent path traversal
       if (!filename || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
@@ -206,27 +452,123 @@ class GoogleDriveService {
         mimeType: mimeType
       };
 
-      const media = {
-        mimeType: mimeType,
-        body: content
-      };
+      if (codec !== CompressionCodec.NONE) {
+        fileMetadata.appProperties = { [CODEC_PROPERTY]: codec };
+      }
 
-      const response = await this.drive.files.create({
+      // The media body is built per attempt so a throttled upload can be replayed
+      const response = await this.call(() => this.drive.files.create({
         requestBody: fileMetadata,
-        media: media,
-        fields: 'id, name, mimeType, createdTime, modifiedTime, size'
-      });
+        media: {
+          mimeType: mimeType,
+          body: compression.openContent(content, codec)
+        },
+        fields: 'id, name, mimeType, createdTime, modifiedTime, size, md5Checksum, appProperties'
+      }));
 
       return {
         success: true,
-        file: response.data
+        file: toSyncFile(response.data)
       };
     } catch (error) {
       console.error('Error uploading file to folder in Google Drive:', error);
-      throw new Error(`Failed to upload file to folder: ${error.message}`);
+      throw serviceError(`Failed to upload file to folder: ${error.message}`, error);
     }
   }
 
+  /**
+   * Upload a stream of `size` bytes to a folder through a resumable upload session, holding
+   * one chunk at a time; a chunk the scheduler retries is sent again on its own
+   * The content is stored as it comes, and `codec` only records how it is already encoded.
+   * chunkSize must be a multiple of 256 KiB.
+   */
+  async uploadStreamToFolder(folderId, filename, stream, size, mimeType, codec, chunkSize) {
+    try {
+      // Validate filename to prevent path traversal
+      if (!filename || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
+        throw new Error('Invalid filename');
+      }
+      // An empty file has no chunk to send; encoded content is never empty
+      if (size === 0) {
+        return await this.uploadFileToFolder(folderId, filename, Buffer.alloc(0), mimeType);
+      }
+
+      const fileMetadata = {
+        name: filename,
+        parents: [folderId],
+        mimeType: mimeType
+      };
+      if (codec !== CompressionCodec.NONE) {
+        fileMetadata.appProperties = { [CODEC_PROPERTY]: codec };
+      }
+
+      const session = await this.call(() => this.http.post(UPLOAD_URL, fileMetadata, {
+        params: {
+          uploadType: 'resumable',
+          fields: 'id, name, mimeType, createdTime, modifiedTime, size, md5Checksum, appProperties'
+        },
+        headers: {
+          'Authorization': `Bearer ${this.accessToken}`,
+          'X-Upload-Content-Type': mimeType,
+          'X-Upload-Content-Length': String(size)
+        }
+      }));
+      const sessionUrl = session.headers.location;
+
+      let offset = 0;
+      let response = null;
+      for await (const chunk of compression.chunksOf(stream, chunkSize)) {
+        const range = `bytes ${offset}-${offset + chunk.length - 1}/${size}`;
+        response = await this.call(() => this.http.put(sessionUrl, chunk, {
+          headers: {
+            'Authorization': `Bearer ${this.accessToken}`,
+            'Content-Length': String(chunk.length),
+            'Content-Range': range
+          },
+          maxBodyLength: Infinity,
+          maxRedirects: 0,
+          // Drive answers 308 Resume Incomplete to every chunk but the last
+          validateStatus: status => (status >= 200 && status < 300) || status === 308
+        }));
+        offset += chunk.length;
+      }
+
+      if (offset !== size || !response || response.status === 308) {
+        throw new Error(`Content ended after ${offset} of ${size} bytes`);
+      }
+
+      return {
+        success: true,
+        file: toSyncFile(response.data)
+      };
+    } catch (error) {
+      console.error('Error streaming file to folder in Google Drive:', error.message);
+      throw serviceError(`Failed to upload file to folder: ${error.message}`, error);
+    }
+  }
+
+  /**
+   * Upload several files to a folder, reporting an outcome per file instead of failing the whole set
+   * Drive's batch endpoint does not accept media uploads, so the files are uploaded concurrently
+   * and the request scheduler keeps them within the user's call budget.
+   * Files: [{ filename, content, mimeType, codec }]
+   */
+  async uploadFilesToFolder(folderId, files) {
+    const results = await Promise.all(files.map(async (file) => {
+      try {
+        const result = await this.uploadFileToFolder(folderId, file.filename, file.content, file.mimeType, file.codec);
+        return { filename: file.filename, success: true, status: 200, file: result.file };
+      } catch (error) {
+        return { filename: file.filename, success: false, status: error.status || 500, error: error.message };
+      }
+    }));
+
+    return {
+      success: true,
+      results: failWhenFolderMissing(results)
+    };
+  }
+
   /**
    * List files in a specific folder
    */
@@ -236,7 +578,35 @@ class GoogleDriveService {
       return await this.listFiles(query, pageSize);
     } catch (error) {
       console.error('Error listing files in folder from Google Drive:', error);
-      throw new Error(`Failed to list files in folder: ${error.message}`);
+      throw serviceError(`Failed to list files in folder: ${error.message}`, error);
+    }
+  }
+
+  /**
+   * List every file in a folder, following pages, so that nothing is missing
+   */
+  async listAllFilesInFolder(folderId) {
+    try {
+      const files = [];
+      let pageToken;
+      do {
+        const response = await this.call(() => this.drive.files.list({
+          q: `'${folderId}' in parents and trashed=false`,
+          pageSize: 1000,
+          pageToken,
+          fields: 'nextPageToken, files(id, name, mimeType, size, md5Checksum, appProperties)'
+        }));
+        files.push(...(response.data.files || []).map(toSyncFile));
+        pageToken = response.data.nextPageToken;
+      } while (pageToken);
+
+      return {
+        success: true,
+        files
+      };
+    } catch (error) {
+      console.error('Error listing all files in folder from Google Drive:', error);
+      throw serviceError(`Failed to list files in folder: ${error.message}`, error);
     }
   }
 
@@ -245,18 +615,18 @@ class GoogleDriveService {
    */
   async getFileMetadata(fileId) {
     try {
-      const response = await this.drive.files.get({
+      const response = await this.call(() => this.drive.files.get({
         fileId: fileId,
-        fields: 'id, name, mimeType, createdTime, modifiedTime, size'
-      });
+        fields: 'id, name, mimeType, createdTime, modifiedTime, size, md5Checksum, appProperties'
+      }));
 
       return {
         success: true,
-        file: response.data
+        file: toSyncFile(response.data)
       };
     } catch (error) {
       console.error('Error getting file metadata from Google Drive:', error);
-      throw new Error(`Failed to get file metadata: ${error.message}`);
+      throw serviceError(`Failed to get file metadata: ${error.message}`, error);
     }
   }
 
@@ -271,12 +641,12 @@ class GoogleDriveService {
         query = `'${parentFolderId}' in parents and ${query}`;
       }
 
-      const response = await this.drive.files.list({
+      const response = await this.call(() => this.drive.files.list({
         q: query,
         fields: 'files(id, name, mimeType, createdTime, modifiedTime)',
         pageSize: pageSize,
         orderBy: 'name'
-      });
+      }));
 
       return {
         success: true,
@@ -284,7 +654,7 @@ class GoogleDriveService {
       };
     } catch (error) {
       console.error('Error listing folders from Google Drive:', error);
-      throw new Error(`Failed to list folders: ${error.message}`);
+      throw serviceError(`Failed to list folders: ${error.message}`, error);
     }
   }
 
@@ -301,13 +671,76 @@ class GoogleDriveService {
       // Get or create the folder first
       const folderResult = await this.getOrCreateFolder(folderPath);
       
-      // List subfolders
-      return await this.listFolders(folderResult.folder.id);
+      // List subfolders, returning the resolved id so clients can address the folder directly
+      const result = await this.listFolders(folderResult.folder.id);
+      return { ...result, folderId: folderResult.folder.id };
     } catch (error) {
       console.error('Error listing folders in path from Google Drive:', error);
-      throw new Error(`Failed to list folders in path: ${error.message}`);
+      throw serviceError(`Failed to list folders in path: ${error.message}`, error);
+    }
+  }
+}
+
+/**
+ * The folder name a path is looked up by, without leading or trailing slashes
+ */
+function folderNameOf(folderPath) {
+  // Sanitize folder path to prevent ReDoS
+  let folderName = folderPath;
+  while (folderName.startsWith('/')) {
+    folderName = folderName.substring(1);
+  }
+  while (folderName.endsWith('/')) {
+    folderName = folderName.substring(0, folderName.length - 1);
+  }
+
+  // Validate folder name to prevent path traversal
+  if (!folderName || folderName.includes('..') || folderName.includes('\\')) {
+    throw new Error('Invalid folder path');
+  }
+  return folderName;
+}
+
+/**
+ * Expose the stored codec and content hash of a Drive file as plain `codec`,
+ * `checksum` and `checksumAlgorithm` fields
+ */
+function toSyncFile(file) {
+  const codec = (file.appProperties && file.appProperties[CODEC_PROPERTY]) || CompressionCodec.NONE;
+  const checksum = file.md5Checksum || null;
+  return { ...file, codec, checksum, checksumAlgorithm: checksum ? CHECKSUM_ALGORITHM : null };
+}
+
+/**
+ * Read the per-call responses out of a multipart/mixed batch response
+ * Resolves a Map from each call's Content-ID to its `{ status, body }`.
+ */
+function parseBatchResponse(contentType, data) {
+  const match = /boundary=(?:"([^"]+)"|([^;\s]+))/i.exec(contentType || '');
+  if (!match) {
+    throw new Error('Batch response has no multipart boundary');
+  }
+
+  const responses = new Map();
+  for (const part of String(data).split(`--${match[1] || match[2]}`)) {
+    const id = /Content-ID:\s*<response-([^>]+)>/i.exec(part);
+    const status = /HTTP\/[\d.]+ (\d{3})/.exec(part);
+    if (!id || !status) {
+      continue;
+    }
+
+    let body = null;
+    const jsonStart = part.indexOf('{');
+    if (jsonStart >= 0) {
+      try {
+        body = JSON.parse(part.substring(jsonStart, part.lastIndexOf('}') + 1));
+      } catch (error) {
+        body = null;
+      }
     }
+    responses.set(id[1], { status: Number(status[1]), body });
   }
+  return responses;
 }
 
 module.exports = GoogleDriveService;
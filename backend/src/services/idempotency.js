@@ -0,0 +1,95 @@
+const config = require('../config/config');
+
+/**
+ * Idempotency Store
+ * Remembers the outcome of uploads sent with an Idempotency-Key, per user, so a client
+ * retrying after a dropped connection or a crash gets the original result back instead
+ * of creating the file a second time. A retry that arrives while the first attempt is
+ * still running waits for it. Failed attempts are forgotten so they can be retried.
+ */
+
+// Keys are client-generated (UUIDs on the device); anything printable up to 255 chars is accepted
+const KEY_PATTERN = /^[\x21-\x7e]{1,255}$/;
+
+class IdempotencyStore {
+  constructor({ maxEntries, ttlMs }) {
+    this.maxEntries = maxEntries;
+    this.ttlMs = ttlMs;
+    this.entries = new Map();
+  }
+
+  /**
+   * Claim a key before doing the work it stands for.
+   * Returns `{ existing }` with the promise of the earlier attempt when the key is known,
+   * otherwise `{ complete(result), fail() }` to settle the new claim.
+   */
+  claim(userId, key) {
+    const entryKey = storeKey(userId, key);
+    const entry = this.entries.get(entryKey);
+    if (entry && Date.now() - entry.createdAt <= this.ttlMs) {
+      return { existing: entry.promise };
+    }
+
+    let resolve;
+    let reject;
+    const promise = new Promise((res, rej) => {
+      resolve = res;
+      reject = rej;
+    });
+    // Waiters attach their own handlers; without any the rejection is expected
+    promise.catch(() => {});
+
+    this.entries.delete(entryKey);
+    this.entries.set(entryKey, { promise, createdAt: Date.now() });
+    while (this.entries.size > this.maxEntries) {
+      this.entries.delete(this.entries.keys().next().value);
+    }
+
+    return {
+      complete: (result) => resolve(result),
+      fail: (error) => {
+        this.entries.delete(entryKey);
+        reject(error);
+      }
+    };
+  }
+
+  /**
+   * Run `task` at most once per key; without a key it simply runs.
+   * Resolves with `{ result, replayed }`.
+   */
+  async run(userId, key, task) {
+    if (!key) {
+      return { result: await task(), replayed: false };
+    }
+
+    const claim = this.claim(userId, key);
+    if (claim.existing) {
+      return { result: await claim.existing, replayed: true };
+    }
+
+    try {
+      const result = await task();
+      claim.complete(result);
+      return { result, replayed: false };
+    } catch (error) {
+      claim.fail(error);
+      throw error;
+    }
+  }
+}
+
+function storeKey(userId, key) {
+  return `${userId || 'anonymous'}:${key}`;
+}
+
+function isValidKey(key) {
+  return key === undefined || key === null || KEY_PATTERN.test(key);
+}
+
+const idempotencyStore = new IdempotencyStore(config.idempotency);
+
+module.exports = {
+  idempotencyStore,
+  isValidKey
+};
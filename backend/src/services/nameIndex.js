@@ -0,0 +1,200 @@
+const crypto = require('crypto');
+const config = require('../config/config');
+
+/**
+ * Remote Name Index
+ * A Bloom filter per cloud folder of the names and content hashes stored there, built
+ * from a complete listing. A name the filter does not contain is definitely not in the
+ * folder, so that answer needs no provider call; a name it contains may be there and is
+ * checked with the provider as before. Files the app stores are added as they are
+ * stored; files added outside the app are only seen once the index expires and is
+ * rebuilt, so its answers are as old as `ttlMs` at most.
+ *
+ * Bit positions are derived from the MD5 of the key the same way in the app, which
+ * checks names against the filter it is sent.
+ */
+class BloomFilter {
+  constructor(bitCount, hashCount, bits = null) {
+    this.bitCount = bitCount;
+    this.hashCount = hashCount;
+    this.bits = bits || Buffer.alloc(Math.ceil(bitCount / 8));
+    this.count = 0;
+  }
+
+  /**
+   * Size a filter so that `capacity` keys give about `falsePositiveRate` false positives
+   */
+  static forCapacity(capacity, falsePositiveRate) {
+    const n = Math.max(capacity, 64);
+    const bitCount = Math.min(Math.ceil(-n * Math.log(falsePositiveRate) / (Math.LN2 * Math.LN2)), MAX_BITS);
+    const hashCount = Math.max(1, Math.round((bitCount / n) * Math.LN2));
+    return new BloomFilter(bitCount, hashCount);
+  }
+
+  add(key) {
+    for (const position of this.positions(key)) {
+      this.bits[position >> 3] |= 1 << (position & 7);
+    }
+    this.count++;
+  }
+
+  mightContain(key) {
+    for (const position of this.positions(key)) {
+      if ((this.bits[position >> 3] & (1 << (position & 7))) === 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Double hashing over two 32-bit halves of the key's MD5
+   */
+  positions(key) {
+    const digest = crypto.createHash('md5').update(key, 'utf8').digest();
+    const h1 = digest.readUInt32BE(0);
+    const h2 = digest.readUInt32BE(4) | 1;
+    const positions = [];
+    for (let i = 0; i < this.hashCount; i++) {
+      positions.push((h1 + i * (h2 >>> 0)) % this.bitCount);
+    }
+    return positions;
+  }
+
+  toJSON() {
+    return {
+      bits: this.bits.toString('base64'),
+      bitCount: this.bitCount,
+      hashCount: this.hashCount,
+      count: this.count
+    };
+  }
+}
+
+// Filters stay below 1 MB however large the folder
+const MAX_BITS = 8 * 1024 * 1024;
+
+/**
+ * The filter key of a file name
+ */
+function nameKey(name) {
+  return `n:${name}`;
+}
+
+/**
+ * The filter key of a file's content hash; MD5 hex is compared without case, as everywhere else
+ */
+function contentKey(algorithm, checksum) {
+  return `c:${algorithm}:${algorithm === 'md5' ? checksum.toLowerCase() : checksum}`;
+}
+
+/**
+ * Bounded LRU map of cloud folder → index, keyed by provider, user and folder path
+ */
+class NameIndexCache {
+  constructor({ maxEntries, ttlMs, falsePositiveRate }) {
+    this.maxEntries = maxEntries;
+    this.ttlMs = ttlMs;
+    this.falsePositiveRate = falsePositiveRate;
+    this.entries = new Map();
+  }
+
+  get(provider, userId, folderPath) {
+    const key = cacheKey(provider, userId, folderPath);
+    const entry = this.entries.get(key);
+    if (!entry) {
+      return null;
+    }
+    if (Date.now() - entry.builtAt > this.ttlMs) {
+      this.entries.delete(key);
+      return null;
+    }
+    this.entries.delete(key);
+    this.entries.set(key, entry);
+    return entry;
+  }
+
+  /**
+   * Build the index of a folder from a complete listing of it
+   */
+  build(provider, userId, folderPath, files) {
+    // Room to spare, so files stored later fit before the filter needs rebuilding
+    const capacity = Math.max(files.length * 2, 256);
+    const entry = {
+      filter: BloomFilter.forCapacity(capacity * 2, this.falsePositiveRate),
+      capacity,
+      builtAt: Date.now(),
+      // Whether every file stored since the listing was added, so a name not in the filter is not there
+      complete: true
+    };
+    for (const file of files) {
+      addFile(entry.filter, file);
+    }
+
+    const key = cacheKey(provider, userId, folderPath);
+    this.entries.delete(key);
+    this.entries.set(key, entry);
+    while (this.entries.size > this.maxEntries) {
+      this.entries.delete(this.entries.keys().next().value);
+    }
+    return entry;
+  }
+
+  /**
+   * Add a file the app stored in a folder to its index, if the folder has one
+   */
+  noteFile(provider, userId, folderPath, file) {
+    const key = cacheKey(provider, userId, folderPath);
+    const entry = this.entries.get(key);
+    if (!entry) {
+      return;
+    }
+    if (!file || !file.name) {
+      // A file the filter cannot hold; its "not there" answers are no longer to be trusted
+      entry.complete = false;
+      return;
+    }
+    addFile(entry.filter, file);
+    if (entry.filter.count > entry.capacity * 2) {
+      // Past its capacity the filter answers "maybe" too often; the next request rebuilds it
+      this.entries.delete(key);
+    }
+  }
+
+  /**
+   * false when the name is definitely not in the folder, true when it may be,
+   * and null when the folder has no complete index to tell
+   */
+  mightExist(provider, userId, folderPath, name) {
+    const entry = this.get(provider, userId, folderPath);
+    return entry && entry.complete ? entry.filter.mightContain(nameKey(name)) : null;
+  }
+}
+
+function addFile(filter, file) {
+  filter.add(nameKey(file.name));
+  if (file.checksum && file.checksumAlgorithm) {
+    filter.add(contentKey(file.checksumAlgorithm, file.checksum));
+  }
+}
+
+/**
+ * Folder paths are keyed without leading, trailing or repeated slashes, so "a/b" and
+ * "/a/b/" share an index
+ */
+function cacheKey(provider, userId, folderPath) {
+  return `${provider}:${userId || 'anonymous'}:${normalizePath(folderPath)}`;
+}
+
+function normalizePath(folderPath) {
+  return String(folderPath || '').split('/').filter(Boolean).join('/');
+}
+
+const nameIndex = new NameIndexCache(config.nameIndex);
+
+module.exports = {
+  BloomFilter,
+  nameIndex,
+  nameKey,
+  contentKey
+};
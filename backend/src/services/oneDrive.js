@@ -1,17 +1,48 @@
+const fs = require('fs');
 const axios = require('axios');
+const config = require('../config/config');
+const { CompressionCodec } = require('../models/syncConfig');
+const compression = require('./compression');
+const { scheduler, serviceError } = require('./requestScheduler');
+const { folderCache, runInFolder, failWhenFolderMissing } = require('./folderCache');
+
+// Prefix of the description line that records the codec a file was stored with; the
+// rest of the description is the user's own and is kept
+const CODEC_DESCRIPTION_PREFIX = 'cloudsync-codec:';
+
+// Item properties requested by listings so the stored codec comes back with each file
+const ITEM_SELECT = 'id,name,size,createdDateTime,lastModifiedDateTime,webUrl,file,folder,description';
+
+// Graph JSON batching limits: 20 requests per batch, and a request body of a few MB
+const MAX_BATCH_REQUESTS = 20;
+const MAX_BATCH_BODY_BYTES = 3 * 1024 * 1024;
+const MAX_BATCH_ROUNDS = 4;
+
+// Hash Graph reports for every OneDrive and SharePoint file
+const CHECKSUM_ALGORITHM = 'quickXorHash';
 
 /**
  * OneDrive Service
  * Handles file operations with Microsoft OneDrive API
  */
 class OneDriveService {
-  constructor(accessToken) {
+  constructor(accessToken, userId = null, agent = undefined) {
     this.accessToken = accessToken;
+    this.userId = userId;
     this.baseUrl = 'https://graph.microsoft.com/v1.0';
     this.headers = {
       'Authorization': `Bearer ${accessToken}`,
       'Content-Type': 'application/json'
     };
+    // With a keep-alive agent, pooled instances reuse their connections to Graph
+    this.http = axios.create({ httpsAgent: agent });
+  }
+
+  /**
+   * Run a Graph API call within the user's call budget; a batch costs one call per request in it
+   */
+  call(task, cost = 1) {
+    return scheduler.schedule('microsoft', this.userId, task, cost);
   }
 
   /**
@@ -21,12 +52,12 @@ class OneDriveService {
     try {
       const url = `${this.baseUrl}/me/drive/root:/${filename}:/content`;
       
-      const response = await axios.put(url, content, {
+      const response = await this.call(() => this.http.put(url, content, {
         headers: {
           'Authorization': `Bearer ${this.accessToken}`,
           'Content-Type': 'application/json'
         }
-      });
+      }));
 
       return {
         success: true,
@@ -41,51 +72,79 @@ class OneDriveService {
       };
     } catch (error) {
       console.error('Error uploading file to OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to upload file: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to upload file: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
   /**
    * Download a file from OneDrive
+   * Content stored with a codec is decoded transparently; pass the codec when it is
+   * already known from a listing to avoid an extra metadata lookup
    */
-  async downloadFile(fileId) {
+  async downloadFile(fileId, codec = null) {
     try {
-      const url = `${this.baseUrl}/me/drive/items/${fileId}/content`;
-      
-      const response = await axios.get(url, {
-        headers: this.headers,
-        responseType: 'text'
-      });
+      const { stream } = await this.openDownloadStream(fileId, codec);
+      const content = await compression.streamToBuffer(stream);
 
       return {
         success: true,
-        content: response.data
+        content: content.toString()
       };
     } catch (error) {
       console.error('Error downloading file from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to download file: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to download file: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
   /**
-   * Download a file from OneDrive by name
+   * Open a file's decoded content as a stream without buffering it
+   * Without a known codec the metadata is looked up and returned as well.
+   * A { start, end } range is forwarded to the provider; status tells whether it was honored
    */
-  async downloadFileByName(filename) {
+  async openDownloadStream(fileId, codec = null, range = null) {
     try {
-      const url = `${this.baseUrl}/me/drive/root:/${filename}:/content`;
+      let file = null;
+      if (!codec) {
+        file = (await this.getFileMetadata(fileId)).file;
+        codec = file.codec;
+      }
+
+      const url = `${this.baseUrl}/me/drive/items/${fileId}/content`;
       
-      const response = await axios.get(url, {
-        headers: this.headers,
-        responseType: 'text'
-      });
+      const headers = range ? { ...this.headers, Range: `bytes=${range.start}-${range.end}` } : this.headers;
+      const response = await this.call(() => this.http.get(url, {
+        headers: headers,
+        responseType: 'stream'
+      }));
 
       return {
         success: true,
-        content: response.data
+        status: response.status,
+        file: file,
+        codec: codec,
+        stream: compression.decodeStream(response.data, codec)
       };
+    } catch (error) {
+      console.error('Error opening download from OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to download file: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * Download a file from OneDrive by name
+   */
+  async downloadFileByName(filename) {
+    try {
+      const url = `${this.baseUrl}/me/drive/root:/${filename}?$select=${ITEM_SELECT}`;
+      
+      const response = await this.call(() => this.http.get(url, {
+        headers: this.headers
+      }));
+
+      return await this.downloadFile(response.data.id, codecFromDescription(response.data.description));
     } catch (error) {
       console.error('Error downloading file from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to download file: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to download file: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
@@ -96,9 +155,9 @@ class OneDriveService {
     try {
       const url = `${this.baseUrl}/me/drive/root/children`;
       
-      const response = await axios.get(url, {
+      const response = await this.call(() => this.http.get(url, {
         headers: this.headers
-      });
+      }));
 
       const files = response.data.value.map(file => ({
         id: file.id,
@@ -116,7 +175,7 @@ class OneDriveService {
       };
     } catch (error) {
       console.error('Error listing files from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to list files: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to list files: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
@@ -127,9 +186,10 @@ class OneDriveService {
     try {
       const url = `${this.baseUrl}/me/drive/items/${fileId}`;
       
-      await axios.delete(url, {
+      await this.call(() => this.http.delete(url, {
         headers: this.headers
-      });
+      }));
+      folderCache.invalidateId('microsoft', this.userId, fileId);
 
       return {
         success: true,
@@ -137,7 +197,127 @@ class OneDriveService {
       };
     } catch (error) {
       console.error('Error deleting file from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to delete file: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to delete file: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * Delete several files through Graph JSON batching, reporting an outcome per file
+   * Deletes the batch throttles are resent in a later round after their Retry-After.
+   * A file that is already gone counts as deleted.
+   */
+  async deleteFiles(fileIds) {
+    try {
+      const results = new Array(fileIds.length);
+      let pending = fileIds.map((fileId, index) => ({ fileId, index }));
+
+      for (let round = 1; pending.length > 0; round++) {
+        let retryAfterMs = 0;
+        const throttled = [];
+
+        for (let start = 0; start < pending.length; start += MAX_BATCH_REQUESTS) {
+          const chunk = pending.slice(start, start + MAX_BATCH_REQUESTS);
+          const response = await this.call(() => this.http.post(`${this.baseUrl}/$batch`, {
+            requests: chunk.map(item => ({
+              id: `d${item.index}`,
+              method: 'DELETE',
+              url: `/me/drive/items/${encodeURIComponent(item.fileId)}`
+            }))
+          }, {
+            headers: this.headers
+          }), chunk.length);
+
+          const byId = new Map((response.data.responses || []).map(r => [r.id, r]));
+          for (const item of chunk) {
+            const deletion = byId.get(`d${item.index}`) || { status: 500 };
+            const throttleStatus = deletion.status === 429 || deletion.status === 503;
+
+            if (throttleStatus && round < MAX_BATCH_ROUNDS) {
+              throttled.push(item);
+              const retryAfter = Number(deletion.headers && deletion.headers['Retry-After']);
+              retryAfterMs = Math.max(retryAfterMs, (retryAfter || round) * 1000);
+            } else if ((deletion.status >= 200 && deletion.status < 300) || deletion.status === 404) {
+              folderCache.invalidateId('microsoft', this.userId, item.fileId);
+              results[item.index] = { fileId: item.fileId, success: true, status: deletion.status };
+            } else {
+              results[item.index] = {
+                fileId: item.fileId,
+                success: false,
+                status: deletion.status,
+                error: deletion.body?.error?.message || `Delete failed with status ${deletion.status}`
+              };
+            }
+          }
+        }
+
+        pending = throttled;
+        if (pending.length > 0) {
+          await new Promise(resolve => setTimeout(resolve, retryAfterMs));
+        }
+      }
+
+      return {
+        success: true,
+        results
+      };
+    } catch (error) {
+      console.error('Error batch deleting files from OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to delete files: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * Rename a file and move it into `folderId` with one PATCH of the item
+   * Only metadata changes, so moving a file costs no transfer of its content.
+   */
+  async moveFile(fileId, filename, folderId) {
+    try {
+      // Validate filename to prevent path traversal
+      if (!filename || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
+        throw new Error('Invalid filename');
+      }
+
+      const url = `${this.baseUrl}/me/drive/items/${fileId}?$select=${ITEM_SELECT}`;
+      const response = await this.call(() => this.http.patch(url, {
+        name: filename,
+        parentReference: { id: folderId }
+      }, {
+        headers: this.headers
+      }));
+
+      return {
+        success: true,
+        file: {
+          id: response.data.id,
+          name: response.data.name,
+          size: response.data.size,
+          createdDateTime: response.data.createdDateTime,
+          lastModifiedDateTime: response.data.lastModifiedDateTime,
+          webUrl: response.data.webUrl,
+          mimeType: response.data.file?.mimeType || 'folder',
+          codec: codecFromDescription(response.data.description),
+          ...checksumOf(response.data)
+        }
+      };
+    } catch (error) {
+      console.error('Error moving file in OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to move file: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * Find a file by name in one folder; a 404 when the folder has none
+   */
+  async findFileInFolder(folderId, filename) {
+    try {
+      const url = `${this.baseUrl}/me/drive/items/${folderId}:/${encodeURIComponent(filename)}?$select=${ITEM_SELECT}`;
+      const response = await this.call(() => this.http.get(url, {
+        headers: this.headers
+      }));
+      return { success: true, file: toSyncItem(response.data) };
+    } catch (error) {
+      console.error('Error finding file in OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to find file: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
@@ -148,9 +328,9 @@ class OneDriveService {
     try {
       const url = `${this.baseUrl}/me/drive/root/search(q='${filename}')`;
       
-      const response = await axios.get(url, {
+      const response = await this.call(() => this.http.get(url, {
         headers: this.headers
-      });
+      }));
 
       const files = response.data.value.map(file => ({
         id: file.id,
@@ -167,59 +347,83 @@ class OneDriveService {
       };
     } catch (error) {
       console.error('Error searching files in OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to search files: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to search files: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
   /**
-   * Create or get folder by path
+   * Get folder by path without creating it; a 404 when there is none, or when the path
+   * names a file
    */
-  async getOrCreateFolder(folderPath) {
+  async findFolder(folderPath) {
+    let folder = null;
     try {
-      // Sanitize folder path to prevent ReDoS
-      let folderName = folderPath;
-      while (folderName.startsWith('/')) {
-        folderName = folderName.substring(1);
-      }
-      while (folderName.endsWith('/')) {
-        folderName = folderName.substring(0, folderName.length - 1);
+      const folderName = folderNameOf(folderPath);
+      const cachedFolder = folderCache.get('microsoft', this.userId, folderName);
+      if (cachedFolder) {
+        return {
+          success: true,
+          folder: cachedFolder
+        };
       }
 
-      // Validate folder name to prevent path traversal
-      if (!folderName || folderName.includes('..') || folderName.includes('\\')) {
-        throw new Error('Invalid folder path');
+      const url = `${this.baseUrl}/me/drive/root:/${encodeURIComponent(folderName)}`;
+      const response = await this.call(() => this.http.get(url, {
+        headers: this.headers
+      }));
+
+      if (response.data.folder) {
+        folderCache.set('microsoft', this.userId, folderName, response.data);
+        folder = {
+          id: response.data.id,
+          name: response.data.name
+        };
       }
-      
-      // Try to get existing folder
-      try {
-        const url = `${this.baseUrl}/me/drive/root:/${encodeURIComponent(folderName)}`;
-        const response = await axios.get(url, {
-          headers: this.headers
-        });
+    } catch (error) {
+      if (error.response?.status !== 404) {
+        console.error('Error getting folder in OneDrive:', error.response?.data || error.message);
+        throw serviceError(`Failed to get folder: ${error.response?.data?.error?.message || error.message}`, error);
+      }
+    }
 
-        if (response.data.folder) {
-          return {
-            success: true,
-            folder: {
-              id: response.data.id,
-              name: response.data.name
-            }
-          };
-        }
-      } catch (err) {
-        // Folder doesn't exist, create it
+    if (!folder) {
+      const error = new Error('Folder not found');
+      error.status = 404;
+      throw error;
+    }
+    return {
+      success: true,
+      folder
+    };
+  }
+
+  /**
+   * Create or get folder by path
+   */
+  async getOrCreateFolder(folderPath) {
+    try {
+      return await this.findFolder(folderPath);
+    } catch (error) {
+      // Folder doesn't exist, create it - unless the lookup was throttled, which says nothing about existence
+      if (error.status !== 404) {
+        throw error;
       }
+    }
+
+    try {
+      const folderName = folderNameOf(folderPath);
 
       // Create folder
       const url = `${this.baseUrl}/me/drive/root/children`;
-      const response = await axios.post(url, {
+      const response = await this.call(() => this.http.post(url, {
         name: folderName,
         folder: {},
         '@microsoft.graph.conflictBehavior': 'rename'
       }, {
         headers: this.headers
-      });
+      }));
 
+      folderCache.set('microsoft', this.userId, folderName, response.data);
       return {
         success: true,
         folder: {
@@ -229,14 +433,36 @@ class OneDriveService {
       };
     } catch (error) {
       console.error('Error creating/getting folder in OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to create/get folder: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to create/get folder: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
+  /**
+   * Run an operation against the folder at `folderPath`, using `folderId` when the caller
+   * already knows it. Resolves `{ folderId, result }` with the id that was actually used.
+   */
+  withFolder(folderPath, folderId, operation) {
+    return runInFolder(this, 'microsoft', folderPath, folderId, operation);
+  }
+
+  /**
+   * Like `withFolder`, for reads: the folder at `folderPath` is looked up but never
+   * created, so a missing folder is a 404.
+   */
+  inFolder(folderPath, operation) {
+    return runInFolder(this, 'microsoft', folderPath, undefined, operation, false);
+  }
+
   /**
    * Upload file to a specific folder
+   * When a codec other than 'none' is given, content is encoded to a temp file, which goes
+   * through an upload session, and the codec is recorded in a line of the item's description
    */
-  async uploadFileToFolder(folderId, filename, content) {
+  async uploadFileToFolder(folderId, filename, content, mimeType = 'application/json', codec = CompressionCodec.NONE) {
+    if (codec !== CompressionCodec.NONE) {
+      return this.uploadEncodedToFolder(folderId, filename, content, mimeType, codec);
+    }
+
     try {
       // Validate filename to prevent path traversal
       if (!filename || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
@@ -244,13 +470,22 @@ class OneDriveService {
       }
 
       const url = `${this.baseUrl}/me/drive/items/${folderId}:/${encodeURIComponent(filename)}:/content`;
+
+      const headers = {
+        'Authorization': `Bearer ${this.accessToken}`,
+        'Content-Type': mimeType
+      };
+      if (compression.isFileContent(content)) {
+        headers['Content-Length'] = content.size;
+      }
       
-      const response = await axios.put(url, content, {
-        headers: {
-          'Authorization': `Bearer ${this.accessToken}`,
-          'Content-Type': 'application/json'
-        }
-      });
+      // File content is reopened per attempt so a throttled upload can be replayed
+      const response = await this.call(() => this.http.put(url, compression.openContent(content, codec), {
+        headers,
+        maxBodyLength: Infinity
+      }));
+
+      await this.recordCodec(response.data, codec);
 
       return {
         success: true,
@@ -260,12 +495,250 @@ class OneDriveService {
           size: response.data.size,
           createdDateTime: response.data.createdDateTime,
           lastModifiedDateTime: response.data.lastModifiedDateTime,
-          webUrl: response.data.webUrl
+          webUrl: response.data.webUrl,
+          codec: codec,
+          ...checksumOf(response.data)
         }
       };
     } catch (error) {
       console.error('Error uploading file to folder in OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to upload file to folder: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to upload file to folder: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * uploadFileToFolder for content stored with a codec: a simple upload needs the encoded
+   * length up front, so the content is encoded to a temp file first, unless it already is
+   */
+  async uploadEncodedToFolder(folderId, filename, content, mimeType, codec) {
+    const encoded = compression.isFileContent(content) && content.encoding === codec
+      ? content
+      : await compression.encodeToFile(content, codec, config.streamUpload.tempDir);
+    try {
+      return await this.uploadStreamToFolder(folderId, filename, fs.createReadStream(encoded.filePath), encoded.size,
+        mimeType, codec, config.cloudTransfer.chunkSize);
+    } finally {
+      if (encoded !== content) {
+        fs.unlink(encoded.filePath, () => {});
+      }
+    }
+  }
+
+  /**
+   * Upload a stream of `size` bytes to a folder through an upload session, holding one chunk
+   * at a time; a chunk the scheduler retries is sent again on its own
+   * The content is stored as it comes, and `codec` only records how it is already encoded.
+   * chunkSize must be a multiple of 320 KiB, and at most 60 MiB.
+   */
+  async uploadStreamToFolder(folderId, filename, stream, size, mimeType, codec, chunkSize) {
+    let uploadUrl = null;
+    try {
+      // Validate filename to prevent path traversal
+      if (!filename || filename.includes('..') || filename.includes('/') || filename.includes('\\')) {
+        throw new Error('Invalid filename');
+      }
+      // Upload sessions cannot carry an empty file; encoded content is never empty
+      if (size === 0) {
+        return await this.uploadFileToFolder(folderId, filename, Buffer.alloc(0), mimeType);
+      }
+
+      const sessionUrl = `${this.baseUrl}/me/drive/items/${folderId}:/${encodeURIComponent(filename)}:/createUploadSession`;
+      const session = await this.call(() => this.http.post(sessionUrl, {
+        item: { '@microsoft.graph.conflictBehavior': 'replace' }
+      }, {
+        headers: this.headers
+      }));
+      uploadUrl = session.data.uploadUrl;
+
+      let offset = 0;
+      let response = null;
+      for await (const chunk of compression.chunksOf(stream, chunkSize)) {
+        const range = `bytes ${offset}-${offset + chunk.length - 1}/${size}`;
+        // The upload URL carries its own authorization; sending the token as well is refused
+        response = await this.call(() => this.http.put(uploadUrl, chunk, {
+          headers: {
+            'Content-Length': String(chunk.length),
+            'Content-Range': range
+          },
+          maxBodyLength: Infinity
+        }));
+        offset += chunk.length;
+      }
+
+      if (offset !== size || !response || response.status === 202) {
+        throw new Error(`Content ended after ${offset} of ${size} bytes`);
+      }
+
+      await this.recordCodec(response.data, codec);
+
+      return {
+        success: true,
+        file: { ...toSyncItem(response.data), codec }
+      };
+    } catch (error) {
+      if (uploadUrl) {
+        // Free the partial upload; it would otherwise linger until the session expires
+        this.http.delete(uploadUrl).catch(() => {});
+      }
+      console.error('Error streaming file to folder in OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to upload file to folder: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * Bring the codec line of a just uploaded item's description up to date; a replaced file
+   * keeps the description of the one before, so a stale line is removed as well
+   */
+  async recordCodec(item, codec) {
+    const description = describeCodec(item.description, codec);
+    if (description !== null) {
+      await this.call(() => this.http.patch(`${this.baseUrl}/me/drive/items/${item.id}`, {
+        description
+      }, {
+        headers: this.headers
+      }));
+    }
+  }
+
+  /**
+   * recordCodec for the files of one upload batch, in a batch of its own
+   * Resolves the indexes of the items whose codec could not be recorded.
+   */
+  async recordCodecs(uploads) {
+    const requests = [];
+    for (const { item, data } of uploads) {
+      const description = describeCodec(data.description, item.codec);
+      if (description !== null) {
+        requests.push({
+          id: `c${item.index}`,
+          method: 'PATCH',
+          url: `/me/drive/items/${data.id}`,
+          headers: { 'Content-Type': 'application/json' },
+          body: { description }
+        });
+      }
+    }
+
+    const failed = new Set();
+    if (requests.length === 0) {
+      return failed;
+    }
+    let responses = [];
+    try {
+      const response = await this.call(() => this.http.post(`${this.baseUrl}/$batch`, {
+        requests
+      }, {
+        headers: this.headers
+      }), requests.length);
+      responses = response.data.responses || [];
+    } catch (error) {
+      // Every marker in the batch is reported as missing below
+    }
+    const recorded = new Set(responses.filter(r => r.status >= 200 && r.status < 300).map(r => r.id));
+    for (const request of requests) {
+      if (!recorded.has(request.id)) {
+        failed.add(Number(request.id.substring(1)));
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Upload several files to a folder through Graph JSON batching, reporting an outcome per file
+   * Items the batch throttles are resent in a later round after their Retry-After; files too
+   * large for a batch body are uploaded individually.
+   * Files: [{ filename, content, mimeType, codec }]
+   */
+  async uploadFilesToFolder(folderId, files) {
+    try {
+      const results = new Array(files.length);
+      let pending = [];
+
+      for (let index = 0; index < files.length; index++) {
+        const file = files[index];
+        if (!file.filename || file.filename.includes('..') || file.filename.includes('/') || file.filename.includes('\\')) {
+          results[index] = { filename: file.filename, success: false, status: 400, error: 'Invalid filename' };
+          continue;
+        }
+
+        const codec = file.codec || CompressionCodec.NONE;
+        const body = codec !== CompressionCodec.NONE
+          ? await compression.streamToBuffer(compression.encodeStream(file.content, codec))
+          : Buffer.from(file.content);
+        const item = { index, file, codec, body: body.toString('base64') };
+
+        if (item.body.length > MAX_BATCH_BODY_BYTES) {
+          results[index] = await this.uploadSingle(folderId, file, codec);
+        } else {
+          pending.push(item);
+        }
+      }
+
+      for (let round = 1; pending.length > 0; round++) {
+        let retryAfterMs = 0;
+        const throttled = [];
+
+        for (const chunk of chunkBatchItems(pending)) {
+          const requests = chunk.map(item => batchRequest(folderId, item));
+          const response = await this.call(() => this.http.post(`${this.baseUrl}/$batch`, {
+            requests
+          }, {
+            headers: this.headers
+          }), requests.length);
+
+          const byId = new Map((response.data.responses || []).map(r => [r.id, r]));
+          const uploaded = [];
+          for (const item of chunk) {
+            const upload = byId.get(`u${item.index}`) || { status: 500 };
+            const throttleStatus = upload.status === 429 || upload.status === 503;
+
+            if (throttleStatus && round < MAX_BATCH_ROUNDS) {
+              throttled.push(item);
+              const retryAfter = Number(upload.headers && upload.headers['Retry-After']);
+              retryAfterMs = Math.max(retryAfterMs, (retryAfter || round) * 1000);
+            } else if (upload.status >= 200 && upload.status < 300) {
+              uploaded.push({ item, data: upload.body });
+            } else {
+              results[item.index] = {
+                filename: item.file.filename,
+                success: false,
+                status: upload.status,
+                error: upload.body?.error?.message || `Upload failed with status ${upload.status}`
+              };
+            }
+          }
+
+          const unrecorded = await this.recordCodecs(uploaded);
+          for (const { item, data } of uploaded) {
+            results[item.index] = unrecorded.has(item.index)
+              // Without the codec marker the stored bytes would be read back still compressed
+              ? { filename: item.file.filename, success: false, status: 500, error: 'Failed to record codec' }
+              : batchUploadResult(item, data);
+          }
+        }
+
+        pending = throttled;
+        if (pending.length > 0) {
+          await new Promise(resolve => setTimeout(resolve, retryAfterMs));
+        }
+      }
+
+      return {
+        success: true,
+        results: failWhenFolderMissing(results)
+      };
+    } catch (error) {
+      console.error('Error batch uploading files to folder in OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to upload files to folder: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  async uploadSingle(folderId, file, codec) {
+    try {
+      const result = await this.uploadFileToFolder(folderId, file.filename, file.content, file.mimeType, codec);
+      return { filename: file.filename, success: true, status: 200, file: result.file };
+    } catch (error) {
+      return { filename: file.filename, success: false, status: error.status || 500, error: error.message };
     }
   }
 
@@ -274,29 +747,47 @@ class OneDriveService {
    */
   async listFilesInFolder(folderId) {
     try {
-      const url = `${this.baseUrl}/me/drive/items/${folderId}/children`;
+      const url = `${this.baseUrl}/me/drive/items/${folderId}/children?$select=${ITEM_SELECT}`;
       
-      const response = await axios.get(url, {
+      const response = await this.call(() => this.http.get(url, {
         headers: this.headers
-      });
-
-      const files = response.data.value.map(file => ({
-        id: file.id,
-        name: file.name,
-        size: file.size,
-        createdDateTime: file.createdDateTime,
-        lastModifiedDateTime: file.lastModifiedDateTime,
-        webUrl: file.webUrl,
-        mimeType: file.file?.mimeType || 'folder'
       }));
 
+      const files = response.data.value.map(toSyncItem);
+
       return {
         success: true,
         files: files
       };
     } catch (error) {
       console.error('Error listing files in folder from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to list files in folder: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to list files in folder: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+
+  /**
+   * List every file in a folder, following pages, so that nothing is missing
+   */
+  async listAllFilesInFolder(folderId) {
+    try {
+      const files = [];
+      let url = `${this.baseUrl}/me/drive/items/${folderId}/children?$select=${ITEM_SELECT}&$top=999`;
+      while (url) {
+        const pageUrl = url;
+        const response = await this.call(() => this.http.get(pageUrl, {
+          headers: this.headers
+        }));
+        files.push(...response.data.value.map(toSyncItem));
+        url = response.data['@odata.nextLink'];
+      }
+
+      return {
+        success: true,
+        files
+      };
+    } catch (error) {
+      console.error('Error listing all files in folder from OneDrive:', error.response?.data || error.message);
+      throw serviceError(`Failed to list files in folder: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
@@ -305,11 +796,11 @@ class OneDriveService {
    */
   async getFileMetadata(fileId) {
     try {
-      const url = `${this.baseUrl}/me/drive/items/${fileId}`;
+      const url = `${this.baseUrl}/me/drive/items/${fileId}?$select=${ITEM_SELECT}`;
       
-      const response = await axios.get(url, {
+      const response = await this.call(() => this.http.get(url, {
         headers: this.headers
-      });
+      }));
 
       return {
         success: true,
@@ -320,12 +811,14 @@ class OneDriveService {
           createdDateTime: response.data.createdDateTime,
           lastModifiedDateTime: response.data.lastModifiedDateTime,
           webUrl: response.data.webUrl,
-          mimeType: response.data.file?.mimeType || 'folder'
+          mimeType: response.data.file?.mimeType || 'folder',
+          codec: codecFromDescription(response.data.description),
+          ...checksumOf(response.data)
         }
       };
     } catch (error) {
       console.error('Error getting file metadata from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to get file metadata: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to get file metadata: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
@@ -341,9 +834,9 @@ class OneDriveService {
         url = `${this.baseUrl}/me/drive/root/children?$filter=folder ne null&$orderby=name`;
       }
       
-      const response = await axios.get(url, {
+      const response = await this.call(() => this.http.get(url, {
         headers: this.headers
-      });
+      }));
 
       const folders = response.data.value.map(folder => ({
         id: folder.id,
@@ -359,7 +852,7 @@ class OneDriveService {
       };
     } catch (error) {
       console.error('Error listing folders from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to list folders: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to list folders: ${error.response?.data?.error?.message || error.message}`, error);
     }
   }
 
@@ -376,13 +869,146 @@ class OneDriveService {
       // Get or create the folder first
       const folderResult = await this.getOrCreateFolder(folderPath);
       
-      // List subfolders
-      return await this.listFolders(folderResult.folder.id);
+      // List subfolders, returning the resolved id so clients can address the folder directly
+      const result = await this.listFolders(folderResult.folder.id);
+      return { ...result, folderId: folderResult.folder.id };
     } catch (error) {
       console.error('Error listing folders in path from OneDrive:', error.response?.data || error.message);
-      throw new Error(`Failed to list folders in path: ${error.response?.data?.error?.message || error.message}`);
+      throw serviceError(`Failed to list folders in path: ${error.response?.data?.error?.message || error.message}`, error);
+    }
+  }
+}
+
+/**
+ * Batch request for one file's content. The codec marker is recorded afterwards, from the
+ * description the upload answers with, so the rest of the description is not overwritten.
+ */
+function batchRequest(folderId, item) {
+  return {
+    id: `u${item.index}`,
+    method: 'PUT',
+    url: `/me/drive/items/${folderId}:/${encodeURIComponent(item.file.filename)}:/content`,
+    // The body is base64, which $batch only decodes for a non-JSON, non-text type; OneDrive
+    // takes the stored file's type from its name, not from this header
+    headers: { 'Content-Type': 'application/octet-stream' },
+    body: item.body
+  };
+}
+
+/**
+ * Shape a successful batched upload like uploadFileToFolder does
+ */
+function batchUploadResult(item, data) {
+  return {
+    filename: item.file.filename,
+    success: true,
+    status: 200,
+    file: {
+      id: data.id,
+      name: data.name,
+      size: data.size,
+      createdDateTime: data.createdDateTime,
+      lastModifiedDateTime: data.lastModifiedDateTime,
+      webUrl: data.webUrl,
+      codec: item.codec,
+      ...checksumOf(data)
+    }
+  };
+}
+
+/**
+ * Split items into batches that stay within the request count and body size limits
+ */
+function chunkBatchItems(items) {
+  const chunks = [];
+  let current = [];
+  let requestCount = 0;
+  let bodyBytes = 0;
+
+  for (const item of items) {
+    if (current.length > 0 &&
+        (requestCount + 1 > MAX_BATCH_REQUESTS || bodyBytes + item.body.length > MAX_BATCH_BODY_BYTES)) {
+      chunks.push(current);
+      current = [];
+      requestCount = 0;
+      bodyBytes = 0;
     }
+    current.push(item);
+    requestCount += 1;
+    bodyBytes += item.body.length;
+  }
+
+  if (current.length > 0) {
+    chunks.push(current);
+  }
+  return chunks;
+}
+
+/**
+ * The folder name a path is looked up by, without leading or trailing slashes
+ */
+function folderNameOf(folderPath) {
+  // Sanitize folder path to prevent ReDoS
+  let folderName = folderPath;
+  while (folderName.startsWith('/')) {
+    folderName = folderName.substring(1);
+  }
+  while (folderName.endsWith('/')) {
+    folderName = folderName.substring(0, folderName.length - 1);
+  }
+
+  // Validate folder name to prevent path traversal
+  if (!folderName || folderName.includes('..') || folderName.includes('\\')) {
+    throw new Error('Invalid folder path');
+  }
+  return folderName;
+}
+
+/**
+ * The fields a listed drive item is returned with
+ */
+function toSyncItem(file) {
+  return {
+    id: file.id,
+    name: file.name,
+    size: file.size,
+    createdDateTime: file.createdDateTime,
+    lastModifiedDateTime: file.lastModifiedDateTime,
+    webUrl: file.webUrl,
+    mimeType: file.file?.mimeType || 'folder',
+    codec: codecFromDescription(file.description),
+    ...checksumOf(file)
+  };
+}
+
+/**
+ * The content hash Graph reports for a file item, as `checksum` and `checksumAlgorithm`
+ */
+function checksumOf(item) {
+  const checksum = (item.file && item.file.hashes && item.file.hashes.quickXorHash) || null;
+  return { checksum, checksumAlgorithm: checksum ? CHECKSUM_ALGORITHM : null };
+}
+
+/**
+ * Read the stored codec back from an item description
+ */
+function codecFromDescription(description) {
+  const line = (description || '').split('\n').find(text => text.startsWith(CODEC_DESCRIPTION_PREFIX));
+  return line ? line.substring(CODEC_DESCRIPTION_PREFIX.length) : CompressionCodec.NONE;
+}
+
+/**
+ * An item description with its codec line set for `codec`, or removed for 'none', and the
+ * user's text left as it is; null when the description already says so
+ */
+function describeCodec(description, codec) {
+  const current = description || '';
+  const lines = current ? current.split('\n').filter(text => !text.startsWith(CODEC_DESCRIPTION_PREFIX)) : [];
+  if (codec !== CompressionCodec.NONE) {
+    lines.push(`${CODEC_DESCRIPTION_PREFIX}${codec}`);
   }
+  const next = lines.join('\n').replace(/\n+$/, '');
+  return next === current ? null : next;
 }
 
 module.exports = OneDriveService;
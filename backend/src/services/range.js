@@ -0,0 +1,56 @@
+/**
+ * Byte ranges for resumable downloads
+ * Only single ranges are served; anything else is answered with the whole file.
+ */
+
+const UNSATISFIABLE = 'unsatisfiable';
+
+/**
+ * Parse a single-range "bytes=" header against the file size
+ * Returns null for anything to ignore (multiple or malformed ranges, or a last
+ * position before the first), which means the whole file is sent, as RFC 9110 allows
+ */
+function parseRange(header, size) {
+  const match = /^bytes=(\d*)-(\d*)$/.exec(header.trim());
+  if (!match || (match[1] === '' && match[2] === '')) {
+    return null;
+  }
+  if (match[1] !== '' && match[2] !== '' && Number(match[2]) < Number(match[1])) {
+    return null;
+  }
+
+  let start;
+  let end;
+  if (match[1] === '') {
+    // Suffix range: the last n bytes
+    start = Math.max(0, size - Number(match[2]));
+    end = size - 1;
+  } else {
+    start = Number(match[1]);
+    end = match[2] === '' ? size - 1 : Math.min(Number(match[2]), size - 1);
+  }
+
+  if (start >= size || end < start) {
+    return UNSATISFIABLE;
+  }
+  return { start, end };
+}
+
+/**
+ * Strong validator for a file's content: changes whenever the file is replaced or edited
+ */
+function contentVersion(file) {
+  const modified = file.modifiedTime || file.lastModifiedDateTime || '';
+  return `"${file.id}-${modified}-${file.size}"`;
+}
+
+function ifRangeMatches(ifRange, etag) {
+  return !ifRange || ifRange === etag;
+}
+
+module.exports = {
+  UNSATISFIABLE,
+  parseRange,
+  contentVersion,
+  ifRangeMatches
+};
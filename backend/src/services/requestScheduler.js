@@ -0,0 +1,306 @@
+const config = require('../config/config');
+
+/**
+ * Request Scheduler
+ * Keeps provider API calls within per-user and per-provider budgets. Calls are queued
+ * per user and provider, released at a smoothed rate, and deferred (not failed) when
+ * the provider answers with a throttling response.
+ */
+
+// Idle user lanes are dropped after this long so the lane map stays bounded
+const LANE_IDLE_TTL_MS = 10 * 60 * 1000;
+const MAX_BACKOFF_MS = 32000;
+
+/**
+ * Error raised when queued work cannot be admitted within the budget
+ */
+class ThrottledError extends Error {
+  constructor(message, retryAfterMs) {
+    super(message);
+    this.name = 'ThrottledError';
+    this.status = 429;
+    this.retryAfter = Math.max(1, Math.ceil(retryAfterMs / 1000));
+  }
+}
+
+/**
+ * Token bucket refilled continuously at `ratePerSecond`, holding at most `burst` tokens
+ */
+class TokenBucket {
+  constructor(ratePerSecond, burst) {
+    this.ratePerSecond = ratePerSecond;
+    this.burst = burst;
+    this.tokens = burst;
+    this.lastRefill = Date.now();
+  }
+
+  refill(now) {
+    const elapsed = (now - this.lastRefill) / 1000;
+    this.tokens = Math.min(this.burst, this.tokens + elapsed * this.ratePerSecond);
+    this.lastRefill = now;
+  }
+
+  /**
+   * A cost above the burst waits for a full bucket and is then paid off as the bucket
+   * refills, so the calls after it wait their share
+   */
+  msUntilToken(now, cost = 1) {
+    this.refill(now);
+    const needed = Math.min(cost, this.burst);
+    if (this.tokens >= needed) {
+      return 0;
+    }
+    return Math.ceil(((needed - this.tokens) / this.ratePerSecond) * 1000);
+  }
+
+  take(cost = 1) {
+    this.tokens -= cost;
+  }
+}
+
+class RequestScheduler {
+  constructor(budgets) {
+    this.budgets = budgets;
+    this.providerBuckets = new Map();
+    this.lanes = new Map();
+  }
+
+  /**
+   * Run `task` once the user's and the provider's budgets allow it.
+   * `task` must be safe to invoke again, since throttled calls are retried.
+   * `cost` is the number of provider calls the task makes, e.g. the requests in a batch,
+   * each of which the provider counts against its quota.
+   */
+  schedule(provider, userId, task, cost = 1) {
+    const budget = this.budgets[provider];
+    if (!budget) {
+      return task();
+    }
+
+    const lane = this.getLane(provider, userId);
+    if (lane.queue.length >= budget.maxQueued) {
+      const waitMs = Math.max(lane.pausedUntil - Date.now(), 1000);
+      return Promise.reject(new ThrottledError(`Too many queued ${provider} requests`, waitMs));
+    }
+
+    return new Promise((resolve, reject) => {
+      lane.queue.push({ task, cost, resolve, reject, attempts: 0 });
+      this.drain(lane);
+    });
+  }
+
+  /**
+   * Current queue state for a user, used to tell clients how far behind the budget they are
+   */
+  getBacklog(provider, userId) {
+    const lane = this.lanes.get(laneKey(provider, userId));
+    if (!lane) {
+      return { queued: 0, active: 0, retryAfterMs: 0 };
+    }
+    return {
+      queued: lane.queue.length,
+      active: lane.active,
+      retryAfterMs: Math.max(0, lane.pausedUntil - Date.now())
+    };
+  }
+
+  getLane(provider, userId) {
+    const key = laneKey(provider, userId);
+    let lane = this.lanes.get(key);
+
+    if (!lane) {
+      this.evictIdleLanes();
+      const budget = this.budgets[provider];
+      lane = {
+        key,
+        provider,
+        bucket: new TokenBucket(budget.callsPerSecond, budget.burst),
+        queue: [],
+        active: 0,
+        pausedUntil: 0,
+        timer: null,
+        lastUsed: Date.now()
+      };
+      this.lanes.set(key, lane);
+    }
+
+    lane.lastUsed = Date.now();
+    return lane;
+  }
+
+  getProviderBucket(provider) {
+    let bucket = this.providerBuckets.get(provider);
+    if (!bucket) {
+      const budget = this.budgets[provider];
+      bucket = new TokenBucket(budget.globalCallsPerSecond, budget.globalBurst);
+      this.providerBuckets.set(provider, bucket);
+    }
+    return bucket;
+  }
+
+  drain(lane) {
+    if (lane.timer) {
+      return;
+    }
+
+    const budget = this.budgets[lane.provider];
+    const providerBucket = this.getProviderBucket(lane.provider);
+
+    while (lane.queue.length > 0 && lane.active < budget.maxConcurrent) {
+      const now = Date.now();
+      const cost = lane.queue[0].cost;
+      const waitMs = Math.max(
+        lane.pausedUntil - now,
+        lane.bucket.msUntilToken(now, cost),
+        providerBucket.msUntilToken(now, cost)
+      );
+
+      if (waitMs > 0) {
+        lane.timer = setTimeout(() => {
+          lane.timer = null;
+          this.drain(lane);
+        }, waitMs);
+        return;
+      }
+
+      lane.bucket.take(cost);
+      providerBucket.take(cost);
+      this.run(lane, lane.queue.shift());
+    }
+  }
+
+  run(lane, job) {
+    const budget = this.budgets[lane.provider];
+    lane.active++;
+
+    Promise.resolve()
+      .then(() => job.task())
+      .then(result => {
+        lane.active--;
+        job.resolve(result);
+        this.drain(lane);
+      }, error => {
+        lane.active--;
+        const delayMs = throttleDelay(error, job.attempts);
+
+        if (delayMs !== null && job.attempts < budget.maxRetries) {
+          // Defer the whole lane, not just this call, so queued work stops hammering the provider
+          job.attempts++;
+          lane.pausedUntil = Math.max(lane.pausedUntil, Date.now() + delayMs);
+          lane.queue.unshift(job);
+        } else if (delayMs !== null) {
+          job.reject(new ThrottledError(`${lane.provider} is throttling requests`, delayMs));
+        } else {
+          job.reject(error);
+        }
+        this.drain(lane);
+      });
+  }
+
+  evictIdleLanes() {
+    const cutoff = Date.now() - LANE_IDLE_TTL_MS;
+    for (const [key, lane] of this.lanes) {
+      if (lane.lastUsed < cutoff && lane.queue.length === 0 && lane.active === 0 && !lane.timer) {
+        this.lanes.delete(key);
+      }
+    }
+  }
+}
+
+function laneKey(provider, userId) {
+  return `${provider}:${userId || 'anonymous'}`;
+}
+
+/**
+ * Delay to wait before retrying a throttled call, or null if the error is not throttling
+ */
+function throttleDelay(error, attempts) {
+  const response = error.response || {};
+  const status = response.status || error.status;
+  const reason = response.data?.error?.errors?.[0]?.reason || error.errors?.[0]?.reason;
+  const rateLimited = status === 429 || status === 503 ||
+    (status === 403 && (reason === 'rateLimitExceeded' || reason === 'userRateLimitExceeded'));
+
+  if (!rateLimited) {
+    return null;
+  }
+
+  const retryAfter = parseRetryAfter(readHeader(response.headers, 'retry-after'));
+  if (retryAfter !== null) {
+    return retryAfter;
+  }
+
+  const backoff = Math.min(MAX_BACKOFF_MS, 1000 * Math.pow(2, attempts));
+  return backoff + Math.floor(Math.random() * 1000);
+}
+
+function readHeader(headers, name) {
+  if (!headers) {
+    return undefined;
+  }
+  if (typeof headers.get === 'function') {
+    return headers.get(name);
+  }
+  return headers[name];
+}
+
+/**
+ * Parse a Retry-After header given either as delta-seconds or as an HTTP date
+ */
+function parseRetryAfter(value) {
+  if (value === undefined || value === null || value === '') {
+    return null;
+  }
+
+  const seconds = Number(value);
+  if (!isNaN(seconds)) {
+    return Math.max(0, seconds * 1000);
+  }
+
+  const date = Date.parse(value);
+  if (!isNaN(date)) {
+    return Math.max(0, date - Date.now());
+  }
+
+  return null;
+}
+
+// Provider statuses a service error keeps: not found, so cached folder ids can be
+// invalidated, and name conflicts and failed preconditions, which retrying cannot fix
+const PASSED_THROUGH_STATUSES = [404, 409, 412];
+
+/**
+ * Build the error a service rethrows, keeping the throttling status so routes can
+ * answer 429 with Retry-After instead of a generic 500, surfacing an expired
+ * provider token as 401 so the client refreshes it through /auth/refresh, and
+ * passing provider 404s, 409s and 412s through
+ */
+function serviceError(message, cause) {
+  const error = new Error(message);
+  const status = providerStatus(cause);
+  if (cause instanceof ThrottledError) {
+    error.status = cause.status;
+    error.retryAfter = cause.retryAfter;
+  } else if (status === 401) {
+    error.status = 401;
+    error.code = 'provider_token_expired';
+  } else if (PASSED_THROUGH_STATUSES.includes(status)) {
+    error.status = status;
+  } else if (cause && PASSED_THROUGH_STATUSES.includes(cause.status)) {
+    error.status = cause.status;
+  }
+  return error;
+}
+
+function providerStatus(cause) {
+  return cause ? (cause.response && cause.response.status) || cause.code : undefined;
+}
+
+const scheduler = new RequestScheduler(config.scheduler);
+
+module.exports = {
+  scheduler,
+  serviceError,
+  throttleDelay,
+  ThrottledError
+};
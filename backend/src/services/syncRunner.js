@@ -0,0 +1,112 @@
+const { SyncMode, SyncConfigRepository } = require('../models/syncConfig');
+const { SyncJobStatus } = require('../models/syncJob');
+const compression = require('./compression');
+const { nameIndex } = require('./nameIndex');
+
+/**
+ * Sync Runner
+ * Executes a sync job in the background, reporting each file to the job as it completes
+ */
+
+/**
+ * Run the sync described by `config` for `job`. Never rejects: failures end the job
+ * in the failed state instead.
+ */
+async function runSyncJob(job, config, driveService, files) {
+  // Start from the folder id stored on the config; it is re-resolved from the path if stale
+  let folderId = config.cloudFolderId;
+  const inFolder = async (operation) => {
+    const outcome = await driveService.withFolder(config.cloudFolderPath, folderId, operation);
+    folderId = outcome.folderId;
+    return outcome.result;
+  };
+
+  try {
+    const uploads = files || [];
+    const uploadMode = config.syncMode === SyncMode.UPLOAD_ONLY || config.syncMode === SyncMode.UPLOAD_THEN_DELETE;
+    const downloadMode = config.syncMode === SyncMode.DOWNLOAD_ONLY || config.syncMode === SyncMode.DOWNLOAD_THEN_DELETE;
+
+    job.start(downloadMode ? 0 : uploads.length);
+
+    if (!downloadMode) {
+      await uploadFiles(job, config, driveService, inFolder, uploads);
+    }
+
+    if (!uploadMode && !job.cancelRequested) {
+      await downloadFiles(job, driveService, inFolder);
+    }
+
+    // Update last sync time and remember the resolved folder id for the next run
+    SyncConfigRepository.update(job.userId, config.id, {
+      lastSyncTime: new Date().toISOString(),
+      cloudFolderId: folderId
+    });
+
+    job.finish(job.cancelRequested ? SyncJobStatus.CANCELLED : SyncJobStatus.COMPLETED);
+  } catch (error) {
+    console.error(`Error running sync job ${job.id}:`, error.message);
+    job.finish(SyncJobStatus.FAILED, error.message);
+  }
+}
+
+async function uploadFiles(job, config, driveService, inFolder, files) {
+  for (const fileData of files) {
+    if (job.cancelRequested) {
+      return;
+    }
+
+    try {
+      const result = await inFolder(id => driveService.uploadFileToFolder(
+        id,
+        fileData.filename,
+        fileData.content,
+        undefined,
+        compression.selectCodec(config.compression, fileData.filename, fileData.content)
+      ));
+      nameIndex.noteFile(config.provider, job.userId, config.cloudFolderPath, result.file);
+      job.recordResult({
+        type: 'uploaded',
+        ...result.file,
+        name: fileData.filename,
+        bytes: Buffer.byteLength(fileData.content)
+      });
+    } catch (error) {
+      job.recordResult({
+        type: 'error',
+        name: fileData.filename,
+        error: error.message
+      });
+    }
+  }
+}
+
+async function downloadFiles(job, driveService, inFolder) {
+  const listResult = await inFolder(id => driveService.listFilesInFolder(id));
+  job.addToTotal(listResult.files.length);
+
+  for (const file of listResult.files) {
+    if (job.cancelRequested) {
+      return;
+    }
+
+    try {
+      const downloadResult = await driveService.downloadFile(file.id, file.codec);
+      job.recordResult({
+        type: 'downloaded',
+        ...file,
+        content: downloadResult.content,
+        bytes: Buffer.byteLength(downloadResult.content)
+      });
+    } catch (error) {
+      job.recordResult({
+        type: 'error',
+        name: file.name,
+        error: error.message
+      });
+    }
+  }
+}
+
+module.exports = {
+  runSyncJob
+};
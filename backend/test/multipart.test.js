@@ -0,0 +1,135 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const { Readable } = require('node:stream');
+const { streamMultipart } = require('../src/middleware/multipart');
+
+const BOUNDARY = 'cloudsync-boundary';
+const LIMITS = { maxPartSize: 1024, maxParts: 10 };
+
+/**
+ * A request whose body arrives in chunks of `chunkSize` bytes, so part and header
+ * boundaries fall in the middle of chunks
+ */
+function request(body, { chunkSize = body.length, contentType } = {}) {
+  const chunks = [];
+  for (let offset = 0; offset < body.length; offset += chunkSize) {
+    chunks.push(body.subarray(offset, offset + chunkSize));
+  }
+  const req = Readable.from(chunks, { objectMode: false });
+  req.headers = { 'content-type': contentType || `multipart/form-data; boundary=${BOUNDARY}` };
+  return req;
+}
+
+function body(parts, { close = true } = {}) {
+  const pieces = [Buffer.from('preamble to ignore\r\n')];
+  for (const part of parts) {
+    let head = `--${BOUNDARY}\r\nContent-Disposition: form-data; name="${part.name}"`;
+    if (part.filename) {
+      head += `; filename="${part.filename}"`;
+    }
+    head += '\r\n';
+    if (part.contentType) {
+      head += `Content-Type: ${part.contentType}\r\n`;
+    }
+    if (part.idempotencyKey) {
+      head += `Idempotency-Key: ${part.idempotencyKey}\r\n`;
+    }
+    pieces.push(Buffer.from(`${head}\r\n`), Buffer.from(part.content), Buffer.from('\r\n'));
+  }
+  if (close) {
+    pieces.push(Buffer.from(`--${BOUNDARY}--\r\n`));
+  }
+  return Buffer.concat(pieces);
+}
+
+test('hands each part over with its headers and content', async () => {
+  const parts = [];
+  const count = await streamMultipart(request(body([
+    { name: 'file', filename: 'a.txt', contentType: 'text/plain', idempotencyKey: 'key-1', content: 'first' },
+    { name: 'file', filename: 'b.bin', content: Buffer.from([0, 1, 2, 255]) }
+  ])), LIMITS, part => { parts.push(part); });
+
+  assert.equal(count, 2);
+  assert.deepEqual(parts[0], {
+    name: 'file', filename: 'a.txt', contentType: 'text/plain', idempotencyKey: 'key-1', content: Buffer.from('first')
+  });
+  assert.equal(parts[1].filename, 'b.bin');
+  assert.equal(parts[1].contentType, 'application/octet-stream');
+  assert.equal(parts[1].idempotencyKey, null);
+  assert.deepEqual(parts[1].content, Buffer.from([0, 1, 2, 255]));
+});
+
+test('finds boundaries split across chunks', async () => {
+  const content = `line one\r\n--not-the-boundary\r\n${'x'.repeat(100)}`;
+  const parts = [];
+  const count = await streamMultipart(request(body([
+    { name: 'file', filename: 'a.txt', content },
+    { name: 'file', filename: 'b.txt', content: '' }
+  ]), { chunkSize: 1 }), LIMITS, part => { parts.push(part); });
+
+  assert.equal(count, 2);
+  assert.equal(parts[0].content.toString(), content);
+  assert.equal(parts[1].content.length, 0);
+});
+
+test('waits for an asynchronous consumer before the next part', async () => {
+  const events = [];
+  await streamMultipart(request(body([
+    { name: 'file', filename: 'a.txt', content: 'a' },
+    { name: 'file', filename: 'b.txt', content: 'b' }
+  ]), { chunkSize: 7 }), LIMITS, async part => {
+    events.push(`start ${part.filename}`);
+    await new Promise(resolve => setTimeout(resolve, 5));
+    events.push(`end ${part.filename}`);
+  });
+
+  assert.deepEqual(events, ['start a.txt', 'end a.txt', 'start b.txt', 'end b.txt']);
+});
+
+test('accepts a quoted boundary', async () => {
+  const count = await streamMultipart(request(body([{ name: 'file', filename: 'a.txt', content: 'a' }]), {
+    contentType: `multipart/form-data; boundary="${BOUNDARY}"; charset=utf-8`
+  }), LIMITS, () => {});
+
+  assert.equal(count, 1);
+});
+
+test('rejects a request that is not multipart', async () => {
+  await assert.rejects(
+    streamMultipart(request(Buffer.from('{}'), { contentType: 'application/json' }), LIMITS, () => {}),
+    { status: 400 }
+  );
+});
+
+test('rejects a body without its closing boundary', async () => {
+  await assert.rejects(
+    streamMultipart(request(body([{ name: 'file', filename: 'a.txt', content: 'a' }], { close: false })), LIMITS, () => {}),
+    { status: 400, message: 'Multipart body ended before the closing boundary' }
+  );
+});
+
+test('rejects a part larger than the limit', async () => {
+  await assert.rejects(
+    streamMultipart(request(body([{ name: 'file', filename: 'a.txt', content: 'x'.repeat(4096) }]), { chunkSize: 256 }),
+      LIMITS, () => {}),
+    { status: 413 }
+  );
+});
+
+test('rejects more parts than the limit', async () => {
+  const parts = Array.from({ length: 3 }, (_, i) => ({ name: 'file', filename: `${i}.txt`, content: 'a' }));
+  await assert.rejects(
+    streamMultipart(request(body(parts)), { maxPartSize: 1024, maxParts: 2 }, () => {}),
+    { status: 413 }
+  );
+});
+
+test('fails with the error of a consumer', async () => {
+  const failure = new Error('upload failed');
+  await assert.rejects(
+    streamMultipart(request(body([{ name: 'file', filename: 'a.txt', content: 'a' }])), LIMITS, async () => {
+      throw failure;
+    }),
+    failure
+  );
+});
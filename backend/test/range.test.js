@@ -0,0 +1,54 @@
+const test = require('node:test');
+const assert = require('node:assert/strict');
+const { UNSATISFIABLE, parseRange, contentVersion, ifRangeMatches } = require('../src/services/range');
+
+test('parses a closed range', () => {
+  assert.deepEqual(parseRange('bytes=0-99', 1000), { start: 0, end: 99 });
+  assert.deepEqual(parseRange('bytes=500-500', 1000), { start: 500, end: 500 });
+});
+
+test('runs an open range to the end of the file', () => {
+  assert.deepEqual(parseRange('bytes=900-', 1000), { start: 900, end: 999 });
+});
+
+test('clamps a range that runs past the end of the file', () => {
+  assert.deepEqual(parseRange('bytes=900-5000', 1000), { start: 900, end: 999 });
+});
+
+test('takes a suffix range from the end of the file', () => {
+  assert.deepEqual(parseRange('bytes=-100', 1000), { start: 900, end: 999 });
+  assert.deepEqual(parseRange('bytes=-5000', 1000), { start: 0, end: 999 });
+});
+
+test('ignores surrounding whitespace', () => {
+  assert.deepEqual(parseRange(' bytes=0-9 ', 1000), { start: 0, end: 9 });
+});
+
+test('ignores multiple, malformed and reversed ranges', () => {
+  for (const header of ['bytes=0-9,20-29', 'bytes=-', 'bytes=a-b', 'items=0-9', 'bytes 0-9', 'bytes=10-5', '']) {
+    assert.equal(parseRange(header, 1000), null, header);
+  }
+});
+
+test('reports a range that starts at or past the end as unsatisfiable', () => {
+  assert.equal(parseRange('bytes=1000-', 1000), UNSATISFIABLE);
+  assert.equal(parseRange('bytes=2000-3000', 1000), UNSATISFIABLE);
+  assert.equal(parseRange('bytes=-0', 1000), UNSATISFIABLE);
+  assert.equal(parseRange('bytes=0-', 0), UNSATISFIABLE);
+  assert.equal(parseRange('bytes=-10', 0), UNSATISFIABLE);
+});
+
+test('versions a file by id, modification time and size', () => {
+  const google = { id: 'abc', modifiedTime: '2024-01-01T00:00:00.000Z', size: '10' };
+  const oneDrive = { id: 'abc', lastModifiedDateTime: '2024-01-01T00:00:00.000Z', size: 10 };
+
+  assert.equal(contentVersion(google), '"abc-2024-01-01T00:00:00.000Z-10"');
+  assert.equal(contentVersion(oneDrive), contentVersion(google));
+  assert.notEqual(contentVersion({ ...google, size: '11' }), contentVersion(google));
+});
+
+test('matches If-Range only against the current version', () => {
+  assert.equal(ifRangeMatches(undefined, '"v1"'), true);
+  assert.equal(ifRangeMatches('"v1"', '"v1"'), true);
+  assert.equal(ifRangeMatches('"v0"', '"v1"'), false);
+});
@@ -11,8 +11,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.cloudsync.app.api.ApiClient;
+import com.cloudsync.app.api.ServiceRegistry;
 import com.cloudsync.app.models.CloudFolder;
+import com.cloudsync.app.sync.RemoteTree;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.snackbar.Snackbar;
@@ -31,6 +32,9 @@ import retrofit2.http.GET;
 import retrofit2.http.Query;
 
 public class CloudFolderPickerActivity extends AppCompatActivity {
+    // Folders listed this recently are shown again without asking the backend
+    private static final long LISTING_MAX_AGE_MS = 60 * 1000;
+
     private RecyclerView recyclerView;
     private CloudFolderAdapter adapter;
     private TextView currentPathText;
@@ -41,8 +45,10 @@ public class CloudFolderPickerActivity extends AppCompatActivity {
     private MaterialToolbar toolbar;
     
     private String currentPath = "";
+    private String currentFolderId;
     private String provider = "google";
     private List<CloudFolder> folders = new ArrayList<>();
+    private final RemoteTree tree = new RemoteTree();
     
     public interface CloudFolderService {
         @GET("sync/folders/list")
@@ -110,6 +116,7 @@ public class CloudFolderPickerActivity extends AppCompatActivity {
         selectButton.setOnClickListener(v -> {
             Intent resultIntent = new Intent();
             resultIntent.putExtra("folder_path", currentPath.isEmpty() ? "/" : currentPath);
+            resultIntent.putExtra("folder_id", currentFolderId);
             setResult(Activity.RESULT_OK, resultIntent);
             finish();
         });
@@ -121,9 +128,14 @@ public class CloudFolderPickerActivity extends AppCompatActivity {
     }
     
     private void loadFolders(String path) {
+        int cached = tree.find(path);
+        if (cached != RemoteTree.NONE && System.currentTimeMillis() - tree.listedAt(cached) < LISTING_MAX_AGE_MS) {
+            showFolders(path, cached);
+            return;
+        }
         showLoading(true);
         
-        CloudFolderService service = ApiClient.getClient().create(CloudFolderService.class);
+        CloudFolderService service = ServiceRegistry.getInstance(this).service(CloudFolderService.class);
         Call<ResponseBody> call = service.listFolders(path, provider);
         
         call.enqueue(new Callback<ResponseBody>() {
@@ -137,22 +149,21 @@ public class CloudFolderPickerActivity extends AppCompatActivity {
                         JSONObject jsonObject = new JSONObject(jsonString);
                         
                         if (jsonObject.getBoolean("success")) {
-                            currentPath = path;
-                            currentPathText.setText(currentPath.isEmpty() ? "/" : currentPath);
-                            
+                            String folderId = jsonObject.isNull("folderId") ?
+                                              null : jsonObject.optString("folderId", null);
                             JSONArray foldersArray = jsonObject.getJSONArray("folders");
-                            folders.clear();
                             
+                            int folder = tree.folder(path);
+                            tree.startListing(folder);
                             for (int i = 0; i < foldersArray.length(); i++) {
                                 JSONObject folderObj = foldersArray.getJSONObject(i);
-                                CloudFolder folder = new CloudFolder(
-                                    folderObj.getString("id"),
-                                    folderObj.getString("name")
-                                );
-                                folders.add(folder);
+                                int entry = tree.put(folder, folderObj.getString("name"), true);
+                                tree.set(entry, folderObj.getString("id"), -1, null, null, null);
                             }
+                            tree.finishListing(folder);
+                            tree.set(folder, folderId, -1, null, null, null);
                             
-                            updateUI();
+                            showFolders(path, folder);
                         } else {
                             showSnackbar("Failed to load folders");
                         }
@@ -172,6 +183,19 @@ public class CloudFolderPickerActivity extends AppCompatActivity {
         });
     }
     
+    private void showFolders(String path, int folder) {
+        currentPath = path;
+        currentFolderId = tree.id(folder);
+        currentPathText.setText(currentPath.isEmpty() ? "/" : currentPath);
+        
+        folders.clear();
+        for (int entry = tree.firstChild(folder); entry != RemoteTree.NONE; entry = tree.nextSibling(entry)) {
+            folders.add(new CloudFolder(tree.id(entry), tree.name(entry)));
+        }
+        
+        updateUI();
+    }
+    
     private void navigateToParent() {
         if (currentPath.isEmpty()) {
             // Already at root
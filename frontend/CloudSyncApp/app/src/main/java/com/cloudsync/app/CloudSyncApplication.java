@@ -0,0 +1,17 @@
+package com.cloudsync.app;
+
+import android.app.Application;
+
+import com.cloudsync.app.utils.JankMonitor;
+
+/**
+ * Process-wide setup, run before any activity, service or provider is used
+ */
+public class CloudSyncApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // First, so stalls during the rest of startup are recorded too
+        JankMonitor.getInstance().start(this);
+    }
+}
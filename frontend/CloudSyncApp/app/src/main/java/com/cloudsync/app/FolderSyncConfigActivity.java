@@ -11,24 +11,41 @@ import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.cloudsync.app.models.CompressionCodec;
+import com.cloudsync.app.models.TransferPriority;
 import com.cloudsync.app.models.SyncMode;
+import com.cloudsync.app.sync.PathRules;
 import com.google.android.material.button.MaterialButton;
+import com.google.android.material.materialswitch.MaterialSwitch;
 import com.google.android.material.slider.Slider;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class FolderSyncConfigActivity extends AppCompatActivity {
     private static final int REQUEST_SELECT_LOCAL_FOLDER = 1001;
     private static final int REQUEST_SELECT_CLOUD_FOLDER = 1002;
     
     private TextInputEditText localFolderInput;
     private TextInputEditText cloudFolderInput;
+    private TextInputLayout mirrorFolderLayout;
+    private TextInputEditText mirrorFolderInput;
     private AutoCompleteTextView syncModeDropdown;
     private AutoCompleteTextView providerDropdown;
+    private AutoCompleteTextView transferPriorityDropdown;
     private LinearLayout deleteDelayContainer;
     private Slider deleteDelaySlider;
     private TextView deleteDelayValue;
+    private MaterialSwitch compressionSwitch;
+    private LinearLayout onDemandContainer;
+    private MaterialSwitch onDemandSwitch;
+    private TextInputLayout includePatternsLayout;
+    private TextInputEditText includePatternsInput;
+    private TextInputLayout excludePatternsLayout;
+    private TextInputEditText excludePatternsInput;
     private MaterialButton selectLocalFolderButton;
     private MaterialButton selectCloudFolderButton;
     private MaterialButton saveConfigButton;
@@ -36,8 +53,10 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
     
     private String selectedLocalFolder = "";
     private String selectedCloudFolder = "";
+    private String selectedCloudFolderId;
     private SyncMode selectedSyncMode = SyncMode.UPLOAD_ONLY;
     private String selectedProvider = "google";
+    private TransferPriority selectedPriority = TransferPriority.NORMAL;
     private int deleteDelayDays = 0;
 
     @Override
@@ -48,6 +67,7 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
         initializeViews();
         setupSyncModeDropdown();
         setupProviderDropdown();
+        setupTransferPriorityDropdown();
         setupDeleteDelaySlider();
         setupClickListeners();
         updateDeleteDelayVisibility();
@@ -56,11 +76,21 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
     private void initializeViews() {
         localFolderInput = findViewById(R.id.localFolderInput);
         cloudFolderInput = findViewById(R.id.cloudFolderInput);
+        mirrorFolderLayout = findViewById(R.id.mirrorFolderLayout);
+        mirrorFolderInput = findViewById(R.id.mirrorFolderInput);
         syncModeDropdown = findViewById(R.id.syncModeDropdown);
         providerDropdown = findViewById(R.id.providerDropdown);
+        transferPriorityDropdown = findViewById(R.id.transferPriorityDropdown);
         deleteDelayContainer = findViewById(R.id.deleteDelayContainer);
         deleteDelaySlider = findViewById(R.id.deleteDelaySlider);
         deleteDelayValue = findViewById(R.id.deleteDelayValue);
+        compressionSwitch = findViewById(R.id.compressionSwitch);
+        onDemandContainer = findViewById(R.id.onDemandContainer);
+        onDemandSwitch = findViewById(R.id.onDemandSwitch);
+        includePatternsLayout = findViewById(R.id.includePatternsLayout);
+        includePatternsInput = findViewById(R.id.includePatternsInput);
+        excludePatternsLayout = findViewById(R.id.excludePatternsLayout);
+        excludePatternsInput = findViewById(R.id.excludePatternsInput);
         selectLocalFolderButton = findViewById(R.id.selectLocalFolderButton);
         selectCloudFolderButton = findViewById(R.id.selectCloudFolderButton);
         saveConfigButton = findViewById(R.id.saveConfigButton);
@@ -68,9 +98,16 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
     }
     
     private void setupSyncModeDropdown() {
-        String[] syncModes = new String[SyncMode.values().length];
-        for (int i = 0; i < SyncMode.values().length; i++) {
-            syncModes[i] = SyncMode.values()[i].getDisplayName();
+        // Cloud-to-cloud configurations have no local folder and are set up through the API
+        List<SyncMode> localModes = new ArrayList<>();
+        for (SyncMode mode : SyncMode.values()) {
+            if (mode.isLocal()) {
+                localModes.add(mode);
+            }
+        }
+        String[] syncModes = new String[localModes.size()];
+        for (int i = 0; i < localModes.size(); i++) {
+            syncModes[i] = localModes.get(i).getDisplayName();
         }
         
         ArrayAdapter<String> adapter = new ArrayAdapter<>(
@@ -83,7 +120,7 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
         syncModeDropdown.setText(SyncMode.UPLOAD_ONLY.getDisplayName(), false);
         
         syncModeDropdown.setOnItemClickListener((parent, view, position, id) -> {
-            selectedSyncMode = SyncMode.values()[position];
+            selectedSyncMode = localModes.get(position);
             updateDeleteDelayVisibility();
         });
     }
@@ -105,6 +142,26 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
         });
     }
     
+    private void setupTransferPriorityDropdown() {
+        String[] priorities = new String[TransferPriority.values().length];
+        for (int i = 0; i < TransferPriority.values().length; i++) {
+            priorities[i] = TransferPriority.values()[i].getDisplayName();
+        }
+        
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+            this,
+            android.R.layout.simple_dropdown_item_1line,
+            priorities
+        );
+        
+        transferPriorityDropdown.setAdapter(adapter);
+        transferPriorityDropdown.setText(TransferPriority.NORMAL.getDisplayName(), false);
+        
+        transferPriorityDropdown.setOnItemClickListener((parent, view, position, id) -> {
+            selectedPriority = TransferPriority.values()[position];
+        });
+    }
+    
     private void setupDeleteDelaySlider() {
         deleteDelaySlider.setValueFrom(0);
         deleteDelaySlider.setValueTo(30);
@@ -133,6 +190,8 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
         boolean showDelay = selectedSyncMode == SyncMode.UPLOAD_THEN_DELETE || 
                             selectedSyncMode == SyncMode.DOWNLOAD_THEN_DELETE;
         deleteDelayContainer.setVisibility(showDelay ? View.VISIBLE : View.GONE);
+        // Only a mode that never deletes from the cloud can leave files there until opened
+        onDemandContainer.setVisibility(selectedSyncMode == SyncMode.DOWNLOAD_ONLY ? View.VISIBLE : View.GONE);
     }
     
     private void setupClickListeners() {
@@ -168,6 +227,7 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
                 }
             } else if (requestCode == REQUEST_SELECT_CLOUD_FOLDER) {
                 selectedCloudFolder = data.getStringExtra("folder_path");
+                selectedCloudFolderId = data.getStringExtra("folder_id");
                 if (selectedCloudFolder != null) {
                     cloudFolderInput.setText(selectedCloudFolder);
                 }
@@ -194,17 +254,73 @@ public class FolderSyncConfigActivity extends AppCompatActivity {
             return;
         }
         
+        String mirrorFolder = mirrorFolderInput.getText() != null ?
+                             mirrorFolderInput.getText().toString().trim() : "";
+        boolean downloads = selectedSyncMode == SyncMode.DOWNLOAD_ONLY || selectedSyncMode == SyncMode.DOWNLOAD_THEN_DELETE;
+        if (!mirrorFolder.isEmpty() && downloads) {
+            mirrorFolderLayout.setError("Only uploads can be mirrored");
+            mirrorFolderInput.requestFocus();
+            return;
+        }
+        mirrorFolderLayout.setError(null);
+        
+        ArrayList<String> includePatterns = readPatterns(includePatternsInput);
+        ArrayList<String> excludePatterns = readPatterns(excludePatternsInput);
+        if (!validatePatterns(includePatterns, includePatternsLayout, includePatternsInput)
+                || !validatePatterns(excludePatterns, excludePatternsLayout, excludePatternsInput)) {
+            return;
+        }
+        
         // Return result to MainActivity
         Intent resultIntent = new Intent();
         resultIntent.putExtra("local_folder", localFolder);
         resultIntent.putExtra("cloud_folder", cloudFolder);
+        // The picked folder's id only applies if the path wasn't edited by hand afterwards
+        if (cloudFolder.equals(selectedCloudFolder)) {
+            resultIntent.putExtra("cloud_folder_id", selectedCloudFolderId);
+        }
         resultIntent.putExtra("sync_mode", selectedSyncMode.getValue());
         resultIntent.putExtra("provider", selectedProvider);
+        if (!mirrorFolder.isEmpty()) {
+            resultIntent.putExtra("mirror_provider", "google".equals(selectedProvider) ? "microsoft" : "google");
+            resultIntent.putExtra("mirror_folder", mirrorFolder);
+        }
         resultIntent.putExtra("delete_delay_days", deleteDelayDays);
+        resultIntent.putExtra("compression", compressionSwitch.isChecked() ?
+                              CompressionCodec.GZIP.getValue() : CompressionCodec.NONE.getValue());
+        resultIntent.putExtra("transfer_priority", selectedPriority.getValue());
+        resultIntent.putExtra("on_demand", selectedSyncMode == SyncMode.DOWNLOAD_ONLY && onDemandSwitch.isChecked());
+        resultIntent.putStringArrayListExtra("include_patterns", includePatterns);
+        resultIntent.putStringArrayListExtra("exclude_patterns", excludePatterns);
         setResult(Activity.RESULT_OK, resultIntent);
         finish();
     }
     
+    private ArrayList<String> readPatterns(TextInputEditText input) {
+        ArrayList<String> patterns = new ArrayList<>();
+        if (input.getText() == null) {
+            return patterns;
+        }
+        for (String line : input.getText().toString().split("\n")) {
+            if (!line.trim().isEmpty()) {
+                patterns.add(line.trim());
+            }
+        }
+        return patterns;
+    }
+    
+    private boolean validatePatterns(ArrayList<String> patterns, TextInputLayout layout, TextInputEditText input) {
+        try {
+            PathRules.compile(patterns, null);
+            layout.setError(null);
+            return true;
+        } catch (IllegalArgumentException e) {
+            layout.setError(e.getMessage());
+            input.requestFocus();
+            return false;
+        }
+    }
+    
     private void showSnackbar(String message) {
         View rootView = findViewById(android.R.id.content);
         Snackbar.make(rootView, message, Snackbar.LENGTH_LONG).show();
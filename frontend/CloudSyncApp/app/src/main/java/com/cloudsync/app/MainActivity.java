@@ -11,6 +11,15 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.util.List;
+import java.util.Map;
+
+import com.cloudsync.app.api.ServiceRegistry;
+import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.sync.BandwidthGovernor;
+import com.cloudsync.app.sync.TransferEngine;
+import com.cloudsync.app.sync.TransferState;
+import com.cloudsync.app.utils.SyncConfigManager;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.snackbar.Snackbar;
 
@@ -31,6 +40,7 @@ public class MainActivity extends AppCompatActivity {
     private SharedPreferences prefs;
     private String selectedGoogleAccount = null;
     private boolean isOneDriveConnected = false;
+    private TransferEngine transferEngine;
     
     private static final int REQUEST_FOLDER_SYNC_CONFIG = 300;
 
@@ -41,10 +51,45 @@ public class MainActivity extends AppCompatActivity {
         
         prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         
+        // Connect to the backend while the first screen is drawn
+        ServiceRegistry services = ServiceRegistry.getInstance(this);
+        services.warmUp();
+        
+        // Follow connectivity changes so transfers pick up the right bandwidth policy
+        BandwidthGovernor.getInstance().start(this);
+        
         initializeViews();
         loadSavedState();
         setupClickListeners();
         updateUI();
+        
+        // Finish transfers left over from a previous run, e.g. one killed mid-sync.
+        // The engine is built in the background: loading the transfer journal reads the disk.
+        services.runInBackground(() -> {
+            TransferEngine engine = TransferEngine.getInstance(this);
+            boolean pending = engine.getQueue().hasPendingWork();
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                transferEngine = engine;
+                if (pending) {
+                    transferEngine.setListener(transferListener);
+                    showSyncInProgress(0);
+                    transferEngine.resume();
+                }
+                // The sync button now shows whether work is pending, which completes the screen
+                reportFullyDrawn();
+            });
+        });
+    }
+    
+    @Override
+    protected void onDestroy() {
+        if (transferEngine != null) {
+            transferEngine.setListener(null);
+        }
+        super.onDestroy();
     }
     
     private void initializeViews() {
@@ -162,23 +207,44 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void performSync() {
-        // Show progress
-        syncButton.setEnabled(false);
-        syncButton.setText(R.string.syncing);
+        showSyncInProgress(0);
+        // The engine may still be loading its journal; wait for it off the main thread
+        ServiceRegistry.getInstance(this).runInBackground(() -> {
+            TransferEngine engine = TransferEngine.getInstance(this);
+            List<SyncConfig> configs = new SyncConfigManager(this).getAllConfigs();
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                transferEngine = engine;
+                transferEngine.setListener(transferListener);
+                transferEngine.syncAll(configs);
+            });
+        });
+    }
+    
+    private final TransferEngine.Listener transferListener = new TransferEngine.Listener() {
+        @Override
+        public void onQueueChanged(Map<TransferState, Integer> counts) {
+            showSyncInProgress(counts.get(TransferState.QUEUED) + counts.get(TransferState.IN_FLIGHT) +
+                    counts.get(TransferState.VERIFYING));
+        }
         
-        // Simulate sync operation (in real implementation, this would call the backend)
-        syncButton.postDelayed(() -> {
+        @Override
+        public void onIdle(Map<TransferState, Integer> counts) {
             syncButton.setEnabled(true);
             syncButton.setText(R.string.sync_data);
-            showSuccessSnackbar(getString(R.string.sync_success));
-        }, 1500);
-        
-        // This is a placeholder for actual sync functionality
-        // In a real implementation, this would:
-        // 1. Use the selected Google account to authenticate with backend
-        // 2. Or use OneDrive credentials to authenticate
-        // 3. Upload/download data via the backend API
-        // 4. Show progress and results to the user
+            
+            int failed = counts.get(TransferState.FAILED);
+            showSuccessSnackbar(failed > 0
+                    ? getString(R.string.sync_partial_failure, failed)
+                    : getString(R.string.sync_success));
+        }
+    };
+    
+    private void showSyncInProgress(int remaining) {
+        syncButton.setEnabled(false);
+        syncButton.setText(remaining > 0 ? getString(R.string.sync_progress, remaining) : getString(R.string.syncing));
     }
     
     private void showSuccessSnackbar(String message) {
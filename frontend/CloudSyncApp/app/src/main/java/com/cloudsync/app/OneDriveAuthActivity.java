@@ -13,6 +13,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.cloudsync.app.api.ServiceRegistry;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.snackbar.Snackbar;
 import com.microsoft.identity.client.AuthenticationCallback;
@@ -20,7 +21,6 @@ import com.microsoft.identity.client.IAccount;
 import com.microsoft.identity.client.IAuthenticationResult;
 import com.microsoft.identity.client.IPublicClientApplication;
 import com.microsoft.identity.client.ISingleAccountPublicClientApplication;
-import com.microsoft.identity.client.PublicClientApplication;
 import com.microsoft.identity.client.exception.MsalException;
 
 public class OneDriveAuthActivity extends AppCompatActivity {
@@ -58,9 +58,8 @@ public class OneDriveAuthActivity extends AppCompatActivity {
     
     private void initializeMSAL() {
         showLoading(true);
-        PublicClientApplication.createSingleAccountPublicClientApplication(
-                getApplicationContext(),
-                R.raw.auth_config_msal,
+        // Created once per process; opening this screen again reuses it
+        ServiceRegistry.getInstance(this).withMsalApp(
                 new IPublicClientApplication.ISingleAccountApplicationCreatedListener() {
                     @Override
                     public void onCreated(ISingleAccountPublicClientApplication application) {
@@ -1,5 +1,6 @@
 package com.cloudsync.app;
 
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,13 +11,17 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.sync.ConfigQueueStats;
 import com.google.android.material.card.MaterialCardView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SyncConfigAdapter extends RecyclerView.Adapter<SyncConfigAdapter.ViewHolder> {
     private List<SyncConfig> configs;
+    private Map<String, ConfigQueueStats> queueStats = new HashMap<>();
     private OnConfigClickListener listener;
 
     public interface OnConfigClickListener {
@@ -34,6 +39,11 @@ public class SyncConfigAdapter extends RecyclerView.Adapter<SyncConfigAdapter.Vi
         notifyDataSetChanged();
     }
 
+    public void setQueueStats(Map<String, ConfigQueueStats> queueStats) {
+        this.queueStats = queueStats;
+        notifyDataSetChanged();
+    }
+
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -60,6 +70,7 @@ public class SyncConfigAdapter extends RecyclerView.Adapter<SyncConfigAdapter.Vi
         private TextView cloudFolderText;
         private TextView syncModeText;
         private TextView statusText;
+        private TextView queueStatusText;
         private ImageView statusIcon;
 
         public ViewHolder(@NonNull View itemView) {
@@ -70,11 +81,18 @@ public class SyncConfigAdapter extends RecyclerView.Adapter<SyncConfigAdapter.Vi
             cloudFolderText = itemView.findViewById(R.id.cloudFolderText);
             syncModeText = itemView.findViewById(R.id.syncModeText);
             statusText = itemView.findViewById(R.id.statusText);
+            queueStatusText = itemView.findViewById(R.id.queueStatusText);
             statusIcon = itemView.findViewById(R.id.statusIcon);
         }
 
         public void bind(SyncConfig config) {
-            localFolderText.setText(config.getLocalFolderPath());
+            if (config.getSyncMode().isLocal()) {
+                localFolderText.setText(config.getLocalFolderPath());
+            } else {
+                // Cloud-to-cloud configurations have no local folder; show where files are copied to
+                localFolderText.setText(itemView.getContext().getString(R.string.cloud_target,
+                        config.getTargetProvider(), config.getTargetFolderPath()));
+            }
             cloudFolderText.setText(config.getCloudFolderPath());
             syncModeText.setText(config.getSyncMode().getDisplayName());
             
@@ -94,6 +112,8 @@ public class SyncConfigAdapter extends RecyclerView.Adapter<SyncConfigAdapter.Vi
                 statusIcon.setImageResource(R.drawable.ic_error);
             }
             
+            bindQueueStatus(queueStats.get(config.getId()));
+            
             cardView.setOnClickListener(v -> {
                 if (listener != null) {
                     listener.onConfigClick(config);
@@ -107,5 +127,22 @@ public class SyncConfigAdapter extends RecyclerView.Adapter<SyncConfigAdapter.Vi
                 return true;
             });
         }
+
+        private void bindQueueStatus(ConfigQueueStats stats) {
+            if (stats == null || (stats.getQueued() == 0 && stats.getInProgress() == 0)) {
+                queueStatusText.setVisibility(View.GONE);
+                return;
+            }
+            
+            queueStatusText.setVisibility(View.VISIBLE);
+            if (stats.getQueued() == 0) {
+                queueStatusText.setText(itemView.getContext().getString(
+                        R.string.queue_status_idle, stats.getInProgress()));
+            } else {
+                long waitSeconds = stats.getWaitMillis(System.currentTimeMillis()) / 1000;
+                queueStatusText.setText(itemView.getContext().getString(R.string.queue_status,
+                        stats.getQueued(), stats.getInProgress(), DateUtils.formatElapsedTime(waitSeconds)));
+            }
+        }
     }
 }
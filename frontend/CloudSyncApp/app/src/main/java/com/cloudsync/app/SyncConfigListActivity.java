@@ -2,6 +2,11 @@ package com.cloudsync.app;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateFormat;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.TextView;
 
@@ -10,15 +15,36 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.cloudsync.app.api.ApiClient;
+import com.cloudsync.app.api.ServiceRegistry;
 import com.cloudsync.app.api.SyncConfigService;
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.api.requests.ExecuteSyncRequest;
 import com.cloudsync.app.api.responses.SyncConfigListResponse;
+import com.cloudsync.app.api.responses.SyncJobResponse;
+import com.cloudsync.app.models.BandwidthLimits;
+import com.cloudsync.app.models.CompressionCodec;
 import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.models.SyncJob;
+import com.cloudsync.app.models.SyncJobEvent;
+import com.cloudsync.app.models.SyncMirror;
 import com.cloudsync.app.models.SyncMode;
+import com.cloudsync.app.models.TransferPriority;
+import com.cloudsync.app.sync.BandwidthGovernor;
+import com.cloudsync.app.sync.ConcurrencySnapshot;
+import com.cloudsync.app.sync.NetworkType;
+import com.cloudsync.app.sync.SyncJobMonitor;
+import com.cloudsync.app.sync.TransferEngine;
+import com.cloudsync.app.sync.TransferMetrics;
+import com.cloudsync.app.utils.JankMonitor;
+import com.cloudsync.app.utils.JankReport;
 import com.cloudsync.app.utils.SyncConfigManager;
+import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.snackbar.Snackbar;
+import com.google.android.material.textfield.TextInputEditText;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 import retrofit2.Call;
@@ -31,17 +57,33 @@ public class SyncConfigListActivity extends AppCompatActivity {
     private TextView emptyStateText;
     private TextView configCountText;
     private FloatingActionButton fabAdd;
+    private MaterialToolbar toolbar;
     private SyncConfigService apiService;
     private SyncConfigManager configManager;
+    // Cloud-to-cloud configurations live on the backend and run there
+    private List<SyncConfig> remoteConfigs = new ArrayList<>();
+    private SyncJobMonitor jobMonitor;
+    private Snackbar jobSnackbar;
     
     private static final int REQUEST_ADD_CONFIG = 1001;
+    private static final long QUEUE_REFRESH_INTERVAL_MS = 1000;
+    
+    private final Handler queueRefreshHandler = new Handler(Looper.getMainLooper());
+    private final Runnable queueRefresh = new Runnable() {
+        @Override
+        public void run() {
+            // Polled rather than pushed so waiting times keep counting up between changes
+            adapter.setQueueStats(TransferEngine.getInstance(SyncConfigListActivity.this).getQueue().getConfigStats());
+            queueRefreshHandler.postDelayed(this, QUEUE_REFRESH_INTERVAL_MS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_sync_config_list);
         
-        apiService = ApiClient.getClient().create(SyncConfigService.class);
+        apiService = ServiceRegistry.getInstance(this).service(SyncConfigService.class);
         configManager = new SyncConfigManager(this);
         
         initializeViews();
@@ -49,11 +91,50 @@ public class SyncConfigListActivity extends AppCompatActivity {
         loadConfigurations();
     }
     
+    @Override
+    protected void onResume() {
+        super.onResume();
+        queueRefreshHandler.post(queueRefresh);
+    }
+    
+    @Override
+    protected void onPause() {
+        queueRefreshHandler.removeCallbacks(queueRefresh);
+        super.onPause();
+    }
+    
+    @Override
+    protected void onDestroy() {
+        // The job keeps running on the backend; only stop following it
+        if (jobMonitor != null) {
+            jobMonitor.stop();
+        }
+        super.onDestroy();
+    }
+    
     private void initializeViews() {
         recyclerView = findViewById(R.id.recyclerView);
         emptyStateText = findViewById(R.id.emptyStateText);
         configCountText = findViewById(R.id.configCountText);
         fabAdd = findViewById(R.id.fabAdd);
+        toolbar = findViewById(R.id.toolbar);
+        
+        toolbar.inflateMenu(R.menu.menu_sync_config_list);
+        toolbar.setOnMenuItemClickListener(item -> {
+            if (item.getItemId() == R.id.action_bandwidth_limits) {
+                showBandwidthLimitsDialog();
+                return true;
+            }
+            if (item.getItemId() == R.id.action_transfer_metrics) {
+                showTransferMetricsDialog();
+                return true;
+            }
+            if (item.getItemId() == R.id.action_jank_report) {
+                JankMonitor.getInstance().export(this::showJankReportDialog);
+                return true;
+            }
+            return false;
+        });
         
         fabAdd.setOnClickListener(v -> {
             if (configManager.hasReachedMaxLimit()) {
@@ -75,8 +156,12 @@ public class SyncConfigListActivity extends AppCompatActivity {
             
             @Override
             public void onConfigLongClick(SyncConfig config) {
-                // Show delete confirmation
-                showDeleteConfirmation(config);
+                // Show delete confirmation; backend configurations are not deleted from here
+                if (config.getSyncMode().isLocal()) {
+                    showDeleteConfirmation(config);
+                } else {
+                    showConfigOptions(config);
+                }
             }
         });
         
@@ -85,8 +170,38 @@ public class SyncConfigListActivity extends AppCompatActivity {
     }
     
     private void loadConfigurations() {
-        List<SyncConfig> configs = configManager.getAllConfigs();
-        updateUI(configs);
+        updateUI(mergedConfigs());
+        loadRemoteConfigurations();
+    }
+    
+    private void loadRemoteConfigurations() {
+        apiService.getConfigs().enqueue(new Callback<SyncConfigListResponse>() {
+            @Override
+            public void onResponse(Call<SyncConfigListResponse> call, Response<SyncConfigListResponse> response) {
+                if (!response.isSuccessful() || response.body() == null || response.body().getConfigs() == null) {
+                    return;
+                }
+                List<SyncConfig> cloudConfigs = new ArrayList<>();
+                for (SyncConfig config : response.body().getConfigs()) {
+                    if (config.getSyncMode() == SyncMode.CLOUD_TO_CLOUD) {
+                        cloudConfigs.add(config);
+                    }
+                }
+                remoteConfigs = cloudConfigs;
+                updateUI(mergedConfigs());
+            }
+            
+            @Override
+            public void onFailure(Call<SyncConfigListResponse> call, Throwable t) {
+                // Offline: the local configurations are still listed
+            }
+        });
+    }
+    
+    private List<SyncConfig> mergedConfigs() {
+        List<SyncConfig> configs = new ArrayList<>(configManager.getAllConfigs());
+        configs.addAll(remoteConfigs);
+        return configs;
     }
     
     private void updateUI(List<SyncConfig> configs) {
@@ -104,22 +219,29 @@ public class SyncConfigListActivity extends AppCompatActivity {
     }
     
     private void showConfigOptions(SyncConfig config) {
-        String[] options = {"View Details", "Edit", "Toggle Enable/Disable", "Delete"};
+        if (!config.getSyncMode().isLocal()) {
+            showCloudConfigOptions(config);
+            return;
+        }
+        String[] options = {getString(R.string.sync_now), "View Details", "Edit", "Toggle Enable/Disable", "Delete"};
         
         new AlertDialog.Builder(this)
                 .setTitle(config.getSyncMode().getDisplayName())
                 .setItems(options, (dialog, which) -> {
                     switch (which) {
                         case 0:
-                            showConfigDetails(config);
+                            syncNow(config);
                             break;
                         case 1:
-                            editConfig(config);
+                            showConfigDetails(config);
                             break;
                         case 2:
-                            toggleConfigEnabled(config);
+                            editConfig(config);
                             break;
                         case 3:
+                            toggleConfigEnabled(config);
+                            break;
+                        case 4:
                             showDeleteConfirmation(config);
                             break;
                     }
@@ -127,14 +249,132 @@ public class SyncConfigListActivity extends AppCompatActivity {
                 .show();
     }
     
+    private void showCloudConfigOptions(SyncConfig config) {
+        String[] options = {getString(R.string.sync_now), "View Details"};
+        
+        new AlertDialog.Builder(this)
+                .setTitle(config.getSyncMode().getDisplayName())
+                .setItems(options, (dialog, which) -> {
+                    if (which == 0) {
+                        executeCloudSync(config);
+                    } else {
+                        showConfigDetails(config);
+                    }
+                })
+                .show();
+    }
+    
+    private void syncNow(SyncConfig config) {
+        TransferEngine.getInstance(this).syncNow(config);
+        showSnackbar(getString(R.string.sync_now_started));
+    }
+    
+    private void executeCloudSync(SyncConfig config) {
+        if (jobMonitor != null) {
+            showSnackbar(getString(R.string.cloud_sync_running));
+            return;
+        }
+        ServiceRegistry.getInstance(this).service(SyncService.class)
+                .executeSync(config.getId(), new ExecuteSyncRequest())
+                .enqueue(new Callback<SyncJobResponse>() {
+                    @Override
+                    public void onResponse(Call<SyncJobResponse> call, Response<SyncJobResponse> response) {
+                        if (isFinishing() || isDestroyed()) {
+                            return;
+                        }
+                        if (!response.isSuccessful() || response.body() == null || response.body().getJob() == null) {
+                            showSnackbar(getString(R.string.sync_failed, response.message()));
+                            return;
+                        }
+                        followJob(response.body().getJob());
+                    }
+                    
+                    @Override
+                    public void onFailure(Call<SyncJobResponse> call, Throwable t) {
+                        if (!isFinishing() && !isDestroyed()) {
+                            showSnackbar(getString(R.string.sync_failed, t.getMessage()));
+                        }
+                    }
+                });
+    }
+    
+    private void followJob(SyncJob job) {
+        View rootView = findViewById(android.R.id.content);
+        jobSnackbar = Snackbar.make(rootView, getString(R.string.cloud_sync_progress, job.getProcessed(), job.getTotal()),
+                Snackbar.LENGTH_INDEFINITE);
+        jobSnackbar.setAction(R.string.cancel, v -> {
+            if (jobMonitor != null) {
+                jobMonitor.cancelJob(job.getId());
+            }
+        });
+        jobSnackbar.show();
+        
+        jobMonitor = new SyncJobMonitor(this, new SyncJobMonitor.Listener() {
+            @Override
+            public void onEvent(SyncJobEvent event) {
+                if (jobSnackbar != null) {
+                    jobSnackbar.setText(getString(R.string.cloud_sync_progress, event.getProcessed(), event.getTotal()));
+                }
+            }
+            
+            @Override
+            public void onFinished(SyncJob finished) {
+                endJob();
+                if (finished == null || (SyncJob.STATUS_COMPLETED.equals(finished.getStatus()) && finished.getFailed() == 0)) {
+                    showSnackbar(getString(R.string.sync_complete));
+                } else if (SyncJob.STATUS_CANCELLED.equals(finished.getStatus())) {
+                    showSnackbar(getString(R.string.cloud_sync_cancelled));
+                } else if (finished.getError() != null) {
+                    showSnackbar(getString(R.string.sync_failed, finished.getError()));
+                } else {
+                    showSnackbar(getString(R.string.sync_partial_failure, finished.getFailed()));
+                }
+            }
+            
+            @Override
+            public void onError(String message) {
+                endJob();
+                showSnackbar(message);
+            }
+        });
+        jobMonitor.follow(job.getId());
+    }
+    
+    private void endJob() {
+        if (jobMonitor != null) {
+            jobMonitor.stop();
+            jobMonitor = null;
+        }
+        if (jobSnackbar != null) {
+            jobSnackbar.dismiss();
+            jobSnackbar = null;
+        }
+    }
+    
     private void showConfigDetails(SyncConfig config) {
+        if (!config.getSyncMode().isLocal()) {
+            new AlertDialog.Builder(this)
+                    .setTitle("Configuration Details")
+                    .setMessage(String.format("Source: %s (%s)\nTarget: %s (%s)\nMode: %s\nStatus: %s",
+                            config.getCloudFolderPath(),
+                            config.getProvider(),
+                            config.getTargetFolderPath(),
+                            config.getTargetProvider(),
+                            config.getSyncMode().getDisplayName(),
+                            config.isEnabled() ? "Enabled" : "Disabled"))
+                    .setPositiveButton("OK", null)
+                    .show();
+            return;
+        }
         String details = String.format(
-            "Local: %s\nCloud: %s\nProvider: %s\nMode: %s\nDelay: %d days\nStatus: %s",
+            "Local: %s\nCloud: %s\nProvider: %s\nMode: %s\nDelay: %d days\nCompression: %s\nPriority: %s\nStatus: %s",
             config.getLocalFolderPath(),
             config.getCloudFolderPath(),
             config.getProvider(),
             config.getSyncMode().getDisplayName(),
             config.getDeleteDelayDays(),
+            config.getCompression().getDisplayName(),
+            config.getTransferPriority().getDisplayName(),
             config.isEnabled() ? "Enabled" : "Disabled"
         );
         
@@ -155,6 +395,141 @@ public class SyncConfigListActivity extends AppCompatActivity {
         showSnackbar(config.isEnabled() ? "Configuration enabled" : "Configuration disabled");
     }
     
+    private void showBandwidthLimitsDialog() {
+        BandwidthGovernor governor = BandwidthGovernor.getInstance();
+        BandwidthLimits limits = configManager.getBandwidthLimits();
+        
+        View dialogView = LayoutInflater.from(this).inflate(R.layout.dialog_bandwidth_limits, null);
+        TextView currentNetworkText = dialogView.findViewById(R.id.currentNetworkText);
+        // One row per network type: the total cap, then Google Drive's and OneDrive's
+        NetworkType[] types = {NetworkType.WIFI, NetworkType.METERED, NetworkType.ROAMING};
+        int[][] inputIds = {
+                {R.id.wifiLimitInput, R.id.wifiGoogleLimitInput, R.id.wifiOneDriveLimitInput},
+                {R.id.meteredLimitInput, R.id.meteredGoogleLimitInput, R.id.meteredOneDriveLimitInput},
+                {R.id.roamingLimitInput, R.id.roamingGoogleLimitInput, R.id.roamingOneDriveLimitInput}
+        };
+        TextInputEditText[][] inputs = new TextInputEditText[types.length][];
+        
+        currentNetworkText.setText(getString(R.string.current_network, governor.getNetworkType().getDisplayName()));
+        for (int i = 0; i < types.length; i++) {
+            inputs[i] = new TextInputEditText[inputIds[i].length];
+            for (int j = 0; j < inputIds[i].length; j++) {
+                inputs[i][j] = dialogView.findViewById(inputIds[i][j]);
+            }
+            inputs[i][0].setText(String.valueOf(limits.getGlobalKbps(types[i])));
+            inputs[i][1].setText(String.valueOf(limits.getProviderKbps("google", types[i])));
+            inputs[i][2].setText(String.valueOf(limits.getProviderKbps("microsoft", types[i])));
+        }
+        
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.bandwidth_limits)
+                .setView(dialogView)
+                .setPositiveButton("Save", (dialog, which) -> {
+                    for (int i = 0; i < types.length; i++) {
+                        limits.setGlobalKbps(types[i], parseKbps(inputs[i][0]));
+                        limits.setProviderKbps("google", types[i], parseKbps(inputs[i][1]));
+                        limits.setProviderKbps("microsoft", types[i], parseKbps(inputs[i][2]));
+                    }
+                    configManager.saveBandwidthLimits(limits);
+                    governor.setLimits(limits);
+                    showSnackbar("Bandwidth limits saved");
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+    
+    private void showTransferMetricsDialog() {
+        TransferMetrics metrics = TransferEngine.getInstance(this).getMetrics();
+        List<ConcurrencySnapshot> current = metrics.getCurrent();
+        
+        StringBuilder message = new StringBuilder();
+        for (ConcurrencySnapshot snapshot : current) {
+            if (message.length() > 0) {
+                message.append("\n\n");
+            }
+            message.append(getString(R.string.transfer_metrics_current,
+                    snapshot.getProvider(),
+                    snapshot.getLimit(),
+                    Formatter.formatShortFileSize(this, snapshot.getChunkBytes()),
+                    Formatter.formatShortFileSize(this, snapshot.getThroughputBytesPerSecond()),
+                    snapshot.getLatencyMillis(),
+                    Math.round(snapshot.getCongestionRate() * 100)));
+            
+            // Most recent decisions first
+            List<ConcurrencySnapshot> history = metrics.getHistory(snapshot.getProvider());
+            for (int i = history.size() - 1; i >= 0 && i >= history.size() - 10; i--) {
+                ConcurrencySnapshot entry = history.get(i);
+                message.append('\n').append(getString(R.string.transfer_metrics_history_entry,
+                        DateFormat.getTimeFormat(this).format(entry.getTimestamp()),
+                        entry.getReason().getDisplayName(),
+                        entry.getLimit(),
+                        Formatter.formatShortFileSize(this, entry.getChunkBytes())));
+            }
+        }
+        
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.transfer_metrics)
+                .setMessage(current.isEmpty() ? getString(R.string.transfer_metrics_empty) : message.toString())
+                .setPositiveButton("OK", null)
+                .show();
+    }
+    
+    private void showJankReportDialog(JankReport report, String json) {
+        if (isFinishing()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (JankReport.Screen screen : report.getScreens()) {
+            message.append(getString(R.string.jank_report_screen,
+                    screen.getName(),
+                    screen.getFrames(),
+                    screen.getFrames() > 0 ? Math.round(screen.getSlowFrames() * 100.0 / screen.getFrames()) : 0,
+                    screen.getFrozenFrames())).append('\n');
+        }
+        
+        // Worst first: longest in total, then most frequent, since main-thread I/O has no duration
+        List<JankReport.Issue> issues = new ArrayList<>(report.getIssues());
+        issues.sort(Comparator.comparingLong(JankReport.Issue::getTotalMs)
+                .thenComparingInt(JankReport.Issue::getCount)
+                .reversed());
+        for (int i = 0; i < issues.size() && i < 10; i++) {
+            JankReport.Issue issue = issues.get(i);
+            message.append('\n').append(getString(R.string.jank_report_issue,
+                    issue.getKind().getDisplayName(),
+                    issue.getCount(),
+                    issue.getMaxMs(),
+                    issue.getLocation())).append('\n');
+        }
+        
+        boolean empty = report.getScreens().isEmpty() && report.getIssues().isEmpty();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.jank_report)
+                .setMessage(empty ? getString(R.string.jank_report_empty) : message.toString().trim())
+                .setPositiveButton("OK", null);
+        if (!empty) {
+            builder.setNegativeButton(R.string.jank_report_share, (dialog, which) -> {
+                        Intent share = new Intent(Intent.ACTION_SEND);
+                        share.setType("application/json");
+                        share.putExtra(Intent.EXTRA_TEXT, json);
+                        startActivity(Intent.createChooser(share, getString(R.string.jank_report)));
+                    })
+                    .setNeutralButton(R.string.jank_report_clear, (dialog, which) -> {
+                        JankMonitor.getInstance().clear();
+                        showSnackbar("Performance report cleared");
+                    });
+        }
+        builder.show();
+    }
+    
+    private int parseKbps(TextInputEditText input) {
+        String text = input.getText() != null ? input.getText().toString().trim() : "";
+        try {
+            return Math.max(0, Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
     private void showDeleteConfirmation(SyncConfig config) {
         new AlertDialog.Builder(this)
                 .setTitle("Delete Configuration")
@@ -184,14 +559,33 @@ public class SyncConfigListActivity extends AppCompatActivity {
             // Create new config from result
             String localFolder = data.getStringExtra("local_folder");
             String cloudFolder = data.getStringExtra("cloud_folder");
+            String cloudFolderId = data.getStringExtra("cloud_folder_id");
             String syncModeValue = data.getStringExtra("sync_mode");
             String provider = data.getStringExtra("provider");
             int deleteDelayDays = data.getIntExtra("delete_delay_days", 0);
+            String compressionValue = data.getStringExtra("compression");
+            String priorityValue = data.getStringExtra("transfer_priority");
+            List<String> includePatterns = data.getStringArrayListExtra("include_patterns");
+            List<String> excludePatterns = data.getStringArrayListExtra("exclude_patterns");
+            String mirrorProvider = data.getStringExtra("mirror_provider");
+            String mirrorFolder = data.getStringExtra("mirror_folder");
+            boolean onDemand = data.getBooleanExtra("on_demand", false);
             
             // Convert sync mode string to enum
             SyncMode syncMode = SyncMode.fromValue(syncModeValue);
             
             SyncConfig config = new SyncConfig(localFolder, cloudFolder, provider, syncMode, deleteDelayDays);
+            config.setCompression(CompressionCodec.fromValue(compressionValue));
+            config.setTransferPriority(TransferPriority.fromValue(priorityValue));
+            config.setCloudFolderId(cloudFolderId);
+            config.setIncludePatterns(includePatterns);
+            config.setExcludePatterns(excludePatterns);
+            config.setOnDemand(onDemand);
+            if (mirrorFolder != null) {
+                List<SyncMirror> mirrors = new ArrayList<>();
+                mirrors.add(new SyncMirror(mirrorProvider, mirrorFolder, null));
+                config.setMirrors(mirrors);
+            }
             
             boolean added = configManager.addConfig(config);
             if (added) {
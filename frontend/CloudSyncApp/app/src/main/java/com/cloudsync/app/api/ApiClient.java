@@ -1,5 +1,9 @@
 package com.cloudsync.app.api;
 
+import com.cloudsync.app.sync.BandwidthGovernor;
+import com.cloudsync.app.sync.TransferMetrics;
+
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -7,17 +11,39 @@ import retrofit2.converter.gson.GsonConverterFactory;
 
 import java.util.concurrent.TimeUnit;
 
+/**
+ * The Retrofit instances every service is created on, built on first use.
+ * Services should come from {@link ServiceRegistry}, which keeps one proxy of each.
+ */
 public class ApiClient {
-    private static final String BASE_URL = "http://10.0.2.2:3000/";
+    static final String BASE_URL = "http://10.0.2.2:3000/";
     private static Retrofit retrofit = null;
+    private static Retrofit streamingRetrofit = null;
 
-    public static Retrofit getClient() {
+    public static synchronized Retrofit getClient() {
         if (retrofit == null) {
             HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
             logging.setLevel(HttpLoggingInterceptor.Level.BODY);
 
+            SessionCookieJar cookieJar = new SessionCookieJar();
+
+            // Token refreshes go through a bare client so they never re-enter the authenticator
+            OkHttpClient refreshClient = new OkHttpClient.Builder()
+                    .cookieJar(cookieJar)
+                    .connectTimeout(30, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .build();
+
             OkHttpClient client = new OkHttpClient.Builder()
+                    .cookieJar(cookieJar)
+                    .authenticator(new TokenAuthenticator(HttpUrl.get(BASE_URL), refreshClient))
                     .addInterceptor(logging)
+                    .addInterceptor(new RetryInterceptor())
+                    .addInterceptor(new CircuitBreakerInterceptor())
+                    .addInterceptor(new ServerBackoffInterceptor())
+                    .addNetworkInterceptor(new GzipRequestInterceptor())
+                    .addNetworkInterceptor(new CongestionSignalInterceptor(TransferMetrics.getInstance()))
+                    .addNetworkInterceptor(new BandwidthInterceptor(BandwidthGovernor.getInstance()))
                     .connectTimeout(30, TimeUnit.SECONDS)
                     .readTimeout(30, TimeUnit.SECONDS)
                     .writeTimeout(30, TimeUnit.SECONDS)
@@ -31,4 +57,23 @@ public class ApiClient {
         }
         return retrofit;
     }
+
+    /**
+     * Retrofit instance for long-lived streamed responses such as sync job events.
+     * Shares the connection pool and interceptors of {@link #getClient()}, minus body
+     * logging, which would buffer the whole stream before handing it over.
+     */
+    public static synchronized Retrofit getStreamingClient() {
+        if (streamingRetrofit == null) {
+            OkHttpClient.Builder builder = ((OkHttpClient) getClient().callFactory()).newBuilder();
+            builder.interceptors().removeIf(interceptor -> interceptor instanceof HttpLoggingInterceptor);
+
+            streamingRetrofit = new Retrofit.Builder()
+                    .baseUrl(BASE_URL)
+                    .client(builder.build())
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .build();
+        }
+        return streamingRetrofit;
+    }
 }
@@ -0,0 +1,136 @@
+package com.cloudsync.app.api;
+
+import com.cloudsync.app.sync.BandwidthGovernor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * Meters transfer traffic through the {@link BandwidthGovernor}. Only calls
+ * tagged with {@link #HEADER_PROVIDER} are throttled, so foreground requests
+ * such as folder listings are never held back by a running sync.
+ */
+public class BandwidthInterceptor implements Interceptor {
+    public static final String HEADER_PROVIDER = "X-CloudSync-Provider";
+
+    private final BandwidthGovernor governor;
+
+    public BandwidthInterceptor(BandwidthGovernor governor) {
+        this.governor = governor;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request original = chain.request();
+        String provider = original.header(HEADER_PROVIDER);
+        if (provider == null) {
+            return chain.proceed(original);
+        }
+
+        Request.Builder builder = original.newBuilder().removeHeader(HEADER_PROVIDER);
+        if (original.body() != null) {
+            builder.method(original.method(), new ThrottledRequestBody(original.body(), provider));
+        }
+
+        Response response = chain.proceed(builder.build());
+        if (response.body() == null) {
+            return response;
+        }
+        return response.newBuilder()
+                .body(new ThrottledResponseBody(response.body(), provider))
+                .build();
+    }
+
+    private void acquire(String provider, long bytes) throws InterruptedIOException {
+        try {
+            governor.acquire(provider, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted while throttled");
+        }
+    }
+
+    private class ThrottledRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final String provider;
+
+        ThrottledRequestBody(RequestBody delegate, String provider) {
+            this.delegate = delegate;
+            this.provider = provider;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            Sink throttled = new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    acquire(provider, byteCount);
+                    super.write(source, byteCount);
+                }
+            };
+            BufferedSink bufferedSink = Okio.buffer(throttled);
+            delegate.writeTo(bufferedSink);
+            bufferedSink.flush();
+        }
+    }
+
+    private class ThrottledResponseBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        ThrottledResponseBody(ResponseBody delegate, String provider) {
+            this.delegate = delegate;
+            Source throttled = new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        acquire(provider, read);
+                    }
+                    return read;
+                }
+            };
+            this.source = Okio.buffer(throttled);
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.cloudsync.app.api;
+
+import com.cloudsync.app.sync.BufferPool;
+import com.cloudsync.app.sync.ContentHash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Streams a file as the request body and flushes it to the connection in
+ * chunks of a given size. Small chunks keep little data buffered and let a
+ * throttled transfer react quickly; large chunks mean fewer writes on a fast
+ * link. The file is read through its {@link FileChannel} into pooled direct
+ * buffers that are handed to the sink as they are. When given
+ * {@link ContentHash}es, the bytes are hashed on their way out, by each hash
+ * in the same read.
+ */
+public class ChunkedFileRequestBody extends RequestBody {
+    private final File file;
+    private final MediaType contentType;
+    private final long chunkBytes;
+    private final List<ContentHash> hashes;
+
+    public ChunkedFileRequestBody(File file, MediaType contentType, long chunkBytes) {
+        this(file, contentType, chunkBytes, Collections.emptyList());
+    }
+
+    /**
+     * @param hash receives the bytes of the last write; may be null
+     */
+    public ChunkedFileRequestBody(File file, MediaType contentType, long chunkBytes, ContentHash hash) {
+        this(file, contentType, chunkBytes,
+                hash != null ? Collections.singletonList(hash) : Collections.emptyList());
+    }
+
+    /**
+     * @param hashes each receive the bytes of the last write
+     */
+    public ChunkedFileRequestBody(File file, MediaType contentType, long chunkBytes, List<ContentHash> hashes) {
+        this.file = file;
+        this.contentType = contentType;
+        this.chunkBytes = Math.max(BufferPool.BUFFER_BYTES, chunkBytes);
+        this.hashes = hashes;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer buffer = pool.acquire();
+        // A retried request writes the body again from the start
+        for (ContentHash hash : hashes) {
+            hash.reset();
+        }
+        try (FileInputStream in = new FileInputStream(file);
+             FileChannel channel = in.getChannel()) {
+            long pending = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                pending += buffer.remaining();
+                for (ContentHash hash : hashes) {
+                    hash.update(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+                buffer.clear();
+                if (pending >= chunkBytes) {
+                    sink.flush();
+                    pending = 0;
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.cloudsync.app.api;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Per-host circuit breaker. After {@link #FAILURE_THRESHOLD} consecutive
+ * failures (I/O errors, or 502, 503 and 504 responses) calls to the host fail
+ * fast for {@link #OPEN_MILLIS}; then a single trial call is let through and
+ * its outcome decides whether the circuit closes again. Other 5xx responses
+ * are the backend reporting on one request, such as a provider error for one
+ * file, and show the host is up.
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = 30_000;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static class Circuit {
+        State state = State.CLOSED;
+        int consecutiveFailures;
+        long openedAt;
+    }
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String host = request.url().host();
+        Circuit circuit = circuits.computeIfAbsent(host, h -> new Circuit());
+
+        admit(host, circuit);
+
+        boolean recorded = false;
+        try {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                recordFailure(circuit);
+                recorded = true;
+                throw e;
+            }
+
+            if (isHostFailure(response.code())) {
+                recordFailure(circuit);
+            } else {
+                recordSuccess(circuit);
+            }
+            recorded = true;
+            return response;
+        } finally {
+            if (!recorded) {
+                abandonTrial(circuit);
+            }
+        }
+    }
+
+    private static boolean isHostFailure(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    public boolean isOpen(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            return false;
+        }
+        synchronized (circuit) {
+            return circuit.state == State.OPEN
+                    && System.currentTimeMillis() - circuit.openedAt < OPEN_MILLIS;
+        }
+    }
+
+    private void admit(String host, Circuit circuit) throws CircuitOpenException {
+        synchronized (circuit) {
+            switch (circuit.state) {
+                case OPEN:
+                    if (System.currentTimeMillis() - circuit.openedAt < OPEN_MILLIS) {
+                        throw new CircuitOpenException(host);
+                    }
+                    circuit.state = State.HALF_OPEN; // This call is the trial
+                    return;
+                case HALF_OPEN:
+                    throw new CircuitOpenException(host); // A trial is already in flight
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void recordFailure(Circuit circuit) {
+        synchronized (circuit) {
+            circuit.consecutiveFailures++;
+            if (circuit.state == State.HALF_OPEN || circuit.consecutiveFailures >= FAILURE_THRESHOLD) {
+                circuit.state = State.OPEN;
+                circuit.openedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * A call that ended without an outcome, e.g. cancelled or failed by a
+     * runtime exception, leaves its trial to the next call
+     */
+    private void abandonTrial(Circuit circuit) {
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN) {
+                circuit.state = State.OPEN;
+            }
+        }
+    }
+
+    private void recordSuccess(Circuit circuit) {
+        synchronized (circuit) {
+            circuit.consecutiveFailures = 0;
+            circuit.state = State.CLOSED;
+        }
+    }
+
+    /**
+     * Thrown instead of calling a host whose circuit is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String host) {
+            super("Backend " + host + " is unavailable, not retrying for now");
+        }
+    }
+}
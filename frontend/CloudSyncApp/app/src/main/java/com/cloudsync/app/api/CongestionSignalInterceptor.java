@@ -0,0 +1,57 @@
+package com.cloudsync.app.api;
+
+import com.cloudsync.app.sync.TransferMetrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Reports the status and latency of every transfer exchange to
+ * {@link TransferMetrics}. Runs as a network interceptor so attempts that the
+ * retry interceptor hides from the caller still count as throttling signals.
+ * Must be registered before {@link BandwidthInterceptor}, which strips the
+ * provider tag.
+ */
+public class CongestionSignalInterceptor implements Interceptor {
+    // Requests with bodies above this size spend most of their latency uploading
+    private static final long MAX_LATENCY_BODY_BYTES = 64 * 1024;
+
+    private final TransferMetrics metrics;
+
+    public CongestionSignalInterceptor(TransferMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String provider = request.header(BandwidthInterceptor.HEADER_PROVIDER);
+        if (provider == null) {
+            return chain.proceed(request);
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (InterruptedIOException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                metrics.recordNetworkFailure(provider); // A timeout, not a cancellation
+            }
+            throw e;
+        } catch (IOException e) {
+            metrics.recordNetworkFailure(provider);
+            throw e;
+        }
+
+        long bodyBytes = request.body() == null ? 0 : request.body().contentLength();
+        long latency = bodyBytes >= 0 && bodyBytes <= MAX_LATENCY_BODY_BYTES
+                ? response.receivedResponseAtMillis() - response.sentRequestAtMillis()
+                : -1;
+        metrics.recordResponse(provider, response.code(), latency);
+        return response;
+    }
+}
@@ -0,0 +1,67 @@
+package com.cloudsync.app.api;
+
+import com.cloudsync.app.models.CompressionCodec;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Gzips request bodies on the way to the backend for calls tagged with
+ * {@link #HEADER_COMPRESS}. The backend inflates them transparently, so the
+ * tag lets each sync configuration opt in to compression over the radio.
+ */
+public class GzipRequestInterceptor implements Interceptor {
+    public static final String HEADER_COMPRESS = "X-CloudSync-Compress";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request original = chain.request();
+        String codec = original.header(HEADER_COMPRESS);
+        if (codec == null) {
+            return chain.proceed(original);
+        }
+
+        Request.Builder builder = original.newBuilder().removeHeader(HEADER_COMPRESS);
+        RequestBody body = original.body();
+        if (CompressionCodec.fromValue(codec) != CompressionCodec.GZIP
+                || body == null
+                || original.header("Content-Encoding") != null) {
+            return chain.proceed(builder.build());
+        }
+
+        Request compressedRequest = builder
+                .header("Content-Encoding", "gzip")
+                .method(original.method(), gzip(body))
+                .build();
+        return chain.proceed(compressedRequest);
+    }
+
+    private RequestBody gzip(final RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() {
+                return -1; // Compressed length is unknown until written
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                body.writeTo(gzipSink);
+                gzipSink.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package com.cloudsync.app.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Retries idempotent calls that fail transiently (I/O errors, 429 and 5xx
+ * gateway responses) with exponential backoff and full jitter. POST calls are
+ * only retried when they carry an {@link #HEADER_IDEMPOTENCY_KEY}, which the
+ * backend uses to collapse duplicates.
+ */
+public class RetryInterceptor implements Interceptor {
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 10_000;
+
+    private final Random random = new Random();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!isRetryable(request)) {
+            return chain.proceed(request);
+        }
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                sleep(backoffDelay(attempt, lastError));
+            }
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (CircuitBreakerInterceptor.CircuitOpenException e) {
+                throw e; // The host is known to be down; retrying would only add load
+            } catch (IOException e) {
+                lastError = e;
+                continue;
+            }
+
+            if (!isTransient(response.code()) || attempt == MAX_ATTEMPTS - 1) {
+                return response;
+            }
+
+            lastError = new RetryableStatusException(response.code(),
+                    ServerBackoffInterceptor.parseRetryAfter(response.header("Retry-After")));
+            response.close();
+        }
+        throw lastError;
+    }
+
+    private boolean isRetryable(Request request) {
+        if (request.body() != null && request.body().isOneShot()) {
+            return false;
+        }
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return true;
+            default:
+                return request.header(HEADER_IDEMPOTENCY_KEY) != null;
+        }
+    }
+
+    private boolean isTransient(int code) {
+        return code == 429 || code == 502 || code == 503 || code == 504;
+    }
+
+    private long backoffDelay(int attempt, IOException lastError) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (attempt - 1));
+        long jittered = (long) (random.nextDouble() * ceiling);
+        if (lastError instanceof RetryableStatusException) {
+            // Never come back sooner than the server asked us to
+            jittered = Math.max(jittered, ((RetryableStatusException) lastError).retryAfterMillis);
+        }
+        return jittered;
+    }
+
+    private void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private static class RetryableStatusException extends IOException {
+        final long retryAfterMillis;
+
+        RetryableStatusException(int code, long retryAfterMillis) {
+            super("HTTP " + code);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+}
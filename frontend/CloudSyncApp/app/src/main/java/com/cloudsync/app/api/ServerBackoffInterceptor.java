@@ -0,0 +1,90 @@
+package com.cloudsync.app.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Honors the backend's throttling signal. When a transfer call tagged with
+ * {@link BandwidthInterceptor#HEADER_PROVIDER} gets 429 or 503 with
+ * {@code Retry-After}, further transfer calls for that provider are held
+ * until the deadline passes, so a bulk sync slows down together with the
+ * provider quota instead of piling up more rejected calls. The backend
+ * throttles each provider separately, so the other provider's transfers and
+ * untagged foreground requests are never held.
+ */
+public class ServerBackoffInterceptor implements Interceptor {
+    // Upper bound on how long a single call is held, so a bad header cannot stall a sync forever
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private final Map<String, Long> blockedUntil = new ConcurrentHashMap<>();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String provider = request.header(BandwidthInterceptor.HEADER_PROVIDER);
+        if (provider == null) {
+            return chain.proceed(request);
+        }
+
+        waitForBackoff(provider);
+
+        Response response = chain.proceed(request);
+        if (response.code() == 429 || response.code() == 503) {
+            long retryAfterMillis = parseRetryAfter(response.header("Retry-After"));
+            if (retryAfterMillis > 0) {
+                long deadline = System.currentTimeMillis() + Math.min(retryAfterMillis, MAX_BACKOFF_MILLIS);
+                blockedUntil.merge(provider, deadline, Math::max);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Milliseconds until transfer calls for {@code provider} are released again, or 0 if not backing off.
+     */
+    public long getRemainingBackoff(String provider) {
+        Long deadline = blockedUntil.get(provider);
+        return deadline == null ? 0 : Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    private void waitForBackoff(String provider) throws InterruptedIOException {
+        long remaining = getRemainingBackoff(provider);
+        if (remaining <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    static long parseRetryAfter(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            // Retry-After may also be an HTTP date
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                Date date = format.parse(value.trim());
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (ParseException ignored) {
+                return 0;
+            }
+        }
+    }
+}
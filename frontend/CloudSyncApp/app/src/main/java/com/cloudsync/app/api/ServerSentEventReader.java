@@ -0,0 +1,91 @@
+package com.cloudsync.app.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * Incremental reader for a text/event-stream body. Events are parsed line by line
+ * as they arrive, so nothing waits for the stream to end.
+ */
+public class ServerSentEventReader implements Closeable {
+    private final BufferedSource source;
+
+    public ServerSentEventReader(BufferedSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Block until the next complete event arrives.
+     * @return the event, or null once the stream has ended
+     */
+    public Event next() throws IOException {
+        String id = null;
+        String type = "message";
+        StringBuilder data = null;
+
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                if (data != null) {
+                    return new Event(id, type, data.toString());
+                }
+                // Blank line after comments only: nothing to dispatch
+                id = null;
+                type = "message";
+                continue;
+            }
+            if (line.startsWith(":")) {
+                continue; // Comment, used by the server as a keep-alive
+            }
+
+            int colon = line.indexOf(':');
+            String field = colon == -1 ? line : line.substring(0, colon);
+            String value = colon == -1 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+
+            switch (field) {
+                case "id":
+                    id = value;
+                    break;
+                case "event":
+                    type = value;
+                    break;
+                case "data":
+                    if (data == null) {
+                        data = new StringBuilder(value);
+                    } else {
+                        data.append('\n').append(value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    public static class Event {
+        private final String id;
+        private final String type;
+        private final String data;
+
+        Event(String id, String type, String data) {
+            this.id = id;
+            this.type = type;
+            this.data = data;
+        }
+
+        public String getId() { return id; }
+        public String getType() { return type; }
+        public String getData() { return data; }
+    }
+}
@@ -0,0 +1,150 @@
+package com.cloudsync.app.api;
+
+import android.content.Context;
+
+import com.cloudsync.app.R;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.ISingleAccountPublicClientApplication;
+import com.microsoft.identity.client.PublicClientApplication;
+import com.microsoft.identity.client.exception.MsalException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * App-wide clients, each created once on first use and shared by every
+ * screen: Retrofit service proxies and the MSAL application. {@link #warmUp()}
+ * builds the HTTP clients and opens a connection to the backend in the
+ * background, so the first request of the first screen skips DNS, TCP and
+ * TLS setup.
+ */
+public class ServiceRegistry {
+
+    private static ServiceRegistry instance;
+
+    private final Context appContext;
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+    private final Map<Class<?>, Object> services = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Object> streamingServices = new ConcurrentHashMap<>();
+
+    private ISingleAccountPublicClientApplication msalApp;
+    // Callers waiting for the MSAL application while it is created
+    private final List<IPublicClientApplication.ISingleAccountApplicationCreatedListener> msalWaiters = new ArrayList<>();
+    private boolean warmedUp;
+
+    private ServiceRegistry(Context context) {
+        this.appContext = context.getApplicationContext();
+    }
+
+    public static synchronized ServiceRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new ServiceRegistry(context);
+        }
+        return instance;
+    }
+
+    /**
+     * The shared proxy of a Retrofit service on {@link ApiClient#getClient()}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T service(Class<T> type) {
+        return (T) services.computeIfAbsent(type, t -> ApiClient.getClient().create(t));
+    }
+
+    /**
+     * The shared proxy of a Retrofit service on {@link ApiClient#getStreamingClient()}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T streamingService(Class<T> type) {
+        return (T) streamingServices.computeIfAbsent(type, t -> ApiClient.getStreamingClient().create(t));
+    }
+
+    /**
+     * Run startup work that must not hold up the first frame, in order, on a background thread
+     */
+    public void runInBackground(Runnable task) {
+        background.execute(task);
+    }
+
+    /**
+     * Build the HTTP clients and connect to the backend ahead of the first
+     * request; the connection stays in the shared pool. Does nothing after
+     * the first call.
+     */
+    public synchronized void warmUp() {
+        if (warmedUp) {
+            return;
+        }
+        warmedUp = true;
+        background.execute(() -> {
+            ApiClient.getStreamingClient();
+            // A bare client on the shared pool, so the request is not retried, logged or counted
+            OkHttpClient.Builder builder = ((OkHttpClient) ApiClient.getClient().callFactory()).newBuilder();
+            builder.interceptors().clear();
+            builder.networkInterceptors().clear();
+            Request request = new Request.Builder().url(ApiClient.BASE_URL).head().build();
+            try (Response response = builder.build().newCall(request).execute()) {
+                // Only the pooled connection is wanted, not the answer
+            } catch (Exception e) {
+                // The first real request connects instead
+            }
+        });
+    }
+
+    /**
+     * Hand the shared MSAL application to {@code listener}, creating it on
+     * the first call. Callers that arrive while it is being created wait for
+     * the same one; after a failure the next call tries again.
+     */
+    public void withMsalApp(IPublicClientApplication.ISingleAccountApplicationCreatedListener listener) {
+        ISingleAccountPublicClientApplication created;
+        synchronized (this) {
+            created = msalApp;
+            if (created == null) {
+                msalWaiters.add(listener);
+                if (msalWaiters.size() > 1) {
+                    return;
+                }
+            }
+        }
+        if (created != null) {
+            listener.onCreated(created);
+            return;
+        }
+
+        PublicClientApplication.createSingleAccountPublicClientApplication(
+                appContext,
+                R.raw.auth_config_msal,
+                new IPublicClientApplication.ISingleAccountApplicationCreatedListener() {
+                    @Override
+                    public void onCreated(ISingleAccountPublicClientApplication application) {
+                        for (IPublicClientApplication.ISingleAccountApplicationCreatedListener waiter : takeMsalWaiters(application)) {
+                            waiter.onCreated(application);
+                        }
+                    }
+
+                    @Override
+                    public void onError(MsalException exception) {
+                        for (IPublicClientApplication.ISingleAccountApplicationCreatedListener waiter : takeMsalWaiters(null)) {
+                            waiter.onError(exception);
+                        }
+                    }
+                });
+    }
+
+    private synchronized List<IPublicClientApplication.ISingleAccountApplicationCreatedListener> takeMsalWaiters(
+            ISingleAccountPublicClientApplication application) {
+        msalApp = application;
+        List<IPublicClientApplication.ISingleAccountApplicationCreatedListener> waiters = new ArrayList<>(msalWaiters);
+        msalWaiters.clear();
+        return waiters;
+    }
+}
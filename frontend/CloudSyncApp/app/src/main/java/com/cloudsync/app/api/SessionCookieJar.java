@@ -0,0 +1,53 @@
+package com.cloudsync.app.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+
+/**
+ * In-memory cookie jar that keeps the backend session cookie across calls,
+ * including the ones the {@link TokenAuthenticator} makes to refresh tokens.
+ */
+public class SessionCookieJar implements CookieJar {
+    private final List<Cookie> cookies = new ArrayList<>();
+
+    @Override
+    public synchronized void saveFromResponse(HttpUrl url, List<Cookie> responseCookies) {
+        for (Cookie cookie : responseCookies) {
+            Iterator<Cookie> iterator = cookies.iterator();
+            while (iterator.hasNext()) {
+                Cookie existing = iterator.next();
+                if (existing.name().equals(cookie.name())
+                        && existing.domain().equals(cookie.domain())
+                        && existing.path().equals(cookie.path())) {
+                    iterator.remove();
+                }
+            }
+            cookies.add(cookie);
+        }
+    }
+
+    @Override
+    public synchronized List<Cookie> loadForRequest(HttpUrl url) {
+        List<Cookie> matching = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        Iterator<Cookie> iterator = cookies.iterator();
+        while (iterator.hasNext()) {
+            Cookie cookie = iterator.next();
+            if (cookie.expiresAt() < now) {
+                iterator.remove();
+            } else if (cookie.matches(url)) {
+                matching.add(cookie);
+            }
+        }
+        return matching;
+    }
+
+    public synchronized void clear() {
+        cookies.clear();
+    }
+}
@@ -0,0 +1,139 @@
+package com.cloudsync.app.api;
+
+import com.cloudsync.app.api.requests.DeleteFilesRequest;
+import com.cloudsync.app.api.requests.ExecuteSyncRequest;
+import com.cloudsync.app.api.requests.FolderUploadRequest;
+import com.cloudsync.app.api.requests.MoveFileRequest;
+import com.cloudsync.app.api.responses.BatchUploadResponse;
+import com.cloudsync.app.api.responses.DeleteFilesResponse;
+import com.cloudsync.app.api.responses.FanOutUploadResponse;
+import com.cloudsync.app.api.responses.FileDownloadResponse;
+import com.cloudsync.app.api.responses.FileUploadResponse;
+import com.cloudsync.app.api.responses.FolderFilesResponse;
+import com.cloudsync.app.api.responses.FolderIndexResponse;
+import com.cloudsync.app.api.responses.SyncJobResponse;
+import com.cloudsync.app.api.responses.SyncJobResultsResponse;
+
+import java.util.List;
+
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.http.Body;
+import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Multipart;
+import retrofit2.http.POST;
+import retrofit2.http.Part;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+import retrofit2.http.Streaming;
+
+public interface SyncService {
+
+    @POST("api/sync/folder/upload")
+    Call<FileUploadResponse> uploadFileToFolder(@Header(BandwidthInterceptor.HEADER_PROVIDER) String provider,
+                                                @Header(GzipRequestInterceptor.HEADER_COMPRESS) String compression,
+                                                @Body FolderUploadRequest request);
+
+    /**
+     * One file of any size as the raw request body; the Idempotency-Key makes retries safe.
+     * A compress tag gzips the body on the way; the backend stores it as it arrives.
+     */
+    @POST("api/sync/folder/upload/stream")
+    Call<FileUploadResponse> uploadFileStream(@Header(BandwidthInterceptor.HEADER_PROVIDER) String provider,
+                                              @Header(GzipRequestInterceptor.HEADER_COMPRESS) String compress,
+                                              @Header("Idempotency-Key") String idempotencyKey,
+                                              @Query("folderPath") String folderPath,
+                                              @Query("folderId") String folderId,
+                                              @Query("filename") String filename,
+                                              @Query("mimeType") String mimeType,
+                                              @Query("compression") String compression,
+                                              @Body RequestBody content);
+
+    /**
+     * One file uploaded to several folders from a single body. destinations is
+     * a JSON array of {@link com.cloudsync.app.api.requests.UploadDestination};
+     * each destination has its own outcome.
+     */
+    @POST("api/sync/folder/upload/fanout")
+    Call<FanOutUploadResponse> uploadFileFanOut(@Header(BandwidthInterceptor.HEADER_PROVIDER) String provider,
+                                                @Header(GzipRequestInterceptor.HEADER_COMPRESS) String compress,
+                                                @Header("Idempotency-Key") String idempotencyKey,
+                                                @Query("destinations") String destinations,
+                                                @Query("filename") String filename,
+                                                @Query("mimeType") String mimeType,
+                                                @Query("compression") String compression,
+                                                @Body RequestBody content);
+
+    @GET("api/sync/folder/list")
+    Call<FolderFilesResponse> listFilesInFolder(@Query("folderPath") String folderPath,
+                                                @Query("folderId") String folderId);
+
+    /**
+     * Bloom filter of the names and content hashes in a folder; see {@link com.cloudsync.app.sync.RemoteNameIndex}
+     */
+    @GET("api/sync/folder/index")
+    Call<FolderIndexResponse> getFolderIndex(@Query("folderPath") String folderPath,
+                                             @Query("folderId") String folderId);
+
+    @GET("api/sync/download")
+    Call<FileDownloadResponse> downloadFile(@Header(BandwidthInterceptor.HEADER_PROVIDER) String provider,
+                                            @Query("fileId") String fileId);
+
+    /**
+     * The file's content as the raw response body, read as it arrives. Pass a
+     * range and the ETag of an earlier response to resume; either may be null.
+     */
+    @Streaming
+    @GET("api/sync/download/stream")
+    Call<ResponseBody> downloadFileStream(@Header(BandwidthInterceptor.HEADER_PROVIDER) String provider,
+                                          @Header("Range") String range,
+                                          @Header("If-Range") String ifRange,
+                                          @Query("fileId") String fileId);
+
+    /**
+     * Many small files in one multipart request; the field parts must precede the files
+     */
+    @Multipart
+    @POST("api/sync/folder/upload/batch")
+    Call<BatchUploadResponse> uploadBatch(@Header(BandwidthInterceptor.HEADER_PROVIDER) String provider,
+                                          @Part("folderPath") RequestBody folderPath,
+                                          @Part("folderId") RequestBody folderId,
+                                          @Part("compression") RequestBody compression,
+                                          @Part List<MultipartBody.Part> files);
+
+    /**
+     * Delete up to 500 files through the provider's batch interface, with an outcome per file
+     */
+    @POST("api/sync/delete/batch")
+    Call<DeleteFilesResponse> deleteFiles(@Body DeleteFilesRequest request);
+
+    /**
+     * Rename a stored file and move it into a folder, without sending its content again
+     */
+    @POST("api/sync/move")
+    Call<FileUploadResponse> moveFile(@Body MoveFileRequest request);
+
+    @POST("api/sync/execute/{configId}")
+    Call<SyncJobResponse> executeSync(@Path("configId") String configId, @Body ExecuteSyncRequest request);
+
+    @GET("api/sync/jobs/{jobId}")
+    Call<SyncJobResponse> getJob(@Path("jobId") String jobId);
+
+    /**
+     * Server-sent progress events; read incrementally with {@link ServerSentEventReader}
+     */
+    @Streaming
+    @GET("api/sync/jobs/{jobId}/events")
+    Call<ResponseBody> streamJobEvents(@Path("jobId") String jobId, @Header("Last-Event-ID") String lastEventId);
+
+    @POST("api/sync/jobs/{jobId}/cancel")
+    Call<SyncJobResponse> cancelJob(@Path("jobId") String jobId);
+
+    @GET("api/sync/jobs/{jobId}/results")
+    Call<SyncJobResultsResponse> getJobResults(@Path("jobId") String jobId,
+                                               @Query("offset") int offset,
+                                               @Query("limit") int limit);
+}
@@ -0,0 +1,67 @@
+package com.cloudsync.app.api;
+
+import java.io.IOException;
+
+import okhttp3.Authenticator;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * Refreshes the provider token behind the backend session when a call comes
+ * back 401. Concurrent 401s are collapsed into a single refresh: callers that
+ * sent their request before the latest refresh completed simply retry with
+ * the refreshed session instead of refreshing again.
+ */
+public class TokenAuthenticator implements Authenticator {
+    private static final String REFRESH_PATH = "auth/refresh";
+
+    private final HttpUrl refreshUrl;
+    private final OkHttpClient refreshClient;
+    private long lastRefreshAt;
+
+    public TokenAuthenticator(HttpUrl baseUrl, OkHttpClient refreshClient) {
+        this.refreshUrl = baseUrl.resolve(REFRESH_PATH);
+        this.refreshClient = refreshClient;
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response) throws IOException {
+        if (responseCount(response) >= 2 || response.request().url().equals(refreshUrl)) {
+            return null; // Already retried once with a fresh token; the session itself is gone
+        }
+
+        long sentAt = response.sentRequestAtMillis();
+        synchronized (this) {
+            if (sentAt < lastRefreshAt) {
+                return response.request(); // Another call refreshed while this one was in flight
+            }
+            if (!refresh()) {
+                return null;
+            }
+            lastRefreshAt = System.currentTimeMillis();
+        }
+        return response.request();
+    }
+
+    private boolean refresh() throws IOException {
+        Request request = new Request.Builder()
+                .url(refreshUrl)
+                .post(RequestBody.create(new byte[0], null))
+                .build();
+        try (Response response = refreshClient.newCall(request).execute()) {
+            return response.isSuccessful();
+        }
+    }
+
+    private int responseCount(Response response) {
+        int count = 1;
+        while ((response = response.priorResponse()) != null) {
+            count++;
+        }
+        return count;
+    }
+}
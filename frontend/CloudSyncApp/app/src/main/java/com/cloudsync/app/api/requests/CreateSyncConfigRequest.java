@@ -1,29 +1,52 @@
 package com.cloudsync.app.api.requests;
 
+import com.cloudsync.app.models.SyncMirror;
+
+import java.util.List;
+
 public class CreateSyncConfigRequest {
     private String localFolderPath;
     private String cloudFolderPath;
+    private String cloudFolderId;
     private String provider;
     private String syncMode;
     private int deleteDelayDays;
+    private String compression;
+    private List<String> includePatterns;
+    private List<String> excludePatterns;
+    private List<SyncMirror> mirrors;
+    private boolean onDemand;
     private boolean enabled;
 
     public CreateSyncConfigRequest(String localFolderPath, String cloudFolderPath, 
-                                   String provider, String syncMode, 
-                                   int deleteDelayDays, boolean enabled) {
+                                   String cloudFolderId, String provider, String syncMode,
+                                   int deleteDelayDays, String compression, boolean enabled) {
         this.localFolderPath = localFolderPath;
         this.cloudFolderPath = cloudFolderPath;
+        this.cloudFolderId = cloudFolderId;
         this.provider = provider;
         this.syncMode = syncMode;
         this.deleteDelayDays = deleteDelayDays;
+        this.compression = compression;
         this.enabled = enabled;
     }
 
+    public void setIncludePatterns(List<String> includePatterns) { this.includePatterns = includePatterns; }
+    public void setExcludePatterns(List<String> excludePatterns) { this.excludePatterns = excludePatterns; }
+    public void setMirrors(List<SyncMirror> mirrors) { this.mirrors = mirrors; }
+    public void setOnDemand(boolean onDemand) { this.onDemand = onDemand; }
+
     // Getters
     public String getLocalFolderPath() { return localFolderPath; }
     public String getCloudFolderPath() { return cloudFolderPath; }
+    public String getCloudFolderId() { return cloudFolderId; }
     public String getProvider() { return provider; }
     public String getSyncMode() { return syncMode; }
     public int getDeleteDelayDays() { return deleteDelayDays; }
+    public String getCompression() { return compression; }
+    public List<String> getIncludePatterns() { return includePatterns; }
+    public List<String> getExcludePatterns() { return excludePatterns; }
+    public List<SyncMirror> getMirrors() { return mirrors; }
+    public boolean isOnDemand() { return onDemand; }
     public boolean isEnabled() { return enabled; }
 }
@@ -0,0 +1,13 @@
+package com.cloudsync.app.api.requests;
+
+import java.util.List;
+
+public class DeleteFilesRequest {
+    private List<String> fileIds;
+
+    public DeleteFilesRequest(List<String> fileIds) {
+        this.fileIds = fileIds;
+    }
+
+    public List<String> getFileIds() { return fileIds; }
+}
@@ -0,0 +1,31 @@
+package com.cloudsync.app.api.requests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExecuteSyncRequest {
+    private List<FileData> files = new ArrayList<>();
+
+    public ExecuteSyncRequest() {
+        // Empty constructor
+    }
+
+    public void addFile(String filename, String content) {
+        files.add(new FileData(filename, content));
+    }
+
+    public List<FileData> getFiles() { return files; }
+
+    public static class FileData {
+        private String filename;
+        private String content;
+
+        public FileData(String filename, String content) {
+            this.filename = filename;
+            this.content = content;
+        }
+
+        public String getFilename() { return filename; }
+        public String getContent() { return content; }
+    }
+}
@@ -0,0 +1,24 @@
+package com.cloudsync.app.api.requests;
+
+public class FolderUploadRequest {
+    private String folderPath;
+    private String folderId;
+    private String filename;
+    private String content;
+    private String compression;
+
+    public FolderUploadRequest(String folderPath, String folderId, String filename, String content, String compression) {
+        this.folderPath = folderPath;
+        this.folderId = folderId;
+        this.filename = filename;
+        this.content = content;
+        this.compression = compression;
+    }
+
+    // Getters
+    public String getFolderPath() { return folderPath; }
+    public String getFolderId() { return folderId; }
+    public String getFilename() { return filename; }
+    public String getContent() { return content; }
+    public String getCompression() { return compression; }
+}
@@ -0,0 +1,20 @@
+package com.cloudsync.app.api.requests;
+
+public class MoveFileRequest {
+    private String fileId;
+    private String filename;
+    private String folderPath;
+    private String folderId;
+
+    public MoveFileRequest(String fileId, String filename, String folderPath, String folderId) {
+        this.fileId = fileId;
+        this.filename = filename;
+        this.folderPath = folderPath;
+        this.folderId = folderId;
+    }
+
+    public String getFileId() { return fileId; }
+    public String getFilename() { return filename; }
+    public String getFolderPath() { return folderPath; }
+    public String getFolderId() { return folderId; }
+}
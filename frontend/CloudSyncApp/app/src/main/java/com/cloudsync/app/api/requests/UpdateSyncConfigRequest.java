@@ -1,10 +1,20 @@
 package com.cloudsync.app.api.requests;
 
+import com.cloudsync.app.models.SyncMirror;
+
+import java.util.List;
+
 public class UpdateSyncConfigRequest {
     private String localFolderPath;
     private String cloudFolderPath;
+    private String cloudFolderId;
     private String syncMode;
     private Integer deleteDelayDays;
+    private String compression;
+    private List<String> includePatterns;
+    private List<String> excludePatterns;
+    private List<SyncMirror> mirrors;
+    private Boolean onDemand;
     private Boolean enabled;
 
     public UpdateSyncConfigRequest() {
@@ -20,6 +30,10 @@ public class UpdateSyncConfigRequest {
         this.cloudFolderPath = cloudFolderPath; 
     }
     
+    public void setCloudFolderId(String cloudFolderId) { 
+        this.cloudFolderId = cloudFolderId; 
+    }
+    
     public void setSyncMode(String syncMode) { 
         this.syncMode = syncMode; 
     }
@@ -28,6 +42,26 @@ public class UpdateSyncConfigRequest {
         this.deleteDelayDays = deleteDelayDays; 
     }
     
+    public void setCompression(String compression) { 
+        this.compression = compression; 
+    }
+    
+    public void setIncludePatterns(List<String> includePatterns) { 
+        this.includePatterns = includePatterns; 
+    }
+    
+    public void setExcludePatterns(List<String> excludePatterns) { 
+        this.excludePatterns = excludePatterns; 
+    }
+    
+    public void setMirrors(List<SyncMirror> mirrors) { 
+        this.mirrors = mirrors; 
+    }
+    
+    public void setOnDemand(Boolean onDemand) { 
+        this.onDemand = onDemand; 
+    }
+    
     public void setEnabled(Boolean enabled) { 
         this.enabled = enabled; 
     }
@@ -35,7 +69,13 @@ public class UpdateSyncConfigRequest {
     // Getters
     public String getLocalFolderPath() { return localFolderPath; }
     public String getCloudFolderPath() { return cloudFolderPath; }
+    public String getCloudFolderId() { return cloudFolderId; }
     public String getSyncMode() { return syncMode; }
     public Integer getDeleteDelayDays() { return deleteDelayDays; }
+    public String getCompression() { return compression; }
+    public List<String> getIncludePatterns() { return includePatterns; }
+    public List<String> getExcludePatterns() { return excludePatterns; }
+    public List<SyncMirror> getMirrors() { return mirrors; }
+    public Boolean isOnDemand() { return onDemand; }
     public Boolean isEnabled() { return enabled; }
 }
@@ -0,0 +1,20 @@
+package com.cloudsync.app.api.requests;
+
+/**
+ * One folder of a fan-out upload, sent as JSON in the {@code destinations} query parameter
+ */
+public class UploadDestination {
+    private String provider;
+    private String folderPath;
+    private String folderId;
+
+    public UploadDestination(String provider, String folderPath, String folderId) {
+        this.provider = provider;
+        this.folderPath = folderPath;
+        this.folderId = folderId;
+    }
+
+    public String getProvider() { return provider; }
+    public String getFolderPath() { return folderPath; }
+    public String getFolderId() { return folderId; }
+}
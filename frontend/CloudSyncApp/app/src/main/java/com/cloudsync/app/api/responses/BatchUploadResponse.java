@@ -0,0 +1,34 @@
+package com.cloudsync.app.api.responses;
+
+import com.cloudsync.app.models.CloudFile;
+import java.util.List;
+
+public class BatchUploadResponse {
+    private boolean success;
+    private String provider;
+    private String folderId;
+    private int uploaded;
+    private int failed;
+    private List<ItemResult> results;
+
+    public boolean isSuccess() { return success; }
+    public String getProvider() { return provider; }
+    public String getFolderId() { return folderId; }
+    public int getUploaded() { return uploaded; }
+    public int getFailed() { return failed; }
+    public List<ItemResult> getResults() { return results; }
+
+    public static class ItemResult {
+        private String filename;
+        private boolean success;
+        private int status;
+        private CloudFile file;
+        private String error;
+
+        public String getFilename() { return filename; }
+        public boolean isSuccess() { return success; }
+        public int getStatus() { return status; }
+        public CloudFile getFile() { return file; }
+        public String getError() { return error; }
+    }
+}
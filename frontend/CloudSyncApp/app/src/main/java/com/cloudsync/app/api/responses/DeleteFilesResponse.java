@@ -0,0 +1,25 @@
+package com.cloudsync.app.api.responses;
+
+import java.util.List;
+
+public class DeleteFilesResponse {
+    private boolean success;
+    private String provider;
+    private List<ItemResult> results;
+
+    public boolean isSuccess() { return success; }
+    public String getProvider() { return provider; }
+    public List<ItemResult> getResults() { return results; }
+
+    public static class ItemResult {
+        private String fileId;
+        private boolean success;
+        private int status;
+        private String error;
+
+        public String getFileId() { return fileId; }
+        public boolean isSuccess() { return success; }
+        public int getStatus() { return status; }
+        public String getError() { return error; }
+    }
+}
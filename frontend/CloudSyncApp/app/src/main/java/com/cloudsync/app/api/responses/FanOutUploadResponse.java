@@ -0,0 +1,41 @@
+package com.cloudsync.app.api.responses;
+
+import com.cloudsync.app.models.CloudFile;
+import java.util.List;
+
+public class FanOutUploadResponse {
+    private boolean success;
+    private String message;
+    private int uploaded;
+    private int failed;
+    private List<DestinationResult> results;
+
+    public boolean isSuccess() { return success; }
+    public String getMessage() { return message; }
+    public int getUploaded() { return uploaded; }
+    public int getFailed() { return failed; }
+    public List<DestinationResult> getResults() { return results; }
+
+    /**
+     * The outcome for one destination, in the order they were requested
+     */
+    public static class DestinationResult {
+        private String provider;
+        private String folderPath;
+        private boolean success;
+        private boolean replayed;
+        private int status;
+        private String folderId;
+        private CloudFile file;
+        private String error;
+
+        public String getProvider() { return provider; }
+        public String getFolderPath() { return folderPath; }
+        public boolean isSuccess() { return success; }
+        public boolean isReplayed() { return replayed; }
+        public int getStatus() { return status; }
+        public String getFolderId() { return folderId; }
+        public CloudFile getFile() { return file; }
+        public String getError() { return error; }
+    }
+}
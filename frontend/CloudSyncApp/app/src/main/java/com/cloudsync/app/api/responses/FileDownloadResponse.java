@@ -0,0 +1,11 @@
+package com.cloudsync.app.api.responses;
+
+public class FileDownloadResponse {
+    private boolean success;
+    private String provider;
+    private String content;
+
+    public boolean isSuccess() { return success; }
+    public String getProvider() { return provider; }
+    public String getContent() { return content; }
+}
@@ -0,0 +1,17 @@
+package com.cloudsync.app.api.responses;
+
+import com.cloudsync.app.models.CloudFile;
+
+public class FileUploadResponse {
+    private boolean success;
+    private String message;
+    private String provider;
+    private String folderId;
+    private CloudFile file;
+
+    public boolean isSuccess() { return success; }
+    public String getMessage() { return message; }
+    public String getProvider() { return provider; }
+    public String getFolderId() { return folderId; }
+    public CloudFile getFile() { return file; }
+}
@@ -0,0 +1,16 @@
+package com.cloudsync.app.api.responses;
+
+import com.cloudsync.app.models.CloudFile;
+import java.util.List;
+
+public class FolderFilesResponse {
+    private boolean success;
+    private String provider;
+    private String folderId;
+    private List<CloudFile> files;
+
+    public boolean isSuccess() { return success; }
+    public String getProvider() { return provider; }
+    public String getFolderId() { return folderId; }
+    public List<CloudFile> getFiles() { return files; }
+}
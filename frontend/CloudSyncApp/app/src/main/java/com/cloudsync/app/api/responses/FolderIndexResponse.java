@@ -0,0 +1,27 @@
+package com.cloudsync.app.api.responses;
+
+public class FolderIndexResponse {
+    private boolean success;
+    private String provider;
+    private String folderId;
+    private String builtAt;
+    private Index index;
+
+    public boolean isSuccess() { return success; }
+    public String getProvider() { return provider; }
+    public String getFolderId() { return folderId; }
+    public String getBuiltAt() { return builtAt; }
+    public Index getIndex() { return index; }
+
+    public static class Index {
+        private String bits;
+        private int bitCount;
+        private int hashCount;
+        private int count;
+
+        public String getBits() { return bits; }
+        public int getBitCount() { return bitCount; }
+        public int getHashCount() { return hashCount; }
+        public int getCount() { return count; }
+    }
+}
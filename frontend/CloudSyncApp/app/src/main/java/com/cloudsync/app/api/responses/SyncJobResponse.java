@@ -0,0 +1,13 @@
+package com.cloudsync.app.api.responses;
+
+import com.cloudsync.app.models.SyncJob;
+
+public class SyncJobResponse {
+    private boolean success;
+    private String message;
+    private SyncJob job;
+
+    public boolean isSuccess() { return success; }
+    public String getMessage() { return message; }
+    public SyncJob getJob() { return job; }
+}
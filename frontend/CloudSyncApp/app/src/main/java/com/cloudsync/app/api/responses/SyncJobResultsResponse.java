@@ -0,0 +1,22 @@
+package com.cloudsync.app.api.responses;
+
+import com.cloudsync.app.models.SyncJobResult;
+import java.util.List;
+
+public class SyncJobResultsResponse {
+    private boolean success;
+    private String jobId;
+    private String status;
+    private int total;
+    private int offset;
+    private Integer nextOffset;
+    private List<SyncJobResult> items;
+
+    public boolean isSuccess() { return success; }
+    public String getJobId() { return jobId; }
+    public String getStatus() { return status; }
+    public int getTotal() { return total; }
+    public int getOffset() { return offset; }
+    public Integer getNextOffset() { return nextOffset; }
+    public List<SyncJobResult> getItems() { return items; }
+}
@@ -0,0 +1,92 @@
+package com.cloudsync.app.models;
+
+import com.cloudsync.app.sync.NetworkType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transfer rate caps per network type, in KiB/s. Zero means unlimited.
+ * The global cap bounds all transfers together; the provider cap bounds
+ * transfers to each cloud provider individually. A provider can be given
+ * caps of its own, which replace the shared provider cap for it.
+ */
+public class BandwidthLimits {
+    private int wifiGlobalKbps;
+    private int wifiProviderKbps;
+    private int meteredGlobalKbps;
+    private int meteredProviderKbps;
+    private int roamingGlobalKbps;
+    private int roamingProviderKbps;
+    // Provider ("google", "microsoft") to its own caps by network type name; names rather
+    // than the enum as keys, since Gson writes map keys with toString()
+    private Map<String, Map<String, Integer>> providerKbps;
+
+    public BandwidthLimits() {
+        // Default constructor
+    }
+
+    public static BandwidthLimits defaults() {
+        BandwidthLimits limits = new BandwidthLimits();
+        limits.wifiGlobalKbps = 0;
+        limits.wifiProviderKbps = 0;
+        limits.meteredGlobalKbps = 512;
+        limits.meteredProviderKbps = 384;
+        limits.roamingGlobalKbps = 64;
+        limits.roamingProviderKbps = 64;
+        return limits;
+    }
+
+    public int getGlobalKbps(NetworkType type) {
+        switch (type) {
+            case METERED: return meteredGlobalKbps;
+            case ROAMING: return roamingGlobalKbps;
+            default: return wifiGlobalKbps;
+        }
+    }
+
+    public int getProviderKbps(NetworkType type) {
+        switch (type) {
+            case METERED: return meteredProviderKbps;
+            case ROAMING: return roamingProviderKbps;
+            default: return wifiProviderKbps;
+        }
+    }
+
+    /**
+     * The cap for transfers to {@code provider}: its own, or else the shared provider cap
+     */
+    public int getProviderKbps(String provider, NetworkType type) {
+        Map<String, Integer> own = providerKbps != null ? providerKbps.get(provider) : null;
+        Integer kbps = own != null ? own.get(type.name()) : null;
+        return kbps != null ? kbps : getProviderKbps(type);
+    }
+
+    public void setGlobalKbps(NetworkType type, int kbps) {
+        switch (type) {
+            case METERED: meteredGlobalKbps = kbps; break;
+            case ROAMING: roamingGlobalKbps = kbps; break;
+            default: wifiGlobalKbps = kbps; break;
+        }
+    }
+
+    public void setProviderKbps(NetworkType type, int kbps) {
+        switch (type) {
+            case METERED: meteredProviderKbps = kbps; break;
+            case ROAMING: roamingProviderKbps = kbps; break;
+            default: wifiProviderKbps = kbps; break;
+        }
+    }
+
+    public void setProviderKbps(String provider, NetworkType type, int kbps) {
+        if (providerKbps == null) {
+            providerKbps = new HashMap<>();
+        }
+        Map<String, Integer> own = providerKbps.get(provider);
+        if (own == null) {
+            own = new HashMap<>();
+            providerKbps.put(provider, own);
+        }
+        own.put(type.name(), kbps);
+    }
+}
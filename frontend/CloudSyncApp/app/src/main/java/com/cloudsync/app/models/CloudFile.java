@@ -0,0 +1,39 @@
+package com.cloudsync.app.models;
+
+public class CloudFile {
+    private String id;
+    private String name;
+    private String size;
+    private String mimeType;
+    private String codec;
+    // The provider's hash of the stored bytes, null when it reports none
+    private String checksum;
+    private String checksumAlgorithm;
+    // ISO 8601; Google Drive reports modifiedTime, OneDrive lastModifiedDateTime
+    private String modifiedTime;
+    private String lastModifiedDateTime;
+
+    public CloudFile() {
+        // Default constructor
+    }
+
+    // Getters
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public String getSize() { return size; }
+    public String getMimeType() { return mimeType; }
+    public CompressionCodec getCodec() { return CompressionCodec.fromValue(codec); }
+    public String getChecksum() { return checksum; }
+    public String getChecksumAlgorithm() { return checksumAlgorithm; }
+    public String getModifiedTime() { return modifiedTime != null ? modifiedTime : lastModifiedDateTime; }
+
+    // Setters
+    public void setId(String id) { this.id = id; }
+    public void setName(String name) { this.name = name; }
+    public void setSize(String size) { this.size = size; }
+    public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+    public void setCodec(CompressionCodec codec) { this.codec = codec.getValue(); }
+    public void setChecksum(String checksum) { this.checksum = checksum; }
+    public void setChecksumAlgorithm(String checksumAlgorithm) { this.checksumAlgorithm = checksumAlgorithm; }
+    public void setModifiedTime(String modifiedTime) { this.modifiedTime = modifiedTime; }
+}
@@ -0,0 +1,36 @@
+package com.cloudsync.app.models;
+
+public enum CompressionCodec {
+    NONE("none", "No Compression"),
+    GZIP("gzip", "Gzip");
+
+    private final String value;
+    private final String displayName;
+
+    CompressionCodec(String value, String displayName) {
+        this.value = value;
+        this.displayName = displayName;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public static CompressionCodec fromValue(String value) {
+        for (CompressionCodec codec : values()) {
+            if (codec.value.equals(value)) {
+                return codec;
+            }
+        }
+        return NONE; // default
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -1,13 +1,29 @@
 package com.cloudsync.app.models;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class SyncConfig {
     private String id;
     private String userId;
     private String localFolderPath;
     private String cloudFolderPath;
+    private String cloudFolderId;
     private String provider;
     private SyncMode syncMode;
     private int deleteDelayDays;
+    private CompressionCodec compression;
+    private TransferPriority transferPriority;
+    // Gitignore-style patterns relative to the local folder
+    private List<String> includePatterns;
+    private List<String> excludePatterns;
+    // Further folders uploads are mirrored to
+    private List<SyncMirror> mirrors;
+    // DOWNLOAD_ONLY: files are fetched when opened through the documents provider, not synced
+    private boolean onDemand;
+    // CLOUD_TO_CLOUD: the folder files are copied to, set up on the backend
+    private String targetProvider;
+    private String targetFolderPath;
     private boolean enabled;
     private String lastSyncTime;
     private String createdAt;
@@ -24,6 +40,7 @@ public class SyncConfig {
         this.provider = provider;
         this.syncMode = syncMode;
         this.deleteDelayDays = deleteDelayDays;
+        this.compression = CompressionCodec.NONE;
         this.enabled = true;
     }
 
@@ -32,9 +49,18 @@ public class SyncConfig {
     public String getUserId() { return userId; }
     public String getLocalFolderPath() { return localFolderPath; }
     public String getCloudFolderPath() { return cloudFolderPath; }
+    public String getCloudFolderId() { return cloudFolderId; }
     public String getProvider() { return provider; }
     public SyncMode getSyncMode() { return syncMode; }
     public int getDeleteDelayDays() { return deleteDelayDays; }
+    public CompressionCodec getCompression() { return compression != null ? compression : CompressionCodec.NONE; }
+    public TransferPriority getTransferPriority() { return transferPriority != null ? transferPriority : TransferPriority.NORMAL; }
+    public List<String> getIncludePatterns() { return includePatterns != null ? includePatterns : new ArrayList<>(); }
+    public List<String> getExcludePatterns() { return excludePatterns != null ? excludePatterns : new ArrayList<>(); }
+    public List<SyncMirror> getMirrors() { return mirrors != null ? mirrors : new ArrayList<>(); }
+    public boolean isOnDemand() { return onDemand && syncMode == SyncMode.DOWNLOAD_ONLY; }
+    public String getTargetProvider() { return targetProvider; }
+    public String getTargetFolderPath() { return targetFolderPath; }
     public boolean isEnabled() { return enabled; }
     public String getLastSyncTime() { return lastSyncTime; }
     public String getCreatedAt() { return createdAt; }
@@ -45,9 +71,16 @@ public class SyncConfig {
     public void setUserId(String userId) { this.userId = userId; }
     public void setLocalFolderPath(String localFolderPath) { this.localFolderPath = localFolderPath; }
     public void setCloudFolderPath(String cloudFolderPath) { this.cloudFolderPath = cloudFolderPath; }
+    public void setCloudFolderId(String cloudFolderId) { this.cloudFolderId = cloudFolderId; }
     public void setProvider(String provider) { this.provider = provider; }
     public void setSyncMode(SyncMode syncMode) { this.syncMode = syncMode; }
     public void setDeleteDelayDays(int deleteDelayDays) { this.deleteDelayDays = deleteDelayDays; }
+    public void setCompression(CompressionCodec compression) { this.compression = compression; }
+    public void setTransferPriority(TransferPriority transferPriority) { this.transferPriority = transferPriority; }
+    public void setIncludePatterns(List<String> includePatterns) { this.includePatterns = includePatterns; }
+    public void setExcludePatterns(List<String> excludePatterns) { this.excludePatterns = excludePatterns; }
+    public void setMirrors(List<SyncMirror> mirrors) { this.mirrors = mirrors; }
+    public void setOnDemand(boolean onDemand) { this.onDemand = onDemand; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
     public void setLastSyncTime(String lastSyncTime) { this.lastSyncTime = lastSyncTime; }
     public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
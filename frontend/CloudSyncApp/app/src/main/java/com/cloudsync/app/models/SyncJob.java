@@ -0,0 +1,46 @@
+package com.cloudsync.app.models;
+
+public class SyncJob {
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    private String id;
+    private String configId;
+    private String syncMode;
+    private String status;
+    private int total;
+    private int processed;
+    private int failed;
+    private long bytesTransferred;
+    private long throughputBps;
+    private String error;
+    private String createdAt;
+    private String startedAt;
+    private String finishedAt;
+
+    public SyncJob() {
+        // Default constructor
+    }
+
+    public boolean isFinished() {
+        return STATUS_COMPLETED.equals(status) || STATUS_FAILED.equals(status) || STATUS_CANCELLED.equals(status);
+    }
+
+    // Getters
+    public String getId() { return id; }
+    public String getConfigId() { return configId; }
+    public SyncMode getSyncMode() { return SyncMode.fromValue(syncMode); }
+    public String getStatus() { return status; }
+    public int getTotal() { return total; }
+    public int getProcessed() { return processed; }
+    public int getFailed() { return failed; }
+    public long getBytesTransferred() { return bytesTransferred; }
+    public long getThroughputBps() { return throughputBps; }
+    public String getError() { return error; }
+    public String getCreatedAt() { return createdAt; }
+    public String getStartedAt() { return startedAt; }
+    public String getFinishedAt() { return finishedAt; }
+}
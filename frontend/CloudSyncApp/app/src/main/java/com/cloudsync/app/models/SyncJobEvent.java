@@ -0,0 +1,53 @@
+package com.cloudsync.app.models;
+
+/**
+ * One server-sent event of a sync job. Progress events describe a single file;
+ * status and done events carry the job summary in {@link #getJob()}.
+ */
+public class SyncJobEvent {
+    public static final String TYPE_STATUS = "status";
+    public static final String TYPE_PROGRESS = "progress";
+    public static final String TYPE_FILE_ERROR = "file_error";
+    public static final String TYPE_DONE = "done";
+
+    private long eventId;
+    private String eventType;
+
+    // Per-file fields (progress / file_error)
+    private String type;
+    private String name;
+    private long bytes;
+    private String error;
+
+    // Running totals
+    private int processed;
+    private int total;
+    private int failed;
+    private long bytesTransferred;
+    private long throughputBps;
+
+    private SyncJob job;
+
+    public SyncJobEvent() {
+        // Default constructor
+    }
+
+    // Getters
+    public long getEventId() { return eventId; }
+    public String getEventType() { return eventType; }
+    public String getType() { return type; }
+    public String getName() { return name; }
+    public long getBytes() { return bytes; }
+    public String getError() { return error; }
+    public int getProcessed() { return job != null ? job.getProcessed() : processed; }
+    public int getTotal() { return job != null ? job.getTotal() : total; }
+    public int getFailed() { return job != null ? job.getFailed() : failed; }
+    public long getBytesTransferred() { return job != null ? job.getBytesTransferred() : bytesTransferred; }
+    public long getThroughputBps() { return job != null ? job.getThroughputBps() : throughputBps; }
+    public SyncJob getJob() { return job; }
+
+    // Setters
+    public void setEventId(long eventId) { this.eventId = eventId; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+    public void setJob(SyncJob job) { this.job = job; }
+}
@@ -0,0 +1,30 @@
+package com.cloudsync.app.models;
+
+public class SyncJobResult {
+    public static final String TYPE_UPLOADED = "uploaded";
+    public static final String TYPE_DOWNLOADED = "downloaded";
+    public static final String TYPE_ERROR = "error";
+
+    private String type;
+    private String id;
+    private String name;
+    private String size;
+    private String codec;
+    private String content;
+    private long bytes;
+    private String error;
+
+    public SyncJobResult() {
+        // Default constructor
+    }
+
+    // Getters
+    public String getType() { return type; }
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public String getSize() { return size; }
+    public CompressionCodec getCodec() { return CompressionCodec.fromValue(codec); }
+    public String getContent() { return content; }
+    public long getBytes() { return bytes; }
+    public String getError() { return error; }
+}
@@ -0,0 +1,29 @@
+package com.cloudsync.app.models;
+
+/**
+ * A further cloud folder that a configuration's uploads also go to, of
+ * either provider. Each file is still scanned and read only once.
+ */
+public class SyncMirror {
+    private String provider;
+    private String cloudFolderPath;
+    private String cloudFolderId;
+
+    public SyncMirror() {
+        // Default constructor
+    }
+
+    public SyncMirror(String provider, String cloudFolderPath, String cloudFolderId) {
+        this.provider = provider;
+        this.cloudFolderPath = cloudFolderPath;
+        this.cloudFolderId = cloudFolderId;
+    }
+
+    public String getProvider() { return provider; }
+    public String getCloudFolderPath() { return cloudFolderPath; }
+    public String getCloudFolderId() { return cloudFolderId; }
+
+    public void setProvider(String provider) { this.provider = provider; }
+    public void setCloudFolderPath(String cloudFolderPath) { this.cloudFolderPath = cloudFolderPath; }
+    public void setCloudFolderId(String cloudFolderId) { this.cloudFolderId = cloudFolderId; }
+}
@@ -1,11 +1,22 @@
 package com.cloudsync.app.models;
 
+import com.google.gson.annotations.SerializedName;
+
+// Read from the backend by value, and from configurations saved on the device by name
 public enum SyncMode {
+    @SerializedName(value = "upload_only", alternate = "UPLOAD_ONLY")
     UPLOAD_ONLY("upload_only", "Upload Only"),
+    @SerializedName(value = "upload_then_delete", alternate = "UPLOAD_THEN_DELETE")
     UPLOAD_THEN_DELETE("upload_then_delete", "Upload then Delete"),
+    @SerializedName(value = "download_only", alternate = "DOWNLOAD_ONLY")
     DOWNLOAD_ONLY("download_only", "Download Only"),
+    @SerializedName(value = "download_then_delete", alternate = "DOWNLOAD_THEN_DELETE")
     DOWNLOAD_THEN_DELETE("download_then_delete", "Download then Delete"),
-    TWO_WAY("two_way", "Two-Way Sync");
+    @SerializedName(value = "two_way", alternate = "TWO_WAY")
+    TWO_WAY("two_way", "Two-Way Sync"),
+    // Copies between two cloud folders on the server; nothing on the device is synced
+    @SerializedName(value = "cloud_to_cloud", alternate = "CLOUD_TO_CLOUD")
+    CLOUD_TO_CLOUD("cloud_to_cloud", "Cloud to Cloud");
 
     private final String value;
     private final String displayName;
@@ -23,6 +34,13 @@ public enum SyncMode {
         return displayName;
     }
 
+    /**
+     * Whether the mode syncs a folder on the device
+     */
+    public boolean isLocal() {
+        return this != CLOUD_TO_CLOUD;
+    }
+
     public static SyncMode fromValue(String value) {
         for (SyncMode mode : values()) {
             if (mode.value.equals(value)) {
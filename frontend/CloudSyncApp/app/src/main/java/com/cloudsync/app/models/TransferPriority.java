@@ -0,0 +1,48 @@
+package com.cloudsync.app.models;
+
+/**
+ * Share of transfer capacity a sync configuration gets while several have
+ * work queued. Weights are relative: a high priority configuration moves
+ * four times the bytes of a low priority one in the same time.
+ */
+public enum TransferPriority {
+    LOW("low", "Low", 1),
+    NORMAL("normal", "Normal", 2),
+    HIGH("high", "High", 4);
+
+    private final String value;
+    private final String displayName;
+    private final int weight;
+
+    TransferPriority(String value, String displayName, int weight) {
+        this.value = value;
+        this.displayName = displayName;
+        this.weight = weight;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public static TransferPriority fromValue(String value) {
+        for (TransferPriority priority : values()) {
+            if (priority.value.equals(value)) {
+                return priority;
+            }
+        }
+        return NORMAL; // default
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
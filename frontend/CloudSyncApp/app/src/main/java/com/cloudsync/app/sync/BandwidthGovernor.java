@@ -0,0 +1,144 @@
+package com.cloudsync.app.sync;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import com.cloudsync.app.models.BandwidthLimits;
+import com.cloudsync.app.utils.SyncConfigManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared bandwidth governor for the transfer pipeline. Every transfer draws
+ * from its provider's token bucket and then from a global bucket; the rates of
+ * both come from the {@link BandwidthLimits} policy for the current network
+ * type, each provider's from its own caps, and are switched live when
+ * connectivity changes.
+ */
+public class BandwidthGovernor {
+    private static final long BYTES_PER_KIB = 1024;
+
+    private static BandwidthGovernor instance;
+
+    private final TokenBucket globalBucket = new TokenBucket(0);
+    private final Map<String, TokenBucket> providerBuckets = new ConcurrentHashMap<>();
+    private volatile BandwidthLimits limits = BandwidthLimits.defaults();
+    private volatile NetworkType networkType = NetworkType.WIFI;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    private BandwidthGovernor() {
+        applyPolicy();
+    }
+
+    public static synchronized BandwidthGovernor getInstance() {
+        if (instance == null) {
+            instance = new BandwidthGovernor();
+        }
+        return instance;
+    }
+
+    /**
+     * Load the saved limits and start following connectivity changes. Safe to call repeatedly.
+     */
+    public synchronized void start(Context context) {
+        if (networkCallback != null) {
+            return;
+        }
+
+        Context appContext = context.getApplicationContext();
+        limits = new SyncConfigManager(appContext).getBandwidthLimits();
+
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            applyPolicy();
+            return;
+        }
+
+        NetworkCapabilities current = connectivityManager.getNetworkCapabilities(
+                connectivityManager.getActiveNetwork());
+        networkType = classify(current);
+        applyPolicy();
+
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(@NonNull Network network,
+                                              @NonNull NetworkCapabilities capabilities) {
+                onNetworkChanged(classify(capabilities));
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    public void setLimits(BandwidthLimits limits) {
+        this.limits = limits;
+        applyPolicy();
+    }
+
+    public BandwidthLimits getLimits() {
+        return limits;
+    }
+
+    public NetworkType getNetworkType() {
+        return networkType;
+    }
+
+    /**
+     * Block until {@code bytes} may be transferred for {@code provider}.
+     */
+    public void acquire(String provider, long bytes) throws InterruptedException {
+        if (provider != null) {
+            providerBucket(provider).acquire(bytes);
+        }
+        globalBucket.acquire(bytes);
+    }
+
+    void onNetworkChanged(NetworkType type) {
+        if (type != networkType) {
+            networkType = type;
+            applyPolicy();
+        }
+    }
+
+    private TokenBucket providerBucket(String provider) {
+        TokenBucket bucket = providerBuckets.get(provider);
+        if (bucket == null) {
+            synchronized (this) {
+                bucket = providerBuckets.get(provider);
+                if (bucket == null) {
+                    bucket = new TokenBucket(limits.getProviderKbps(provider, networkType) * BYTES_PER_KIB);
+                    providerBuckets.put(provider, bucket);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private synchronized void applyPolicy() {
+        NetworkType type = networkType;
+        globalBucket.setRate(limits.getGlobalKbps(type) * BYTES_PER_KIB);
+        for (Map.Entry<String, TokenBucket> entry : providerBuckets.entrySet()) {
+            entry.getValue().setRate(limits.getProviderKbps(entry.getKey(), type) * BYTES_PER_KIB);
+        }
+    }
+
+    static NetworkType classify(NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            return NetworkType.METERED;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING)) {
+            return NetworkType.ROAMING;
+        }
+        if (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+            return NetworkType.WIFI;
+        }
+        return NetworkType.METERED;
+    }
+}
@@ -0,0 +1,54 @@
+package com.cloudsync.app.sync;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Reusable direct buffers for moving file content between disk and the
+ * network. A direct buffer is filled by the kernel straight from a
+ * {@link java.nio.channels.FileChannel}, so transfers neither allocate nor
+ * copy through a {@code byte[]} per chunk.
+ */
+public class BufferPool {
+    public static final int BUFFER_BYTES = 64 * 1024;
+
+    // Enough for every transfer the concurrency controller allows, plus spares
+    private static final int MAX_POOLED = 16;
+
+    private static BufferPool instance;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool();
+        }
+        return instance;
+    }
+
+    /**
+     * A cleared buffer of {@link #BUFFER_BYTES}; hand it back with {@link #release}
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer;
+        synchronized (free) {
+            buffer = free.pollFirst();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_BYTES) {
+            return;
+        }
+        synchronized (free) {
+            if (free.size() < MAX_POOLED) {
+                free.addFirst(buffer);
+            }
+        }
+    }
+}
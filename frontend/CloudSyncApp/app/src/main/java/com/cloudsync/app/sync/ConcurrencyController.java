@@ -0,0 +1,191 @@
+package com.cloudsync.app.sync;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * AIMD controller for the transfer parallelism and chunk size of one
+ * provider. Measurements are taken in windows of at least {@link #MIN_WINDOW_MILLIS}
+ * and one transfer per allowed slot. A window whose throughput held up and
+ * whose latency stayed near the baseline adds one slot and one chunk step; a
+ * 429 or 5xx halves both straight away, and a latency spike cuts the
+ * parallelism by a quarter. At most one decrease happens per window, so a
+ * burst of throttled responses to requests that were already in flight is
+ * treated as a single congestion signal.
+ */
+class ConcurrencyController {
+    static final int MIN_LIMIT = 1;
+    static final int MAX_LIMIT = 8;
+    static final int INITIAL_LIMIT = 2;
+    static final long MIN_CHUNK_BYTES = 64 * 1024;
+    static final long MAX_CHUNK_BYTES = 2 * 1024 * 1024;
+    static final long INITIAL_CHUNK_BYTES = 256 * 1024;
+
+    private static final long CHUNK_STEP_BYTES = 128 * 1024;
+    private static final long MIN_WINDOW_MILLIS = 1000;
+    // Throughput may dip this much between windows before growth pauses
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+    // Latency this many times the baseline counts as queueing
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_BACKOFF = 0.75;
+    // The baseline is the lowest latency seen in this many recent windows
+    private static final int BASELINE_WINDOWS = 10;
+    private static final int HISTORY_SIZE = 50;
+
+    private final String provider;
+    private int limit = INITIAL_LIMIT;
+    private long chunkBytes = INITIAL_CHUNK_BYTES;
+
+    private long windowStart;
+    private int windowEvents;
+    private long windowBytes;
+    private int windowResponses;
+    private int windowCongested;
+    private long windowLatencySum;
+    private int windowLatencyCount;
+    private long windowMinLatency = Long.MAX_VALUE;
+    private boolean decreasedInWindow;
+    private double lastThroughput;
+    private final Deque<Long> recentMinLatencies = new ArrayDeque<>();
+    private final Deque<ConcurrencySnapshot> history = new ArrayDeque<>();
+
+    ConcurrencyController(String provider, long now) {
+        this.provider = provider;
+        this.windowStart = now;
+        record(now, ConcurrencySnapshot.Reason.START, 0, 0, 0);
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    synchronized long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * One HTTP exchange with the backend, including attempts that the retry
+     * interceptor repeats. Latency is only meaningful for exchanges whose
+     * request body is small, so callers pass a negative value otherwise.
+     */
+    synchronized void onResponse(int code, long latencyMillis, long now) {
+        windowResponses++;
+        if (isCongestion(code)) {
+            windowCongested++;
+            windowEvents++;
+            if (!decreasedInWindow) {
+                limit = Math.max(MIN_LIMIT, limit / 2);
+                chunkBytes = Math.max(MIN_CHUNK_BYTES, chunkBytes / 2);
+                decreasedInWindow = true;
+                record(now, ConcurrencySnapshot.Reason.THROTTLED, 0, averageLatency(), congestionRate());
+            }
+        } else if (latencyMillis >= 0) {
+            windowLatencySum += latencyMillis;
+            windowLatencyCount++;
+            windowMinLatency = Math.min(windowMinLatency, latencyMillis);
+        }
+        closeWindowIfDue(now);
+    }
+
+    /**
+     * An I/O failure such as a timeout or reset connection, which under load
+     * is as much a congestion signal as a 503
+     */
+    synchronized void onNetworkFailure(long now) {
+        onResponse(503, -1, now);
+    }
+
+    /**
+     * A transfer finished; its bytes count towards the window's throughput
+     */
+    synchronized void onTransferComplete(long bytes, long now) {
+        windowEvents++;
+        windowBytes += Math.max(0, bytes);
+        closeWindowIfDue(now);
+    }
+
+    synchronized List<ConcurrencySnapshot> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    synchronized ConcurrencySnapshot getCurrent() {
+        return history.peekLast();
+    }
+
+    static boolean isCongestion(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    private void closeWindowIfDue(long now) {
+        long elapsed = now - windowStart;
+        if (windowEvents < limit || elapsed < MIN_WINDOW_MILLIS) {
+            return;
+        }
+
+        double throughput = windowBytes * 1000d / elapsed;
+        long latency = averageLatency();
+        long baseline = updateBaseline();
+
+        if (!decreasedInWindow) {
+            if (latency > 0 && baseline > 0 && latency > baseline * LATENCY_TOLERANCE) {
+                limit = Math.max(MIN_LIMIT, (int) (limit * LATENCY_BACKOFF));
+                record(now, ConcurrencySnapshot.Reason.LATENCY, throughput, latency, congestionRate());
+            } else if (windowBytes > 0 && throughput >= lastThroughput * THROUGHPUT_TOLERANCE) {
+                limit = Math.min(MAX_LIMIT, limit + 1);
+                chunkBytes = Math.min(MAX_CHUNK_BYTES, chunkBytes + CHUNK_STEP_BYTES);
+                record(now, ConcurrencySnapshot.Reason.INCREASE, throughput, latency, congestionRate());
+            } else {
+                record(now, ConcurrencySnapshot.Reason.HOLD, throughput, latency, congestionRate());
+            }
+        }
+        if (windowBytes > 0) {
+            lastThroughput = throughput;
+        }
+        resetWindow(now);
+    }
+
+    private long updateBaseline() {
+        if (windowMinLatency != Long.MAX_VALUE) {
+            recentMinLatencies.addLast(windowMinLatency);
+            if (recentMinLatencies.size() > BASELINE_WINDOWS) {
+                recentMinLatencies.removeFirst();
+            }
+        }
+        long baseline = 0;
+        for (long latency : recentMinLatencies) {
+            baseline = baseline == 0 ? latency : Math.min(baseline, latency);
+        }
+        return baseline;
+    }
+
+    private long averageLatency() {
+        return windowLatencyCount == 0 ? 0 : windowLatencySum / windowLatencyCount;
+    }
+
+    private double congestionRate() {
+        return windowResponses == 0 ? 0 : (double) windowCongested / windowResponses;
+    }
+
+    private void resetWindow(long now) {
+        windowStart = now;
+        windowEvents = 0;
+        windowBytes = 0;
+        windowResponses = 0;
+        windowCongested = 0;
+        windowLatencySum = 0;
+        windowLatencyCount = 0;
+        windowMinLatency = Long.MAX_VALUE;
+        decreasedInWindow = false;
+    }
+
+    private void record(long now, ConcurrencySnapshot.Reason reason, double throughput,
+                        long latency, double congestionRate) {
+        history.addLast(new ConcurrencySnapshot(provider, now, reason, limit, chunkBytes,
+                (long) throughput, latency, congestionRate));
+        if (history.size() > HISTORY_SIZE) {
+            history.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.cloudsync.app.sync;
+
+/**
+ * One decision of a provider's concurrency controller and the measurements
+ * it was based on, for display.
+ */
+public class ConcurrencySnapshot {
+    public enum Reason {
+        START("Start"),
+        INCREASE("Increase"),
+        HOLD("Hold"),
+        THROTTLED("Throttled"),
+        LATENCY("Latency spike");
+
+        private final String displayName;
+
+        Reason(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    private final String provider;
+    private final long timestamp;
+    private final Reason reason;
+    private final int limit;
+    private final long chunkBytes;
+    private final long throughputBytesPerSecond;
+    private final long latencyMillis;
+    private final double congestionRate;
+
+    ConcurrencySnapshot(String provider, long timestamp, Reason reason, int limit, long chunkBytes,
+                        long throughputBytesPerSecond, long latencyMillis, double congestionRate) {
+        this.provider = provider;
+        this.timestamp = timestamp;
+        this.reason = reason;
+        this.limit = limit;
+        this.chunkBytes = chunkBytes;
+        this.throughputBytesPerSecond = throughputBytesPerSecond;
+        this.latencyMillis = latencyMillis;
+        this.congestionRate = congestionRate;
+    }
+
+    public String getProvider() { return provider; }
+    public long getTimestamp() { return timestamp; }
+    public Reason getReason() { return reason; }
+    public int getLimit() { return limit; }
+    public long getChunkBytes() { return chunkBytes; }
+    public long getThroughputBytesPerSecond() { return throughputBytesPerSecond; }
+    public long getLatencyMillis() { return latencyMillis; }
+
+    /**
+     * Share of the window's responses that were 429 or 5xx
+     */
+    public double getCongestionRate() { return congestionRate; }
+}
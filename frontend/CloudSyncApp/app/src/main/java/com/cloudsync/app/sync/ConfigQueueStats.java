@@ -0,0 +1,57 @@
+package com.cloudsync.app.sync;
+
+/**
+ * Queue depth and waiting time of one sync configuration, for display.
+ */
+public class ConfigQueueStats {
+    private final String configId;
+    private int queued;
+    private int inProgress;
+    private int failed;
+    private long queuedBytes;
+    private long oldestQueuedAt;
+    private boolean boosted;
+
+    ConfigQueueStats(String configId) {
+        this.configId = configId;
+    }
+
+    void add(TransferItem item) {
+        switch (item.getState()) {
+            case QUEUED:
+                queued++;
+                queuedBytes += Math.max(0, item.getSize());
+                if (oldestQueuedAt == 0 || item.getQueuedAt() < oldestQueuedAt) {
+                    oldestQueuedAt = item.getQueuedAt();
+                }
+                break;
+            case IN_FLIGHT:
+            case VERIFYING:
+                inProgress++;
+                break;
+            case FAILED:
+                failed++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    void setBoosted(boolean boosted) {
+        this.boosted = boosted;
+    }
+
+    public String getConfigId() { return configId; }
+    public int getQueued() { return queued; }
+    public int getInProgress() { return inProgress; }
+    public int getFailed() { return failed; }
+    public long getQueuedBytes() { return queuedBytes; }
+    public boolean isBoosted() { return boosted; }
+
+    /**
+     * How long the oldest queued transfer has been waiting
+     */
+    public long getWaitMillis(long now) {
+        return queued > 0 && oldestQueuedAt > 0 ? Math.max(0, now - oldestQueuedAt) : 0;
+    }
+}
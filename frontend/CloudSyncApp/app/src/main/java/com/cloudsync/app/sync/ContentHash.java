@@ -0,0 +1,135 @@
+package com.cloudsync.app.sync;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * A hash of file content in the form a provider reports for its stored files,
+ * so a transferred copy can be checked against the provider's own checksum.
+ * Transfers feed their bytes in as they pass, so verifying a copy does not
+ * read the file a second time.
+ */
+public abstract class ContentHash {
+    public static final String MD5 = "md5";
+    public static final String QUICK_XOR = "quickXorHash";
+
+    /**
+     * The hash the provider reports for its files, or null for an unknown provider
+     */
+    public static ContentHash forProvider(String provider) {
+        if ("google".equals(provider)) {
+            return forAlgorithm(MD5);
+        }
+        if ("microsoft".equals(provider)) {
+            return forAlgorithm(QUICK_XOR);
+        }
+        return null;
+    }
+
+    /**
+     * The hash a provider names in {@code checksumAlgorithm}, or null for one not known here
+     */
+    public static ContentHash forAlgorithm(String algorithm) {
+        if (MD5.equals(algorithm)) {
+            return new Md5();
+        }
+        if (QUICK_XOR.equals(algorithm)) {
+            return new QuickXorHash();
+        }
+        return null;
+    }
+
+    /**
+     * Whether a computed digest and a provider's checksum of the same algorithm agree
+     */
+    public static boolean matches(String algorithm, String digest, String checksum) {
+        if (digest == null || checksum == null) {
+            return false;
+        }
+        // Hex digests may come in either case; base64 ones are case-sensitive
+        return MD5.equals(algorithm) ? digest.equals(checksum.toLowerCase(Locale.ROOT)) : digest.equals(checksum);
+    }
+
+    public abstract String getAlgorithm();
+
+    public abstract void reset();
+
+    /**
+     * Add the remaining bytes of {@code data} without moving its position
+     */
+    public abstract void update(ByteBuffer data);
+
+    /**
+     * The hash of everything added since the last reset, encoded as the provider reports it
+     */
+    public abstract String digest();
+
+    /**
+     * Hash a whole file, for content that did not pass through a transfer in order
+     */
+    public String ofFile(File file) throws IOException {
+        reset();
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer buffer = pool.acquire();
+        try (FileInputStream in = new FileInputStream(file);
+             FileChannel channel = in.getChannel()) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return digest();
+    }
+
+    /**
+     * Google Drive's md5Checksum, as lowercase hex
+     */
+    static class Md5 extends ContentHash {
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final MessageDigest digest;
+
+        Md5() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 is not available", e);
+            }
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return MD5;
+        }
+
+        @Override
+        public void reset() {
+            digest.reset();
+        }
+
+        @Override
+        public void update(ByteBuffer data) {
+            digest.update(data.duplicate());
+        }
+
+        @Override
+        public String digest() {
+            byte[] hash = digest.digest();
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(hex);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.cloudsync.app.sync;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Makes finished downloads durable in groups. A downloaded file is written
+ * beside its target and handed over here unsynced; the committer thread then
+ * syncs the data of every file waiting, renames them all into place and
+ * syncs each affected directory once. A folder of many small files thus
+ * costs one directory sync per group instead of one per file, and the
+ * download workers move on to the next file instead of waiting on the disk.
+ */
+class FileCommitter {
+    private static final String TAG = "FileCommitter";
+    private static final int MAX_GROUP_SIZE = 64;
+    // How long the first file of a group waits for others to join
+    private static final long GROUP_WINDOW_MILLIS = 50;
+
+    interface Callback {
+        void onCommitted();
+        void onFailed(IOException error);
+    }
+
+    private static class Pending {
+        final File partial;
+        final File target;
+        final Callback callback;
+
+        Pending(File partial, File target, Callback callback) {
+            this.partial = partial;
+            this.target = target;
+            this.callback = callback;
+        }
+    }
+
+    private final List<Pending> pending = new ArrayList<>();
+    private Thread thread;
+
+    /**
+     * Sync {@code partial}, rename it to {@code target} and report back on the committer thread
+     */
+    synchronized void commit(File partial, File target, Callback callback) {
+        pending.add(new Pending(partial, target, callback));
+        if (thread == null) {
+            thread = new Thread(this::run, TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Sync, rename and sync the directory for one file on the calling thread
+     */
+    static void commitNow(File partial, File target) throws IOException {
+        syncData(partial);
+        rename(partial, target);
+        try {
+            syncDirectory(target.getParentFile());
+        } catch (IOException e) {
+            Log.w(TAG, "Directory sync failed", e);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Pending> group;
+            try {
+                group = takeGroup();
+            } catch (InterruptedException e) {
+                return;
+            }
+            commitGroup(group);
+        }
+    }
+
+    private synchronized List<Pending> takeGroup() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        long deadline = System.currentTimeMillis() + GROUP_WINDOW_MILLIS;
+        long remaining;
+        while (pending.size() < MAX_GROUP_SIZE && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        int size = Math.min(MAX_GROUP_SIZE, pending.size());
+        List<Pending> group = new ArrayList<>(pending.subList(0, size));
+        pending.subList(0, size).clear();
+        return group;
+    }
+
+    private void commitGroup(List<Pending> group) {
+        List<Pending> renamed = new ArrayList<>();
+        Set<File> directories = new LinkedHashSet<>();
+        for (Pending item : group) {
+            try {
+                syncData(item.partial);
+                rename(item.partial, item.target);
+                renamed.add(item);
+                directories.add(item.target.getParentFile());
+            } catch (IOException e) {
+                item.partial.delete();
+                item.callback.onFailed(e);
+            }
+        }
+
+        for (File directory : directories) {
+            try {
+                syncDirectory(directory);
+            } catch (IOException e) {
+                // The files are in place; only their renames might not survive a power loss
+                Log.w(TAG, "Directory sync failed", e);
+            }
+        }
+        for (Pending item : renamed) {
+            item.callback.onCommitted();
+        }
+    }
+
+    private static void syncData(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.getChannel().force(false);
+        }
+    }
+
+    private static void rename(File partial, File target) throws IOException {
+        if (!partial.renameTo(target)) {
+            throw new IOException("Could not move " + partial.getName() + " into place");
+        }
+    }
+
+    private static void syncDirectory(File directory) throws IOException {
+        if (directory == null) {
+            return;
+        }
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("Could not sync " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.cloudsync.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The {@link FolderSummary} of each configuration's local folder and cloud
+ * folder as of the last scan that found nothing left to transfer. A scan
+ * whose summary still matches has nothing to transfer either and skips its
+ * entries. Any scan that finds work clears the stored summary, so the
+ * entries are checked one by one until everything has settled again.
+ */
+class FolderSummaries {
+    static final String LOCAL = "local";
+    static final String REMOTE = "remote";
+
+    private static final String PREFS_NAME = "folder_summaries";
+
+    private final SharedPreferences prefs;
+
+    FolderSummaries(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    boolean isSettled(String configId, String side, FolderSummary summary) {
+        return summary.value().equals(prefs.getString(key(configId, side), null));
+    }
+
+    /**
+     * Record the outcome of a scan that checked every entry
+     */
+    void record(String configId, String side, FolderSummary summary, boolean settled) {
+        String key = key(configId, side);
+        String value = settled ? summary.value() : null;
+        String stored = prefs.getString(key, null);
+        if (value == null && stored != null) {
+            prefs.edit().remove(key).apply();
+        } else if (value != null && !value.equals(stored)) {
+            prefs.edit().putString(key, value).apply();
+        }
+    }
+
+    private static String key(String configId, String side) {
+        return configId + "|" + side;
+    }
+}
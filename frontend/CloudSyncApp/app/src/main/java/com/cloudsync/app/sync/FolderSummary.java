@@ -0,0 +1,53 @@
+package com.cloudsync.app.sync;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * One value standing for a whole folder listing, which changes whenever an
+ * entry is added, removed, renamed or changed. Each entry is hashed on its
+ * own and the hashes are combined with XOR, so entries are folded in in
+ * whatever order a listing returns them, without sorting. The seed ties the
+ * summary to what else a comparison depends on, such as where the folder
+ * syncs to.
+ */
+final class FolderSummary {
+    private final MessageDigest md5;
+    private long high;
+    private long low;
+    private int count;
+
+    FolderSummary(String... seed) {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        fold(String.join("\u0000", seed));
+    }
+
+    /**
+     * @param version whatever changes with the entry's content, such as its modification time or checksum
+     */
+    void add(String name, long size, String version) {
+        fold(name + "\u0000" + size + "\u0000" + version);
+        count++;
+    }
+
+    String value() {
+        return String.format("%016x%016x:%d", high, low, count);
+    }
+
+    private void fold(String entry) {
+        byte[] digest = md5.digest(entry.getBytes(StandardCharsets.UTF_8));
+        long h = 0;
+        long l = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (digest[i] & 0xff);
+            l = (l << 8) | (digest[i + 8] & 0xff);
+        }
+        high ^= h;
+        low ^= l;
+    }
+}
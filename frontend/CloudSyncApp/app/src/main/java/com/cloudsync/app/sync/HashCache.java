@@ -0,0 +1,76 @@
+package com.cloudsync.app.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content hashes of local files, shared by every configuration that syncs
+ * them. An entry is keyed by path, size and modification time, so a file
+ * that changes is hashed again, and the least recently used entries are
+ * dropped once the cache is full. Transfers add the hashes they take on the
+ * way, so a file that was just uploaded is not read again to hash it.
+ */
+class HashCache {
+    private static final int MAX_ENTRIES = 4096;
+
+    private static HashCache instance;
+
+    private final Map<String, String> digests = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    static synchronized HashCache getInstance() {
+        if (instance == null) {
+            instance = new HashCache();
+        }
+        return instance;
+    }
+
+    /**
+     * The file's hash in an algorithm, read from the file only if it is not
+     * cached for the file's current size and modification time
+     * @return the digest, or null for an algorithm not known here
+     */
+    String ofFile(File file, String algorithm) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String key = key(file, length, lastModified, algorithm);
+        synchronized (digests) {
+            String digest = digests.get(key);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        ContentHash hash = ContentHash.forAlgorithm(algorithm);
+        if (hash == null) {
+            return null;
+        }
+        String digest = hash.ofFile(file);
+        // A file written to while it was read is not cached under its old stamp
+        if (file.length() == length && file.lastModified() == lastModified) {
+            put(file, length, lastModified, algorithm, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Record a hash taken of the file's content as of the given size and modification time
+     */
+    void put(File file, long length, long lastModified, String algorithm, String digest) {
+        if (algorithm == null || digest == null) {
+            return;
+        }
+        synchronized (digests) {
+            digests.put(key(file, length, lastModified, algorithm), digest);
+        }
+    }
+
+    private static String key(File file, long length, long lastModified, String algorithm) {
+        return file.getPath() + "|" + length + "|" + lastModified + "|" + algorithm;
+    }
+}
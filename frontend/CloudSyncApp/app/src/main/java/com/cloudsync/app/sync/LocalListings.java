@@ -0,0 +1,136 @@
+package com.cloudsync.app.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The local folders read by one pass of scans. Configurations that sync the
+ * same folder, under whatever path, share its listing: the folder is listed
+ * once per pass, and each entry is stat'ed at most once, only when some
+ * configuration's patterns let it through, so a pass costs one read of each
+ * distinct folder rather than one per configuration.
+ */
+class LocalListings {
+    private final Map<String, Folder> folders = new HashMap<>();
+
+    /**
+     * The listing of a folder, or null if it cannot be read
+     */
+    synchronized Folder of(String folderPath) {
+        File folder = new File(folderPath);
+        String key;
+        try {
+            key = folder.getCanonicalPath();
+        } catch (IOException e) {
+            key = folder.getAbsolutePath();
+        }
+        if (folders.containsKey(key)) {
+            return folders.get(key);
+        }
+        File[] files = folder.listFiles();
+        Folder listing = files != null ? new Folder(folder, files) : null;
+        folders.put(key, listing);
+        return listing;
+    }
+
+    /**
+     * One folder's entries, by name
+     */
+    static class Folder {
+        private final File folder;
+        private final List<Entry> entries;
+        private final Map<String, Entry> byName;
+        private long lastModified = -1;
+
+        Folder(File folder, File[] files) {
+            this.folder = folder;
+            List<Entry> entries = new ArrayList<>(files.length);
+            Map<String, Entry> byName = new HashMap<>(files.length * 2);
+            for (File file : files) {
+                Entry entry = new Entry(file);
+                entries.add(entry);
+                byName.put(file.getName(), entry);
+            }
+            this.entries = Collections.unmodifiableList(entries);
+            this.byName = byName;
+        }
+
+        List<Entry> entries() {
+            return entries;
+        }
+
+        /**
+         * The entry of that name, or null if the folder had none when it was listed
+         */
+        Entry get(String name) {
+            return byName.get(name);
+        }
+
+        synchronized long lastModified() {
+            if (lastModified < 0) {
+                lastModified = folder.lastModified();
+            }
+            return lastModified;
+        }
+    }
+
+    /**
+     * One entry, stat'ed on first use
+     */
+    static class Entry {
+        private final File file;
+        private boolean statted;
+        private boolean isFile;
+        private long length;
+        private long lastModified;
+        private long inode = -1;
+
+        Entry(File file) {
+            this.file = file;
+        }
+
+        File file() {
+            return file;
+        }
+
+        String name() {
+            return file.getName();
+        }
+
+        synchronized boolean isFile() {
+            stat();
+            return isFile;
+        }
+
+        synchronized long length() {
+            stat();
+            return length;
+        }
+
+        synchronized long lastModified() {
+            stat();
+            return lastModified;
+        }
+
+        synchronized long inode() {
+            if (inode < 0) {
+                inode = MoveDetector.inodeOf(file);
+            }
+            return inode;
+        }
+
+        private void stat() {
+            if (!statted) {
+                isFile = file.isFile();
+                length = isFile ? file.length() : 0;
+                lastModified = isFile ? file.lastModified() : 0;
+                statted = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.cloudsync.app.sync;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recognizes files that were renamed or moved on the device, so their stored
+ * copy is moved instead of uploaded again. A file seen at a new path is
+ * paired with an uploaded file that no longer exists at its old path: first
+ * by inode, size and modification time, which a rename keeps, and otherwise
+ * by size and content hash, for moves that copy the file. Only files of the
+ * same size are ever hashed, and each uploaded file is paired at most once.
+ */
+class MoveDetector {
+    private MoveDetector() {}
+
+    /**
+     * The file's inode number, or 0 if it cannot be read
+     */
+    static long inodeOf(File file) {
+        try {
+            return Os.stat(file.getPath()).st_ino;
+        } catch (ErrnoException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Turn the new files that pair with a vanished upload into moves of its stored copy
+     * @param arrivals uploads of files never seen at their path before; paired ones are changed in place
+     * @param records uploaded files the arrivals may have come from
+     */
+    static void pair(List<TransferItem> arrivals, List<TransferItem> records) {
+        if (arrivals.isEmpty()) {
+            return;
+        }
+        Set<Long> sizes = new HashSet<>();
+        for (TransferItem arrival : arrivals) {
+            sizes.add(arrival.getSize());
+        }
+        // Only uploads of a size some arrival has are checked for having vanished
+        Map<Long, List<TransferItem>> vanishedBySize = new HashMap<>();
+        for (TransferItem record : records) {
+            if (!sizes.contains(record.getSize()) || new File(record.getLocalPath()).exists()) {
+                continue;
+            }
+            List<TransferItem> sameSize = vanishedBySize.get(record.getSize());
+            if (sameSize == null) {
+                sameSize = new ArrayList<>();
+                vanishedBySize.put(record.getSize(), sameSize);
+            }
+            sameSize.add(record);
+        }
+
+        for (TransferItem arrival : arrivals) {
+            List<TransferItem> candidates = vanishedBySize.get(arrival.getSize());
+            if (candidates == null || candidates.isEmpty()) {
+                continue;
+            }
+            TransferItem match = sameInode(arrival, candidates);
+            if (match == null) {
+                match = sameContent(arrival, candidates);
+            }
+            if (match != null) {
+                candidates.remove(match);
+                arrival.setDirection(TransferDirection.MOVE);
+                arrival.setRemoteFileId(match.getRemoteFileId());
+                arrival.setChecksum(match.getChecksum());
+                arrival.setChecksumAlgorithm(match.getChecksumAlgorithm());
+                arrival.setMovedFromConfigId(match.getConfigId());
+                arrival.setMovedFromPath(match.getLocalPath());
+            }
+        }
+    }
+
+    private static TransferItem sameInode(TransferItem arrival, List<TransferItem> candidates) {
+        if (arrival.getInode() == 0) {
+            return null;
+        }
+        for (TransferItem candidate : candidates) {
+            if (candidate.getInode() == arrival.getInode() && candidate.getLastModified() == arrival.getLastModified()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static TransferItem sameContent(TransferItem arrival, List<TransferItem> candidates) {
+        // The arrival is hashed at most once per algorithm the candidates were recorded with
+        Map<String, String> digests = new HashMap<>();
+        for (TransferItem candidate : candidates) {
+            String algorithm = candidate.getChecksumAlgorithm();
+            if (candidate.getChecksum() == null || algorithm == null) {
+                continue;
+            }
+            String digest = digests.get(algorithm);
+            if (digest == null && !digests.containsKey(algorithm)) {
+                digest = hash(arrival, algorithm);
+                digests.put(algorithm, digest);
+            }
+            if (digest != null && ContentHash.matches(algorithm, digest, candidate.getChecksum())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static String hash(TransferItem arrival, String algorithm) {
+        try {
+            return HashCache.getInstance().ofFile(new File(arrival.getLocalPath()), algorithm);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
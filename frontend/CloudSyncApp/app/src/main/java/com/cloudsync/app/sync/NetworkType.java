@@ -0,0 +1,25 @@
+package com.cloudsync.app.sync;
+
+/**
+ * Connectivity classes that carry their own bandwidth policy.
+ */
+public enum NetworkType {
+    WIFI("Wi-Fi"),
+    METERED("Metered"),
+    ROAMING("Roaming");
+
+    private final String displayName;
+
+    NetworkType(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
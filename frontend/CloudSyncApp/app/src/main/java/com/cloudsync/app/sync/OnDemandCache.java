@@ -0,0 +1,127 @@
+package com.cloudsync.app.sync;
+
+import com.cloudsync.app.models.CloudFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Files fetched on demand, kept under a storage budget. The least recently
+ * opened files are dropped first, and the cache never takes more than half of
+ * the free space, so it gives way on a device that is filling up. A file is
+ * keyed by its cloud id and version, so one that changed is fetched again.
+ */
+class OnDemandCache {
+    static final long BUDGET_BYTES = 1024L * 1024 * 1024;
+
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    private final File dir;
+    // Lengths by key, least recently opened first
+    private final Map<String, Long> lengths = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    OnDemandCache(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Files are touched when opened, so their mtimes give the order they were used in
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(PARTIAL_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            lengths.put(file.getName(), file.length());
+            bytes += file.length();
+        }
+    }
+
+    /**
+     * The key of a cloud file's current version
+     */
+    static String keyOf(String configId, CloudFile file) {
+        String version = configId + "|" + file.getId() + "|" + file.getSize() + "|" + file.getModifiedTime()
+                + "|" + file.getCodec().getValue();
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(version.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 unavailable", e);
+        }
+        StringBuilder key = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * The cached file for a key, marked as just used, or null if it is not cached
+     */
+    synchronized File get(String key) {
+        if (!lengths.containsKey(key)) {
+            return null;
+        }
+        File file = new File(dir, key);
+        if (!file.isFile()) {
+            bytes -= lengths.remove(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * A file to fetch a key's content into, not shared with other fetches of it
+     */
+    File partialFile(String key) {
+        return new File(dir, key + "." + Thread.currentThread().getId() + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Move a fetched file into the cache and drop the least recently opened
+     * files, other than this one, until the cache is within its budget
+     * @return the cached file
+     */
+    synchronized File admit(String key, File partial) throws IOException {
+        File file = new File(dir, key);
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Could not cache " + key);
+        }
+        Long previous = lengths.put(key, file.length());
+        bytes += file.length() - (previous != null ? previous : 0);
+
+        long budget = budget();
+        Iterator<Map.Entry<String, Long>> eldest = lengths.entrySet().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            // A file an app still has open stays readable through its descriptor
+            new File(dir, entry.getKey()).delete();
+            bytes -= entry.getValue();
+            eldest.remove();
+        }
+        return file;
+    }
+
+    /**
+     * The most the cache may hold right now
+     */
+    synchronized long budget() {
+        return Math.min(BUDGET_BYTES, bytes + dir.getUsableSpace() / 2);
+    }
+}
@@ -0,0 +1,498 @@
+package com.cloudsync.app.sync;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.provider.DocumentsContract.Root;
+import android.provider.DocumentsProvider;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.cloudsync.app.R;
+import com.cloudsync.app.api.ServiceRegistry;
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.api.responses.FolderFilesResponse;
+import com.cloudsync.app.models.CloudFile;
+import com.cloudsync.app.models.CompressionCodec;
+import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.utils.SyncConfigManager;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Shows the cloud folders of on-demand configurations in the system file
+ * picker. Listings carry only each file's name, size and date; a file is
+ * downloaded when an app opens it, into the {@link OnDemandCache}. Large files
+ * stored uncompressed are not downloaded whole but read with range requests
+ * as the app reads them, on Android 8 and later.
+ * A document id is the configuration's id, followed for anything below its
+ * folder by the path from there, e.g. {@code config_1/Trips/map.pdf}.
+ */
+public class OnDemandDocumentsProvider extends DocumentsProvider {
+    public static final String AUTHORITY = "com.cloudsync.app.documents";
+
+    private static final String TAG = "OnDemandDocuments";
+    // Files from this size are read by range instead of being cached whole
+    private static final long RANGE_READ_BYTES = 100L * 1024 * 1024;
+    private static final int BLOCK_BYTES = 1024 * 1024;
+    private static final long LISTING_TTL_MS = 60 * 1000;
+    private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+    // Google Docs, Sheets etc. have no stored content to open
+    private static final String GOOGLE_NATIVE_PREFIX = "application/vnd.google-apps.";
+
+    private static final String[] ROOT_COLUMNS = {
+            Root.COLUMN_ROOT_ID, Root.COLUMN_DOCUMENT_ID, Root.COLUMN_TITLE, Root.COLUMN_SUMMARY,
+            Root.COLUMN_FLAGS, Root.COLUMN_ICON
+    };
+    private static final String[] DOCUMENT_COLUMNS = {
+            Document.COLUMN_DOCUMENT_ID, Document.COLUMN_DISPLAY_NAME, Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_SIZE, Document.COLUMN_LAST_MODIFIED, Document.COLUMN_FLAGS
+    };
+
+    // Folder listings by document id
+    private final Map<String, Listing> listings = new ConcurrentHashMap<>();
+    private final Set<String> loading = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    // Created on first use; the provider is created on the main thread at every app start
+    private SyncConfigManager configManager;
+    private SyncService service;
+    private OnDemandCache cache;
+    private Handler readHandler;
+
+    public static Uri rootsUri() {
+        return DocumentsContract.buildRootsUri(AUTHORITY);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor queryRoots(String[] projection) {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : ROOT_COLUMNS);
+        for (SyncConfig config : configManager().getAllConfigs()) {
+            if (!config.isOnDemand() || !config.isEnabled() || config.getId() == null) {
+                continue;
+            }
+            String provider = "microsoft".equals(config.getProvider()) ? "OneDrive" : "Google Drive";
+            cursor.newRow()
+                    .add(Root.COLUMN_ROOT_ID, config.getId())
+                    .add(Root.COLUMN_DOCUMENT_ID, config.getId())
+                    .add(Root.COLUMN_TITLE, nameOf(config.getCloudFolderPath()))
+                    .add(Root.COLUMN_SUMMARY, getContext().getString(R.string.on_demand_root_summary, provider))
+                    .add(Root.COLUMN_FLAGS, Root.FLAG_SUPPORTS_IS_CHILD)
+                    .add(Root.COLUMN_ICON, R.drawable.ic_cloud);
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), rootsUri());
+        return cursor;
+    }
+
+    @Override
+    public Cursor queryDocument(String documentId, String[] projection) throws FileNotFoundException {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DOCUMENT_COLUMNS);
+        SyncConfig config = configOf(documentId);
+        String parentId = parentOf(documentId);
+        if (parentId == null) {
+            cursor.newRow()
+                    .add(Document.COLUMN_DOCUMENT_ID, documentId)
+                    .add(Document.COLUMN_DISPLAY_NAME, nameOf(config.getCloudFolderPath()))
+                    .add(Document.COLUMN_MIME_TYPE, Document.MIME_TYPE_DIR)
+                    .add(Document.COLUMN_FLAGS, 0);
+            return cursor;
+        }
+        CloudFile file = entryOf(documentId);
+        if (file == null) {
+            throw new FileNotFoundException(documentId);
+        }
+        addRow(cursor, documentId, file);
+        return cursor;
+    }
+
+    /**
+     * Listings are kept for a minute. An older or missing one is returned as
+     * it is, marked as loading, and the picker is told when it has been
+     * fetched again.
+     */
+    @Override
+    public Cursor queryChildDocuments(String parentDocumentId, String[] projection, String sortOrder)
+            throws FileNotFoundException {
+        configOf(parentDocumentId);
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DOCUMENT_COLUMNS);
+        Uri uri = DocumentsContract.buildChildDocumentsUri(AUTHORITY, parentDocumentId);
+        Listing listing = listings.get(parentDocumentId);
+        if (listing != null) {
+            for (CloudFile file : listing.files.values()) {
+                addRow(cursor, parentDocumentId + "/" + file.getName(), file);
+            }
+        }
+
+        Bundle extras = new Bundle();
+        if (listing == null || listing.isStale()) {
+            extras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+            if (loading.add(parentDocumentId)) {
+                loader.execute(() -> {
+                    try {
+                        load(parentDocumentId);
+                    } finally {
+                        loading.remove(parentDocumentId);
+                        getContext().getContentResolver().notifyChange(uri, null);
+                    }
+                });
+            }
+        } else if (listing.error != null) {
+            extras.putString(DocumentsContract.EXTRA_ERROR, listing.error);
+        }
+        cursor.setExtras(extras);
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    @Override
+    public boolean isChildDocument(String parentDocumentId, String documentId) {
+        return documentId.startsWith(parentDocumentId + "/");
+    }
+
+    @Override
+    public ParcelFileDescriptor openDocument(String documentId, String mode, CancellationSignal signal)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Files on demand are read-only");
+        }
+        SyncConfig config = configOf(documentId);
+        CloudFile file = parentOf(documentId) != null ? entryOf(documentId) : null;
+        if (file == null || isFolder(file)) {
+            throw new FileNotFoundException(documentId);
+        }
+
+        String key = OnDemandCache.keyOf(config.getId(), file);
+        File cached = cache().get(key);
+        if (cached != null) {
+            return ParcelFileDescriptor.open(cached, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+        long size = parseSize(file.getSize());
+        boolean rangeable = file.getCodec() == CompressionCodec.NONE && size > 0
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+        if (rangeable && (size >= RANGE_READ_BYTES || size > cache().budget())) {
+            return openRanged(config, file, size);
+        }
+        return ParcelFileDescriptor.open(fetch(config, file, key, signal), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Download a whole file into the cache
+     */
+    private File fetch(SyncConfig config, CloudFile file, String key, CancellationSignal signal)
+            throws FileNotFoundException {
+        File partial = cache().partialFile(key);
+        try {
+            Response<ResponseBody> response = service().downloadFileStream(config.getProvider(), null, null,
+                    file.getId()).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Download failed: " + response.code() + " " + response.message());
+            }
+            try (ResponseBody body = response.body();
+                 InputStream in = body.byteStream();
+                 OutputStream out = new FileOutputStream(partial)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            return cache().admit(key, partial);
+        } catch (IOException e) {
+            partial.delete();
+            Log.w(TAG, "Could not fetch " + file.getName(), e);
+            throw new FileNotFoundException(e.getMessage());
+        } catch (RuntimeException e) {
+            // Cancelled by the opening app
+            partial.delete();
+            throw e;
+        }
+    }
+
+    private ParcelFileDescriptor openRanged(SyncConfig config, CloudFile file, long size)
+            throws FileNotFoundException {
+        StorageManager storage = getContext().getSystemService(StorageManager.class);
+        try {
+            return storage.openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY,
+                    new RangeReader(config.getProvider(), file.getId(), size), readHandler());
+        } catch (IOException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+    }
+
+    /**
+     * List a folder into {@link #listings}, keeping the files of the last
+     * listing if this one fails
+     */
+    private void load(String folderDocumentId) {
+        Listing previous = listings.get(folderDocumentId);
+        try {
+            SyncConfig config = configOf(folderDocumentId);
+            String path = pathOf(folderDocumentId);
+            String folderPath = path.isEmpty() ? config.getCloudFolderPath() : config.getCloudFolderPath() + "/" + path;
+            String folderId;
+            if (path.isEmpty()) {
+                folderId = config.getCloudFolderId();
+            } else {
+                Listing parent = listings.get(parentOf(folderDocumentId));
+                CloudFile folder = parent != null ? parent.files.get(nameOf(path)) : null;
+                folderId = folder != null ? folder.getId() : null;
+            }
+
+            Response<FolderFilesResponse> response = service().listFilesInFolder(folderPath, folderId).execute();
+            if (!response.isSuccessful() || response.body() == null || response.body().getFiles() == null) {
+                throw new IOException("Listing failed: " + response.code() + " " + response.message());
+            }
+            if (path.isEmpty()) {
+                configManager().rememberCloudFolderId(config.getId(), response.body().getFolderId());
+            }
+            Map<String, CloudFile> files = new LinkedHashMap<>();
+            for (CloudFile file : response.body().getFiles()) {
+                String name = file.getName();
+                if (name == null || name.isEmpty() || name.contains("/") || name.equals(".") || name.equals("..")
+                        || (!isFolder(file) && file.getMimeType() != null
+                        && file.getMimeType().startsWith(GOOGLE_NATIVE_PREFIX))) {
+                    continue;
+                }
+                files.put(name, file);
+            }
+            listings.put(folderDocumentId, new Listing(files, null));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not list " + folderDocumentId, e);
+            listings.put(folderDocumentId, new Listing(
+                    previous != null ? previous.files : new LinkedHashMap<>(), e.getMessage()));
+        }
+    }
+
+    /**
+     * The cloud file of a document below a configuration's folder, listing
+     * its folder first if it has not been listed
+     */
+    private CloudFile entryOf(String documentId) {
+        String parentId = parentOf(documentId);
+        Listing listing = listings.get(parentId);
+        if (listing == null) {
+            load(parentId);
+            listing = listings.get(parentId);
+        }
+        return listing.files.get(nameOf(pathOf(documentId)));
+    }
+
+    private void addRow(MatrixCursor cursor, String documentId, CloudFile file) {
+        boolean folder = isFolder(file);
+        long size = parseSize(file.getSize());
+        long modified = RemoteTree.parseSeconds(file.getModifiedTime()) * 1000;
+        cursor.newRow()
+                .add(Document.COLUMN_DOCUMENT_ID, documentId)
+                .add(Document.COLUMN_DISPLAY_NAME, file.getName())
+                .add(Document.COLUMN_MIME_TYPE, folder ? Document.MIME_TYPE_DIR : mimeTypeOf(file))
+                .add(Document.COLUMN_SIZE, folder || size < 0 ? null : size)
+                .add(Document.COLUMN_LAST_MODIFIED, modified > 0 ? modified : null)
+                .add(Document.COLUMN_FLAGS, 0);
+    }
+
+    private SyncConfig configOf(String documentId) throws FileNotFoundException {
+        int slash = documentId.indexOf('/');
+        SyncConfig config = configManager().getConfig(slash < 0 ? documentId : documentId.substring(0, slash));
+        if (config == null || !config.isOnDemand()) {
+            throw new FileNotFoundException(documentId);
+        }
+        return config;
+    }
+
+    /**
+     * The path of a document below its configuration's folder, empty for the folder itself
+     */
+    private static String pathOf(String documentId) {
+        int slash = documentId.indexOf('/');
+        return slash < 0 ? "" : documentId.substring(slash + 1);
+    }
+
+    /**
+     * The id of a document's folder, or null for a configuration's folder
+     */
+    private static String parentOf(String documentId) {
+        int slash = documentId.lastIndexOf('/');
+        return slash < 0 ? null : documentId.substring(0, slash);
+    }
+
+    private static String nameOf(String path) {
+        String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+    }
+
+    private static String mimeTypeOf(CloudFile file) {
+        String mimeType = file.getMimeType();
+        return mimeType != null && mimeType.contains("/") && !mimeType.startsWith(GOOGLE_NATIVE_PREFIX)
+                ? mimeType
+                : SmallFileBatcher.mimeTypeOf(new File(file.getName()));
+    }
+
+    private static boolean isFolder(CloudFile file) {
+        return "folder".equals(file.getMimeType()) || FOLDER_MIME_TYPE.equals(file.getMimeType());
+    }
+
+    private static long parseSize(String size) {
+        if (size == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(size);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private synchronized SyncConfigManager configManager() {
+        if (configManager == null) {
+            configManager = new SyncConfigManager(getContext());
+        }
+        return configManager;
+    }
+
+    private synchronized SyncService service() {
+        if (service == null) {
+            service = ServiceRegistry.getInstance(getContext()).streamingService(SyncService.class);
+        }
+        return service;
+    }
+
+    private synchronized OnDemandCache cache() {
+        if (cache == null) {
+            cache = new OnDemandCache(new File(getContext().getCacheDir(), "on_demand"));
+        }
+        return cache;
+    }
+
+    private synchronized Handler readHandler() {
+        if (readHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG);
+            thread.start();
+            readHandler = new Handler(thread.getLooper());
+        }
+        return readHandler;
+    }
+
+    private static class Listing {
+        final Map<String, CloudFile> files;
+        // Why the last listing failed, null if it did not
+        final String error;
+        final long listedAt = System.currentTimeMillis();
+
+        Listing(Map<String, CloudFile> files, String error) {
+            this.files = files;
+            this.error = error;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - listedAt > LISTING_TTL_MS;
+        }
+    }
+
+    /**
+     * Serves reads of an opened file with range requests, one block at a
+     * time, keeping the last block for the small sequential reads most apps
+     * make. The first response's ETag goes in If-Range on the rest, so a file
+     * that changes while it is open fails the read instead of mixing versions.
+     */
+    private class RangeReader extends ProxyFileDescriptorCallback {
+        private final String provider;
+        private final String fileId;
+        private final long size;
+        private String version;
+        private long blockStart = -1;
+        private byte[] block;
+
+        RangeReader(String provider, String fileId, long size) {
+            this.provider = provider;
+            this.fileId = fileId;
+            this.size = size;
+        }
+
+        @Override
+        public long onGetSize() {
+            return size;
+        }
+
+        @Override
+        public int onRead(long offset, int length, byte[] data) throws ErrnoException {
+            int done = 0;
+            while (done < length && offset + done < size) {
+                long position = offset + done;
+                long start = position - position % BLOCK_BYTES;
+                if (start != blockStart) {
+                    fetchBlock(start);
+                }
+                int from = (int) (position - start);
+                int count = Math.min(length - done, block.length - from);
+                if (count <= 0) {
+                    break;
+                }
+                System.arraycopy(block, from, data, done, count);
+                done += count;
+            }
+            return done;
+        }
+
+        @Override
+        public void onRelease() {
+            block = null;
+        }
+
+        private void fetchBlock(long start) throws ErrnoException {
+            long end = Math.min(start + BLOCK_BYTES, size) - 1;
+            try {
+                Response<ResponseBody> response = service().downloadFileStream(provider,
+                        "bytes=" + start + "-" + end, version, fileId).execute();
+                // Whichever body the answer has is closed, including a whole-file 200 that is not read
+                try (ResponseBody body = response.body(); ResponseBody error = response.errorBody()) {
+                    if (response.code() != 206 || body == null) {
+                        throw new IOException("Range read failed: " + response.code());
+                    }
+                    if (version == null) {
+                        version = response.headers().get("ETag");
+                    }
+                    block = body.source().readByteArray();
+                }
+                blockStart = start;
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read " + fileId + " at " + start, e);
+                blockStart = -1;
+                throw new ErrnoException("onRead", OsConstants.EIO);
+            }
+        }
+    }
+}
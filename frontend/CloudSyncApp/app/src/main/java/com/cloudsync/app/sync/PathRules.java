@@ -0,0 +1,383 @@
+package com.cloudsync.app.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A configuration's gitignore-style include and exclude patterns, compiled
+ * once into tries over path segments. Literal segments are looked up by
+ * name, so a scan pays for the wildcard patterns only. Paths are matched one
+ * segment at a time with a {@link Cursor}, which lets a scan decide on an
+ * entry from its name and skip an excluded directory before it is stat'ed or
+ * listed.
+ * <ul>
+ *   <li>{@code *} and {@code ?} match within a segment, {@code [abc]} one listed
+ *   character, and a {@code **} segment any number of segments</li>
+ *   <li>A pattern with a {@code /} is anchored to the sync folder, otherwise it
+ *   matches at any depth</li>
+ *   <li>A trailing {@code /} matches directories only</li>
+ *   <li>A leading {@code !} re-includes what an earlier pattern of the list matched</li>
+ * </ul>
+ * With include patterns, only files they match, or files in directories they
+ * match, are synced; exclusions apply on top of that.
+ */
+public final class PathRules {
+    public static final PathRules NONE = new PathRules(Collections.emptyList(), Collections.emptyList());
+
+    private static final String ANY_DEPTH = "**";
+
+    private final List<String> includePatterns;
+    private final List<String> excludePatterns;
+    private final Node include;
+    private final Node exclude;
+
+    private PathRules(List<String> includePatterns, List<String> excludePatterns) {
+        this.includePatterns = new ArrayList<>(includePatterns);
+        this.excludePatterns = new ArrayList<>(excludePatterns);
+        this.include = build(this.includePatterns);
+        this.exclude = build(this.excludePatterns);
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the first pattern that cannot be compiled
+     */
+    public static PathRules compile(List<String> includePatterns, List<String> excludePatterns) {
+        if ((includePatterns == null || includePatterns.isEmpty())
+                && (excludePatterns == null || excludePatterns.isEmpty())) {
+            return NONE;
+        }
+        return new PathRules(
+                includePatterns != null ? includePatterns : Collections.emptyList(),
+                excludePatterns != null ? excludePatterns : Collections.emptyList());
+    }
+
+    /**
+     * Whether these rules were compiled from the given patterns
+     */
+    public boolean isCompiledFrom(List<String> includePatterns, List<String> excludePatterns) {
+        return this.includePatterns.equals(includePatterns != null ? includePatterns : Collections.emptyList())
+                && this.excludePatterns.equals(excludePatterns != null ? excludePatterns : Collections.emptyList());
+    }
+
+    /**
+     * The sync folder itself
+     */
+    public Cursor root() {
+        List<Node> excludeNodes = closure(Collections.singletonList(exclude));
+        if (include.isEmpty()) {
+            return new Cursor(null, excludeNodes, true);
+        }
+        return new Cursor(closure(Collections.singletonList(include)), excludeNodes, false);
+    }
+
+    /**
+     * Whether a file at a path relative to the sync folder is synced, with
+     * every directory on the way checked as well
+     */
+    public boolean syncsFile(String relativePath) {
+        Cursor cursor = root();
+        String[] segments = relativePath.split("/");
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].isEmpty()) {
+                continue;
+            }
+            cursor = cursor.enter(segments[i]);
+            boolean last = i == segments.length - 1;
+            if (last ? cursor.skipsFile() : cursor.skipsDirectory()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Where a walk stands: the trie nodes the path so far has reached
+     */
+    public final class Cursor {
+        // Null when everything not excluded is included
+        private final List<Node> includeNodes;
+        private final List<Node> excludeNodes;
+        private final boolean includeAll;
+
+        private Cursor(List<Node> includeNodes, List<Node> excludeNodes, boolean includeAll) {
+            this.includeNodes = includeNodes;
+            this.excludeNodes = excludeNodes;
+            this.includeAll = includeAll;
+        }
+
+        /**
+         * The cursor for an entry of this directory
+         */
+        public Cursor enter(String name) {
+            // Everything in a directory an include pattern matched is included
+            boolean all = includeAll || matches(includeNodes, true);
+            return new Cursor(all ? null : step(includeNodes, name), step(excludeNodes, name), all);
+        }
+
+        /**
+         * Whether this entry is left out if it is a file
+         */
+        public boolean skipsFile() {
+            return matches(excludeNodes, false) || !(includeAll || matches(includeNodes, false));
+        }
+
+        /**
+         * Whether this entry, and so everything under it, is left out if it is a directory
+         */
+        public boolean skipsDirectory() {
+            if (matches(excludeNodes, true)) {
+                return true;
+            }
+            // Pruned once no include pattern can match here or below
+            return !includeAll && !matches(includeNodes, true) && !canContinue(includeNodes);
+        }
+
+        /**
+         * Whether this entry is left out whatever its type, so it need not be stat'ed
+         */
+        public boolean skipsEither() {
+            return skipsFile() && skipsDirectory();
+        }
+    }
+
+    /**
+     * One trie position. Literal segments go in a map; wildcard segments are
+     * tried in turn. A node reached through {@code **} stays current for any
+     * number of further segments.
+     */
+    private static final class Node {
+        final Map<String, Node> literals = new HashMap<>();
+        final List<Pattern> globs = new ArrayList<>();
+        final List<Node> globTargets = new ArrayList<>();
+        Node anyDepth;
+        boolean isAnyDepth;
+        // The last pattern ending here that applies to files and to directories, or -1
+        int fileRule = -1;
+        int directoryRule = -1;
+        boolean fileNegated;
+        boolean directoryNegated;
+
+        boolean isEmpty() {
+            return literals.isEmpty() && globs.isEmpty() && anyDepth == null && fileRule < 0 && directoryRule < 0;
+        }
+
+        boolean hasChildren() {
+            return !literals.isEmpty() || !globs.isEmpty() || anyDepth != null || isAnyDepth;
+        }
+    }
+
+    private static Node build(List<String> patterns) {
+        Node root = new Node();
+        for (int rule = 0; rule < patterns.size(); rule++) {
+            add(root, rule, patterns.get(rule));
+        }
+        return root;
+    }
+
+    private static void add(Node root, int rule, String line) {
+        String pattern = line.trim();
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return;
+        }
+        boolean negated = pattern.startsWith("!");
+        if (negated) {
+            pattern = pattern.substring(1);
+        }
+        boolean directoryOnly = pattern.endsWith("/");
+        while (pattern.endsWith("/")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if (pattern.replace("/", "").isEmpty()) {
+            throw new IllegalArgumentException("Empty pattern: " + line);
+        }
+
+        List<String> segments = new ArrayList<>();
+        if (!anchored) {
+            segments.add(ANY_DEPTH);
+        }
+        for (String segment : pattern.split("/")) {
+            boolean repeated = ANY_DEPTH.equals(segment) && !segments.isEmpty()
+                    && ANY_DEPTH.equals(segments.get(segments.size() - 1));
+            if (!segment.isEmpty() && !repeated) {
+                segments.add(segment);
+            }
+        }
+
+        Node node = root;
+        for (String segment : segments) {
+            node = child(node, segment, line);
+        }
+        node.directoryRule = rule;
+        node.directoryNegated = negated;
+        if (!directoryOnly) {
+            node.fileRule = rule;
+            node.fileNegated = negated;
+        }
+    }
+
+    private static Node child(Node node, String segment, String line) {
+        if (ANY_DEPTH.equals(segment)) {
+            if (node.anyDepth == null) {
+                node.anyDepth = new Node();
+                node.anyDepth.isAnyDepth = true;
+            }
+            return node.anyDepth;
+        }
+        if (!isGlob(segment)) {
+            String name = unescape(segment);
+            Node next = node.literals.get(name);
+            if (next == null) {
+                next = new Node();
+                node.literals.put(name, next);
+            }
+            return next;
+        }
+        Pattern glob = toRegex(segment, line);
+        for (int i = 0; i < node.globs.size(); i++) {
+            if (node.globs.get(i).pattern().equals(glob.pattern())) {
+                return node.globTargets.get(i);
+            }
+        }
+        Node next = new Node();
+        node.globs.add(glob);
+        node.globTargets.add(next);
+        return next;
+    }
+
+    /**
+     * The nodes reached from {@code nodes} by one segment
+     */
+    private static List<Node> step(List<Node> nodes, String name) {
+        List<Node> next = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.isAnyDepth) {
+                addOnce(next, node);
+            }
+            Node literal = node.literals.get(name);
+            if (literal != null) {
+                addOnce(next, literal);
+            }
+            for (int i = 0; i < node.globs.size(); i++) {
+                if (node.globs.get(i).matcher(name).matches()) {
+                    addOnce(next, node.globTargets.get(i));
+                }
+            }
+        }
+        return closure(next);
+    }
+
+    /**
+     * Add the nodes reached by {@code **} matching no segment at all
+     */
+    private static List<Node> closure(List<Node> nodes) {
+        List<Node> closed = new ArrayList<>(nodes);
+        for (int i = 0; i < closed.size(); i++) {
+            Node anyDepth = closed.get(i).anyDepth;
+            if (anyDepth != null) {
+                addOnce(closed, anyDepth);
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Whether the last pattern matching here excludes (or includes) the entry
+     */
+    private static boolean matches(List<Node> nodes, boolean directory) {
+        if (nodes == null) {
+            return false;
+        }
+        int last = -1;
+        boolean negated = false;
+        for (Node node : nodes) {
+            int rule = directory ? node.directoryRule : node.fileRule;
+            if (rule > last) {
+                last = rule;
+                negated = directory ? node.directoryNegated : node.fileNegated;
+            }
+        }
+        return last >= 0 && !negated;
+    }
+
+    private static boolean canContinue(List<Node> nodes) {
+        if (nodes == null) {
+            return false;
+        }
+        for (Node node : nodes) {
+            if (node.hasChildren()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addOnce(List<Node> nodes, Node node) {
+        if (!nodes.contains(node)) {
+            nodes.add(node);
+        }
+    }
+
+    private static boolean isGlob(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '*' || c == '?' || c == '[') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unescape(String segment) {
+        StringBuilder name = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '\\' && i + 1 < segment.length()) {
+                c = segment.charAt(++i);
+            }
+            name.append(c);
+        }
+        return name.toString();
+    }
+
+    private static Pattern toRegex(String segment, String line) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[') {
+                int close = segment.indexOf(']', i + 2);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed [ in pattern: " + line);
+                }
+                String members = segment.substring(i + 1, close);
+                boolean negated = members.startsWith("!") || members.startsWith("^");
+                if (negated) {
+                    members = members.substring(1);
+                }
+                regex.append(negated ? "[^" : "[");
+                for (char member : members.toCharArray()) {
+                    // Ranges keep their dash; anything else a character class treats specially is escaped
+                    regex.append(member == '-' || Character.isLetterOrDigit(member) ? "" : "\\").append(member);
+                }
+                regex.append(']');
+                i = close;
+            } else {
+                if (c == '\\' && i + 1 < segment.length()) {
+                    c = segment.charAt(++i);
+                }
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
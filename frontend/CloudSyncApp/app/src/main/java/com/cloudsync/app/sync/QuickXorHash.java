@@ -0,0 +1,100 @@
+package com.cloudsync.app.sync;
+
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+
+/**
+ * OneDrive's quickXorHash: every byte is XORed into a 160-bit register at a
+ * position that advances 11 bits per byte and wraps around, and the content
+ * length is XORed into the last 64 bits at the end. Follows Microsoft's
+ * reference implementation, which works on the register as three 64-bit cells.
+ */
+class QuickXorHash extends ContentHash {
+    private static final int WIDTH_IN_BITS = 160;
+    private static final int SHIFT = 11;
+    private static final int SCRATCH_BYTES = 8 * 1024;
+
+    private final long[] cells = new long[(WIDTH_IN_BITS - 1) / 64 + 1];
+    private int shiftSoFar;
+    private long lengthSoFar;
+    // Direct buffers have no array to read from
+    private byte[] scratch;
+
+    @Override
+    public String getAlgorithm() {
+        return QUICK_XOR;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = 0;
+        }
+        shiftSoFar = 0;
+        lengthSoFar = 0;
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_BYTES];
+        }
+        ByteBuffer source = data.duplicate();
+        while (source.hasRemaining()) {
+            int count = Math.min(scratch.length, source.remaining());
+            source.get(scratch, 0, count);
+            update(scratch, 0, count);
+        }
+    }
+
+    void update(byte[] array, int start, int count) {
+        int vectorArrayIndex = shiftSoFar / 64;
+        int vectorOffset = shiftSoFar % 64;
+        int iterations = Math.min(count, WIDTH_IN_BITS);
+
+        // Bytes WIDTH_IN_BITS apart land on the same bits, so each position is visited once
+        for (int i = 0; i < iterations; i++) {
+            boolean isLastCell = vectorArrayIndex == cells.length - 1;
+            int bitsInVectorCell = isLastCell ? WIDTH_IN_BITS % 64 : 64;
+
+            int xoredByte = 0;
+            for (int j = start + i; j < start + count; j += WIDTH_IN_BITS) {
+                xoredByte ^= array[j] & 0xFF;
+            }
+            if (vectorOffset <= bitsInVectorCell - 8) {
+                cells[vectorArrayIndex] ^= (long) xoredByte << vectorOffset;
+            } else {
+                // The byte straddles two cells
+                int nextIndex = isLastCell ? 0 : vectorArrayIndex + 1;
+                cells[vectorArrayIndex] ^= (long) xoredByte << vectorOffset;
+                cells[nextIndex] ^= (long) xoredByte >>> (bitsInVectorCell - vectorOffset);
+            }
+
+            vectorOffset += SHIFT;
+            while (vectorOffset >= bitsInVectorCell) {
+                vectorArrayIndex = isLastCell ? 0 : vectorArrayIndex + 1;
+                vectorOffset -= bitsInVectorCell;
+            }
+        }
+
+        shiftSoFar = (int) ((shiftSoFar + (long) SHIFT * (count % WIDTH_IN_BITS)) % WIDTH_IN_BITS);
+        lengthSoFar += count;
+    }
+
+    @Override
+    public String digest() {
+        byte[] hash = new byte[(WIDTH_IN_BITS - 1) / 8 + 1];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = (byte) (cells[i / 8] >>> (8 * (i % 8)));
+        }
+        for (int i = 0; i < 8; i++) {
+            hash[WIDTH_IN_BITS / 8 - 8 + i] ^= (byte) (lengthSoFar >>> (8 * i));
+        }
+        return Base64.encodeToString(hash, Base64.NO_WRAP);
+    }
+}
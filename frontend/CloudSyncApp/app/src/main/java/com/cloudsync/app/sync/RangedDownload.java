@@ -0,0 +1,359 @@
+package com.cloudsync.app.sync;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.sync.TransferEngine.TransferException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import retrofit2.Response;
+
+/**
+ * Downloads one file into its partial file with range requests, so an
+ * interrupted download continues where it stopped instead of starting over.
+ * Large files are split into segments fetched in parallel, each written at
+ * its own offset of the pre-allocated file. Progress is recorded per segment
+ * at checkpoints, after the data written so far has been synced, and is tied
+ * to the ETag of the content; a resumed request carries that ETag in If-Range,
+ * so a file that changed in the meantime comes back whole and is started over.
+ * The data written after the last checkpoint is not synced here.
+ * A download received whole and in order in one run is hashed as it is
+ * written; resumed and segmented downloads are not.
+ */
+class RangedDownload {
+    /** Files from this size are split into parallel segments */
+    static final long PARALLEL_THRESHOLD_BYTES = 32 * 1024 * 1024;
+    static final int MAX_SEGMENTS = 4;
+
+    private static final long MIN_SEGMENT_BYTES = 8 * 1024 * 1024;
+    // Data is synced and progress recorded after this many bytes per segment
+    private static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    interface Progress {
+        void onCheckpoint(String remoteVersion, long[] segmentProgress);
+    }
+
+    private final SyncService service;
+    private final ExecutorService segmentWorkers;
+    private final String provider;
+    private final String fileId;
+    private final File partial;
+    private final Progress progress;
+    private final ContentHash hash;
+
+    private String version;
+    private long size;
+    private long[] done;
+    private FileChannel channel;
+    private boolean hashing;
+
+    /**
+     * @param hash fed the content when it arrives in order; may be null
+     */
+    RangedDownload(SyncService service, ExecutorService segmentWorkers, String provider,
+                   TransferItem item, File partial, Progress progress, ContentHash hash) {
+        this.service = service;
+        this.segmentWorkers = segmentWorkers;
+        this.provider = provider;
+        this.fileId = item.getRemoteFileId();
+        this.partial = partial;
+        this.progress = progress;
+        this.hash = hash;
+        // A compressed file is sent gzip-encoded, which ranges cannot address; without a
+        // Range header OkHttp asks for the encoding and inflates it on the way in
+        this.size = item.isEncoded() ? -1 : item.getSize();
+        if (partial.exists() && item.getRemoteVersion() != null && item.getSegmentProgress() != null) {
+            this.version = item.getRemoteVersion();
+            this.done = item.getSegmentProgress().clone();
+        }
+    }
+
+    /**
+     * Fetch whatever is missing from the partial file
+     * @param maxSegments how many segments a fresh download of a large file may use
+     * @return the length of the complete file
+     */
+    long run(int maxSegments) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(partial, "rw")) {
+            channel = file.getChannel();
+            boolean fresh = done == null;
+            if (fresh) {
+                channel.truncate(0);
+                done = new long[size >= 0 ? segmentCount(size, maxSegments) : 1];
+            }
+            startHashing(fresh && done.length == 1);
+
+            int first = nextIncomplete(0);
+            if (first < 0) {
+                return size;
+            }
+
+            // The first request goes alone: its answer says whether ranges work for this
+            // file, and its ETag pins the content version the other segments must match
+            Response<ResponseBody> response = fetch(first, true);
+            if (response.code() == 200) {
+                return whole(file, response);
+            }
+            if (version == null) {
+                version = response.headers().get("ETag");
+            }
+            if (fresh && size > 0) {
+                preallocate(file, size);
+            }
+
+            List<Future<?>> others = new ArrayList<>();
+            for (int i = nextIncomplete(first + 1); i >= 0; i = nextIncomplete(i + 1)) {
+                int segment = i;
+                others.add(segmentWorkers.submit(() -> {
+                    receive(segment, fetch(segment, false));
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            try {
+                receive(first, response);
+            } catch (IOException e) {
+                failure = e;
+            }
+            for (Future<?> other : others) {
+                try {
+                    other.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new TransferException("Download interrupted", true);
+                }
+            }
+            if (failure != null) {
+                keepProgress();
+                throw failure;
+            }
+            return size;
+        } finally {
+            channel = null;
+        }
+    }
+
+    private Response<ResponseBody> fetch(int segment, boolean first) throws IOException {
+        String range = null;
+        if (size >= 0) {
+            range = "bytes=" + (start(segment) + done[segment]) + "-" + end(segment);
+        }
+        Response<ResponseBody> response = service.downloadFileStream(provider, range, version, fileId).execute();
+        if (response.code() == 416) {
+            closeError(response);
+            // The file shrank since it was listed; the next attempt starts from scratch
+            progress.onCheckpoint(null, null);
+            throw new TransferException("The file changed while it was downloaded", true);
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            closeError(response);
+            throw TransferException.fromResponse("Download", response);
+        }
+        if (response.code() == 200 && !first) {
+            // Only the first request may fall back to the whole file; later ones mean it changed
+            response.body().close();
+            progress.onCheckpoint(null, null);
+            throw new TransferException("The file changed while it was downloaded", true);
+        }
+        return response;
+    }
+
+    /**
+     * The server sent the whole file, because the range was not honored or
+     * the content changed since the partial file was started
+     */
+    private long whole(RandomAccessFile file, Response<ResponseBody> response) throws IOException {
+        channel.truncate(0);
+        try (ResponseBody body = response.body()) {
+            long length = body.contentLength();
+            String etag = response.headers().get("ETag");
+            size = length;
+            done = new long[1];
+            startHashing(true);
+            // Without a validator and a length there is nothing to resume against
+            version = etag != null && length >= 0 ? etag : null;
+            if (length > 0) {
+                preallocate(file, length);
+            }
+
+            long written;
+            try {
+                written = copy(body.source(), 0, 0);
+            } catch (IOException e) {
+                keepProgress();
+                throw e;
+            }
+            channel.truncate(written);
+            if (length >= 0 && written != length) {
+                throw new TransferException("Downloaded file is incomplete", true);
+            }
+            return written;
+        }
+    }
+
+    private void receive(int segment, Response<ResponseBody> response) throws IOException {
+        try (ResponseBody body = response.body()) {
+            long offset = start(segment) + done[segment];
+            Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(response.headers().get("Content-Range")));
+            if (!matcher.matches() || Long.parseLong(matcher.group(1)) != offset
+                    || Long.parseLong(matcher.group(3)) != size) {
+                progress.onCheckpoint(null, null);
+                throw new TransferException("Unexpected range in download response", true);
+            }
+
+            long written = copy(body.source(), segment, offset);
+            if (offset + written != end(segment) + 1) {
+                throw new TransferException("Download segment ended early", true);
+            }
+        }
+    }
+
+    /**
+     * Copy a body to the file at {@code offset} through a pooled direct buffer,
+     * checkpointing the segment's progress as it goes
+     * @return the number of bytes written
+     */
+    private long copy(BufferedSource source, int segment, long offset) throws IOException {
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer buffer = pool.acquire();
+        try {
+            long written = 0;
+            long sinceCheckpoint = 0;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                if (hashing) {
+                    hash.update(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    int count = channel.write(buffer, offset + written);
+                    written += count;
+                    sinceCheckpoint += count;
+                }
+                buffer.clear();
+                advance(segment, offset + written);
+                if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                    checkpoint();
+                    sinceCheckpoint = 0;
+                }
+            }
+            return written;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * The hash of the complete file when this run received all of it in order, otherwise null
+     */
+    String getDigest() {
+        return hashing ? hash.digest() : null;
+    }
+
+    private void startHashing(boolean inOrder) {
+        hashing = inOrder && hash != null;
+        if (hashing) {
+            hash.reset();
+        }
+    }
+
+    private synchronized void advance(int segment, long position) {
+        done[segment] = position - start(segment);
+    }
+
+    private void checkpoint() throws IOException {
+        if (version == null) {
+            return;
+        }
+        // Taken before the sync, so every byte it counts is covered by it
+        long[] snapshot;
+        synchronized (this) {
+            snapshot = done.clone();
+        }
+        channel.force(false);
+        progress.onCheckpoint(version, snapshot);
+    }
+
+    /**
+     * Save everything written before a failed attempt, not just up to the last checkpoint
+     */
+    private void keepProgress() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            // The last checkpoint still stands
+        }
+    }
+
+    private int nextIncomplete(int from) {
+        for (int i = from; i < done.length; i++) {
+            if (size < 0 || start(i) + done[i] <= end(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long segmentLength() {
+        return (size + done.length - 1) / done.length;
+    }
+
+    private long start(int segment) {
+        return segment * segmentLength();
+    }
+
+    private long end(int segment) {
+        return Math.min(size, (segment + 1) * segmentLength()) - 1;
+    }
+
+    static int segmentCount(long size, int maxSegments) {
+        if (size < PARALLEL_THRESHOLD_BYTES) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(Math.min(maxSegments, MAX_SEGMENTS), size / MIN_SEGMENT_BYTES));
+    }
+
+    /**
+     * Reserve the file's blocks up front, so a full disk fails the transfer
+     * before anything is downloaded and the data lands in contiguous blocks
+     */
+    private static void preallocate(RandomAccessFile file, long length) throws IOException {
+        try {
+            Os.posix_fallocate(file.getFD(), 0, length);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new TransferException("Not enough storage for " + length + " bytes", false);
+            }
+            // Filesystems without fallocate still get the length reserved in the inode
+            file.setLength(length);
+        }
+    }
+
+    private static void closeError(Response<?> response) {
+        if (response.errorBody() != null) {
+            response.errorBody().close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.cloudsync.app.sync;
+
+import android.util.Base64;
+
+import com.cloudsync.app.api.responses.FolderIndexResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * A Bloom filter of the file names and content hashes in a cloud folder, as
+ * sent by {@code GET /api/sync/folder/index}, which builds it from a complete
+ * listing. A name it does not contain is definitely not in the folder; a name
+ * it contains probably is, and only then is the folder listed to compare the
+ * file.
+ * Keys and bit positions follow the backend: the key's MD5 gives two 32-bit
+ * hashes, combined by double hashing.
+ */
+final class RemoteNameIndex {
+    private final byte[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long builtAt;
+
+    private RemoteNameIndex(byte[] bits, long bitCount, int hashCount) {
+        this.bits = bits;
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.builtAt = System.currentTimeMillis();
+    }
+
+    /**
+     * The index the backend sent, or null if it is malformed
+     */
+    static RemoteNameIndex from(FolderIndexResponse.Index index) {
+        if (index == null || index.getBits() == null || index.getBitCount() <= 0 || index.getHashCount() <= 0) {
+            return null;
+        }
+        byte[] bits;
+        try {
+            bits = Base64.decode(index.getBits(), Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bits.length < (index.getBitCount() + 7) / 8) {
+            return null;
+        }
+        return new RemoteNameIndex(bits, index.getBitCount(), index.getHashCount());
+    }
+
+    boolean mightContainName(String name) {
+        return mightContain(nameKey(name));
+    }
+
+    boolean mightContainContent(String algorithm, String checksum) {
+        return mightContain(contentKey(algorithm, checksum));
+    }
+
+    boolean isOlderThan(long ageMs) {
+        return System.currentTimeMillis() - builtAt > ageMs;
+    }
+
+    private boolean mightContain(String key) {
+        for (long position : positions(key)) {
+            if ((bits[(int) (position >>> 3)] & (1 << (position & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long[] positions(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 unavailable", e);
+        }
+        long h1 = readUnsignedInt(digest, 0);
+        long h2 = readUnsignedInt(digest, 4) | 1;
+        long[] positions = new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            positions[i] = (h1 + i * h2) % bitCount;
+        }
+        return positions;
+    }
+
+    private static long readUnsignedInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xffL) << 24) | ((bytes[offset + 1] & 0xffL) << 16)
+                | ((bytes[offset + 2] & 0xffL) << 8) | (bytes[offset + 3] & 0xffL);
+    }
+
+    private static String nameKey(String name) {
+        return "n:" + name;
+    }
+
+    private static String contentKey(String algorithm, String checksum) {
+        return "c:" + algorithm + ":" + (ContentHash.MD5.equals(algorithm) ? checksum.toLowerCase(Locale.ROOT) : checksum);
+    }
+}
@@ -0,0 +1,688 @@
+package com.cloudsync.app.sync;
+
+import android.util.Base64;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Listings of cloud folders, held compactly enough for drives with millions
+ * of entries. An entry is an int, and its fields live in parallel primitive
+ * arrays instead of an object each:
+ * <ul>
+ *   <li>Names are interned as UTF-8 in a pool, so a name repeated across
+ *   folders is stored once</li>
+ *   <li>Parents and children are linked by index</li>
+ *   <li>Modification times are packed into seconds</li>
+ *   <li>Ids and content hashes are kept as raw bytes in shared pools, hashes
+ *   decoded from their hex or base64 text</li>
+ * </ul>
+ * With a unique name and id, an entry takes well under half the memory of
+ * the objects a listing is parsed into, and less still as names repeat. A
+ * path is looked up a segment at a time in a hash table keyed by parent and
+ * name, and a folder's children are walked in listing order with
+ * {@link #firstChild} and {@link #nextSibling}.
+ * A folder is relisted between {@link #startListing} and
+ * {@link #finishListing}, which drops the entries the new listing lacks; one
+ * folder is relisted by one thread at a time. Entry numbers of removed
+ * entries are reused, and interned names are kept for the tree's lifetime.
+ */
+public final class RemoteTree {
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    private static final int FOLDER = 1;
+    private static final int STALE = 1 << 1;
+    private static final int ENCODED = 1 << 4;
+    private static final int HASH_SHIFT = 2;
+    private static final int HASH_BITS = 3 << HASH_SHIFT;
+    // Hash algorithm codes and the length of their digests
+    private static final int HASH_NONE = 0;
+    private static final int HASH_MD5 = 1;
+    private static final int HASH_QUICK_XOR = 2;
+    private static final int[] HASH_LENGTHS = {0, 16, 20};
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int EMPTY_SLOT = 0;
+    private static final int REMOVED_SLOT = -1;
+    // Pools are compacted once more than half of them is left over from removed entries
+    private static final int MIN_COMPACT_BYTES = 64 * 1024;
+
+    // Name offsets + 1 in the name pool by hash of the name, open addressing with linear probing
+    private int[] nameSlots = new int[1024];
+    private int nameCount;
+    private byte[] namePool = new byte[4096];
+    private int namePoolSize;
+
+    private int[] parents;
+    private int[] nameRefs;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    // A folder's first child links back to its last, so children are appended in constant time
+    private int[] previousSiblings;
+    private int[] idRefs;
+    private int[] hashRefs;
+    private int[] modifiedSeconds;
+    private long[] sizes;
+    private byte[] flags;
+    // Only folders are listed, and they are few next to files
+    private final Map<Integer, Long> listedAt = new HashMap<>();
+    private int entryCount;
+    private int liveCount;
+    private int freeEntry = NONE;
+
+    // Entry + 1 by hash of parent and name, open addressing with linear probing
+    private int[] slots;
+    private int usedSlots;
+
+    private byte[] idPool = new byte[1024];
+    private int idPoolSize;
+    private byte[] hashPool = new byte[1024];
+    private int hashPoolSize;
+    private int garbageBytes;
+
+    public RemoteTree() {
+        int capacity = 64;
+        parents = new int[capacity];
+        nameRefs = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        previousSiblings = new int[capacity];
+        idRefs = new int[capacity];
+        hashRefs = new int[capacity];
+        modifiedSeconds = new int[capacity];
+        sizes = new long[capacity];
+        flags = new byte[capacity];
+        slots = new int[capacity * 2];
+        int root = allocate(NONE, intern(""), FOLDER);
+        if (root != ROOT) {
+            throw new IllegalStateException("Root is not the first entry");
+        }
+    }
+
+    /**
+     * The entry at a path of names separated by {@code /}, or {@link #NONE}
+     */
+    public synchronized int find(String path) {
+        int entry = ROOT;
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            entry = child(entry, segment);
+            if (entry == NONE) {
+                return NONE;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * The folder at a path, created with any missing folders on the way
+     */
+    public synchronized int folder(String path) {
+        int entry = ROOT;
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                entry = put(entry, segment, true);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * The child of a folder with the given name, or {@link #NONE}
+     */
+    public synchronized int child(int parent, String name) {
+        int nameRef = lookupName(name.getBytes(StandardCharsets.UTF_8), false);
+        if (nameRef == NONE) {
+            return NONE;
+        }
+        int slot = findSlot(parent, nameRef);
+        return slots[slot] > 0 ? slots[slot] - 1 : NONE;
+    }
+
+    /**
+     * The child of a folder with the given name, added last if it is missing.
+     * A child that is already there keeps its fields; while the folder is
+     * relisted, it moves after the children listed so far. Google Drive allows
+     * several files of one name in a folder; the tree keeps one entry for them.
+     */
+    public synchronized int put(int parent, String name, boolean folder) {
+        int nameRef = intern(name);
+        int slot = findSlot(parent, nameRef);
+        if (slots[slot] > 0) {
+            int entry = slots[slot] - 1;
+            if ((flags[entry] & STALE) != 0) {
+                unlink(parent, entry);
+                linkLast(parent, entry);
+            }
+            flags[entry] = (byte) ((flags[entry] & ~(STALE | FOLDER)) | (folder ? FOLDER : 0));
+            return entry;
+        }
+        return allocate(parent, nameRef, folder ? FOLDER : 0);
+    }
+
+    /**
+     * Set what the provider reports about an entry; null values are stored as unknown
+     * @param size in bytes, or -1
+     * @param modifiedTime ISO 8601, as the backend reports it
+     */
+    public synchronized void set(int entry, String id, long size, String modifiedTime,
+                                 String checksumAlgorithm, String checksum) {
+        if (idRefs[entry] >= 0) {
+            garbageBytes += 2 + pooledLength(idPool, idRefs[entry]);
+        }
+        idRefs[entry] = id != null ? storeId(id) : NONE;
+
+        int algorithm = algorithmCode(checksumAlgorithm);
+        byte[] digest = algorithm != HASH_NONE && checksum != null ? decodeHash(algorithm, checksum) : null;
+        if (hashRefs[entry] >= 0) {
+            garbageBytes += HASH_LENGTHS[hashAlgorithm(entry)];
+        }
+        if (digest == null) {
+            algorithm = HASH_NONE;
+            hashRefs[entry] = NONE;
+        } else {
+            hashPool = ensure(hashPool, hashPoolSize + digest.length);
+            System.arraycopy(digest, 0, hashPool, hashPoolSize, digest.length);
+            hashRefs[entry] = hashPoolSize;
+            hashPoolSize += digest.length;
+        }
+        flags[entry] = (byte) ((flags[entry] & ~HASH_BITS) | (algorithm << HASH_SHIFT));
+
+        sizes[entry] = size;
+        modifiedSeconds[entry] = (int) parseSeconds(modifiedTime);
+        compactIfNeeded();
+    }
+
+    /**
+     * Mark an entry whose stored bytes are an encoding of the file, such as a
+     * compressed copy, so its checksum is not one of the file's content
+     */
+    public synchronized void setEncoded(int entry, boolean encoded) {
+        flags[entry] = (byte) (encoded ? flags[entry] | ENCODED : flags[entry] & ~ENCODED);
+    }
+
+    public synchronized boolean isEncoded(int entry) {
+        return (flags[entry] & ENCODED) != 0;
+    }
+
+    /**
+     * Begin relisting a folder: its children are dropped by {@link #finishListing}
+     * unless {@link #put} again in between, and end up in the order they are put
+     */
+    public synchronized void startListing(int folder) {
+        for (int child = firstChildren[folder]; child != NONE; child = nextSiblings[child]) {
+            flags[child] |= STALE;
+        }
+    }
+
+    /**
+     * End relisting a folder, dropping the children, and everything under them,
+     * that the listing did not have
+     */
+    public synchronized void finishListing(int folder) {
+        // Children put again moved to the end, so the ones left stale come first
+        int child = firstChildren[folder];
+        while (child != NONE && (flags[child] & STALE) != 0) {
+            unlink(folder, child);
+            removeSubtree(child);
+            child = firstChildren[folder];
+        }
+        listedAt.put(folder, System.currentTimeMillis());
+        compactIfNeeded();
+    }
+
+    /**
+     * When a folder was last listed, or 0 if its children are not known
+     */
+    public synchronized long listedAt(int folder) {
+        Long time = listedAt.get(folder);
+        return time != null ? time : 0;
+    }
+
+    public synchronized int firstChild(int folder) {
+        return firstChildren[folder];
+    }
+
+    public synchronized int nextSibling(int entry) {
+        return nextSiblings[entry];
+    }
+
+    public synchronized int parent(int entry) {
+        return parents[entry];
+    }
+
+    public synchronized String name(int entry) {
+        return nameAt(nameRefs[entry]);
+    }
+
+    public synchronized String path(int entry) {
+        StringBuilder path = new StringBuilder();
+        for (int at = entry; at != ROOT && at != NONE; at = parents[at]) {
+            path.insert(0, nameAt(nameRefs[at])).insert(0, '/');
+        }
+        return path.length() > 0 ? path.substring(1) : "";
+    }
+
+    public synchronized boolean isFolder(int entry) {
+        return (flags[entry] & FOLDER) != 0;
+    }
+
+    public synchronized String id(int entry) {
+        int ref = idRefs[entry];
+        return ref >= 0 ? new String(idPool, ref + 2, pooledLength(idPool, ref), StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Size in bytes, or -1 if unknown
+     */
+    public synchronized long size(int entry) {
+        return sizes[entry];
+    }
+
+    /**
+     * Modification time in milliseconds, or 0 if unknown
+     */
+    public synchronized long modifiedTime(int entry) {
+        return Integer.toUnsignedLong(modifiedSeconds[entry]) * 1000;
+    }
+
+    public synchronized String checksumAlgorithm(int entry) {
+        switch (hashAlgorithm(entry)) {
+            case HASH_MD5:
+                return ContentHash.MD5;
+            case HASH_QUICK_XOR:
+                return ContentHash.QUICK_XOR;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The content hash in the text form the provider reports it in, or null
+     */
+    public synchronized String checksum(int entry) {
+        int algorithm = hashAlgorithm(entry);
+        if (algorithm == HASH_NONE) {
+            return null;
+        }
+        byte[] digest = Arrays.copyOfRange(hashPool, hashRefs[entry], hashRefs[entry] + HASH_LENGTHS[algorithm]);
+        if (algorithm == HASH_QUICK_XOR) {
+            return Base64.encodeToString(digest, Base64.NO_WRAP);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Number of entries, the root included
+     */
+    public synchronized int count() {
+        return liveCount;
+    }
+
+    private int allocate(int parent, int nameRef, int flag) {
+        int entry;
+        if (freeEntry != NONE) {
+            entry = freeEntry;
+            freeEntry = nextSiblings[entry];
+        } else {
+            if (entryCount == parents.length) {
+                grow(entryCount * 2);
+            }
+            entry = entryCount++;
+        }
+        parents[entry] = parent;
+        nameRefs[entry] = nameRef;
+        firstChildren[entry] = NONE;
+        idRefs[entry] = NONE;
+        hashRefs[entry] = NONE;
+        modifiedSeconds[entry] = 0;
+        sizes[entry] = -1;
+        flags[entry] = (byte) flag;
+        liveCount++;
+
+        if (parent != NONE) {
+            linkLast(parent, entry);
+            if ((usedSlots + 1) * 2 > slots.length) {
+                rehash(liveCount * 2 > slots.length / 2 ? slots.length * 2 : slots.length);
+            }
+            int slot = findSlot(parent, nameRef);
+            if (slots[slot] == EMPTY_SLOT) {
+                usedSlots++;
+            }
+            slots[slot] = entry + 1;
+        } else {
+            nextSiblings[entry] = NONE;
+            previousSiblings[entry] = entry;
+        }
+        return entry;
+    }
+
+    private void linkLast(int parent, int entry) {
+        int first = firstChildren[parent];
+        nextSiblings[entry] = NONE;
+        if (first == NONE) {
+            firstChildren[parent] = entry;
+            previousSiblings[entry] = entry;
+            return;
+        }
+        int last = previousSiblings[first];
+        nextSiblings[last] = entry;
+        previousSiblings[entry] = last;
+        previousSiblings[first] = entry;
+    }
+
+    private void unlink(int parent, int entry) {
+        int first = firstChildren[parent];
+        int next = nextSiblings[entry];
+        if (entry == first) {
+            firstChildren[parent] = next;
+            if (next != NONE) {
+                previousSiblings[next] = previousSiblings[entry];
+            }
+            return;
+        }
+        int previous = previousSiblings[entry];
+        nextSiblings[previous] = next;
+        if (next != NONE) {
+            previousSiblings[next] = previous;
+        } else {
+            previousSiblings[first] = previous;
+        }
+    }
+
+    /**
+     * Free an entry and everything under it, once it is unlinked from its parent's children
+     */
+    private void removeSubtree(int top) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(top);
+        while (!pending.isEmpty()) {
+            int entry = pending.pop();
+            for (int child = firstChildren[entry]; child != NONE; child = nextSiblings[child]) {
+                pending.push(child);
+            }
+            int slot = findSlot(parents[entry], nameRefs[entry]);
+            if (slots[slot] == entry + 1) {
+                slots[slot] = REMOVED_SLOT;
+            }
+            if (idRefs[entry] >= 0) {
+                garbageBytes += 2 + pooledLength(idPool, idRefs[entry]);
+            }
+            if (hashRefs[entry] >= 0) {
+                garbageBytes += HASH_LENGTHS[hashAlgorithm(entry)];
+            }
+            listedAt.remove(entry);
+            flags[entry] = 0;
+            firstChildren[entry] = NONE;
+            parents[entry] = NONE;
+            nextSiblings[entry] = freeEntry;
+            freeEntry = entry;
+            liveCount--;
+        }
+    }
+
+    /**
+     * The slot holding a parent's child of the given name, or else the empty
+     * slot where it would go
+     */
+    private int findSlot(int parent, int nameRef) {
+        int mask = slots.length - 1;
+        int slot = mix(parent, nameRef) & mask;
+        int firstRemoved = NONE;
+        while (true) {
+            int value = slots[slot];
+            if (value == EMPTY_SLOT) {
+                return firstRemoved != NONE ? firstRemoved : slot;
+            }
+            if (value == REMOVED_SLOT) {
+                if (firstRemoved == NONE) {
+                    firstRemoved = slot;
+                }
+            } else if (parents[value - 1] == parent && nameRefs[value - 1] == nameRef) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int length) {
+        int[] old = slots;
+        slots = new int[length];
+        usedSlots = 0;
+        for (int value : old) {
+            if (value > 0) {
+                int slot = findSlot(parents[value - 1], nameRefs[value - 1]);
+                slots[slot] = value;
+                usedSlots++;
+            }
+        }
+    }
+
+    private static int mix(int parent, int nameRef) {
+        int h = parent * 0x9E3779B1 + nameRef;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow(int capacity) {
+        parents = Arrays.copyOf(parents, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+        idRefs = Arrays.copyOf(idRefs, capacity);
+        hashRefs = Arrays.copyOf(hashRefs, capacity);
+        modifiedSeconds = Arrays.copyOf(modifiedSeconds, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+
+    private int intern(String name) {
+        return lookupName(name.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    /**
+     * The pool offset of a name, stored first if {@code add} is set, or {@link #NONE}
+     */
+    private int lookupName(byte[] name, boolean add) {
+        int mask = nameSlots.length - 1;
+        int slot = Arrays.hashCode(name) & mask;
+        while (nameSlots[slot] != EMPTY_SLOT) {
+            int ref = nameSlots[slot] - 1;
+            if (nameEquals(ref, name)) {
+                return ref;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return NONE;
+        }
+        if (name.length > 0xffff) {
+            throw new IllegalArgumentException("Name too long: " + name.length + " bytes");
+        }
+        namePool = ensure(namePool, namePoolSize + 2 + name.length);
+        int ref = namePoolSize;
+        namePool[ref] = (byte) (name.length >> 8);
+        namePool[ref + 1] = (byte) name.length;
+        System.arraycopy(name, 0, namePool, ref + 2, name.length);
+        namePoolSize += 2 + name.length;
+        nameSlots[slot] = ref + 1;
+        if (++nameCount * 2 > nameSlots.length) {
+            rehashNames();
+        }
+        return ref;
+    }
+
+    private boolean nameEquals(int ref, byte[] name) {
+        if (pooledLength(namePool, ref) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (namePool[ref + 2 + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String nameAt(int ref) {
+        return new String(namePool, ref + 2, pooledLength(namePool, ref), StandardCharsets.UTF_8);
+    }
+
+    private void rehashNames() {
+        int[] old = nameSlots;
+        nameSlots = new int[old.length * 2];
+        int mask = nameSlots.length - 1;
+        for (int value : old) {
+            if (value == EMPTY_SLOT) {
+                continue;
+            }
+            int ref = value - 1;
+            int length = pooledLength(namePool, ref);
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + namePool[ref + 2 + i];
+            }
+            int slot = hash & mask;
+            while (nameSlots[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            nameSlots[slot] = value;
+        }
+    }
+
+    private int storeId(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("Id too long: " + bytes.length + " bytes");
+        }
+        idPool = ensure(idPool, idPoolSize + 2 + bytes.length);
+        int ref = idPoolSize;
+        idPool[ref] = (byte) (bytes.length >> 8);
+        idPool[ref + 1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, idPool, ref + 2, bytes.length);
+        idPoolSize += 2 + bytes.length;
+        return ref;
+    }
+
+    /**
+     * The length of a pooled value, which is stored in the two bytes before it
+     */
+    private static int pooledLength(byte[] pool, int ref) {
+        return ((pool[ref] & 0xff) << 8) | (pool[ref + 1] & 0xff);
+    }
+
+    private int hashAlgorithm(int entry) {
+        return (flags[entry] & HASH_BITS) >> HASH_SHIFT;
+    }
+
+    /**
+     * Rewrite the pools without the bytes of removed and replaced values
+     */
+    private void compactIfNeeded() {
+        if (garbageBytes < MIN_COMPACT_BYTES || garbageBytes * 2 < idPoolSize + hashPoolSize) {
+            return;
+        }
+        byte[] ids = new byte[Math.max(1024, idPoolSize - garbageBytes)];
+        byte[] hashes = new byte[Math.max(1024, hashPoolSize)];
+        int idSize = 0;
+        int hashSize = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (parents[entry] == NONE && entry != ROOT) {
+                continue;
+            }
+            if (idRefs[entry] >= 0) {
+                int length = 2 + pooledLength(idPool, idRefs[entry]);
+                ids = ensure(ids, idSize + length);
+                System.arraycopy(idPool, idRefs[entry], ids, idSize, length);
+                idRefs[entry] = idSize;
+                idSize += length;
+            }
+            if (hashRefs[entry] >= 0) {
+                int length = HASH_LENGTHS[hashAlgorithm(entry)];
+                System.arraycopy(hashPool, hashRefs[entry], hashes, hashSize, length);
+                hashRefs[entry] = hashSize;
+                hashSize += length;
+            }
+        }
+        idPool = ids;
+        idPoolSize = idSize;
+        hashPool = hashSize < hashes.length / 2 ? Arrays.copyOf(hashes, Math.max(1024, hashSize)) : hashes;
+        hashPoolSize = hashSize;
+        garbageBytes = 0;
+    }
+
+    private static byte[] ensure(byte[] pool, int size) {
+        return size <= pool.length ? pool : Arrays.copyOf(pool, Math.max(size, pool.length * 2));
+    }
+
+    private static int algorithmCode(String algorithm) {
+        if (ContentHash.MD5.equals(algorithm)) {
+            return HASH_MD5;
+        }
+        if (ContentHash.QUICK_XOR.equals(algorithm)) {
+            return HASH_QUICK_XOR;
+        }
+        return HASH_NONE;
+    }
+
+    /**
+     * The digest behind a checksum's text, or null if it is not one of the algorithm's
+     */
+    private static byte[] decodeHash(int algorithm, String checksum) {
+        byte[] digest;
+        if (algorithm == HASH_QUICK_XOR) {
+            try {
+                digest = Base64.decode(checksum, Base64.NO_WRAP);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        } else {
+            if (checksum.length() != HASH_LENGTHS[algorithm] * 2) {
+                return null;
+            }
+            digest = new byte[checksum.length() / 2];
+            for (int i = 0; i < digest.length; i++) {
+                int high = Character.digit(checksum.charAt(i * 2), 16);
+                int low = Character.digit(checksum.charAt(i * 2 + 1), 16);
+                if (high < 0 || low < 0) {
+                    return null;
+                }
+                digest[i] = (byte) ((high << 4) | low);
+            }
+        }
+        return digest.length == HASH_LENGTHS[algorithm] ? digest : null;
+    }
+
+    /**
+     * Seconds since the epoch of an ISO 8601 time, to the second, or 0 if there is none
+     */
+    static long parseSeconds(String time) {
+        if (time == null || time.length() < 19) {
+            return 0;
+        }
+        // Both providers report UTC
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return Math.max(0, format.parse(time.substring(0, 19)).getTime() / 1000);
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.cloudsync.app.sync;
+
+import android.content.Context;
+import android.webkit.MimeTypeMap;
+
+import com.cloudsync.app.api.ServiceRegistry;
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.api.responses.BatchUploadResponse;
+import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.utils.SyncConfigManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import retrofit2.Response;
+
+/**
+ * Uploads small files through the batch endpoint, many per request, so that
+ * folders of thumbnails or notes do not pay per-request overhead for every file.
+ */
+public class SmallFileBatcher {
+    /** Files below this size go through the batch endpoint */
+    public static final long SMALL_FILE_THRESHOLD = 100 * 1024;
+
+    static final int MAX_FILES_PER_BATCH = 200;
+    static final long MAX_BYTES_PER_BATCH = 8 * 1024 * 1024;
+    private static final MediaType TEXT_PLAIN = MediaType.get("text/plain");
+
+    private final SyncService service;
+    private final SyncConfigManager configManager;
+
+    public SmallFileBatcher(Context context) {
+        // The streaming client does not log bodies, so file contents stay out of memory and logcat
+        this.service = ServiceRegistry.getInstance(context).streamingService(SyncService.class);
+        this.configManager = new SyncConfigManager(context.getApplicationContext());
+    }
+
+    public static boolean isSmall(File file) {
+        return file.length() < SMALL_FILE_THRESHOLD;
+    }
+
+    /**
+     * Split files into batches bounded by file count and total size
+     */
+    public static List<List<File>> partition(List<File> files) {
+        List<List<File>> batches = new ArrayList<>();
+        List<File> current = new ArrayList<>();
+        long currentBytes = 0;
+
+        for (File file : files) {
+            if (!current.isEmpty() &&
+                    (current.size() >= MAX_FILES_PER_BATCH || currentBytes + file.length() > MAX_BYTES_PER_BATCH)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(file);
+            currentBytes += file.length();
+        }
+
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Upload one batch synchronously; call from a background thread.
+     * File contents are streamed from disk as the request is written.
+     * @return per-file results in the order of {@code files}
+     */
+    public List<BatchUploadResponse.ItemResult> upload(SyncConfig config, List<File> files) throws IOException {
+        List<MultipartBody.Part> parts = new ArrayList<>();
+        for (File file : files) {
+            RequestBody body = RequestBody.create(file, MediaType.parse(mimeTypeOf(file)));
+            parts.add(MultipartBody.Part.createFormData("files", file.getName(), body));
+        }
+
+        String folderId = config.getCloudFolderId();
+        Response<BatchUploadResponse> response = service.uploadBatch(
+                config.getProvider(),
+                RequestBody.create(config.getCloudFolderPath(), TEXT_PLAIN),
+                folderId != null ? RequestBody.create(folderId, TEXT_PLAIN) : null,
+                RequestBody.create(config.getCompression().getValue(), TEXT_PLAIN),
+                parts).execute();
+
+        if (!response.isSuccessful() || response.body() == null) {
+            throw new IOException("Batch upload failed: " + response.code() + " " + response.message());
+        }
+
+        BatchUploadResponse result = response.body();
+        if (config.getId() != null) {
+            configManager.rememberCloudFolderId(config.getId(), result.getFolderId());
+        }
+        return result.getResults();
+    }
+
+    static String mimeTypeOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String mimeType = dot >= 0
+                ? MimeTypeMap.getSingleton().getMimeTypeFromExtension(name.substring(dot + 1).toLowerCase())
+                : null;
+        return mimeType != null ? mimeType : "application/octet-stream";
+    }
+}
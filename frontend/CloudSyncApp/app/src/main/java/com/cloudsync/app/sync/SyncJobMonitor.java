@@ -0,0 +1,169 @@
+package com.cloudsync.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.cloudsync.app.api.ServerSentEventReader;
+import com.cloudsync.app.api.ServiceRegistry;
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.api.responses.SyncJobResponse;
+import com.cloudsync.app.models.SyncJob;
+import com.cloudsync.app.models.SyncJobEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Follows a backend sync job through its server-sent event stream. Events are
+ * delivered on the main thread as they arrive; a dropped connection is resumed
+ * with Last-Event-ID so no event is missed or repeated.
+ */
+public class SyncJobMonitor {
+    private static final int MAX_RECONNECTS = 5;
+    private static final long RECONNECT_DELAY_MS = 2000;
+
+    public interface Listener {
+        void onEvent(SyncJobEvent event);
+        void onFinished(SyncJob job);
+        void onError(String message);
+    }
+
+    private final Listener listener;
+    private final SyncService service;
+    private final Gson gson = new Gson();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile boolean stopped;
+    private volatile Call<ResponseBody> currentCall;
+
+    public SyncJobMonitor(Context context, Listener listener) {
+        this.listener = listener;
+        this.service = ServiceRegistry.getInstance(context).streamingService(SyncService.class);
+    }
+
+    /**
+     * Start streaming the events of a job in the background
+     */
+    public void follow(String jobId) {
+        executor.execute(() -> streamEvents(jobId));
+    }
+
+    /**
+     * Ask the backend to cancel the job; the stream ends with its final "done" event
+     */
+    public void cancelJob(String jobId) {
+        service.cancelJob(jobId).enqueue(new Callback<SyncJobResponse>() {
+            @Override
+            public void onResponse(Call<SyncJobResponse> call, Response<SyncJobResponse> response) {
+                if (!response.isSuccessful()) {
+                    postError("Failed to cancel sync: " + response.message());
+                }
+            }
+
+            @Override
+            public void onFailure(Call<SyncJobResponse> call, Throwable t) {
+                postError("Network error: " + t.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stop following the job. The job itself keeps running on the backend.
+     */
+    public void stop() {
+        stopped = true;
+        Call<ResponseBody> call = currentCall;
+        if (call != null) {
+            call.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    private void streamEvents(String jobId) {
+        String lastEventId = null;
+        int reconnects = 0;
+
+        while (!stopped) {
+            try {
+                currentCall = service.streamJobEvents(jobId, lastEventId);
+                Response<ResponseBody> response = currentCall.execute();
+                if (!response.isSuccessful() || response.body() == null) {
+                    postError("Failed to follow sync: " + response.message());
+                    return;
+                }
+
+                try (ServerSentEventReader reader = new ServerSentEventReader(response.body().source())) {
+                    ServerSentEventReader.Event event;
+                    while ((event = reader.next()) != null) {
+                        reconnects = 0;
+                        if (event.getId() != null) {
+                            lastEventId = event.getId();
+                        }
+
+                        SyncJobEvent jobEvent = parse(event);
+                        mainHandler.post(() -> listener.onEvent(jobEvent));
+
+                        if (SyncJobEvent.TYPE_DONE.equals(jobEvent.getEventType())) {
+                            SyncJob job = jobEvent.getJob();
+                            mainHandler.post(() -> listener.onFinished(job));
+                            return;
+                        }
+                    }
+                }
+                // Stream closed before the job finished; fall through and resume it
+            } catch (IOException | JsonParseException e) {
+                if (stopped) {
+                    return;
+                }
+                if (e instanceof JsonParseException) {
+                    postError("Invalid sync event: " + e.getMessage());
+                    return;
+                }
+            }
+
+            if (++reconnects > MAX_RECONNECTS) {
+                postError("Lost connection to sync progress");
+                return;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS * reconnects);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private SyncJobEvent parse(ServerSentEventReader.Event event) {
+        SyncJobEvent jobEvent;
+        if (SyncJobEvent.TYPE_STATUS.equals(event.getType()) || SyncJobEvent.TYPE_DONE.equals(event.getType())) {
+            jobEvent = new SyncJobEvent();
+            jobEvent.setJob(gson.fromJson(event.getData(), SyncJob.class));
+        } else {
+            jobEvent = gson.fromJson(event.getData(), SyncJobEvent.class);
+        }
+        jobEvent.setEventType(event.getType());
+        if (event.getId() != null) {
+            try {
+                jobEvent.setEventId(Long.parseLong(event.getId()));
+            } catch (NumberFormatException ignored) {
+                // Non-numeric ids are still replayed through Last-Event-ID as-is
+            }
+        }
+        return jobEvent;
+    }
+
+    private void postError(String message) {
+        if (!stopped) {
+            mainHandler.post(() -> listener.onError(message));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.cloudsync.app.sync;
+
+/**
+ * Byte-rate token bucket. Callers block in {@link #acquire(long)} until enough
+ * tokens have accumulated; a rate of zero or less disables the limit. The rate
+ * can be changed while transfers are waiting and takes effect immediately.
+ */
+public class TokenBucket {
+    private long bytesPerSecond;
+    private long capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long bytesPerSecond) {
+        this.lastRefillNanos = System.nanoTime();
+        setRate(bytesPerSecond);
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        // Allow bursts of up to one second of traffic
+        this.capacity = Math.max(bytesPerSecond, 0);
+        this.tokens = Math.min(tokens, capacity);
+        notifyAll();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return bytesPerSecond <= 0;
+    }
+
+    /**
+     * Block until {@code bytes} tokens have been taken from the bucket.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+
+            refill();
+            long chunk = Math.min(remaining, capacity);
+            if (tokens >= chunk) {
+                tokens -= chunk;
+                remaining -= chunk;
+                continue;
+            }
+
+            double missing = chunk - tokens;
+            long waitMillis = Math.max(1, (long) Math.ceil(missing * 1000d / bytesPerSecond));
+            wait(waitMillis);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > 0) {
+            double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000d;
+            tokens = Math.min(capacity, tokens + elapsedSeconds * bytesPerSecond);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,26 @@
+package com.cloudsync.app.sync;
+
+/**
+ * Which way a queued transfer moves a file.
+ */
+public enum TransferDirection {
+    UPLOAD("Upload"),
+    DOWNLOAD("Download"),
+    // A file renamed or moved on the device whose stored copy is moved to match
+    MOVE("Move");
+
+    private final String displayName;
+
+    TransferDirection(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,1146 @@
+package com.cloudsync.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.cloudsync.app.api.ServiceRegistry;
+import com.cloudsync.app.api.ChunkedFileRequestBody;
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.api.requests.MoveFileRequest;
+import com.cloudsync.app.api.requests.UploadDestination;
+import com.cloudsync.app.api.responses.BatchUploadResponse;
+import com.cloudsync.app.api.responses.FanOutUploadResponse;
+import com.cloudsync.app.api.responses.FileUploadResponse;
+import com.cloudsync.app.api.responses.FolderFilesResponse;
+import com.cloudsync.app.api.responses.FolderIndexResponse;
+import com.cloudsync.app.models.CloudFile;
+import com.cloudsync.app.models.CompressionCodec;
+import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.models.SyncMirror;
+import com.cloudsync.app.models.SyncMode;
+import com.cloudsync.app.sync.TransferScheduler.Lane;
+import com.cloudsync.app.utils.SyncConfigManager;
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import retrofit2.Response;
+
+/**
+ * Runs the transfers of the persistent {@link TransferQueue}. Scans add work
+ * to the queue; workers claim items one at a time and move each through
+ * in-flight and verifying to done or failed. Anything interrupted is picked up
+ * again by {@link #resume()} on the next start.
+ * Besides the general workers, one worker only takes small files so a few
+ * large ones cannot hold up many quick ones, and one only serves
+ * configurations boosted by {@link #syncNow}. The small-file worker collects
+ * the uploads below {@link SmallFileBatcher#SMALL_FILE_THRESHOLD} per
+ * configuration and sends them through the {@link SmallFileBatcher}, many per
+ * request, whenever a batch is full and once nothing more can be claimed.
+ * How many transfers of a provider run at once, across all lanes, and the
+ * chunk size they write with are set by that provider's
+ * {@link ConcurrencyController} through {@link TransferMetrics}.
+ * For the "then delete" sync modes, transfers are hashed as they run and
+ * handed to a {@link VerifiedDeleter}, which deletes the source only once the
+ * copy matches the provider's checksum.
+ * Scans leave out what the configuration's {@link PathRules} exclude, and
+ * skip checking entries one by one while a folder's {@link FolderSummary}
+ * matches the last one that had nothing to transfer.
+ * Files that appear at a new path are checked by {@link MoveDetector}
+ * against uploaded files that vanished, and a match moves the stored copy.
+ * Other new files are looked up in the cloud folder's {@link RemoteNameIndex};
+ * one it holds with the same content is recorded as uploaded, not sent again.
+ * Listings of cloud folders are planned from a {@link RemoteTree} per provider.
+ * A configuration with mirrors uploads each file once to the backend, which
+ * stores it in every folder; the item records the folders that have it.
+ * The configurations scanned together share {@link LocalListings}, and all
+ * scans and transfers share the {@link HashCache}, so folders and files that
+ * several configurations sync are read once.
+ */
+public class TransferEngine {
+    private static final String TAG = "TransferEngine";
+    private static final String PARTIAL_SUFFIX = ".cloudsync-part";
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+    // Matches how long the backend keeps a folder's index before rebuilding it
+    private static final long NAME_INDEX_TTL_MS = 10 * 60 * 1000;
+
+    public interface Listener {
+        void onQueueChanged(Map<TransferState, Integer> counts);
+        void onIdle(Map<TransferState, Integer> counts);
+    }
+
+    private static TransferEngine instance;
+
+    private final TransferQueue queue;
+    private final SyncConfigManager configManager;
+    private final SyncService service;
+    private final TransferMetrics metrics = TransferMetrics.getInstance();
+    private final FileCommitter committer = new FileCommitter();
+    private final VerifiedDeleter deleter;
+    private final SmallFileBatcher batcher;
+    private final FolderSummaries summaries;
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    // Extra segments of large downloads, run beside the worker that owns the file
+    private final ExecutorService segmentWorkers = Executors.newCachedThreadPool();
+    private final ExecutorService scanner = Executors.newSingleThreadExecutor();
+    // "Sync now" scans do not wait behind a long background scan
+    private final ExecutorService urgentScanner = Executors.newSingleThreadExecutor();
+    private final Map<Lane, AtomicInteger> activeWorkers = new EnumMap<>(Lane.class);
+    private final AtomicInteger totalWorkers = new AtomicInteger();
+    private final Map<String, String> providerByConfig = new ConcurrentHashMap<>();
+    private final Map<String, PathRules> rulesByConfig = new ConcurrentHashMap<>();
+    private final Map<String, RemoteNameIndex> nameIndexByFolder = new ConcurrentHashMap<>();
+    private final Map<String, RemoteTree> treeByProvider = new ConcurrentHashMap<>();
+    // Transfers running per provider; guarded by itself so a check and a claim happen together
+    private final Map<String, Integer> inFlightByProvider = new HashMap<>();
+    private final AtomicBoolean changePosted = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Gson gson = new Gson();
+    private final HashCache hashCache = HashCache.getInstance();
+    private volatile Listener listener;
+
+    private TransferEngine(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.queue = TransferQueue.getInstance(appContext);
+        this.configManager = new SyncConfigManager(appContext);
+        // Upload bodies stream from disk; the logging client would buffer them whole
+        this.service = ServiceRegistry.getInstance(appContext).streamingService(SyncService.class);
+        this.deleter = new VerifiedDeleter(queue, configManager, service);
+        this.batcher = new SmallFileBatcher(appContext);
+        this.summaries = new FolderSummaries(appContext);
+        this.queue.addListener(item -> postQueueChanged());
+        for (Lane lane : Lane.values()) {
+            activeWorkers.put(lane, new AtomicInteger());
+        }
+    }
+
+    public static synchronized TransferEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransferEngine(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Progress callbacks are delivered on the main thread; pass null to stop them
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public TransferQueue getQueue() {
+        return queue;
+    }
+
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scan the enabled configurations for work in the background, then run it
+     */
+    public void syncAll(List<SyncConfig> configs) {
+        scanner.execute(() -> {
+            LocalListings listings = new LocalListings();
+            for (SyncConfig config : configs) {
+                if (config.isEnabled() && config.getId() != null) {
+                    scan(config, listings);
+                }
+            }
+            resume();
+        });
+    }
+
+    /**
+     * Scan one configuration right away and serve it ahead of background work
+     */
+    public void syncNow(SyncConfig config) {
+        urgentScanner.execute(() -> {
+            providerByConfig.put(config.getId(), config.getProvider());
+            queue.setWeight(config.getId(), config.getTransferPriority().getWeight());
+            scan(config, new LocalListings());
+            queue.boost(config.getId());
+            resume();
+        });
+    }
+
+    /**
+     * Start workers for whatever is queued, including transfers interrupted by
+     * a crash, and delete the sources whose delay has passed
+     */
+    public void resume() {
+        deleter.schedule();
+        if (!queue.hasPendingWork()) {
+            if (totalWorkers.get() == 0) {
+                postIdle();
+            }
+            return;
+        }
+        for (SyncConfig config : configManager.getAllConfigs()) {
+            if (config.getId() != null) {
+                providerByConfig.put(config.getId(), config.getProvider());
+                queue.setWeight(config.getId(), config.getTransferPriority().getWeight());
+            }
+        }
+
+        startWorkers(Lane.ANY, generalWorkerTarget());
+        if (queue.hasQueued(Lane.SMALL_ONLY)) {
+            startWorkers(Lane.SMALL_ONLY, 1);
+        }
+        if (queue.hasQueued(Lane.BOOSTED_ONLY)) {
+            startWorkers(Lane.BOOSTED_ONLY, 1);
+        }
+    }
+
+    private void startWorkers(Lane lane, int limit) {
+        AtomicInteger active = activeWorkers.get(lane);
+        while (true) {
+            int count = active.get();
+            if (count >= limit) {
+                return;
+            }
+            if (active.compareAndSet(count, count + 1)) {
+                totalWorkers.incrementAndGet();
+                workers.execute(() -> runWorker(lane));
+            }
+        }
+    }
+
+    /**
+     * Enough general workers to fill every provider's current limit
+     */
+    private int generalWorkerTarget() {
+        int target = 0;
+        for (String provider : new HashSet<>(providerByConfig.values())) {
+            target += metrics.getLimit(provider);
+        }
+        return Math.max(1, target);
+    }
+
+    private void runWorker(Lane lane) {
+        // Claimed small uploads waiting to be sent together, per configuration
+        Map<String, Batch> batches = lane == Lane.SMALL_ONLY ? new HashMap<>() : null;
+        try {
+            while (true) {
+                TransferItem item = claim(lane);
+                if (item == null) {
+                    // End of the pass: send what was collected, then look for more
+                    if (batches == null || batches.isEmpty()) {
+                        break;
+                    }
+                    flushAll(batches);
+                    continue;
+                }
+                String provider = providerByConfig.get(item.getConfigId());
+                try {
+                    if (batches != null && addToBatch(batches, item)) {
+                        continue;
+                    }
+                    process(item, provider);
+                } finally {
+                    release(provider);
+                }
+                // The controller may have raised a limit; bring up workers to use it
+                startWorkers(Lane.ANY, generalWorkerTarget());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not claim the next transfer", e);
+        } finally {
+            if (batches != null) {
+                flushAll(batches);
+            }
+            activeWorkers.get(lane).decrementAndGet();
+            if (totalWorkers.decrementAndGet() == 0) {
+                postIdle();
+            }
+        }
+    }
+
+    /**
+     * Claim the next transfer whose provider has a free slot and take that slot.
+     * Returns null when nothing may start, including when every provider with
+     * queued work is at its limit; a finishing transfer frees a slot and its
+     * worker claims again.
+     */
+    private TransferItem claim(Lane lane) throws IOException {
+        synchronized (inFlightByProvider) {
+            Set<String> blocked = new HashSet<>();
+            for (Map.Entry<String, String> entry : providerByConfig.entrySet()) {
+                String provider = entry.getValue();
+                if (inFlightByProvider.getOrDefault(provider, 0) >= metrics.getLimit(provider)) {
+                    blocked.add(entry.getKey());
+                }
+            }
+
+            TransferItem item = queue.claimNext(lane, blocked);
+            String provider = item == null ? null : providerByConfig.get(item.getConfigId());
+            if (provider != null) {
+                inFlightByProvider.put(provider, inFlightByProvider.getOrDefault(provider, 0) + 1);
+            }
+            return item;
+        }
+    }
+
+    private void release(String provider) {
+        if (provider == null) {
+            return;
+        }
+        synchronized (inFlightByProvider) {
+            inFlightByProvider.put(provider, Math.max(0, inFlightByProvider.getOrDefault(provider, 0) - 1));
+        }
+    }
+
+    /**
+     * Claimed uploads of one configuration that go out in one batch request
+     */
+    private static class Batch {
+        final SyncConfig config;
+        final List<TransferItem> items = new ArrayList<>();
+        final List<File> files = new ArrayList<>();
+        long bytes;
+
+        Batch(SyncConfig config) {
+            this.config = config;
+        }
+    }
+
+    /**
+     * Add a claimed upload to its configuration's batch, sending the batch
+     * once it is full
+     * @return false if the item has to be transferred on its own
+     */
+    private boolean addToBatch(Map<String, Batch> batches, TransferItem item) {
+        if (item.getDirection() != TransferDirection.UPLOAD) {
+            return false;
+        }
+        SyncConfig config = configManager.getConfig(item.getConfigId());
+        File file = new File(item.getLocalPath());
+        // Mirrored uploads go through the fan-out endpoint; the batch is stored under the file's own name
+        if (config == null || !config.getMirrors().isEmpty() || !file.isFile() || !SmallFileBatcher.isSmall(file)
+                || !file.getName().equals(item.getRemoteName())) {
+            return false;
+        }
+
+        Batch batch = batches.get(config.getId());
+        if (batch != null && (batch.files.size() >= SmallFileBatcher.MAX_FILES_PER_BATCH
+                || batch.bytes + file.length() > SmallFileBatcher.MAX_BYTES_PER_BATCH)) {
+            flush(batches.remove(config.getId()));
+            batch = null;
+        }
+        if (batch == null) {
+            batch = new Batch(config);
+            batches.put(config.getId(), batch);
+        }
+        batch.items.add(item);
+        batch.files.add(file);
+        batch.bytes += file.length();
+        return true;
+    }
+
+    private void flushAll(Map<String, Batch> batches) {
+        for (Batch batch : batches.values()) {
+            flush(batch);
+        }
+        batches.clear();
+    }
+
+    /**
+     * Upload a batch and settle each of its items from its own result
+     */
+    private void flush(Batch batch) {
+        SyncConfig config = batch.config;
+        List<BatchUploadResponse.ItemResult> results;
+        try {
+            results = batcher.upload(config, batch.files);
+        } catch (IOException e) {
+            for (TransferItem item : batch.items) {
+                queue.markFailed(item.getId(), e.getMessage(), true);
+            }
+            return;
+        }
+
+        long sent = 0;
+        ContentHash hash = ContentHash.forProvider(config.getProvider());
+        for (int i = 0; i < batch.items.size(); i++) {
+            TransferItem item = batch.items.get(i);
+            File file = batch.files.get(i);
+            BatchUploadResponse.ItemResult result = results != null && i < results.size() ? results.get(i) : null;
+            if (result == null || !result.isSuccess() || result.getFile() == null || result.getFile().getId() == null) {
+                int status = result != null ? result.getStatus() : 0;
+                boolean retryable = status == 0 || status == 408 || status == 409 || status == 429 || status >= 500;
+                queue.markFailed(item.getId(), "Upload failed: " + status
+                        + (result != null && result.getError() != null ? " " + result.getError() : ""), retryable);
+                continue;
+            }
+            try {
+                sent += settleBatched(config, item, file, result.getFile(), hash);
+            } catch (TransferException e) {
+                queue.markFailed(item.getId(), e.getMessage(), e.isRetryable());
+            } catch (IOException e) {
+                queue.markFailed(item.getId(), e.getMessage(), true);
+            }
+        }
+        metrics.recordTransfer(config.getProvider(), sent);
+    }
+
+    /**
+     * Verify one file of a batch as {@link #upload} does; the batch streams
+     * files unhashed, so small as they are, they are read again to hash them
+     * @return the number of bytes sent
+     */
+    private long settleBatched(SyncConfig config, TransferItem item, File file, CloudFile stored,
+                               ContentHash hash) throws IOException {
+        queue.markVerifying(item.getId());
+        long storedSize = parseSize(stored.getSize());
+        if (stored.getCodec() == CompressionCodec.NONE && storedSize >= 0 && storedSize != file.length()) {
+            throw new TransferException("Stored size " + storedSize + " does not match " + file.length(), false);
+        }
+        if (hash == null) {
+            deleter.onTransferred(config, item, stored.getId(), null, null, null);
+        } else {
+            String digest = hashCache.ofFile(file, hash.getAlgorithm());
+            boolean comparable = stored.getCodec() == CompressionCodec.NONE
+                    && hash.getAlgorithm().equals(stored.getChecksumAlgorithm());
+            deleter.onTransferred(config, item, stored.getId(), hash.getAlgorithm(), digest,
+                    comparable ? stored.getChecksum() : null);
+        }
+        return file.length();
+    }
+
+    private void scan(SyncConfig config, LocalListings listings) {
+        PathRules rules = rulesOf(config);
+        if (rules == null) {
+            return;
+        }
+        SyncMode mode = config.getSyncMode();
+        // On-demand files are fetched by the OnDemandDocumentsProvider when they are opened
+        if (!mode.isLocal() || config.isOnDemand()) {
+            return;
+        }
+        boolean downloadOnly = mode == SyncMode.DOWNLOAD_ONLY || mode == SyncMode.DOWNLOAD_THEN_DELETE;
+        boolean uploadOnly = mode == SyncMode.UPLOAD_ONLY || mode == SyncMode.UPLOAD_THEN_DELETE;
+
+        if (!downloadOnly) {
+            scanLocal(config, rules, listings);
+        }
+        if (!uploadOnly) {
+            try {
+                scanRemote(config, rules, listings);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not list " + config.getCloudFolderPath(), e);
+            }
+        }
+    }
+
+    /**
+     * A configuration's compiled patterns, compiled again only when they
+     * change, or null if they do not compile and nothing may be scanned
+     */
+    private PathRules rulesOf(SyncConfig config) {
+        PathRules rules = rulesByConfig.get(config.getId());
+        if (rules != null && rules.isCompiledFrom(config.getIncludePatterns(), config.getExcludePatterns())) {
+            return rules;
+        }
+        try {
+            rules = PathRules.compile(config.getIncludePatterns(), config.getExcludePatterns());
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Not scanning " + config.getLocalFolderPath() + ": " + e.getMessage());
+            return null;
+        }
+        rulesByConfig.put(config.getId(), rules);
+        return rules;
+    }
+
+    private void scanLocal(SyncConfig config, PathRules rules, LocalListings listings) {
+        LocalListings.Folder listing = listings.of(config.getLocalFolderPath());
+        if (listing == null) {
+            Log.w(TAG, "Could not read " + config.getLocalFolderPath());
+            return;
+        }
+
+        File localFolder = new File(config.getLocalFolderPath());
+        PathRules.Cursor folder = rules.root();
+        FolderSummary summary = new FolderSummary(config.getProvider(), config.getCloudFolderPath(),
+                config.getSyncMode().getValue());
+        List<TransferItem> drafts = new ArrayList<>();
+        Map<String, LocalListings.Entry> entries = new HashMap<>();
+        for (LocalListings.Entry entry : listing.entries()) {
+            // Decided from the name first, so excluded entries are never stat'ed
+            String name = entry.name();
+            if (name.endsWith(PARTIAL_SUFFIX) || folder.enter(name).skipsFile() || !entry.isFile()) {
+                continue;
+            }
+            // Under this configuration's own path, which may differ from the one the folder was listed by
+            File file = new File(localFolder, name);
+            TransferItem draft = new TransferItem();
+            draft.setConfigId(config.getId());
+            draft.setDirection(TransferDirection.UPLOAD);
+            draft.setLocalPath(file.getAbsolutePath());
+            draft.setRemoteName(name);
+            draft.setSize(entry.length());
+            draft.setLastModified(entry.lastModified());
+            drafts.add(draft);
+            entries.put(name, entry);
+            summary.add(draft.getRemoteName(), draft.getSize(), String.valueOf(draft.getLastModified()));
+        }
+        if (summaries.isSettled(config.getId(), FolderSummaries.LOCAL, summary)) {
+            return;
+        }
+
+        boolean settled = true;
+        List<TransferItem> arrivals = new ArrayList<>();
+        for (TransferItem draft : drafts) {
+            if (queue.isCompleted(draft)) {
+                continue;
+            }
+            settled = false;
+            draft.setInode(entries.get(draft.getRemoteName()).inode());
+            if (queue.isNewFile(draft)) {
+                arrivals.add(draft);
+            } else {
+                queue.enqueue(draft);
+            }
+        }
+
+        // A move would only reach the stored copy in the configuration's own folder, not its mirrors
+        if (!arrivals.isEmpty() && config.getMirrors().isEmpty()) {
+            MoveDetector.pair(arrivals, uploadsOf(config.getProvider()));
+        }
+        List<TransferItem> uploads = new ArrayList<>();
+        for (TransferItem draft : arrivals) {
+            if (draft.getDirection() == TransferDirection.MOVE) {
+                queue.enqueue(draft);
+            } else {
+                uploads.add(draft);
+            }
+        }
+        for (TransferItem draft : withoutStoredCopies(config, uploads)) {
+            queue.enqueue(draft);
+        }
+        summaries.record(config.getId(), FolderSummaries.LOCAL, summary, settled);
+    }
+
+    /**
+     * The new files the cloud folder does not already hold with the same name
+     * and content; the others are recorded as uploaded. The folder's name
+     * index rules out most files without a request, files whose content hash
+     * it does not contain either are ruled out after hashing them, and the
+     * folder is listed once to compare the rest.
+     */
+    private List<TransferItem> withoutStoredCopies(SyncConfig config, List<TransferItem> drafts) {
+        SyncMode mode = config.getSyncMode();
+        // Stored checksums of compressed files are not of the local content, a
+        // source that is deleted after its upload has to go through the deleter,
+        // and the index only covers the configuration's own folder, not its mirrors
+        if (drafts.isEmpty() || config.getCompression() != CompressionCodec.NONE
+                || mode == SyncMode.UPLOAD_THEN_DELETE || !config.getMirrors().isEmpty()) {
+            return drafts;
+        }
+        RemoteNameIndex index = nameIndexOf(config);
+        if (index == null) {
+            return drafts;
+        }
+
+        List<TransferItem> remaining = new ArrayList<>();
+        List<TransferItem> candidates = new ArrayList<>();
+        List<String> digests = new ArrayList<>();
+        ContentHash hash = ContentHash.forProvider(config.getProvider());
+        for (TransferItem draft : drafts) {
+            if (!index.mightContainName(draft.getRemoteName())) {
+                remaining.add(draft);
+                continue;
+            }
+            String digest;
+            try {
+                digest = hashCache.ofFile(new File(draft.getLocalPath()), hash.getAlgorithm());
+            } catch (IOException e) {
+                remaining.add(draft);
+                continue;
+            }
+            if (index.mightContainContent(hash.getAlgorithm(), digest)) {
+                candidates.add(draft);
+                digests.add(digest);
+            } else {
+                remaining.add(draft);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return remaining;
+        }
+
+        RemoteTree tree = treeOf(config.getProvider());
+        int folder;
+        try {
+            folder = list(config, tree);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not list " + config.getCloudFolderPath(), e);
+            remaining.addAll(candidates);
+            return remaining;
+        }
+
+        synchronized (tree) {
+            for (int i = 0; i < candidates.size(); i++) {
+                TransferItem draft = candidates.get(i);
+                int entry = tree.child(folder, draft.getRemoteName());
+                if (entry != RemoteTree.NONE && !tree.isEncoded(entry)
+                        && hash.getAlgorithm().equals(tree.checksumAlgorithm(entry))
+                        && ContentHash.matches(hash.getAlgorithm(), digests.get(i), tree.checksum(entry))) {
+                    queue.markStored(draft, tree.id(entry), hash.getAlgorithm(), digests.get(i), "Already in the cloud");
+                } else {
+                    remaining.add(draft);
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * The {@link RemoteTree} of a provider's folders, which holds the last
+     * listing of each configuration's cloud folder
+     */
+    private RemoteTree treeOf(String provider) {
+        return treeByProvider.computeIfAbsent(provider != null ? provider : "", p -> new RemoteTree());
+    }
+
+    /**
+     * List a configuration's cloud folder into its provider's tree
+     * @return the folder's entry
+     */
+    private int list(SyncConfig config, RemoteTree tree) throws IOException {
+        Response<FolderFilesResponse> response = service.listFilesInFolder(
+                config.getCloudFolderPath(), config.getCloudFolderId()).execute();
+        if (!response.isSuccessful() || response.body() == null || response.body().getFiles() == null) {
+            throw new IOException("Listing failed: " + response.code() + " " + response.message());
+        }
+        configManager.rememberCloudFolderId(config.getId(), response.body().getFolderId());
+
+        // One listing of a folder at a time, and none while a scan walks it
+        synchronized (tree) {
+            int folder = tree.folder(config.getCloudFolderPath());
+            tree.startListing(folder);
+            for (CloudFile file : response.body().getFiles()) {
+                if (file.getName() == null) {
+                    continue;
+                }
+                int entry = tree.put(folder, file.getName(), isFolder(file));
+                tree.set(entry, file.getId(), parseSize(file.getSize()), file.getModifiedTime(),
+                        file.getChecksumAlgorithm(), file.getChecksum());
+                tree.setEncoded(entry, file.getCodec() != CompressionCodec.NONE);
+            }
+            tree.finishListing(folder);
+            return folder;
+        }
+    }
+
+    /**
+     * The cloud folder's name index, fetched again once it is as old as the
+     * backend lets it get, or null if it cannot be fetched
+     */
+    private RemoteNameIndex nameIndexOf(SyncConfig config) {
+        String folder = config.getProvider() + ":" + config.getCloudFolderPath();
+        RemoteNameIndex index = nameIndexByFolder.get(folder);
+        if (index != null && !index.isOlderThan(NAME_INDEX_TTL_MS)) {
+            return index;
+        }
+        try {
+            Response<FolderIndexResponse> response = service.getFolderIndex(
+                    config.getCloudFolderPath(), config.getCloudFolderId()).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.w(TAG, "Could not get the index of " + config.getCloudFolderPath() + ": " + response.code());
+                return null;
+            }
+            index = RemoteNameIndex.from(response.body().getIndex());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not get the index of " + config.getCloudFolderPath(), e);
+            return null;
+        }
+        if (index != null) {
+            nameIndexByFolder.put(folder, index);
+        }
+        return index;
+    }
+
+    /**
+     * Records of the files uploaded by configurations of a provider, whose
+     * stored copies a configuration of that provider can move
+     */
+    private List<TransferItem> uploadsOf(String provider) {
+        List<TransferItem> records = new ArrayList<>();
+        for (TransferItem record : queue.getUploaded()) {
+            SyncConfig owner = configManager.getConfig(record.getConfigId());
+            if (owner != null && provider != null && provider.equals(owner.getProvider())) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private void scanRemote(SyncConfig config, PathRules rules, LocalListings listings) throws IOException {
+        RemoteTree tree = treeOf(config.getProvider());
+        int folderEntry = list(config, tree);
+
+        File localFolder = new File(config.getLocalFolderPath());
+        LocalListings.Folder listing = listings.of(config.getLocalFolderPath());
+        // The local folder's mtime changes whenever a file is added to it or removed
+        FolderSummary summary = new FolderSummary(config.getLocalFolderPath(),
+                String.valueOf(listing != null ? listing.lastModified() : 0), config.getSyncMode().getValue());
+        PathRules.Cursor folder = rules.root();
+        synchronized (tree) {
+            List<Integer> entries = new ArrayList<>();
+            for (int entry = tree.firstChild(folderEntry); entry != RemoteTree.NONE; entry = tree.nextSibling(entry)) {
+                String name = tree.name(entry);
+                if (name.contains("/") || name.contains("\\") || name.contains("..") || folder.enter(name).skipsFile()) {
+                    continue;
+                }
+                entries.add(entry);
+                summary.add(name, tree.size(entry), tree.id(entry) + ":" + tree.checksum(entry));
+            }
+            if (summaries.isSettled(config.getId(), FolderSummaries.REMOTE, summary)) {
+                return;
+            }
+
+            boolean settled = true;
+            for (int entry : entries) {
+                String name = tree.name(entry);
+                long size = tree.size(entry);
+                File target = new File(localFolder, name);
+                LocalListings.Entry local = listing != null ? listing.get(name) : null;
+                // A compressed file's stored size is not the size it is downloaded at, so only its presence counts
+                if (local != null && (size < 0 || (local.isFile() && (tree.isEncoded(entry) || local.length() == size)))) {
+                    continue;
+                }
+
+                TransferItem draft = new TransferItem();
+                draft.setConfigId(config.getId());
+                draft.setDirection(TransferDirection.DOWNLOAD);
+                draft.setLocalPath(target.getAbsolutePath());
+                draft.setRemoteName(name);
+                draft.setRemoteFileId(tree.id(entry));
+                draft.setSize(size);
+                // Compressed files are stored as other bytes than the ones downloaded
+                draft.setEncoded(tree.isEncoded(entry));
+                if (!tree.isEncoded(entry)) {
+                    draft.setChecksum(tree.checksum(entry));
+                    draft.setChecksumAlgorithm(tree.checksumAlgorithm(entry));
+                }
+                // Downloaded before with this content: nothing is left to do for it
+                if (queue.isCompleted(draft)) {
+                    continue;
+                }
+                queue.enqueue(draft);
+                settled = false;
+            }
+            summaries.record(config.getId(), FolderSummaries.REMOTE, summary, settled);
+        }
+    }
+
+    private void process(TransferItem item, String provider) {
+        SyncConfig config = configManager.getConfig(item.getConfigId());
+        if (config == null) {
+            queue.markFailed(item.getId(), "Sync configuration was removed", false);
+            return;
+        }
+
+        try {
+            long bytes;
+            switch (item.getDirection()) {
+                case UPLOAD:
+                    bytes = upload(config, item);
+                    break;
+                case MOVE:
+                    bytes = move(config, item);
+                    break;
+                default:
+                    bytes = download(config, item);
+                    break;
+            }
+            metrics.recordTransfer(provider != null ? provider : config.getProvider(), bytes);
+        } catch (TransferException e) {
+            queue.markFailed(item.getId(), e.getMessage(), e.isRetryable());
+        } catch (IOException e) {
+            queue.markFailed(item.getId(), e.getMessage(), true);
+        }
+    }
+
+    /**
+     * @return the number of bytes sent
+     */
+    private long upload(SyncConfig config, TransferItem item) throws IOException {
+        if (!config.getMirrors().isEmpty()) {
+            return uploadToAll(config, item);
+        }
+        File file = new File(item.getLocalPath());
+        if (!file.isFile()) {
+            throw new TransferException("Local file no longer exists", false);
+        }
+        // Hashed even when the source stays, so the file can be recognized if it is renamed
+        ContentHash hash = ContentHash.forProvider(config.getProvider());
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        String mimeType = SmallFileBatcher.mimeTypeOf(file);
+        Response<FileUploadResponse> response = service.uploadFileStream(
+                config.getProvider(),
+                wireCodec(config, mimeType),
+                item.getIdempotencyKey(),
+                config.getCloudFolderPath(),
+                config.getCloudFolderId(),
+                item.getRemoteName(),
+                mimeType,
+                config.getCompression().getValue(),
+                new ChunkedFileRequestBody(file, OCTET_STREAM, metrics.getChunkBytes(config.getProvider()), hash)).execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            throw TransferException.fromResponse("Upload", response);
+        }
+
+        queue.markVerifying(item.getId());
+        FileUploadResponse result = response.body();
+        CloudFile stored = result.getFile();
+        if (stored == null || stored.getId() == null) {
+            throw new TransferException("Upload response did not include the stored file", true);
+        }
+        // Compressed files are stored smaller than they are on the device
+        long storedSize = parseSize(stored.getSize());
+        if (stored.getCodec() == CompressionCodec.NONE && storedSize >= 0 && storedSize != file.length()) {
+            // Most likely the file changed mid-upload; the next scan queues it with a new key
+            throw new TransferException("Stored size " + storedSize + " does not match " + file.length(), false);
+        }
+
+        configManager.rememberCloudFolderId(config.getId(), result.getFolderId());
+        if (hash == null) {
+            deleter.onTransferred(config, item, stored.getId(), null, null, null);
+        } else {
+            String digest = hash.digest();
+            if (file.length() == length && file.lastModified() == lastModified) {
+                hashCache.put(file, length, lastModified, hash.getAlgorithm(), digest);
+            }
+            // A compressed file's checksum covers the encoded bytes, not the ones sent
+            boolean comparable = stored.getCodec() == CompressionCodec.NONE
+                    && hash.getAlgorithm().equals(stored.getChecksumAlgorithm());
+            deleter.onTransferred(config, item, stored.getId(), hash.getAlgorithm(), digest,
+                    comparable ? stored.getChecksum() : null);
+        }
+        return file.length();
+    }
+
+    /**
+     * Upload a file to the configuration's folder and each of its mirrors from
+     * one read of the file, hashed on the way for every provider involved.
+     * Folders that got the file in an earlier attempt are left out; the
+     * transfer fails, to be retried for the rest, until every folder has it.
+     * @return the number of bytes sent
+     */
+    private long uploadToAll(SyncConfig config, TransferItem item) throws IOException {
+        File file = new File(item.getLocalPath());
+        if (!file.isFile()) {
+            throw new TransferException("Local file no longer exists", false);
+        }
+
+        String primary = folderKey(config.getProvider(), config.getCloudFolderPath());
+        Map<String, String> stored = item.getStoredCopies();
+        List<UploadDestination> destinations = new ArrayList<>();
+        if (!stored.containsKey(primary)) {
+            destinations.add(new UploadDestination(config.getProvider(), config.getCloudFolderPath(), config.getCloudFolderId()));
+        }
+        for (SyncMirror mirror : config.getMirrors()) {
+            if (!stored.containsKey(folderKey(mirror.getProvider(), mirror.getCloudFolderPath()))) {
+                destinations.add(new UploadDestination(mirror.getProvider(), mirror.getCloudFolderPath(), mirror.getCloudFolderId()));
+            }
+        }
+        // One hash per algorithm, all fed by the same read of the file
+        Map<String, ContentHash> hashes = new HashMap<>();
+        for (UploadDestination destination : destinations) {
+            ContentHash hash = ContentHash.forProvider(destination.getProvider());
+            if (hash != null && !hashes.containsKey(hash.getAlgorithm())) {
+                hashes.put(hash.getAlgorithm(), hash);
+            }
+        }
+
+        Map<String, String> digests = new HashMap<>();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        // The checksum of the copy in the configuration's own folder, from an earlier attempt if it has one
+        String algorithm = item.getChecksumAlgorithm();
+        String checksum = item.getChecksum();
+        long sent = 0;
+        if (!destinations.isEmpty()) {
+            String mimeType = SmallFileBatcher.mimeTypeOf(file);
+            Response<FanOutUploadResponse> response = service.uploadFileFanOut(
+                    config.getProvider(),
+                    wireCodec(config, mimeType),
+                    item.getIdempotencyKey(),
+                    gson.toJson(destinations),
+                    item.getRemoteName(),
+                    mimeType,
+                    config.getCompression().getValue(),
+                    new ChunkedFileRequestBody(file, OCTET_STREAM, metrics.getChunkBytes(config.getProvider()),
+                            new ArrayList<>(hashes.values()))).execute();
+            if (!response.isSuccessful() || response.body() == null || response.body().getResults() == null) {
+                throw TransferException.fromResponse("Upload", response);
+            }
+            sent = file.length();
+            boolean unchanged = sent == length && file.lastModified() == lastModified;
+            for (ContentHash hash : hashes.values()) {
+                String digest = hash.digest();
+                digests.put(hash.getAlgorithm(), digest);
+                if (unchanged) {
+                    hashCache.put(file, length, lastModified, hash.getAlgorithm(), digest);
+                }
+            }
+
+            String failure = null;
+            boolean retryable = false;
+            for (FanOutUploadResponse.DestinationResult result : response.body().getResults()) {
+                String folder = folderKey(result.getProvider(), result.getFolderPath());
+                CloudFile copy = result.getFile();
+                if (!result.isSuccess() || copy == null || copy.getId() == null) {
+                    int status = result.getStatus();
+                    failure = result.getProvider() + ":" + result.getFolderPath() + " failed: " + status + " " + result.getError();
+                    // A 401 is an account whose token could not be refreshed; it can be linked again
+                    retryable |= status == 0 || status == 401 || status == 408 || status == 409 || status == 429 || status >= 500;
+                    continue;
+                }
+                boolean encoded = copy.getCodec() != CompressionCodec.NONE;
+                long storedSize = parseSize(copy.getSize());
+                if (!encoded && storedSize >= 0 && storedSize != file.length()) {
+                    throw new TransferException("Stored size " + storedSize + " in " + folder + " does not match " + file.length(), false);
+                }
+                String digest = digests.get(copy.getChecksumAlgorithm());
+                if (!encoded && digest != null && copy.getChecksum() != null
+                        && !ContentHash.matches(copy.getChecksumAlgorithm(), digest, copy.getChecksum())) {
+                    throw new TransferException("The copy in " + folder + " does not match the file", false);
+                }
+
+                boolean isPrimary = folder.equals(primary);
+                if (isPrimary && !encoded) {
+                    algorithm = copy.getChecksumAlgorithm();
+                    checksum = copy.getChecksum();
+                }
+                queue.recordStoredCopy(item.getId(), folder, copy.getId(),
+                        isPrimary ? algorithm : null, isPrimary ? checksum : null);
+                stored.put(folder, copy.getId());
+                if (isPrimary) {
+                    configManager.rememberCloudFolderId(config.getId(), result.getFolderId());
+                } else {
+                    configManager.rememberMirrorFolderId(config.getId(), result.getProvider(), result.getFolderPath(),
+                            result.getFolderId());
+                }
+            }
+            if (failure != null) {
+                // The folders that have the file are recorded; a retry sends it to the others
+                throw new TransferException("Upload to " + failure, retryable);
+            }
+        }
+
+        queue.markVerifying(item.getId());
+        ContentHash hash = checksum != null ? ContentHash.forAlgorithm(algorithm) : null;
+        String digest = hash == null ? null
+                : digests.containsKey(algorithm) ? digests.get(algorithm) : hashCache.ofFile(file, algorithm);
+        deleter.onTransferred(config, item, stored.get(primary), algorithm, digest, checksum);
+        return sent;
+    }
+
+    /**
+     * The codec an upload body is sent with, or null to send it as it is.
+     * Media and archives are left alone; gzip would only cost time on them.
+     */
+    private static String wireCodec(SyncConfig config, String mimeType) {
+        if (config.getCompression() == CompressionCodec.NONE || mimeType.startsWith("image/")
+                || mimeType.startsWith("video/") || mimeType.startsWith("audio/")
+                || mimeType.equals("application/zip") || mimeType.equals("application/gzip")) {
+            return null;
+        }
+        return config.getCompression().getValue();
+    }
+
+    private static String folderKey(String provider, String cloudFolderPath) {
+        return provider + ":" + cloudFolderPath;
+    }
+
+    /**
+     * Move the stored copy of a renamed or moved file to the file's new name
+     * and the configuration's folder. If that copy is gone or its new name is
+     * taken, the file is uploaded instead.
+     * @return the number of bytes sent, which is 0 unless the file was uploaded
+     */
+    private long move(SyncConfig config, TransferItem item) throws IOException {
+        File file = new File(item.getLocalPath());
+        if (!file.isFile()) {
+            throw new TransferException("Local file no longer exists", false);
+        }
+
+        Response<FileUploadResponse> response = service.moveFile(new MoveFileRequest(
+                item.getRemoteFileId(),
+                item.getRemoteName(),
+                config.getCloudFolderPath(),
+                config.getCloudFolderId())).execute();
+        if (response.code() == 404 || response.code() == 409) {
+            Log.i(TAG, "Uploading " + item.getRemoteName() + " instead of moving it: " + response.code());
+            return upload(config, item);
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            throw TransferException.fromResponse("Move", response);
+        }
+
+        queue.markVerifying(item.getId());
+        FileUploadResponse result = response.body();
+        CloudFile stored = result.getFile();
+        if (stored == null || stored.getId() == null) {
+            throw new TransferException("Move response did not include the stored file", true);
+        }
+        configManager.rememberCloudFolderId(config.getId(), result.getFolderId());
+
+        if (!VerifiedDeleter.deletesSource(config.getSyncMode())) {
+            deleter.onTransferred(config, item, stored.getId(), null, null, null);
+            return 0;
+        }
+        // Nothing was sent to hash on the way, so the file is read back to verify the copy
+        String algorithm = stored.getChecksumAlgorithm();
+        ContentHash hash = stored.getCodec() == CompressionCodec.NONE ? ContentHash.forAlgorithm(algorithm) : null;
+        deleter.onTransferred(config, item, stored.getId(), algorithm,
+                hash != null ? hashCache.ofFile(file, algorithm) : null, hash != null ? stored.getChecksum() : null);
+        return 0;
+    }
+
+    /**
+     * Resumes from the partial file left by an earlier attempt when there is
+     * one. Small files are handed to the {@link FileCommitter} and marked done
+     * once their group is durable; larger ones are committed on the worker.
+     * When the source is to be deleted, the file is hashed as it arrives, or
+     * read back once complete if it arrived in segments or over several attempts.
+     * @return the number of bytes received
+     */
+    private long download(SyncConfig config, TransferItem item) throws IOException {
+        // Written beside the target and renamed into place, so a crash never leaves a torn file
+        File target = new File(item.getLocalPath());
+        File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+        String id = item.getId();
+        String algorithm = item.getChecksumAlgorithm();
+        ContentHash hash = VerifiedDeleter.deletesSource(config.getSyncMode()) && item.getChecksum() != null
+                ? ContentHash.forAlgorithm(algorithm)
+                : null;
+        RangedDownload download = new RangedDownload(service, segmentWorkers, config.getProvider(), item, partial,
+                (version, segmentProgress) -> queue.recordProgress(id, version, segmentProgress), hash);
+
+        long length;
+        try {
+            length = download.run(Math.min(RangedDownload.MAX_SEGMENTS, metrics.getLimit(config.getProvider())));
+        } catch (TransferException e) {
+            if (!e.isRetryable()) {
+                partial.delete();
+            }
+            throw e;
+        }
+
+        queue.markVerifying(id);
+        if (partial.length() != length) {
+            partial.delete();
+            queue.recordProgress(id, null, null);
+            throw new TransferException("Downloaded file is incomplete", true);
+        }
+        String digest = download.getDigest();
+        if (hash != null && digest == null) {
+            digest = hash.ofFile(partial);
+        }
+        String verifiedDigest = digest;
+
+        if (length < TransferScheduler.SMALL_TRANSFER_BYTES) {
+            committer.commit(partial, target, new FileCommitter.Callback() {
+                @Override
+                public void onCommitted() {
+                    deleter.onTransferred(config, item, null, algorithm, verifiedDigest, item.getChecksum());
+                }
+
+                @Override
+                public void onFailed(IOException error) {
+                    queue.markFailed(id, error.getMessage(), true);
+                }
+            });
+        } else {
+            try {
+                FileCommitter.commitNow(partial, target);
+            } catch (IOException e) {
+                partial.delete();
+                throw new TransferException(e.getMessage(), true);
+            }
+            deleter.onTransferred(config, item, null, algorithm, digest, item.getChecksum());
+        }
+        return length;
+    }
+
+    private void postQueueChanged() {
+        // Coalesce bursts of changes into one main-thread update
+        if (listener == null || !changePosted.compareAndSet(false, true)) {
+            return;
+        }
+        mainHandler.post(() -> {
+            changePosted.set(false);
+            Listener current = listener;
+            if (current != null) {
+                current.onQueueChanged(queue.countByState());
+            }
+        });
+    }
+
+    private void postIdle() {
+        mainHandler.post(() -> {
+            Listener current = listener;
+            if (current != null) {
+                current.onIdle(queue.countByState());
+            }
+        });
+    }
+
+    private static boolean isFolder(CloudFile file) {
+        return "folder".equals(file.getMimeType()) || "application/vnd.google-apps.folder".equals(file.getMimeType());
+    }
+
+    private static long parseSize(String size) {
+        if (size == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(size);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A failed transfer attempt, and whether trying again can help
+     */
+    static class TransferException extends IOException {
+        private final boolean retryable;
+
+        TransferException(String message, boolean retryable) {
+            super(message);
+            this.retryable = retryable;
+        }
+
+        boolean isRetryable() {
+            return retryable;
+        }
+
+        static TransferException fromResponse(String action, Response<?> response) {
+            int code = response.code();
+            boolean retryable = code == 408 || code == 429 || code >= 500 || response.isSuccessful();
+            return new TransferException(action + " failed: " + code + " " + response.message(), retryable);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.cloudsync.app.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One file transfer in the persistent queue. The idempotency key is assigned
+ * when the item is queued and sent with every attempt, so the backend stores
+ * the file once no matter how often an interrupted upload is retried.
+ */
+public class TransferItem {
+    private String id;
+    private String configId;
+    private TransferDirection direction;
+    private String localPath;
+    private String remoteName;
+    private String remoteFileId;
+    private long size;
+    private long lastModified;
+    private TransferState state;
+    private int attempts;
+    private String idempotencyKey;
+    private String error;
+    private long queuedAt;
+    private long updatedAt;
+    // Resumable download state: the content version the partial file belongs to,
+    // and the bytes already written and synced per segment
+    private String remoteVersion;
+    private long[] segmentProgress;
+    // The provider's checksum of the remote content; once the copy is verified,
+    // the matching hash the source must still have when it is deleted
+    private String checksum;
+    private String checksumAlgorithm;
+    // The remote file is stored compressed, so it is fetched whole and its size is not the local one
+    private boolean encoded;
+    // When a verified transfer's source may be deleted
+    private long deleteAfter;
+    // Identifies the local file across renames where the filesystem reports it; 0 if unknown
+    private long inode;
+    // For a move, the uploaded file it was paired with
+    private String movedFromConfigId;
+    private String movedFromPath;
+    // For an upload to several folders, the stored file id per folder that already has
+    // the file, so a retry only sends it to the others
+    private Map<String, String> storedCopies;
+
+    public TransferItem() {
+        // Default constructor
+    }
+
+    public TransferItem(TransferItem other) {
+        this.id = other.id;
+        this.configId = other.configId;
+        this.direction = other.direction;
+        this.localPath = other.localPath;
+        this.remoteName = other.remoteName;
+        this.remoteFileId = other.remoteFileId;
+        this.size = other.size;
+        this.lastModified = other.lastModified;
+        this.state = other.state;
+        this.attempts = other.attempts;
+        this.idempotencyKey = other.idempotencyKey;
+        this.error = other.error;
+        this.queuedAt = other.queuedAt;
+        this.updatedAt = other.updatedAt;
+        this.remoteVersion = other.remoteVersion;
+        this.segmentProgress = other.segmentProgress != null ? other.segmentProgress.clone() : null;
+        this.checksum = other.checksum;
+        this.checksumAlgorithm = other.checksumAlgorithm;
+        this.encoded = other.encoded;
+        this.deleteAfter = other.deleteAfter;
+        this.inode = other.inode;
+        this.movedFromConfigId = other.movedFromConfigId;
+        this.movedFromPath = other.movedFromPath;
+        this.storedCopies = other.storedCopies != null ? new HashMap<>(other.storedCopies) : null;
+    }
+
+    /**
+     * Identifies the same file across scans: one active transfer per file and direction.
+     * A move stands in for the upload of the file at its new path.
+     */
+    public String getDedupeKey() {
+        TransferDirection side = direction == TransferDirection.MOVE ? TransferDirection.UPLOAD : direction;
+        return dedupeKey(configId, side, side == TransferDirection.UPLOAD ? localPath : remoteName);
+    }
+
+    static String dedupeKey(String configId, TransferDirection direction, String name) {
+        return configId + "|" + direction + "|" + name;
+    }
+
+    /**
+     * Changes whenever the file content is expected to have changed
+     */
+    public String getFingerprint() {
+        return size + ":" + lastModified + (remoteFileId != null && direction == TransferDirection.DOWNLOAD ? ":" + remoteFileId : "");
+    }
+
+    // Getters
+    public String getId() { return id; }
+    public String getConfigId() { return configId; }
+    public TransferDirection getDirection() { return direction; }
+    public String getLocalPath() { return localPath; }
+    public String getRemoteName() { return remoteName; }
+    public String getRemoteFileId() { return remoteFileId; }
+    public long getSize() { return size; }
+    public long getLastModified() { return lastModified; }
+    public TransferState getState() { return state; }
+    public int getAttempts() { return attempts; }
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public String getError() { return error; }
+    public long getQueuedAt() { return queuedAt; }
+    public long getUpdatedAt() { return updatedAt; }
+    public String getRemoteVersion() { return remoteVersion; }
+    public long[] getSegmentProgress() { return segmentProgress; }
+    public String getChecksum() { return checksum; }
+    public String getChecksumAlgorithm() { return checksumAlgorithm; }
+    public boolean isEncoded() { return encoded; }
+    public long getDeleteAfter() { return deleteAfter; }
+    public long getInode() { return inode; }
+    public String getMovedFromConfigId() { return movedFromConfigId; }
+    public String getMovedFromPath() { return movedFromPath; }
+    public Map<String, String> getStoredCopies() { return storedCopies != null ? storedCopies : new HashMap<>(); }
+
+    // Setters
+    public void setId(String id) { this.id = id; }
+    public void setConfigId(String configId) { this.configId = configId; }
+    public void setDirection(TransferDirection direction) { this.direction = direction; }
+    public void setLocalPath(String localPath) { this.localPath = localPath; }
+    public void setRemoteName(String remoteName) { this.remoteName = remoteName; }
+    public void setRemoteFileId(String remoteFileId) { this.remoteFileId = remoteFileId; }
+    public void setSize(long size) { this.size = size; }
+    public void setLastModified(long lastModified) { this.lastModified = lastModified; }
+    public void setState(TransferState state) { this.state = state; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+    public void setError(String error) { this.error = error; }
+    public void setQueuedAt(long queuedAt) { this.queuedAt = queuedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+    public void setRemoteVersion(String remoteVersion) { this.remoteVersion = remoteVersion; }
+    public void setSegmentProgress(long[] segmentProgress) { this.segmentProgress = segmentProgress; }
+    public void setChecksum(String checksum) { this.checksum = checksum; }
+    public void setChecksumAlgorithm(String checksumAlgorithm) { this.checksumAlgorithm = checksumAlgorithm; }
+    public void setEncoded(boolean encoded) { this.encoded = encoded; }
+    public void setDeleteAfter(long deleteAfter) { this.deleteAfter = deleteAfter; }
+    public void setInode(long inode) { this.inode = inode; }
+    public void setMovedFromConfigId(String movedFromConfigId) { this.movedFromConfigId = movedFromConfigId; }
+    public void setMovedFromPath(String movedFromPath) { this.movedFromPath = movedFromPath; }
+    public void setStoredCopies(Map<String, String> storedCopies) { this.storedCopies = storedCopies; }
+}
@@ -0,0 +1,338 @@
+package com.cloudsync.app.sync;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-ahead journal behind {@link TransferQueue}. Every state change is
+ * appended as one JSON line; a background flusher fsyncs appended lines in
+ * groups, so many changes share one fsync. {@link #commit} blocks until a
+ * record is durable and is only used where a lost record could cause a
+ * duplicate upload. The journal is folded into a snapshot once it grows.
+ */
+class TransferJournal implements Closeable {
+    private static final String TAG = "TransferJournal";
+    private static final String SNAPSHOT_FILE = "snapshot.json";
+    private static final String JOURNAL_FILE = "journal.log";
+
+    // Unforced records are made durable within this window, or sooner once this many pile up
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final int MAX_UNFLUSHED_RECORDS = 256;
+
+    static final String OP_PUT = "put";
+    static final String OP_REMOVE = "remove";
+
+    static class Record {
+        String op;
+        TransferItem item;
+        String id;
+    }
+
+    static class Snapshot {
+        List<TransferItem> items = new ArrayList<>();
+        Map<String, String> completed = new HashMap<>();
+        List<TransferItem> uploaded = new ArrayList<>();
+    }
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Gson gson = new Gson();
+    private final Object lock = new Object();
+
+    private FileOutputStream journalStream;
+    private Writer journalWriter;
+    private long appendedSeq;
+    private long syncedSeq;
+    private int waiters;
+    private long firstUnflushedAt;
+    private IOException flushFailure;
+    private boolean closed;
+    private int recordsSinceCompaction;
+    private Thread flusher;
+
+    TransferJournal(File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+        }
+        this.snapshotFile = new File(dir, SNAPSHOT_FILE);
+        this.journalFile = new File(dir, JOURNAL_FILE);
+    }
+
+    /**
+     * Read the snapshot and replay the journal over it, then open the journal for appending.
+     * A corrupt snapshot is moved aside together with the journal that builds on it, and
+     * the queue starts empty on a fresh journal.
+     */
+    Snapshot load(List<Record> replayed) throws IOException {
+        Snapshot snapshot = new Snapshot();
+        if (snapshotFile.exists()) {
+            try (BufferedReader reader = openReader(snapshotFile)) {
+                Snapshot stored = gson.fromJson(reader, Snapshot.class);
+                if (stored != null) {
+                    snapshot = stored;
+                }
+            } catch (JsonParseException e) {
+                // The snapshot is only ever replaced by rename, so this means outside damage
+                Log.e(TAG, "Corrupt transfer snapshot, starting empty", e);
+                String suffix = ".corrupt-" + System.currentTimeMillis();
+                moveAside(snapshotFile, suffix);
+                moveAside(journalFile, suffix);
+            }
+        }
+
+        if (journalFile.exists()) {
+            try (BufferedReader reader = openReader(journalFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        Record record = gson.fromJson(line, Record.class);
+                        if (record != null && record.op != null) {
+                            replayed.add(record);
+                        }
+                    } catch (JsonParseException e) {
+                        // A torn last line from a crash mid-append; everything before it is intact
+                        Log.w(TAG, "Ignoring unreadable journal record");
+                        break;
+                    }
+                }
+            }
+        }
+        recordsSinceCompaction = replayed.size();
+
+        openJournal(true);
+        startFlusher();
+        return snapshot;
+    }
+
+    /**
+     * Append a record; it becomes durable with the next group fsync
+     * @return sequence number to pass to {@link #awaitDurable}
+     */
+    long append(Record record) throws IOException {
+        String line = gson.toJson(record);
+        synchronized (lock) {
+            ensureOpen();
+            journalWriter.write(line);
+            journalWriter.write('\n');
+            if (appendedSeq == syncedSeq) {
+                firstUnflushedAt = System.currentTimeMillis();
+            }
+            recordsSinceCompaction++;
+            long seq = ++appendedSeq;
+            lock.notifyAll();
+            return seq;
+        }
+    }
+
+    /**
+     * Append a record and wait until it is on disk
+     */
+    void commit(Record record) throws IOException {
+        awaitDurable(append(record));
+    }
+
+    void awaitDurable(long seq) throws IOException {
+        synchronized (lock) {
+            waiters++;
+            lock.notifyAll();
+            try {
+                while (syncedSeq < seq) {
+                    ensureOpen();
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the transfer journal", e);
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    boolean needsCompaction(int liveItems) {
+        synchronized (lock) {
+            return recordsSinceCompaction > Math.max(1000, liveItems * 4);
+        }
+    }
+
+    /**
+     * Replace the snapshot with the given state and start an empty journal.
+     * The caller must hold off appends for the duration, which it does by
+     * calling this under the same lock it appends under.
+     */
+    void compact(Collection<TransferItem> items, Map<String, String> completed,
+                 Collection<TransferItem> uploaded) throws IOException {
+        Snapshot snapshot = new Snapshot();
+        snapshot.items = new ArrayList<>(items);
+        snapshot.completed = new HashMap<>(completed);
+        snapshot.uploaded = new ArrayList<>(uploaded);
+
+        synchronized (lock) {
+            ensureOpen();
+            File tmp = new File(snapshotFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                gson.toJson(snapshot, writer);
+                writer.flush();
+                out.getFD().sync();
+            }
+            if (!tmp.renameTo(snapshotFile)) {
+                throw new IOException("Could not replace transfer snapshot");
+            }
+
+            // Records still in the old journal are all contained in the new snapshot
+            journalWriter.close();
+            openJournal(false);
+            recordsSinceCompaction = 0;
+            syncedSeq = appendedSeq;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (journalWriter == null) {
+                closed = true;
+                return;
+            }
+            try {
+                journalWriter.flush();
+                journalStream.getFD().sync();
+                syncedSeq = appendedSeq;
+            } catch (IOException e) {
+                Log.w(TAG, "Final journal flush failed", e);
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            journalWriter.close();
+        } catch (IOException ignored) {
+            // Already flushed above
+        }
+    }
+
+    private static void moveAside(File file, String suffix) throws IOException {
+        if (file.exists() && !file.renameTo(new File(file.getPath() + suffix))) {
+            throw new IOException("Could not move aside " + file);
+        }
+    }
+
+    private void openJournal(boolean append) throws IOException {
+        journalStream = new FileOutputStream(journalFile, append);
+        journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+    }
+
+    private void startFlusher() {
+        flusher = new Thread(this::flushLoop, "transfer-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Group commit: wait until there is something to flush and either a caller
+     * is blocked on it, enough records are pending or the window has passed;
+     * then write out and fsync everything appended so far in one go.
+     */
+    private void flushLoop() {
+        while (true) {
+            long target;
+            FileOutputStream stream;
+            synchronized (lock) {
+                try {
+                    while (!closed) {
+                        long pending = appendedSeq - syncedSeq;
+                        if (pending > 0) {
+                            long waited = System.currentTimeMillis() - firstUnflushedAt;
+                            if (waiters > 0 || pending >= MAX_UNFLUSHED_RECORDS || waited >= FLUSH_INTERVAL_MS) {
+                                break;
+                            }
+                            lock.wait(FLUSH_INTERVAL_MS - waited);
+                        } else {
+                            lock.wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+
+                try {
+                    journalWriter.flush();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                target = appendedSeq;
+                stream = journalStream;
+            }
+
+            // fsync outside the lock so appends keep going while the disk catches up
+            try {
+                stream.getFD().sync();
+            } catch (IOException e) {
+                synchronized (lock) {
+                    // A compaction may have swapped the journal; its snapshot covers the target
+                    if (stream == journalStream) {
+                        fail(e);
+                        return;
+                    }
+                }
+            }
+
+            synchronized (lock) {
+                if (target > syncedSeq) {
+                    syncedSeq = target;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "Transfer journal flush failed", e);
+        flushFailure = e;
+        lock.notifyAll();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (journalWriter == null) {
+            throw new IOException("Transfer journal was not opened");
+        }
+        if (flushFailure != null) {
+            throw new IOException("Transfer journal is unavailable", flushFailure);
+        }
+        if (closed) {
+            throw new IOException("Transfer journal is closed");
+        }
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,102 @@
+package com.cloudsync.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-provider transfer measurements and the {@link ConcurrencyController}
+ * each of them drives. The network layer reports every exchange with the
+ * backend, the transfer engine reports completed transfers and reads the
+ * resulting parallelism and chunk size back.
+ */
+public class TransferMetrics {
+    private static final String TAG = "TransferMetrics";
+
+    private static TransferMetrics instance;
+
+    private final Map<String, ConcurrencyController> controllers = new ConcurrentHashMap<>();
+
+    public static synchronized TransferMetrics getInstance() {
+        if (instance == null) {
+            instance = new TransferMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Record one response from the backend to a transfer of {@code provider}
+     * @param latencyMillis time from sending the request to the response headers,
+     *                      or -1 when the request carried a large body
+     */
+    public void recordResponse(String provider, int code, long latencyMillis) {
+        ConcurrencyController controller = controller(provider);
+        int before = controller.getLimit();
+        controller.onResponse(code, latencyMillis, System.currentTimeMillis());
+        logChange(controller, before);
+    }
+
+    public void recordNetworkFailure(String provider) {
+        ConcurrencyController controller = controller(provider);
+        int before = controller.getLimit();
+        controller.onNetworkFailure(System.currentTimeMillis());
+        logChange(controller, before);
+    }
+
+    void recordTransfer(String provider, long bytes) {
+        ConcurrencyController controller = controller(provider);
+        int before = controller.getLimit();
+        controller.onTransferComplete(bytes, System.currentTimeMillis());
+        logChange(controller, before);
+    }
+
+    /**
+     * How many transfers of {@code provider} may run at once
+     */
+    public int getLimit(String provider) {
+        return controller(provider).getLimit();
+    }
+
+    /**
+     * Write granularity for transfers of {@code provider}
+     */
+    public long getChunkBytes(String provider) {
+        return controller(provider).getChunkBytes();
+    }
+
+    /**
+     * The current setting of every provider seen so far
+     */
+    public List<ConcurrencySnapshot> getCurrent() {
+        List<ConcurrencySnapshot> current = new ArrayList<>();
+        for (ConcurrencyController controller : controllers.values()) {
+            current.add(controller.getCurrent());
+        }
+        return current;
+    }
+
+    /**
+     * Recent decisions for {@code provider}, oldest first
+     */
+    public List<ConcurrencySnapshot> getHistory(String provider) {
+        ConcurrencyController controller = controllers.get(provider);
+        return controller == null ? Collections.emptyList() : controller.getHistory();
+    }
+
+    private ConcurrencyController controller(String provider) {
+        return controllers.computeIfAbsent(provider,
+                p -> new ConcurrencyController(p, System.currentTimeMillis()));
+    }
+
+    private void logChange(ConcurrencyController controller, int before) {
+        ConcurrencySnapshot current = controller.getCurrent();
+        if (current.getLimit() != before) {
+            Log.i(TAG, current.getProvider() + ": " + current.getReason() + ", " + before + " -> "
+                    + current.getLimit() + " transfers, chunk " + current.getChunkBytes() / 1024 + " KiB");
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package com.cloudsync.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Persistent transfer queue that survives process death and reboot. State
+ * lives in memory and every change goes through a {@link TransferJournal}.
+ * On load, transfers that were in flight or verifying when the process died
+ * are queued again with their original idempotency key, so resuming them
+ * never stores a second copy of a file. The queue also keeps a record of
+ * every uploaded file and its stored copy, so a file that is renamed or
+ * moved later can be matched with that copy.
+ */
+public class TransferQueue {
+    private static final String TAG = "TransferQueue";
+    private static final String JOURNAL_DIR = "transfers";
+    private static final int MAX_ATTEMPTS = 5;
+
+    public interface Listener {
+        void onTransferChanged(TransferItem item);
+    }
+
+    private static TransferQueue instance;
+
+    private final TransferJournal journal;
+    // Insertion ordered so transfers run in the order they were queued
+    private final Map<String, TransferItem> items = new LinkedHashMap<>();
+    private final Map<String, String> activeByDedupeKey = new HashMap<>();
+    // Fingerprints of files already transferred, so a rescan does not queue them again
+    private final Map<String, String> completed = new HashMap<>();
+    // Uploaded files by dedupe key, with the id of their stored copy
+    private final Map<String, TransferItem> uploaded = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final TransferScheduler scheduler = new TransferScheduler();
+
+    private TransferQueue(File dir) {
+        this.journal = new TransferJournal(dir);
+        load();
+    }
+
+    public static synchronized TransferQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransferQueue(new File(context.getApplicationContext().getFilesDir(), JOURNAL_DIR));
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue a transfer unless the same file content was already transferred or
+     * is already waiting. A changed file gets a fresh idempotency key.
+     * @return true if the queue changed
+     */
+    public synchronized boolean enqueue(TransferItem draft) {
+        String dedupeKey = draft.getDedupeKey();
+        if (draft.getFingerprint().equals(completed.get(dedupeKey))) {
+            return false;
+        }
+
+        TransferItem item;
+        String activeId = activeByDedupeKey.get(dedupeKey);
+        if (activeId != null) {
+            item = items.get(activeId);
+            boolean changed = !item.getFingerprint().equals(draft.getFingerprint());
+            if (item.getState() == TransferState.IN_FLIGHT || item.getState() == TransferState.VERIFYING ||
+                    (item.getState() == TransferState.QUEUED && !changed)) {
+                // Picked up again by the next scan once the running attempt settles
+                return false;
+            }
+            item.setSize(draft.getSize());
+            item.setLastModified(draft.getLastModified());
+            item.setRemoteFileId(draft.getRemoteFileId());
+            item.setChecksum(draft.getChecksum());
+            item.setChecksumAlgorithm(draft.getChecksumAlgorithm());
+            item.setAttempts(0);
+            item.setError(null);
+            if (changed) {
+                item.setIdempotencyKey(UUID.randomUUID().toString());
+                item.setRemoteVersion(null);
+                item.setSegmentProgress(null);
+                item.setStoredCopies(null);
+            }
+        } else {
+            item = new TransferItem(draft);
+            item.setId(UUID.randomUUID().toString());
+            item.setIdempotencyKey(UUID.randomUUID().toString());
+            item.setAttempts(0);
+            items.put(item.getId(), item);
+            activeByDedupeKey.put(dedupeKey, item.getId());
+        }
+
+        item.setState(TransferState.QUEUED);
+        item.setQueuedAt(System.currentTimeMillis());
+        put(item);
+        return true;
+    }
+
+    /**
+     * Whether a scanned file was already transferred with its current content
+     */
+    public synchronized boolean isCompleted(TransferItem draft) {
+        return draft.getFingerprint().equals(completed.get(draft.getDedupeKey()));
+    }
+
+    /**
+     * Whether a scanned file was never seen at its path before, so it may
+     * be a file that was renamed or moved there
+     */
+    public synchronized boolean isNewFile(TransferItem draft) {
+        String dedupeKey = draft.getDedupeKey();
+        return !completed.containsKey(dedupeKey) && !activeByDedupeKey.containsKey(dedupeKey);
+    }
+
+    /**
+     * Copies of the records of uploaded files
+     */
+    public synchronized List<TransferItem> getUploaded() {
+        List<TransferItem> copies = new ArrayList<>();
+        for (TransferItem item : uploaded.values()) {
+            copies.add(new TransferItem(item));
+        }
+        return copies;
+    }
+
+    /**
+     * Claim the next transfer the scheduler picks for the lane and mark it in
+     * flight. The claim is durable before this returns, so the idempotency key
+     * the caller is about to send is the one a restart will retry with.
+     * @param blockedConfigs configurations that may not start another transfer right now
+     * @return a copy of the claimed item, or null when the lane has nothing it may run
+     */
+    synchronized TransferItem claimNext(TransferScheduler.Lane lane, Set<String> blockedConfigs) throws IOException {
+        TransferItem item = scheduler.pick(items.values(), lane, blockedConfigs);
+        if (item == null) {
+            return null;
+        }
+        scheduler.charge(item);
+        item.setState(TransferState.IN_FLIGHT);
+        item.setAttempts(item.getAttempts() + 1);
+        try {
+            putDurable(item);
+        } catch (IOException e) {
+            // Not claimed: a transfer must not start with a key a restart might not retry with
+            item.setState(TransferState.QUEUED);
+            item.setAttempts(item.getAttempts() - 1);
+            throw e;
+        }
+        return new TransferItem(item);
+    }
+
+    /**
+     * Whether a worker of the lane would find anything to claim
+     */
+    synchronized boolean hasQueued(TransferScheduler.Lane lane) {
+        for (TransferItem item : items.values()) {
+            if (item.getState() != TransferState.QUEUED) {
+                continue;
+            }
+            if ((lane == TransferScheduler.Lane.SMALL_ONLY && !TransferScheduler.isSmall(item)) ||
+                    (lane == TransferScheduler.Lane.BOOSTED_ONLY && !scheduler.isBoosted(item.getConfigId()))) {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Relative share of transfer capacity for a configuration
+     */
+    public synchronized void setWeight(String configId, int weight) {
+        scheduler.setWeight(configId, weight);
+    }
+
+    /**
+     * Serve a configuration ahead of all background work until its queue drains
+     */
+    public synchronized void boost(String configId) {
+        scheduler.boost(configId);
+        clearBoostIfDrained(configId);
+    }
+
+    /**
+     * Queue depth, transfers in progress and waiting time per configuration
+     */
+    public synchronized Map<String, ConfigQueueStats> getConfigStats() {
+        Map<String, ConfigQueueStats> stats = new HashMap<>();
+        for (TransferItem item : items.values()) {
+            ConfigQueueStats configStats = stats.get(item.getConfigId());
+            if (configStats == null) {
+                configStats = new ConfigQueueStats(item.getConfigId());
+                configStats.setBoosted(scheduler.isBoosted(item.getConfigId()));
+                stats.put(item.getConfigId(), configStats);
+            }
+            configStats.add(item);
+        }
+        return stats;
+    }
+
+    /**
+     * Record how far a download got. Only pass progress whose bytes are
+     * already synced to disk: a resumed download trusts it without checking.
+     */
+    public synchronized void recordProgress(String id, String remoteVersion, long[] segmentProgress) {
+        TransferItem item = items.get(id);
+        if (item != null && item.getState() == TransferState.IN_FLIGHT) {
+            item.setRemoteVersion(remoteVersion);
+            item.setSegmentProgress(segmentProgress != null ? segmentProgress.clone() : null);
+            put(item);
+        }
+    }
+
+    /**
+     * Record that an upload to several folders stored the file in one of them,
+     * with the provider's checksum of the copy when it is the one in the
+     * configuration's own folder
+     */
+    public synchronized void recordStoredCopy(String id, String folder, String remoteFileId,
+                                              String checksumAlgorithm, String checksum) {
+        TransferItem item = items.get(id);
+        if (item != null && item.getState() == TransferState.IN_FLIGHT) {
+            Map<String, String> copies = item.getStoredCopies();
+            copies.put(folder, remoteFileId);
+            item.setStoredCopies(copies);
+            if (checksum != null) {
+                item.setChecksum(checksum);
+                item.setChecksumAlgorithm(checksumAlgorithm);
+            }
+            put(item);
+        }
+    }
+
+    public synchronized void markVerifying(String id) {
+        TransferItem item = items.get(id);
+        if (item != null) {
+            item.setState(TransferState.VERIFYING);
+            put(item);
+        }
+    }
+
+    public synchronized void markDone(String id, String remoteFileId) {
+        finish(id, remoteFileId, TransferState.DONE, null);
+    }
+
+    /**
+     * Finish a transfer, recording the hash of the content it transferred
+     */
+    public synchronized void markDone(String id, String remoteFileId, String checksumAlgorithm, String checksum) {
+        TransferItem item = items.get(id);
+        if (item != null && checksum != null) {
+            item.setChecksum(checksum);
+            item.setChecksumAlgorithm(checksumAlgorithm);
+        }
+        finish(id, remoteFileId, TransferState.DONE, null);
+    }
+
+    /**
+     * Finish a transfer whose source stays where it is, recording why
+     */
+    public synchronized void markKept(String id, String remoteFileId, String reason) {
+        finish(id, remoteFileId, TransferState.DONE, reason);
+    }
+
+    /**
+     * Record a scanned file whose content the cloud folder already holds under
+     * its name as done, as if it had been uploaded, so it is not sent again
+     */
+    public synchronized void markStored(TransferItem draft, String remoteFileId, String checksumAlgorithm,
+                                        String checksum, String reason) {
+        if (activeByDedupeKey.containsKey(draft.getDedupeKey())) {
+            return;
+        }
+        TransferItem item = new TransferItem(draft);
+        item.setId(UUID.randomUUID().toString());
+        item.setIdempotencyKey(UUID.randomUUID().toString());
+        item.setAttempts(0);
+        item.setQueuedAt(System.currentTimeMillis());
+        item.setChecksum(checksum);
+        item.setChecksumAlgorithm(checksumAlgorithm);
+        items.put(item.getId(), item);
+        activeByDedupeKey.put(item.getDedupeKey(), item.getId());
+        finish(item.getId(), remoteFileId, TransferState.DONE, reason);
+    }
+
+    /**
+     * Finish a transfer whose copy was verified and hold its source for
+     * deletion. {@code checksum} is the verified hash the source must still
+     * have when it is deleted.
+     */
+    public synchronized void markAwaitingDelete(String id, String remoteFileId, String checksumAlgorithm,
+                                                String checksum, long deleteAfter) {
+        TransferItem item = items.get(id);
+        if (item == null) {
+            return;
+        }
+        item.setChecksum(checksum);
+        item.setChecksumAlgorithm(checksumAlgorithm);
+        item.setDeleteAfter(deleteAfter);
+        finish(id, remoteFileId, TransferState.AWAITING_DELETE, null);
+    }
+
+    /**
+     * Copies of the transfers whose source may be deleted by {@code now}
+     */
+    synchronized List<TransferItem> getDueDeletions(long now) {
+        List<TransferItem> due = new ArrayList<>();
+        for (TransferItem item : items.values()) {
+            if (item.getState() == TransferState.AWAITING_DELETE && item.getDeleteAfter() <= now) {
+                due.add(new TransferItem(item));
+            }
+        }
+        return due;
+    }
+
+    synchronized void markDeleted(String id) {
+        settleDeletion(id, null);
+    }
+
+    /**
+     * Give up deleting a source, for instance because it changed since the transfer
+     */
+    synchronized void markDeleteSkipped(String id, String reason) {
+        settleDeletion(id, reason);
+    }
+
+    /**
+     * Keep a source held for deletion after a failed attempt; the next run tries again
+     */
+    synchronized void recordDeleteFailure(String id, String error) {
+        TransferItem item = items.get(id);
+        if (item != null && item.getState() == TransferState.AWAITING_DELETE) {
+            item.setError(error);
+            put(item);
+        }
+    }
+
+    private void settleDeletion(String id, String error) {
+        TransferItem item = items.get(id);
+        if (item == null || item.getState() != TransferState.AWAITING_DELETE) {
+            return;
+        }
+        item.setState(TransferState.DONE);
+        item.setError(error);
+        put(item);
+        compactIfNeeded();
+    }
+
+    private void finish(String id, String remoteFileId, TransferState state, String error) {
+        TransferItem item = items.get(id);
+        if (item == null) {
+            return;
+        }
+        item.setState(state);
+        item.setError(error);
+        item.setRemoteVersion(null);
+        item.setSegmentProgress(null);
+        if (remoteFileId != null && item.getDirection() != TransferDirection.DOWNLOAD) {
+            item.setRemoteFileId(remoteFileId);
+        }
+        activeByDedupeKey.remove(item.getDedupeKey());
+        completed.put(item.getDedupeKey(), item.getFingerprint());
+        recordUpload(item);
+        put(item);
+        clearBoostIfDrained(item.getConfigId());
+        compactIfNeeded();
+    }
+
+    /**
+     * Remember an uploaded file and its stored copy. A move takes over the
+     * record of the file it was paired with, and that file's old path counts
+     * as never transferred. Files whose source is deleted after the upload
+     * are not recorded, as they are gone on purpose.
+     */
+    private void recordUpload(TransferItem item) {
+        if (item.getDirection() == TransferDirection.DOWNLOAD || item.getState() != TransferState.DONE
+                || item.getDeleteAfter() != 0 || item.getRemoteFileId() == null) {
+            return;
+        }
+        if (item.getMovedFromPath() != null) {
+            String previous = TransferItem.dedupeKey(item.getMovedFromConfigId(), TransferDirection.UPLOAD,
+                    item.getMovedFromPath());
+            uploaded.remove(previous);
+            completed.remove(previous);
+        }
+        TransferItem record = new TransferItem(item);
+        record.setError(null);
+        uploaded.put(record.getDedupeKey(), record);
+    }
+
+    /**
+     * Record a failed attempt. Retryable failures go back to the queue until
+     * the attempt limit; the idempotency key is kept so a retry of an upload
+     * that did reach the backend is not stored twice.
+     */
+    public synchronized void markFailed(String id, String error, boolean retryable) {
+        TransferItem item = items.get(id);
+        if (item == null) {
+            return;
+        }
+        item.setError(error);
+        item.setState(retryable && item.getAttempts() < MAX_ATTEMPTS ? TransferState.QUEUED : TransferState.FAILED);
+        put(item);
+        clearBoostIfDrained(item.getConfigId());
+    }
+
+    /**
+     * Queue every failed transfer again
+     */
+    public synchronized int retryFailed() {
+        int count = 0;
+        for (TransferItem item : items.values()) {
+            if (item.getState() == TransferState.FAILED) {
+                item.setState(TransferState.QUEUED);
+                item.setQueuedAt(System.currentTimeMillis());
+                item.setAttempts(0);
+                item.setError(null);
+                put(item);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized boolean hasPendingWork() {
+        for (TransferItem item : items.values()) {
+            if (!item.getState().isFinished()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized Map<TransferState, Integer> countByState() {
+        Map<TransferState, Integer> counts = new EnumMap<>(TransferState.class);
+        for (TransferState state : TransferState.values()) {
+            counts.put(state, 0);
+        }
+        for (TransferItem item : items.values()) {
+            counts.put(item.getState(), counts.get(item.getState()) + 1);
+        }
+        return counts;
+    }
+
+    public synchronized List<TransferItem> getItems() {
+        List<TransferItem> copies = new ArrayList<>();
+        for (TransferItem item : items.values()) {
+            copies.add(new TransferItem(item));
+        }
+        return copies;
+    }
+
+    private void clearBoostIfDrained(String configId) {
+        for (TransferItem item : items.values()) {
+            if (item.getConfigId().equals(configId) && !item.getState().isFinished()) {
+                return;
+            }
+        }
+        scheduler.clearBoost(configId);
+    }
+
+    private void put(TransferItem item) {
+        try {
+            journal.append(putRecord(item));
+        } catch (IOException e) {
+            // The in-memory state stays authoritative; the worst case after a crash is a
+            // replayed upload, which the idempotency key turns into a no-op
+            Log.e(TAG, "Could not journal transfer " + item.getId(), e);
+        }
+        notifyChanged(item);
+    }
+
+    /**
+     * Journal a change and wait until it is on disk; a failure is the caller's to handle
+     */
+    private void putDurable(TransferItem item) throws IOException {
+        journal.commit(putRecord(item));
+        notifyChanged(item);
+    }
+
+    private TransferJournal.Record putRecord(TransferItem item) {
+        item.setUpdatedAt(System.currentTimeMillis());
+        TransferJournal.Record record = new TransferJournal.Record();
+        record.op = TransferJournal.OP_PUT;
+        record.item = new TransferItem(item);
+        return record;
+    }
+
+    private void notifyChanged(TransferItem item) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        TransferItem copy = new TransferItem(item);
+        for (Listener listener : listeners) {
+            listener.onTransferChanged(copy);
+        }
+    }
+
+    private void load() {
+        List<TransferJournal.Record> replayed = new ArrayList<>();
+        TransferJournal.Snapshot snapshot;
+        try {
+            snapshot = journal.load(replayed);
+        } catch (IOException e) {
+            Log.e(TAG, "Transfer queue could not be restored, starting empty", e);
+            return;
+        }
+
+        for (TransferItem item : snapshot.items) {
+            items.put(item.getId(), item);
+        }
+        completed.putAll(snapshot.completed);
+        if (snapshot.uploaded != null) {
+            for (TransferItem record : snapshot.uploaded) {
+                uploaded.put(record.getDedupeKey(), record);
+            }
+        }
+        for (TransferJournal.Record record : replayed) {
+            if (TransferJournal.OP_PUT.equals(record.op) && record.item != null) {
+                // Re-putting an existing id keeps its place in the queue order
+                items.put(record.item.getId(), record.item);
+            } else if (TransferJournal.OP_REMOVE.equals(record.op)) {
+                items.remove(record.id);
+            }
+        }
+
+        int resumed = 0;
+        for (TransferItem item : items.values()) {
+            if (item.getState() == TransferState.IN_FLIGHT || item.getState() == TransferState.VERIFYING) {
+                // Interrupted mid-transfer: run it again with the same idempotency key
+                item.setState(TransferState.QUEUED);
+                resumed++;
+            }
+            if (item.getState() == TransferState.DONE || item.getState() == TransferState.AWAITING_DELETE) {
+                completed.put(item.getDedupeKey(), item.getFingerprint());
+                recordUpload(item);
+            } else {
+                activeByDedupeKey.put(item.getDedupeKey(), item.getId());
+            }
+        }
+        if (resumed > 0) {
+            Log.i(TAG, "Resuming " + resumed + " interrupted transfers");
+        }
+
+        compact();
+    }
+
+    private void compactIfNeeded() {
+        if (journal.needsCompaction(items.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Fold the journal into a new snapshot, dropping finished transfers whose
+     * outcome is already recorded in the completed fingerprints. Transfers
+     * awaiting the deletion of their source are kept.
+     */
+    private void compact() {
+        Iterator<TransferItem> iterator = items.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getState() == TransferState.DONE) {
+                iterator.remove();
+            }
+        }
+        try {
+            journal.compact(items.values(), completed, uploaded.values());
+        } catch (IOException e) {
+            Log.e(TAG, "Transfer journal compaction failed", e);
+        }
+    }
+}
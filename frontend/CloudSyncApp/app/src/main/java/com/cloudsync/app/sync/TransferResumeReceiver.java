@@ -0,0 +1,19 @@
+package com.cloudsync.app.sync;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Picks up transfers left in the persistent queue when the device restarts
+ * or the app is updated.
+ */
+public class TransferResumeReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action) || Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            TransferEngine.getInstance(context).resume();
+        }
+    }
+}
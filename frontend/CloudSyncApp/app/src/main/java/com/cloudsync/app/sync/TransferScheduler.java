@@ -0,0 +1,138 @@
+package com.cloudsync.app.sync;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which queued transfer runs next. Configurations share transfer
+ * capacity by weighted fair queuing on bytes: each claim advances the
+ * configuration's virtual time by size / weight, and the configuration that
+ * is furthest behind goes next, so a large backlog in one folder cannot
+ * starve another. Within a configuration small files go first. Boosted
+ * configurations ("sync now") are served before everything else.
+ * Not thread safe; {@link TransferQueue} calls it under its own lock.
+ */
+class TransferScheduler {
+    /** Transfers below this size are served by the small-file lane */
+    static final long SMALL_TRANSFER_BYTES = 1024 * 1024;
+
+    // Per-file cost floor, so a folder of tiny files still pays for request overhead
+    private static final long MIN_COST_BYTES = 64 * 1024;
+
+    /**
+     * Which workers may take an item: any worker, the worker reserved for
+     * small files, or the extra worker that only serves boosted configurations
+     */
+    enum Lane {
+        ANY,
+        SMALL_ONLY,
+        BOOSTED_ONLY
+    }
+
+    private final Map<String, Double> virtualTimes = new HashMap<>();
+    private final Map<String, Integer> weights = new HashMap<>();
+    private final Set<String> boosted = new HashSet<>();
+    private double globalVirtualTime;
+
+    void setWeight(String configId, int weight) {
+        weights.put(configId, Math.max(1, weight));
+    }
+
+    void boost(String configId) {
+        boosted.add(configId);
+    }
+
+    void clearBoost(String configId) {
+        boosted.remove(configId);
+    }
+
+    boolean isBoosted(String configId) {
+        return boosted.contains(configId);
+    }
+
+    static boolean isSmall(TransferItem item) {
+        // A move sends no content whatever the file's size
+        return item.getDirection() == TransferDirection.MOVE
+                || (item.getSize() >= 0 && item.getSize() < SMALL_TRANSFER_BYTES);
+    }
+
+    /**
+     * Pick the next queued item for a worker of the given lane, or null
+     * @param blockedConfigs configurations whose provider has no free transfer slot
+     */
+    TransferItem pick(Collection<TransferItem> items, Lane lane, Set<String> blockedConfigs) {
+        // First small and first large queued item of each configuration, in queue order
+        Map<String, TransferItem> firstSmall = new LinkedHashMap<>();
+        Map<String, TransferItem> firstLarge = new LinkedHashMap<>();
+        boolean boostedWaiting = false;
+
+        for (TransferItem item : items) {
+            if (item.getState() != TransferState.QUEUED) {
+                continue;
+            }
+            String configId = item.getConfigId();
+            if (blockedConfigs.contains(configId)) {
+                continue;
+            }
+            boolean small = isSmall(item);
+            if (lane == Lane.SMALL_ONLY && !small) {
+                continue;
+            }
+            if (lane == Lane.BOOSTED_ONLY && !boosted.contains(configId)) {
+                continue;
+            }
+            Map<String, TransferItem> firsts = small ? firstSmall : firstLarge;
+            if (!firsts.containsKey(configId)) {
+                firsts.put(configId, item);
+                boostedWaiting |= boosted.contains(configId);
+            }
+        }
+
+        String chosen = null;
+        double chosenTime = Double.MAX_VALUE;
+        for (String configId : candidates(firstSmall, firstLarge)) {
+            if (boostedWaiting && !boosted.contains(configId)) {
+                continue;
+            }
+            double time = startTime(configId);
+            if (time < chosenTime) {
+                chosen = configId;
+                chosenTime = time;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        TransferItem small = firstSmall.get(chosen);
+        return small != null ? small : firstLarge.get(chosen);
+    }
+
+    /**
+     * Account for a claimed item against its configuration's share
+     */
+    void charge(TransferItem item) {
+        String configId = item.getConfigId();
+        double start = startTime(configId);
+        long cost = Math.max(MIN_COST_BYTES, item.getSize());
+        virtualTimes.put(configId, start + (double) cost / weights.getOrDefault(configId, 1));
+        globalVirtualTime = start;
+    }
+
+    private double startTime(String configId) {
+        // A configuration that was idle restarts at the current virtual time rather than
+        // cashing in the share it did not use
+        return Math.max(virtualTimes.getOrDefault(configId, 0d), globalVirtualTime);
+    }
+
+    private static Set<String> candidates(Map<String, TransferItem> firstSmall, Map<String, TransferItem> firstLarge) {
+        // Insertion ordered so ties go to the configuration queued first
+        Set<String> configIds = new LinkedHashSet<>(firstSmall.keySet());
+        configIds.addAll(firstLarge.keySet());
+        return configIds;
+    }
+}
@@ -0,0 +1,35 @@
+package com.cloudsync.app.sync;
+
+/**
+ * Lifecycle of a queued transfer. Items found in flight or verifying when the
+ * queue is reloaded were interrupted and go back to queued. A transfer of a
+ * "then delete" configuration whose copy was verified waits for its source
+ * to be deleted before it is done.
+ */
+public enum TransferState {
+    QUEUED("Queued"),
+    IN_FLIGHT("In flight"),
+    VERIFYING("Verifying"),
+    AWAITING_DELETE("Awaiting delete"),
+    DONE("Done"),
+    FAILED("Failed");
+
+    private final String displayName;
+
+    TransferState(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public boolean isFinished() {
+        return this == AWAITING_DELETE || this == DONE || this == FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,202 @@
+package com.cloudsync.app.sync;
+
+import android.util.Log;
+
+import com.cloudsync.app.api.SyncService;
+import com.cloudsync.app.api.requests.DeleteFilesRequest;
+import com.cloudsync.app.api.responses.DeleteFilesResponse;
+import com.cloudsync.app.api.responses.FolderFilesResponse;
+import com.cloudsync.app.models.CloudFile;
+import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.models.SyncMode;
+import com.cloudsync.app.utils.SyncConfigManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import retrofit2.Response;
+
+/**
+ * The delete step of the "then delete" sync modes. A transfer's source is
+ * only held for deletion once the hash of the copy, taken as it was
+ * transferred, matches the provider's checksum; a copy that cannot be
+ * verified keeps its source. Held deletions run once the configuration's
+ * delay has passed: a local source is deleted if it is unchanged since the
+ * upload, and remote sources are checked against a fresh listing of their
+ * folder and deleted in batches.
+ */
+class VerifiedDeleter {
+    private static final String TAG = "VerifiedDeleter";
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // Deletions that come due close together go out in one batch
+    private static final long BATCH_WINDOW_MILLIS = 2000;
+    // The most files the backend deletes per request
+    private static final int MAX_BATCH_DELETES = 500;
+
+    private final TransferQueue queue;
+    private final SyncConfigManager configManager;
+    private final SyncService service;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    VerifiedDeleter(TransferQueue queue, SyncConfigManager configManager, SyncService service) {
+        this.queue = queue;
+        this.configManager = configManager;
+        this.service = service;
+    }
+
+    static boolean deletesSource(SyncMode mode) {
+        return mode == SyncMode.UPLOAD_THEN_DELETE || mode == SyncMode.DOWNLOAD_THEN_DELETE;
+    }
+
+    /**
+     * Finish a transfer whose copy is in place
+     * @param digest the copy's hash, or null if it was not hashed
+     * @param checksum the provider's checksum in the same algorithm, or null if there is none
+     */
+    void onTransferred(SyncConfig config, TransferItem item, String remoteFileId,
+                       String algorithm, String digest, String checksum) {
+        if (!deletesSource(config.getSyncMode())) {
+            // The digest is kept so the file can be recognized if it is renamed later
+            queue.markDone(item.getId(), remoteFileId, algorithm, digest);
+            return;
+        }
+
+        String reason = null;
+        if (checksum == null || digest == null) {
+            reason = "Source kept: there is no provider checksum to verify the copy against";
+        } else if (!ContentHash.matches(algorithm, digest, checksum)) {
+            reason = "Source kept: the copy does not match the provider's checksum";
+        }
+        if (reason != null) {
+            Log.w(TAG, reason + ": " + item.getRemoteName());
+            queue.markKept(item.getId(), remoteFileId, reason);
+            return;
+        }
+
+        long delayMillis = config.getDeleteDelayDays() * DAY_MILLIS;
+        queue.markAwaitingDelete(item.getId(), remoteFileId, algorithm, digest, System.currentTimeMillis() + delayMillis);
+        if (delayMillis == 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Run the deletions that are due shortly, together with any that come due meanwhile
+     */
+    void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                scheduled.set(false);
+                runDue();
+            }, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runDue() {
+        Map<String, List<TransferItem>> remoteByConfig = new LinkedHashMap<>();
+        for (TransferItem item : queue.getDueDeletions(System.currentTimeMillis())) {
+            if (item.getDirection() != TransferDirection.DOWNLOAD) {
+                deleteLocal(item);
+            } else {
+                List<TransferItem> items = remoteByConfig.get(item.getConfigId());
+                if (items == null) {
+                    items = new ArrayList<>();
+                    remoteByConfig.put(item.getConfigId(), items);
+                }
+                items.add(item);
+            }
+        }
+
+        for (Map.Entry<String, List<TransferItem>> entry : remoteByConfig.entrySet()) {
+            SyncConfig config = configManager.getConfig(entry.getKey());
+            if (config == null) {
+                for (TransferItem item : entry.getValue()) {
+                    queue.markDeleteSkipped(item.getId(), "Sync configuration was removed");
+                }
+                continue;
+            }
+            try {
+                deleteRemote(config, entry.getValue());
+            } catch (IOException e) {
+                Log.w(TAG, "Could not delete in " + config.getCloudFolderPath(), e);
+                for (TransferItem item : entry.getValue()) {
+                    queue.recordDeleteFailure(item.getId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void deleteLocal(TransferItem item) {
+        File file = new File(item.getLocalPath());
+        if (!file.exists()) {
+            queue.markDeleted(item.getId());
+        } else if (file.length() != item.getSize() || file.lastModified() != item.getLastModified()) {
+            // The uploaded copy no longer matches what is on the device
+            queue.markDeleteSkipped(item.getId(), "Source kept: the file changed after it was uploaded");
+        } else if (file.delete()) {
+            queue.markDeleted(item.getId());
+        } else {
+            queue.recordDeleteFailure(item.getId(), "Could not delete " + file.getName());
+        }
+    }
+
+    /**
+     * Delete downloaded files from the cloud folder in batches, skipping any
+     * whose checksum in a fresh listing differs from the verified one
+     */
+    private void deleteRemote(SyncConfig config, List<TransferItem> items) throws IOException {
+        Response<FolderFilesResponse> listing = service.listFilesInFolder(
+                config.getCloudFolderPath(), config.getCloudFolderId()).execute();
+        if (!listing.isSuccessful() || listing.body() == null || listing.body().getFiles() == null) {
+            throw new IOException("Listing failed: " + listing.code() + " " + listing.message());
+        }
+        Map<String, CloudFile> current = new HashMap<>();
+        for (CloudFile file : listing.body().getFiles()) {
+            current.put(file.getId(), file);
+        }
+
+        Map<String, TransferItem> confirmed = new LinkedHashMap<>();
+        for (TransferItem item : items) {
+            CloudFile file = current.get(item.getRemoteFileId());
+            if (file == null) {
+                queue.markDeleted(item.getId());
+            } else if (!ContentHash.matches(item.getChecksumAlgorithm(), item.getChecksum(), file.getChecksum())) {
+                queue.markDeleteSkipped(item.getId(), "Source kept: the cloud file changed after it was downloaded");
+            } else {
+                confirmed.put(item.getRemoteFileId(), item);
+            }
+        }
+
+        List<String> fileIds = new ArrayList<>(confirmed.keySet());
+        for (int start = 0; start < fileIds.size(); start += MAX_BATCH_DELETES) {
+            List<String> batch = fileIds.subList(start, Math.min(fileIds.size(), start + MAX_BATCH_DELETES));
+            Response<DeleteFilesResponse> response = service.deleteFiles(new DeleteFilesRequest(new ArrayList<>(batch))).execute();
+            if (!response.isSuccessful() || response.body() == null || response.body().getResults() == null) {
+                throw new IOException("Delete failed: " + response.code() + " " + response.message());
+            }
+            for (DeleteFilesResponse.ItemResult result : response.body().getResults()) {
+                TransferItem item = confirmed.get(result.getFileId());
+                if (item == null) {
+                    continue;
+                }
+                if (result.isSuccess()) {
+                    queue.markDeleted(item.getId());
+                } else if (result.getStatus() == 429 || result.getStatus() >= 500) {
+                    queue.recordDeleteFailure(item.getId(), result.getError());
+                } else {
+                    queue.markDeleteSkipped(item.getId(), "Delete failed: " + result.getError());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.cloudsync.app.utils;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.os.strictmode.Violation;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.RequiresApi;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records what holds up the main thread, for the {@link JankReport}:
+ * <ul>
+ *   <li>disk and network access on it, from StrictMode (Android 9 and later)</li>
+ *   <li>tasks that run longer than a frame, timed through the main looper and
+ *   attributed to the stack sampled while they ran; those sampled in a binder
+ *   transaction are reported as slow binder calls (debuggable builds only: the
+ *   looper's log line is built for every message, and sampling stacks costs
+ *   more)</li>
+ *   <li>slow and frozen frames of each screen, from the window's frame metrics</li>
+ * </ul>
+ * The main thread only notes times; sampling, grouping and saving happen on
+ * the monitor's own thread. The report is saved in the app's files so it
+ * adds up across restarts until it is cleared.
+ */
+public class JankMonitor {
+    private static final String TAG = "JankMonitor";
+    private static final String REPORT_FILE = "jank_report.json";
+    // A main-thread task this long makes at least one frame miss its deadline at 60 Hz
+    private static final long LONG_TASK_MS = 32;
+    // While a task runs, the main thread's stack is sampled this often
+    private static final long SAMPLE_INTERVAL_MS = 32;
+    private static final long SAVE_DELAY_MS = 30 * 1000;
+    private static final long FRAME_DEADLINE_NANOS = 16_666_667L;
+    private static final long FROZEN_FRAME_NANOS = 700_000_000L;
+    private static final String APP_PACKAGE = "com.cloudsync.app.";
+
+    private static JankMonitor instance;
+
+    public interface ExportCallback {
+        /**
+         * Called on the main thread with a copy of the report and its JSON
+         */
+        void onReport(JankReport report, String json);
+    }
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Frame listeners of the resumed activities; main thread only
+    private final Map<Activity, Window.OnFrameMetricsAvailableListener> frameListeners = new HashMap<>();
+    private final Runnable sampler = this::sampleMainThread;
+    private final Runnable saver = this::save;
+
+    // Everything below is used on the monitor thread only, unless noted
+    private Handler handler;
+    private File reportFile;
+    private JankReport report;
+    private boolean saveScheduled;
+
+    // Set by the main thread as tasks start and finish, read by the sampler
+    private volatile long taskStart;
+    private volatile StackTraceElement[] taskStack;
+    private volatile boolean taskInBinder;
+
+    public static synchronized JankMonitor getInstance() {
+        if (instance == null) {
+            instance = new JankMonitor();
+        }
+        return instance;
+    }
+
+    /**
+     * Start recording; called once, on the main thread, as the process starts
+     */
+    public synchronized void start(Application application) {
+        if (handler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        reportFile = new File(application.getFilesDir(), REPORT_FILE);
+        String process = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                ? Application.getProcessName()
+                : application.getPackageName();
+        // Posted first, so everything recorded is added to the saved report
+        handler.post(() -> load(process));
+
+        if ((application.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            Thread mainThread = Looper.getMainLooper().getThread();
+            Looper.getMainLooper().setMessageLogging(line -> onMainThreadTask(line, mainThread));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder(StrictMode.getThreadPolicy())
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyListener(handler::post, this::recordViolation)
+                    .build());
+        }
+        application.registerActivityLifecycleCallbacks(new FrameTracker());
+    }
+
+    /**
+     * Hand a copy of the report and its JSON to {@code callback}, which is
+     * called on the main thread
+     */
+    public void export(ExportCallback callback) {
+        if (handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            String json = gson.toJson(report);
+            JankReport copy = gson.fromJson(json, JankReport.class);
+            mainHandler.post(() -> callback.onReport(copy, json));
+        });
+    }
+
+    /**
+     * Start a new, empty report
+     */
+    public void clear() {
+        if (handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            report = new JankReport(report.getProcess(), report.getDevice(), report.getSdkInt());
+            handler.removeCallbacks(saver);
+            saveScheduled = false;
+            reportFile.delete();
+        });
+    }
+
+    /**
+     * The main looper's log line before and after each task it runs
+     */
+    private void onMainThreadTask(String line, Thread mainThread) {
+        if (line.startsWith(">")) {
+            taskStack = null;
+            taskInBinder = false;
+            taskStart = SystemClock.uptimeMillis();
+            handler.postDelayed(sampler, SAMPLE_INTERVAL_MS);
+            return;
+        }
+        long start = taskStart;
+        taskStart = 0;
+        handler.removeCallbacks(sampler);
+        long duration = SystemClock.uptimeMillis() - start;
+        if (start == 0 || duration < LONG_TASK_MS) {
+            return;
+        }
+        StackTraceElement[] stack = taskStack;
+        boolean inBinder = taskInBinder;
+        handler.post(() -> recordTask(line, duration, stack, inBinder));
+    }
+
+    private void sampleMainThread() {
+        if (taskStart == 0) {
+            return;
+        }
+        StackTraceElement[] stack = Looper.getMainLooper().getThread().getStackTrace();
+        if (taskStart == 0) {
+            return;
+        }
+        taskStack = stack;
+        for (StackTraceElement frame : stack) {
+            if ("android.os.BinderProxy".equals(frame.getClassName())) {
+                taskInBinder = true;
+                break;
+            }
+        }
+        handler.postDelayed(sampler, SAMPLE_INTERVAL_MS);
+    }
+
+    private void recordTask(String line, long durationMs, StackTraceElement[] stack, boolean inBinder) {
+        // "<<<<< Finished to Handler (android.view.Choreographer$FrameHandler) {4b6e9a2} ...: 0"
+        String target = line.replaceFirst("^<+ Finished to ", "").replaceAll("[@{][0-9a-f]+}?", "");
+        String location = stack != null ? locate(stack) : target;
+        record(inBinder ? JankReport.Kind.SLOW_BINDER : JankReport.Kind.LONG_TASK, location, target, durationMs, stack);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    private void recordViolation(Violation violation) {
+        StackTraceElement[] stack = violation.getStackTrace();
+        record(JankReport.Kind.MAIN_THREAD_IO, locate(stack), violation.getClass().getSimpleName(), 0, stack);
+    }
+
+    private void record(JankReport.Kind kind, String location, String detail, long durationMs,
+                        StackTraceElement[] stack) {
+        report.recordIssue(kind, location, detail, durationMs, stack);
+        scheduleSave();
+    }
+
+    /**
+     * The first frame of the app's own code, or else of the code it called
+     * into, skipping the platform and the monitor itself
+     */
+    private static String locate(StackTraceElement[] stack) {
+        StackTraceElement outside = null;
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (className.startsWith(JankMonitor.class.getName())) {
+                continue;
+            }
+            if (className.startsWith(APP_PACKAGE)) {
+                return frame.toString();
+            }
+            if (outside == null && !className.startsWith("android.") && !className.startsWith("java.")
+                    && !className.startsWith("com.android.") && !className.startsWith("dalvik.")
+                    && !className.startsWith("libcore.") && !className.startsWith("sun.")) {
+                outside = frame;
+            }
+        }
+        if (outside != null) {
+            return outside.toString();
+        }
+        return stack.length > 0 ? stack[0].toString() : "unknown";
+    }
+
+    private void scheduleSave() {
+        if (!saveScheduled) {
+            saveScheduled = true;
+            handler.postDelayed(saver, SAVE_DELAY_MS);
+        }
+    }
+
+    private void load(String process) {
+        if (reportFile.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(reportFile), StandardCharsets.UTF_8)) {
+                report = gson.fromJson(reader, JankReport.class);
+            } catch (IOException | JsonParseException e) {
+                Log.w(TAG, "Discarding unreadable report", e);
+            }
+        }
+        if (report == null) {
+            report = new JankReport(process, Build.MANUFACTURER + " " + Build.MODEL, Build.VERSION.SDK_INT);
+        }
+    }
+
+    /**
+     * Write the report beside the saved one and rename it into place, so a
+     * crash never leaves a torn file
+     */
+    private void save() {
+        saveScheduled = false;
+        File partial = new File(reportFile.getPath() + ".partial");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(partial), StandardCharsets.UTF_8)) {
+            gson.toJson(report, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save report", e);
+            partial.delete();
+            return;
+        }
+        if (!partial.renameTo(reportFile)) {
+            Log.w(TAG, "Could not save report");
+            partial.delete();
+        }
+    }
+
+    /**
+     * Listens to the frames of whichever activity is in the foreground
+     */
+    private class FrameTracker implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            String screen = activity.getClass().getSimpleName();
+            Window.OnFrameMetricsAvailableListener listener = (window, metrics, dropCount) -> {
+                long total = metrics.getMetric(FrameMetrics.TOTAL_DURATION);
+                report.recordFrame(screen, total > FRAME_DEADLINE_NANOS, total >= FROZEN_FRAME_NANOS);
+                scheduleSave();
+            };
+            frameListeners.put(activity, listener);
+            activity.getWindow().addOnFrameMetricsAvailableListener(listener, handler);
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            Window.OnFrameMetricsAvailableListener listener = frameListeners.remove(activity);
+            if (listener != null) {
+                activity.getWindow().removeOnFrameMetricsAvailableListener(listener);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.cloudsync.app.utils;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the {@link JankMonitor} has recorded since the report was last
+ * cleared, across app restarts: slow and frozen frames per screen, and the
+ * main-thread stalls behind them grouped by the code they were in. This is
+ * the JSON that is exported.
+ */
+public class JankReport {
+    private static final int MAX_ISSUES = 100;
+    private static final int MAX_STACK_FRAMES = 20;
+
+    public enum Kind {
+        @SerializedName("main_thread_io")
+        MAIN_THREAD_IO("Main-thread I/O"),
+        @SerializedName("long_task")
+        LONG_TASK("Long main-thread task"),
+        @SerializedName("slow_binder")
+        SLOW_BINDER("Slow binder call");
+
+        private final String displayName;
+
+        Kind(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private String process;
+    private String device;
+    private int sdkInt;
+    private long since;
+    private long updatedAt;
+    private List<Screen> screens = new ArrayList<>();
+    private List<Issue> issues = new ArrayList<>();
+    // Issues not recorded because the report already held MAX_ISSUES
+    private int droppedIssues;
+
+    JankReport(String process, String device, int sdkInt) {
+        this.process = process;
+        this.device = device;
+        this.sdkInt = sdkInt;
+        this.since = System.currentTimeMillis();
+    }
+
+    public String getProcess() { return process; }
+    public String getDevice() { return device; }
+    public int getSdkInt() { return sdkInt; }
+    public long getSince() { return since; }
+    public long getUpdatedAt() { return updatedAt; }
+    public List<Screen> getScreens() { return screens != null ? screens : new ArrayList<>(); }
+    public List<Issue> getIssues() { return issues != null ? issues : new ArrayList<>(); }
+    public int getDroppedIssues() { return droppedIssues; }
+
+    void recordFrame(String screenName, boolean slow, boolean frozen) {
+        Screen screen = null;
+        for (Screen candidate : getScreens()) {
+            if (candidate.name.equals(screenName)) {
+                screen = candidate;
+                break;
+            }
+        }
+        if (screen == null) {
+            screen = new Screen(screenName);
+            screens = getScreens();
+            screens.add(screen);
+        }
+        screen.frames++;
+        if (slow) {
+            screen.slowFrames++;
+        }
+        if (frozen) {
+            screen.frozenFrames++;
+        }
+        updatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @param durationMs how long the main thread was held, or 0 if that is not known
+     */
+    void recordIssue(Kind kind, String location, String detail, long durationMs, StackTraceElement[] stack) {
+        long now = System.currentTimeMillis();
+        updatedAt = now;
+        for (Issue issue : getIssues()) {
+            if (issue.kind == kind && issue.location.equals(location)) {
+                issue.count++;
+                issue.totalMs += durationMs;
+                issue.maxMs = Math.max(issue.maxMs, durationMs);
+                issue.lastSeen = now;
+                return;
+            }
+        }
+        if (getIssues().size() >= MAX_ISSUES) {
+            droppedIssues++;
+            return;
+        }
+        Issue issue = new Issue(kind, location, detail, durationMs, now);
+        if (stack != null) {
+            for (int i = 0; i < stack.length && i < MAX_STACK_FRAMES; i++) {
+                issue.stack.add(stack[i].toString());
+            }
+        }
+        issues = getIssues();
+        issues.add(issue);
+    }
+
+    /**
+     * Frames drawn on one screen
+     */
+    public static class Screen {
+        private String name;
+        private long frames;
+        // Missed the 60 Hz frame deadline
+        private long slowFrames;
+        // Took 700 ms or more
+        private long frozenFrames;
+
+        Screen(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+        public long getFrames() { return frames; }
+        public long getSlowFrames() { return slowFrames; }
+        public long getFrozenFrames() { return frozenFrames; }
+    }
+
+    /**
+     * Stalls of one kind in one place, with the stack of the first one
+     */
+    public static class Issue {
+        private Kind kind;
+        // The first frame of the app's own code in the stack, or of the code it called into
+        private String location;
+        private String detail;
+        private int count;
+        // Main-thread I/O is reported without a duration
+        private long totalMs;
+        private long maxMs;
+        private long firstSeen;
+        private long lastSeen;
+        private List<String> stack = new ArrayList<>();
+
+        Issue(Kind kind, String location, String detail, long durationMs, long now) {
+            this.kind = kind;
+            this.location = location;
+            this.detail = detail;
+            this.count = 1;
+            this.totalMs = durationMs;
+            this.maxMs = durationMs;
+            this.firstSeen = now;
+            this.lastSeen = now;
+        }
+
+        public Kind getKind() { return kind; }
+        public String getLocation() { return location; }
+        public String getDetail() { return detail; }
+        public int getCount() { return count; }
+        public long getTotalMs() { return totalMs; }
+        public long getMaxMs() { return maxMs; }
+        public long getFirstSeen() { return firstSeen; }
+        public long getLastSeen() { return lastSeen; }
+        public List<String> getStack() { return stack; }
+    }
+}
@@ -1,10 +1,14 @@
 package com.cloudsync.app.utils;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.cloudsync.app.models.BandwidthLimits;
 import com.cloudsync.app.models.SyncConfig;
+import com.cloudsync.app.models.SyncMirror;
 import com.cloudsync.app.models.SyncMode;
+import com.cloudsync.app.sync.OnDemandDocumentsProvider;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
@@ -15,13 +19,16 @@ import java.util.List;
 public class SyncConfigManager {
     private static final String PREFS_NAME = "sync_configs";
     private static final String KEY_CONFIGS = "configs";
+    private static final String KEY_BANDWIDTH_LIMITS = "bandwidth_limits";
     private static final int MAX_CONFIGS = 10;
     
     private final SharedPreferences prefs;
+    private final ContentResolver contentResolver;
     private final Gson gson;
     
     public SyncConfigManager(Context context) {
         prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        contentResolver = context.getContentResolver();
         gson = new Gson();
     }
     
@@ -68,6 +75,36 @@ public class SyncConfigManager {
         return false;
     }
     
+    /**
+     * Store the provider folder id the backend resolved for a config's cloud path,
+     * so later requests can address the folder directly
+     */
+    public void rememberCloudFolderId(String configId, String folderId) {
+        SyncConfig config = getConfig(configId);
+        if (config != null && folderId != null && !folderId.equals(config.getCloudFolderId())) {
+            config.setCloudFolderId(folderId);
+            updateConfig(config);
+        }
+    }
+    
+    /**
+     * Store the folder id the backend resolved for one of a config's mirrors
+     */
+    public void rememberMirrorFolderId(String configId, String provider, String cloudFolderPath, String folderId) {
+        SyncConfig config = getConfig(configId);
+        if (config == null || folderId == null) {
+            return;
+        }
+        for (SyncMirror mirror : config.getMirrors()) {
+            if (mirror.getProvider().equals(provider) && mirror.getCloudFolderPath().equals(cloudFolderPath)
+                    && !folderId.equals(mirror.getCloudFolderId())) {
+                mirror.setCloudFolderId(folderId);
+                updateConfig(config);
+                return;
+            }
+        }
+    }
+    
     public boolean deleteConfig(String configId) {
         List<SyncConfig> configs = getAllConfigs();
         boolean removed = configs.removeIf(c -> c.getId().equals(configId));
@@ -103,9 +140,25 @@ public class SyncConfigManager {
         return MAX_CONFIGS - getConfigCount();
     }
     
+    public BandwidthLimits getBandwidthLimits() {
+        String json = prefs.getString(KEY_BANDWIDTH_LIMITS, null);
+        if (json == null) {
+            return BandwidthLimits.defaults();
+        }
+        
+        BandwidthLimits limits = gson.fromJson(json, BandwidthLimits.class);
+        return limits != null ? limits : BandwidthLimits.defaults();
+    }
+    
+    public void saveBandwidthLimits(BandwidthLimits limits) {
+        prefs.edit().putString(KEY_BANDWIDTH_LIMITS, gson.toJson(limits)).apply();
+    }
+    
     private void saveConfigs(List<SyncConfig> configs) {
         String json = gson.toJson(configs);
         prefs.edit().putString(KEY_CONFIGS, json).apply();
+        // The file picker lists a root per on-demand configuration
+        contentResolver.notifyChange(OnDemandDocumentsProvider.rootsUri(), null);
     }
     
     private String generateId() {
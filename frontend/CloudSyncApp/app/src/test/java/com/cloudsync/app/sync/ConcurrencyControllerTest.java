@@ -0,0 +1,133 @@
+package com.cloudsync.app.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class ConcurrencyControllerTest {
+    private static final long MIB = 1024 * 1024;
+
+    private final ConcurrencyController controller = new ConcurrencyController("google", 0);
+    private long now;
+
+    @Test
+    public void startsAtTheInitialLimitAndChunkSize() {
+        assertEquals(ConcurrencyController.INITIAL_LIMIT, controller.getLimit());
+        assertEquals(ConcurrencyController.INITIAL_CHUNK_BYTES, controller.getChunkBytes());
+        assertEquals(ConcurrencySnapshot.Reason.START, controller.getCurrent().getReason());
+    }
+
+    @Test
+    public void healthyWindowsAddOneSlotAndOneChunkStepUpToTheMaximum() {
+        window(100);
+        assertEquals(ConcurrencyController.INITIAL_LIMIT + 1, controller.getLimit());
+        assertEquals(ConcurrencyController.INITIAL_CHUNK_BYTES + 128 * 1024, controller.getChunkBytes());
+        assertEquals(ConcurrencySnapshot.Reason.INCREASE, controller.getCurrent().getReason());
+
+        for (int i = 0; i < 30; i++) {
+            window(100);
+        }
+        assertEquals(ConcurrencyController.MAX_LIMIT, controller.getLimit());
+        assertEquals(ConcurrencyController.MAX_CHUNK_BYTES, controller.getChunkBytes());
+    }
+
+    @Test
+    public void aWindowStaysOpenUntilItHasEnoughTransfersAndTime() {
+        controller.onTransferComplete(MIB, 5000);
+        assertEquals(ConcurrencyController.INITIAL_LIMIT, controller.getLimit());
+
+        controller.onTransferComplete(MIB, 5000);
+        assertEquals(ConcurrencyController.INITIAL_LIMIT + 1, controller.getLimit());
+
+        controller.onTransferComplete(MIB, 5100);
+        controller.onTransferComplete(MIB, 5100);
+        controller.onTransferComplete(MIB, 5100);
+        assertEquals("under a second since the last window", ConcurrencyController.INITIAL_LIMIT + 1,
+                controller.getLimit());
+    }
+
+    @Test
+    public void throttlingHalvesBothOncePerWindow() {
+        window(100);
+        window(100);
+        assertEquals(4, controller.getLimit());
+        long chunk = controller.getChunkBytes();
+
+        controller.onResponse(429, -1, now);
+        controller.onResponse(503, -1, now);
+        controller.onNetworkFailure(now);
+        assertEquals(2, controller.getLimit());
+        assertEquals(chunk / 2, controller.getChunkBytes());
+        assertEquals(1, countReasons(ConcurrencySnapshot.Reason.THROTTLED));
+
+        // The window closes without growing, and the next one may decrease again
+        controller.onTransferComplete(MIB, now + 1000);
+        assertEquals(2, controller.getLimit());
+        controller.onResponse(429, -1, now + 1000);
+        assertEquals(1, controller.getLimit());
+        assertEquals(2, countReasons(ConcurrencySnapshot.Reason.THROTTLED));
+    }
+
+    @Test
+    public void clientErrorsAreNotCongestion() {
+        controller.onResponse(404, 100, 0);
+        controller.onResponse(409, 100, 0);
+
+        assertEquals(ConcurrencyController.INITIAL_LIMIT, controller.getLimit());
+        assertFalse(ConcurrencyController.isCongestion(412));
+        assertTrue(ConcurrencyController.isCongestion(429));
+        assertTrue(ConcurrencyController.isCongestion(500));
+    }
+
+    @Test
+    public void aLatencySpikeCutsParallelismByAQuarter() {
+        window(100);
+        window(100);
+        assertEquals(4, controller.getLimit());
+        long chunk = controller.getChunkBytes();
+
+        window(300);
+        assertEquals(3, controller.getLimit());
+        assertEquals(chunk, controller.getChunkBytes());
+        assertEquals(ConcurrencySnapshot.Reason.LATENCY, controller.getCurrent().getReason());
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimum() {
+        for (int i = 0; i < 10; i++) {
+            controller.onResponse(429, -1, now);
+            now += 1000;
+            controller.onTransferComplete(0, now);
+        }
+        assertEquals(ConcurrencyController.MIN_LIMIT, controller.getLimit());
+        assertEquals(ConcurrencyController.MIN_CHUNK_BYTES, controller.getChunkBytes());
+    }
+
+    /**
+     * One measurement window: a small request at the given latency, then one
+     * completed 1 MiB transfer per allowed slot a second later
+     */
+    private void window(long latencyMillis) {
+        controller.onResponse(200, latencyMillis, now);
+        now += 1000;
+        int transfers = controller.getLimit();
+        for (int i = 0; i < transfers; i++) {
+            controller.onTransferComplete(MIB, now);
+        }
+    }
+
+    private int countReasons(ConcurrencySnapshot.Reason reason) {
+        List<ConcurrencySnapshot> history = controller.getHistory();
+        int count = 0;
+        for (ConcurrencySnapshot snapshot : history) {
+            if (snapshot.getReason() == reason) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
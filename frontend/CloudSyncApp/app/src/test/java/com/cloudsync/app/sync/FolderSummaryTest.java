@@ -0,0 +1,64 @@
+package com.cloudsync.app.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class FolderSummaryTest {
+    @Test
+    public void entryOrderDoesNotMatter() {
+        FolderSummary forward = new FolderSummary("config", "upload");
+        forward.add("a.txt", 10, "100");
+        forward.add("b.txt", 20, "200");
+        forward.add("c.txt", 30, "300");
+
+        FolderSummary backward = new FolderSummary("config", "upload");
+        backward.add("c.txt", 30, "300");
+        backward.add("b.txt", 20, "200");
+        backward.add("a.txt", 10, "100");
+
+        assertEquals(forward.value(), backward.value());
+    }
+
+    @Test
+    public void anyChangeToAnEntryChangesTheValue() {
+        String base = summary("a.txt", 10, "100").value();
+
+        assertNotEquals(base, summary("b.txt", 10, "100").value());
+        assertNotEquals(base, summary("a.txt", 11, "100").value());
+        assertNotEquals(base, summary("a.txt", 10, "101").value());
+    }
+
+    @Test
+    public void addingOrRemovingAnEntryChangesTheValue() {
+        FolderSummary one = summary("a.txt", 10, "100");
+        FolderSummary two = summary("a.txt", 10, "100");
+        two.add("b.txt", 20, "200");
+
+        assertNotEquals(one.value(), two.value());
+        assertNotEquals(new FolderSummary("config").value(), one.value());
+    }
+
+    @Test
+    public void theSeedIsPartOfTheValue() {
+        FolderSummary upload = new FolderSummary("config", "upload");
+        upload.add("a.txt", 10, "100");
+        FolderSummary download = new FolderSummary("config", "download");
+        download.add("a.txt", 10, "100");
+
+        assertNotEquals(upload.value(), download.value());
+    }
+
+    @Test
+    public void fieldsDoNotRunIntoEachOther() {
+        // "a1" of size 0 and "a" of size 10 would collide if the fields were simply concatenated
+        assertNotEquals(summary("a1", 0, "x").value(), summary("a", 10, "x").value());
+    }
+
+    private static FolderSummary summary(String name, long size, String version) {
+        FolderSummary summary = new FolderSummary("config", "upload");
+        summary.add(name, size, version);
+        return summary;
+    }
+}
@@ -0,0 +1,213 @@
+package com.cloudsync.app.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TransferJournalTest {
+    private File dir;
+    private final List<TransferJournal> opened = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("transfer-journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (TransferJournal journal : opened) {
+            journal.close();
+        }
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void replaysRecordsInOrderAfterReopening() throws IOException {
+        TransferJournal journal = open(new ArrayList<>());
+        journal.append(put("a", TransferState.QUEUED));
+        journal.commit(put("b", TransferState.IN_FLIGHT));
+        journal.commit(remove("a"));
+        journal.close();
+
+        List<TransferJournal.Record> replayed = new ArrayList<>();
+        TransferJournal.Snapshot snapshot = newJournal().load(replayed);
+
+        assertTrue(snapshot.items.isEmpty());
+        assertEquals(3, replayed.size());
+        assertEquals(TransferJournal.OP_PUT, replayed.get(0).op);
+        assertEquals("a", replayed.get(0).item.getId());
+        assertEquals(TransferState.IN_FLIGHT, replayed.get(1).item.getState());
+        assertEquals(TransferJournal.OP_REMOVE, replayed.get(2).op);
+        assertEquals("a", replayed.get(2).id);
+    }
+
+    @Test
+    public void closeMakesUnforcedRecordsDurable() throws IOException {
+        TransferJournal journal = open(new ArrayList<>());
+        for (int i = 0; i < 10; i++) {
+            journal.append(put("item-" + i, TransferState.QUEUED));
+        }
+        journal.close();
+
+        List<TransferJournal.Record> replayed = new ArrayList<>();
+        open(replayed);
+        assertEquals(10, replayed.size());
+    }
+
+    @Test
+    public void stopsReplayAtATornLastRecord() throws IOException {
+        TransferJournal journal = open(new ArrayList<>());
+        journal.commit(put("a", TransferState.QUEUED));
+        journal.commit(put("b", TransferState.QUEUED));
+        journal.close();
+        appendText(new File(dir, "journal.log"), "{\"op\":\"put\",\"item\":{\"id\":\"c\",\"sta");
+
+        List<TransferJournal.Record> replayed = new ArrayList<>();
+        open(replayed);
+
+        assertEquals(2, replayed.size());
+        assertEquals("b", replayed.get(1).item.getId());
+    }
+
+    @Test
+    public void compactionFoldsTheJournalIntoTheSnapshot() throws IOException {
+        TransferJournal journal = open(new ArrayList<>());
+        journal.commit(put("a", TransferState.QUEUED));
+        TransferItem kept = item("a", TransferState.QUEUED);
+        journal.compact(Collections.singletonList(kept), Collections.singletonMap("done-key", "file-1"),
+                Collections.<TransferItem>emptyList());
+        journal.commit(put("b", TransferState.QUEUED));
+        journal.close();
+
+        List<TransferJournal.Record> replayed = new ArrayList<>();
+        TransferJournal.Snapshot snapshot = newJournal().load(replayed);
+
+        assertEquals(1, snapshot.items.size());
+        assertEquals("a", snapshot.items.get(0).getId());
+        assertEquals("file-1", snapshot.completed.get("done-key"));
+        assertEquals(1, replayed.size());
+        assertEquals("b", replayed.get(0).item.getId());
+    }
+
+    @Test
+    public void corruptSnapshotIsMovedAsideWithItsJournal() throws IOException {
+        writeText(new File(dir, "snapshot.json"), "{\"items\": [not json");
+        writeText(new File(dir, "journal.log"), "{\"op\":\"remove\",\"id\":\"a\"}\n");
+
+        List<TransferJournal.Record> replayed = new ArrayList<>();
+        TransferJournal journal = newJournal();
+        TransferJournal.Snapshot snapshot = journal.load(replayed);
+
+        assertTrue(snapshot.items.isEmpty());
+        assertTrue(replayed.isEmpty());
+        assertEquals(1, countFiles("snapshot.json.corrupt-"));
+        assertEquals(1, countFiles("journal.log.corrupt-"));
+        assertFalse(new File(dir, "snapshot.json").exists());
+
+        // The fresh journal takes records and replays them on the next start
+        journal.commit(put("b", TransferState.QUEUED));
+        journal.close();
+        List<TransferJournal.Record> afterRestart = new ArrayList<>();
+        open(afterRestart);
+        assertEquals(1, afterRestart.size());
+        assertEquals("b", afterRestart.get(0).item.getId());
+    }
+
+    @Test
+    public void refusesRecordsOnceClosedOrBeforeLoading() throws IOException {
+        TransferJournal unopened = newJournal();
+        try {
+            unopened.commit(put("a", TransferState.QUEUED));
+            fail("Expected an IOException before load");
+        } catch (IOException expected) {
+            // The journal was never opened
+        }
+
+        TransferJournal journal = open(new ArrayList<>());
+        journal.close();
+        try {
+            journal.append(put("a", TransferState.QUEUED));
+            fail("Expected an IOException after close");
+        } catch (IOException expected) {
+            // Closed journals take no records
+        }
+    }
+
+    private TransferJournal open(List<TransferJournal.Record> replayed) throws IOException {
+        TransferJournal journal = newJournal();
+        journal.load(replayed);
+        return journal;
+    }
+
+    private TransferJournal newJournal() {
+        TransferJournal journal = new TransferJournal(dir);
+        opened.add(journal);
+        return journal;
+    }
+
+    private static TransferItem item(String id, TransferState state) {
+        TransferItem item = new TransferItem();
+        item.setId(id);
+        item.setConfigId("config");
+        item.setDirection(TransferDirection.UPLOAD);
+        item.setRemoteName(id + ".txt");
+        item.setState(state);
+        return item;
+    }
+
+    private static TransferJournal.Record put(String id, TransferState state) {
+        TransferJournal.Record record = new TransferJournal.Record();
+        record.op = TransferJournal.OP_PUT;
+        record.item = item(id, state);
+        return record;
+    }
+
+    private static TransferJournal.Record remove(String id) {
+        TransferJournal.Record record = new TransferJournal.Record();
+        record.op = TransferJournal.OP_REMOVE;
+        record.id = id;
+        return record;
+    }
+
+    private int countFiles(String prefix) {
+        int count = 0;
+        for (String name : dir.list()) {
+            if (name.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendText(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
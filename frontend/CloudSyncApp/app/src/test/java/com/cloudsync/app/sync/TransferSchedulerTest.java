@@ -0,0 +1,145 @@
+package com.cloudsync.app.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TransferSchedulerTest {
+    private static final long LARGE = 2 * 1024 * 1024;
+    private static final Set<String> NONE_BLOCKED = Collections.emptySet();
+
+    private final TransferScheduler scheduler = new TransferScheduler();
+    private final List<TransferItem> items = new ArrayList<>();
+
+    @Test
+    public void equalWeightsAlternateBetweenConfigurations() {
+        queue("a", 4, LARGE);
+        queue("b", 4, LARGE);
+
+        assertEquals("[a, b, a, b, a, b, a, b]", claimConfigs(8).toString());
+    }
+
+    @Test
+    public void sharesFollowTheWeights() {
+        scheduler.setWeight("a", 3);
+        queue("a", 20, LARGE);
+        queue("b", 20, LARGE);
+
+        Map<String, Integer> counts = count(claimConfigs(8));
+        assertEquals(Integer.valueOf(6), counts.get("a"));
+        assertEquals(Integer.valueOf(2), counts.get("b"));
+    }
+
+    @Test
+    public void anIdleConfigurationDoesNotCashInItsUnusedShare() {
+        queue("a", 20, LARGE);
+        claimConfigs(10);
+        queue("b", 10, LARGE);
+
+        Map<String, Integer> counts = count(claimConfigs(4));
+        assertEquals(Integer.valueOf(2), counts.get("a"));
+        assertEquals(Integer.valueOf(2), counts.get("b"));
+    }
+
+    @Test
+    public void smallFilesGoFirstWithinAConfiguration() {
+        TransferItem large = queue("a", 1, LARGE).get(0);
+        TransferItem small = queue("a", 1, 1024).get(0);
+
+        assertEquals(small, claim(TransferScheduler.Lane.ANY));
+        assertEquals(large, claim(TransferScheduler.Lane.ANY));
+    }
+
+    @Test
+    public void theSmallLaneSkipsLargeFiles() {
+        queue("a", 1, LARGE);
+        TransferItem move = queue("a", 1, LARGE).get(0);
+        move.setDirection(TransferDirection.MOVE);
+
+        assertEquals(move, claim(TransferScheduler.Lane.SMALL_ONLY));
+        assertNull(claim(TransferScheduler.Lane.SMALL_ONLY));
+    }
+
+    @Test
+    public void boostedConfigurationsAreServedFirst() {
+        queue("a", 3, LARGE);
+        queue("b", 3, LARGE);
+        scheduler.boost("b");
+
+        assertEquals("[b, b, b, a]", claimConfigs(4).toString());
+    }
+
+    @Test
+    public void theBoostedLaneOnlyServesBoostedConfigurations() {
+        queue("a", 1, LARGE);
+        assertNull(claim(TransferScheduler.Lane.BOOSTED_ONLY));
+
+        scheduler.boost("a");
+        assertEquals("a", claim(TransferScheduler.Lane.BOOSTED_ONLY).getConfigId());
+        scheduler.clearBoost("a");
+        assertFalse(scheduler.isBoosted("a"));
+    }
+
+    @Test
+    public void blockedConfigurationsAreSkipped() {
+        queue("a", 1, LARGE);
+        TransferItem other = queue("b", 1, LARGE).get(0);
+
+        assertEquals(other, scheduler.pick(items, TransferScheduler.Lane.ANY, Collections.singleton("a")));
+        assertNull(scheduler.pick(items, TransferScheduler.Lane.ANY, new HashSet<>(Arrays.asList("a", "b"))));
+    }
+
+    private List<TransferItem> queue(String configId, int count, long size) {
+        List<TransferItem> added = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TransferItem item = new TransferItem();
+            item.setId(configId + "-" + items.size());
+            item.setConfigId(configId);
+            item.setDirection(TransferDirection.UPLOAD);
+            item.setSize(size);
+            item.setState(TransferState.QUEUED);
+            items.add(item);
+            added.add(item);
+        }
+        return added;
+    }
+
+    /**
+     * Pick and charge the next item the way the queue claims it
+     */
+    private TransferItem claim(TransferScheduler.Lane lane) {
+        TransferItem item = scheduler.pick(items, lane, NONE_BLOCKED);
+        if (item != null) {
+            scheduler.charge(item);
+            item.setState(TransferState.IN_FLIGHT);
+        }
+        return item;
+    }
+
+    private List<String> claimConfigs(int count) {
+        List<String> configIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            configIds.add(claim(TransferScheduler.Lane.ANY).getConfigId());
+        }
+        return configIds;
+    }
+
+    private static Map<String, Integer> count(List<String> configIds) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String configId : configIds) {
+            counts.merge(configId, 1, Integer::sum);
+        }
+        return counts;
+    }
+}